@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import com.solace.samples.jcsmp.features.common.AckCoalescer;
+import com.solace.samples.jcsmp.features.common.BoundedWorkExecutor;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+/**
+ * Compares ACKing each Guaranteed message as soon as it's processed (GuaranteedSubscriber's default) with
+ * {@link AckCoalescer}, on the callback thread and with a pool of workers.  The flow is simulated: each
+ * ackMessage() takes the flow's lock, as the API's does, and checks it isn't ACKed twice; with the
+ * coalescer, it also checks the ACKs come in arrival order.  Prints the coalescer's burst sizes and ACK
+ * delays at the end.  First checks a burst's ACK delay is its longest-waiting message's, when the one at
+ * the front completed last.  No broker needed.
+ */
+public class AckCoalescerBenchmark {
+
+    private static final int MESSAGES = 100_000;  // simulated messages, reused round after round
+    private static final long PROCESS_NANOS = 500;  // simulated work per message
+    private static final int WORKERS = 4;
+
+    private static final Object flowLock = new Object();
+    private static volatile long ackCount = 0;  // written under flowLock
+    private static boolean checkOrder = false;
+    private static int lastAcked = MESSAGES - 1;
+
+    /** A received message, as far as ACKing goes. */
+    private static final class SimulatedMessage implements InvocationHandler {
+        final int index;
+        boolean acked = false;
+
+        SimulatedMessage(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("ackMessage")) {
+                synchronized (flowLock) {
+                    if (acked || (checkOrder && index != (lastAcked + 1) % MESSAGES)) {
+                        throw new IllegalStateException("ACKed twice, or out of order: " + index + " after " + lastAcked);
+                    }
+                    acked = true;
+                    lastAcked = index;
+                    ackCount++;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        checkAckDelay();
+        final SimulatedMessage[] handlers = new SimulatedMessage[MESSAGES];
+        final BytesXMLMessage[] msgs = new BytesXMLMessage[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            handlers[i] = new SimulatedMessage(i);
+            msgs[i] = (BytesXMLMessage)Proxy.newProxyInstance(AckCoalescerBenchmark.class.getClassLoader(),
+                    new Class<?>[] { BytesXMLMessage.class }, handlers[i]);
+        }
+        System.out.printf("%,d ns of processing per message, %d workers%n", PROCESS_NANOS, WORKERS);
+
+        MicroBenchmark.run("ACK each, on the callback thread", MESSAGES, n -> {
+            reset(handlers, false);
+            for (int i = 0; i < n; i++) {
+                process();
+                msgs[i].ackMessage();
+            }
+            return ackCount;
+        });
+
+        final AckCoalescer inline = new AckCoalescer(10_000, 256, 1, TimeUnit.MILLISECONDS);
+        MicroBenchmark.run("AckCoalescer, on the callback thread", MESSAGES, n -> {
+            reset(handlers, true);
+            for (int i = 0; i < n; i++) {
+                final long seq = inline.register(msgs[i]);
+                process();
+                inline.complete(seq);
+            }
+            awaitAcks(n);
+            return ackCount;
+        });
+        inline.close();
+
+        final BoundedWorkExecutor workers = new BoundedWorkExecutor(BoundedWorkExecutor.newExecutor("pool", WORKERS), 10_000);
+        MicroBenchmark.run("ACK each, from " + WORKERS + " workers", MESSAGES, n -> {
+            reset(handlers, false);
+            for (int i = 0; i < n; i++) {
+                final BytesXMLMessage msg = msgs[i];
+                workers.execute(() -> {
+                    process();
+                    msg.ackMessage();
+                });
+            }
+            awaitAcks(n);
+            return ackCount;
+        });
+
+        final AckCoalescer coalescer = new AckCoalescer(10_000, 256, 1, TimeUnit.MILLISECONDS);
+        MicroBenchmark.run("AckCoalescer, from " + WORKERS + " workers", MESSAGES, n -> {
+            reset(handlers, true);
+            for (int i = 0; i < n; i++) {
+                final long seq = coalescer.register(msgs[i]);
+                workers.execute(() -> {
+                    process();
+                    coalescer.complete(seq);  // in any order
+                });
+            }
+            awaitAcks(n);
+            return ackCount;
+        });
+        workers.close();
+        coalescer.close();
+        System.out.println(inline);
+        System.out.println(coalescer);
+        if (coalescer.getPending() != 0 || inline.getPending() != 0) {
+            throw new IllegalStateException("Messages left unACKed");
+        }
+    }
+
+    /** The second message completes 50ms before the first (at the front): the burst's ACK delay is the second's wait. */
+    private static void checkAckDelay() throws InterruptedException {
+        final AckCoalescer coalescer = new AckCoalescer(64, 2, 100, TimeUnit.MICROSECONDS);  // flushes within 25us
+        final InvocationHandler ignore = (proxy, method, args) -> null;
+        final long first = coalescer.register((BytesXMLMessage)Proxy.newProxyInstance(AckCoalescerBenchmark.class.getClassLoader(),
+                new Class<?>[] { BytesXMLMessage.class }, ignore));
+        final long second = coalescer.register((BytesXMLMessage)Proxy.newProxyInstance(AckCoalescerBenchmark.class.getClassLoader(),
+                new Class<?>[] { BytesXMLMessage.class }, ignore));
+        coalescer.complete(second);
+        Thread.sleep(50);
+        coalescer.complete(first);
+        while (coalescer.getPending() > 0) {
+            Thread.sleep(1);
+        }
+        coalescer.close();
+        if (coalescer.getAckDelay().snapshot().getMax() < TimeUnit.MILLISECONDS.toNanos(50)) {
+            throw new IllegalStateException("The ACK delay wasn't the longest wait in the burst: " + coalescer);
+        }
+    }
+
+    private static void reset(SimulatedMessage[] handlers, boolean ordered) {
+        synchronized (flowLock) {
+            for (SimulatedMessage handler : handlers) {
+                handler.acked = false;
+            }
+            ackCount = 0;
+            checkOrder = ordered;
+            lastAcked = MESSAGES - 1;
+        }
+    }
+
+    private static void process() {
+        final long until = System.nanoTime() + PROCESS_NANOS;
+        while (System.nanoTime() < until) {
+            // simulated work
+        }
+    }
+
+    private static void awaitAcks(long n) {
+        for (int idle = 0; ackCount < n; idle++) {
+            if (idle > 100) {
+                Thread.yield();
+            }
+        }
+    }
+}
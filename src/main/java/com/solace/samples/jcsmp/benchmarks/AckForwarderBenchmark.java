@@ -0,0 +1,226 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solace.samples.jcsmp.features.common.AckForwarder;
+import com.solace.samples.jcsmp.features.common.LatencyHistogram;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.FlowReceiver;
+
+/**
+ * Measures an {@link AckForwarder}: first the cost and allocation of a correlation key's round trip
+ * (track, then ack) against allocating a key object per message, as GuaranteedProcessor used to; then
+ * the throughput and latency (received to inbound ACKed) of a simulated processor at several window sizes.
+ * The simulated link carries 100,000 msgs/s with a 500us publish ACK round trip, so about 50 messages in
+ * flight fill it: smaller windows leave it idle, and bigger ones only add queueing.  A stopped Flow still
+ * delivers up to 64 more messages, as a real one's transport window would.  Checks every inbound message
+ * is ACKed exactly once, the in-flight count stays within the window plus those, and that a window
+ * bigger than the link's round trip needs is faster than a small one.  No broker needed.
+ */
+public class AckForwarderBenchmark {
+
+    private static final long RTT_NANOS = 500_000;
+    private static final long LINK_NANOS_PER_MSG = 10_000;  // 100,000 msgs/s
+    private static final int PUBLISH_WINDOW = 255;
+    private static final int TRANSPORT_LEAK = 64;
+    private static final int[] WINDOWS = { 1, 8, 32, 128, 512 };
+    private static final long RUN_NANOS = TimeUnit.MILLISECONDS.toNanos(1500);
+    private static final int MAX_MESSAGES = 1 << 20;
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final BytesXMLMessage inbound = (BytesXMLMessage)Proxy.newProxyInstance(AckForwarderBenchmark.class.getClassLoader(),
+                new Class<?>[] { BytesXMLMessage.class }, (proxy, method, margs) -> null);
+        final AckForwarder keys = new AckForwarder(256, 32, 1, TimeUnit.MILLISECONDS);
+        final Object outbound = new Object();
+        final Object[] inFlight = new Object[32];  // 32 sent, then their 32 ACKs, as when pipelined
+        final MicroBenchmark.Op pooled = n -> {
+            long sum = 0;
+            for (long i = 0; i < n; i += inFlight.length) {
+                for (int j = 0; j < inFlight.length; j++) {
+                    inFlight[j] = keys.track(inbound, outbound);
+                }
+                for (int j = 0; j < inFlight.length; j++) {
+                    sum += keys.ack(inFlight[j]) == outbound ? 1 : 0;
+                }
+            }
+            return sum;
+        };
+        final MicroBenchmark.Op allocated = n -> {
+            long sum = 0;
+            for (long i = 0; i < n; i += inFlight.length) {
+                for (int j = 0; j < inFlight.length; j++) {
+                    inFlight[j] = new Object[] { inbound, outbound };  // what a ProcessorCorrelationKey holds
+                }
+                for (int j = 0; j < inFlight.length; j++) {
+                    final Object[] key = (Object[])inFlight[j];
+                    ((BytesXMLMessage)key[0]).ackMessage();
+                    sum += key[1] == outbound ? 1 : 0;
+                }
+            }
+            return sum;
+        };
+        MicroBenchmark.run("AckForwarder keys, 32 in flight", 1 << 20, pooled);
+        MicroBenchmark.run("New key per message, 32 in flight", 1 << 20, allocated);
+        final double pooledBytes = MicroBenchmark.allocation("AckForwarder keys, 32 in flight", 1 << 20, pooled);
+        MicroBenchmark.allocation("New key per message, 32 in flight", 1 << 20, allocated);
+
+        System.out.printf("%nLink: %,d msgs/s, publish ACK round trip %,dus, publish window %d%n", 1_000_000_000 / LINK_NANOS_PER_MSG,
+                RTT_NANOS / 1000, PUBLISH_WINDOW);
+        System.out.printf("%8s %14s %10s %10s %10s %12s %10s%n", "window", "msgs/s", "p50 (us)", "p99 (us)", "max (us)", "max inflight",
+                "burst p50");
+        final double[] throughput = new double[WINDOWS.length];
+        for (int i = 0; i < WINDOWS.length; i++) {
+            throughput[i] = runWindow(WINDOWS[i]);
+        }
+        if (pooledBytes > 1 || throughput[3] < throughput[1] * 3) {
+            throw new IllegalStateException("The keys allocated, or a big enough window didn't fill the link");
+        }
+    }
+
+    /** Runs the simulated processor with this window for RUN_NANOS, then drains it; returns its msgs/s. */
+    private static double runWindow(int window) throws Exception {
+        final AckForwarder forwarder = new AckForwarder(window, Math.min(32, window), 1, TimeUnit.MILLISECONDS);
+        final SimulatedFlow flow = new SimulatedFlow();
+        final FlowReceiver receiver = (FlowReceiver)Proxy.newProxyInstance(AckForwarderBenchmark.class.getClassLoader(),
+                new Class<?>[] { FlowReceiver.class }, (proxy, method, margs) -> flow.invoke(method.getName()));
+        forwarder.setFlow(receiver);
+        final SimulatedProducer producer = new SimulatedProducer(forwarder);
+        producer.start();
+
+        final long start = System.nanoTime();
+        long maxInFlight = 0;
+        int received = 0;
+        while (System.nanoTime() - start < RUN_NANOS && received < MAX_MESSAGES) {
+            final BytesXMLMessage msg = flow.receive();
+            if (msg == null) {
+                continue;
+            }
+            received++;
+            final AckForwarder.Key key = forwarder.track(msg, msg);  // the "outbound" message: the same one will do
+            maxInFlight = Math.max(maxInFlight, forwarder.getInFlight());
+            producer.send(key);
+        }
+        while (forwarder.getInFlight() > 0) {
+            Thread.sleep(1);
+        }
+        final long elapsed = System.nanoTime() - start;
+        producer.interrupt();
+        producer.join();
+        forwarder.close();
+
+        final double msgsPerSec = received * 1e9 / elapsed;
+        final LatencyHistogram.Snapshot latency = forwarder.getForwardLatency().snapshot();
+        System.out.printf("%8d %,14.0f %,10d %,10d %,10d %12d %10d%n", window, msgsPerSec, latency.getValueAtPercentile(50) / 1000,
+                latency.getValueAtPercentile(99) / 1000, latency.getMax() / 1000, maxInFlight,
+                forwarder.getBatchSizes().snapshot().getValueAtPercentile(50));
+        int wrong = 0;
+        for (int id = 0; id < received; id++) {
+            wrong += flow.acks.get(id) == 1 ? 0 : 1;
+        }
+        if (wrong > 0 || flow.acks.get(received) != 0 || maxInFlight > window + TRANSPORT_LEAK) {
+            throw new IllegalStateException(String.format("Window %d: %,d messages not ACKed exactly once, or %,d in flight", window, wrong,
+                    maxInFlight));
+        }
+        return msgsPerSec;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+
+    /** A queue with an endless backlog: stopped, it delivers up to TRANSPORT_LEAK more messages, then waits to be started. */
+    private static final class SimulatedFlow {
+        final AtomicIntegerArray acks = new AtomicIntegerArray(MAX_MESSAGES + 1);
+        private volatile boolean started = true;
+        private int leak = 0;  // only used by the receiving thread, as stop() is
+        private int next = 0;
+
+        Object invoke(String method) {
+            if (method.equals("stop")) {
+                started = false;
+                leak = TRANSPORT_LEAK;
+            } else if (method.equals("start")) {
+                started = true;
+            }
+            return null;
+        }
+
+        BytesXMLMessage receive() {
+            if (!started) {
+                if (leak == 0) {
+                    LockSupport.parkNanos(10_000);
+                    return null;
+                }
+                leak--;
+            }
+            final int id = next++;
+            return (BytesXMLMessage)Proxy.newProxyInstance(AckForwarderBenchmark.class.getClassLoader(),
+                    new Class<?>[] { BytesXMLMessage.class }, (proxy, method, margs) -> {
+                        if (method.getName().equals("ackMessage")) {
+                            acks.incrementAndGet(id);
+                        }
+                        return null;
+                    });
+        }
+    }
+
+    /**
+     * Sends over a link that takes LINK_NANOS_PER_MSG per message, and ACKs each one RTT_NANOS after it
+     * left, in order, on its own ("API callback") thread; send() blocks while the publish window is full.
+     */
+    private static final class SimulatedProducer extends Thread {
+        private final AckForwarder forwarder;
+        private final Semaphore window = new Semaphore(PUBLISH_WINDOW);
+        private final ArrayBlockingQueue<Object[]> sent = new ArrayBlockingQueue<>(PUBLISH_WINDOW);
+        private long lastDeparture = 0;  // only used by the sending thread
+
+        SimulatedProducer(AckForwarder forwarder) {
+            super("api-callback");
+            setDaemon(true);
+            this.forwarder = forwarder;
+        }
+
+        void send(AckForwarder.Key key) throws InterruptedException {
+            window.acquire();
+            lastDeparture = Math.max(System.nanoTime(), lastDeparture + LINK_NANOS_PER_MSG);
+            sent.put(new Object[] { key, lastDeparture + RTT_NANOS });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Object[] next = sent.take();
+                    final long wait = (Long)next[1] - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    forwarder.ack(next[0]);  // responseReceivedEx()
+                    window.release();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solace.samples.jcsmp.features.common.AsyncGuaranteedProducer;
+import com.solace.samples.jcsmp.features.common.AsyncGuaranteedProducer.PublishReceipt;
+import com.solace.samples.jcsmp.features.common.LatencyHistogram;
+import com.solacesystems.jcsmp.Destination;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
+import com.solacesystems.jcsmp.TextMessage;
+import com.solacesystems.jcsmp.XMLMessage;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+
+/**
+ * Measures an {@link AsyncGuaranteedProducer} against a simulated API whose publish ACKs come back 1ms
+ * after each send, in order, on one callback thread, and whose send() blocks while its publish window
+ * (255) is full: the sends/s and ACK latency percentiles with 16 to 4,096 sends allowed in flight, from
+ * one sending thread.  Then checks, with 1% of the sends NACKed, that every future completes, exactly the
+ * NACKed ones exceptionally, and each receipt has its message's own correlation key back; that a send
+ * from a future's callback, with the window full, fails its future instead of deadlocking the callback
+ * thread; and that close() fails whatever is still in flight.  No broker needed.
+ */
+public class AsyncGuaranteedProducerBenchmark {
+
+    private static final long RTT_NANOS = 1_000_000;
+    private static final int PUBLISH_WINDOW = 255;
+    private static final int[] MAX_IN_FLIGHT = { 16, 255, 4096 };
+    private static final long RUN_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final Destination TOPIC = JCSMPFactory.onlyInstance().createTopic("bench/async/guaranteed");
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        System.out.printf("Publish ACK round trip: %,dus, publish window %d%n", RTT_NANOS / 1000, PUBLISH_WINDOW);
+        System.out.printf("%13s %12s %10s %10s %10s %14s%n", "max in flight", "sends/s", "p50 (ms)", "p99 (ms)", "max (ms)",
+                "most in flight");
+        final double[] throughput = new double[MAX_IN_FLIGHT.length];
+        for (int i = 0; i < MAX_IN_FLIGHT.length; i++) {
+            throughput[i] = runClosedLoop(MAX_IN_FLIGHT[i]);
+        }
+        checkNacks();
+        checkSendFromCallback();
+        checkClose();
+        if (throughput[1] < throughput[0] * 5) {
+            throw new IllegalStateException("More sends in flight didn't raise the throughput");
+        }
+    }
+
+    /** Sends for RUN_NANOS, up to maxInFlight waiting for their ACK at once; returns the sends/s. */
+    private static double runClosedLoop(int maxInFlight) throws Exception {
+        final SimulatedApi api = new SimulatedApi(RTT_NANOS, 0);
+        final AsyncGuaranteedProducer producer = new AsyncGuaranteedProducer(api.session(), maxInFlight);
+        api.start();
+        final AtomicLong completed = new AtomicLong();
+        final long start = System.nanoTime();
+        long sent = 0;
+        int mostInFlight = 0;
+        while (System.nanoTime() - start < RUN_NANOS) {
+            final TextMessage msg = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
+            producer.sendAsync(msg, TOPIC).thenAccept(receipt -> completed.incrementAndGet());  // waits while maxInFlight are
+            sent++;
+            mostInFlight = Math.max(mostInFlight, producer.getInFlight());
+        }
+        if (!producer.awaitAcks(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(maxInFlight + " in flight: not every send was ACKed: " + producer);
+        }
+        final long elapsed = System.nanoTime() - start;
+        for (long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1); completed.get() < sent && System.nanoTime() < deadline; ) {
+            Thread.sleep(1);  // the last futures complete just after their permits are released
+        }
+        producer.close();
+        api.interrupt();
+        api.join();
+        final double sendsPerSec = sent * 1e9 / elapsed;
+        final LatencyHistogram.Snapshot latency = producer.getAckLatency().snapshot();
+        System.out.printf("%,13d %,12.0f %,10.2f %,10.2f %,10.2f %,14d%n", maxInFlight, sendsPerSec,
+                latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6, latency.getMax() / 1e6, mostInFlight);
+        if (completed.get() != sent || producer.getAcked().count() != sent || mostInFlight > maxInFlight) {
+            throw new IllegalStateException(String.format("%d in flight: %,d of %,d futures completed, %,d in flight at most; %s",
+                    maxInFlight, completed.get(), sent, mostInFlight, producer));
+        }
+        return sendsPerSec;
+    }
+
+    /** Every 100th send is NACKed: exactly those futures fail, and every message gets its own correlation key back. */
+    private static void checkNacks() throws Exception {
+        final SimulatedApi api = new SimulatedApi(RTT_NANOS, 100);
+        final AsyncGuaranteedProducer producer = new AsyncGuaranteedProducer(api.session(), 1000);
+        api.start();
+        final int sends = 10_000;
+        final List<TextMessage> msgs = new ArrayList<>(sends);
+        final List<CompletableFuture<PublishReceipt>> futures = new ArrayList<>(sends);
+        for (int i = 0; i < sends; i++) {
+            final TextMessage msg = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
+            msg.setCorrelationKey(i);
+            msgs.add(msg);
+            futures.add(producer.sendAsync(msg, TOPIC));
+        }
+        int wrong = 0;
+        for (int i = 0; i < sends; i++) {
+            try {
+                final PublishReceipt receipt = futures.get(i).get(10, TimeUnit.SECONDS);
+                wrong += i % 100 == 0 || !Integer.valueOf(i).equals(receipt.getCorrelationKey()) ? 1 : 0;
+            } catch (ExecutionException e) {
+                wrong += i % 100 == 0 && e.getCause() instanceof JCSMPException ? 0 : 1;
+            }
+            wrong += Integer.valueOf(i).equals(msgs.get(i).getCorrelationKey()) ? 0 : 1;
+        }
+        producer.close();
+        api.interrupt();
+        api.join();
+        if (wrong > 0 || producer.getNacked().count() != sends / 100 || producer.getAcked().count() != sends - sends / 100) {
+            throw new IllegalStateException(String.format("NACKs: %,d futures completed the wrong way, or without the correlation key; %s",
+                    wrong, producer));
+        }
+    }
+
+    /** Two in flight at most: when the first is ACKed, its callback sends two more, and the second of those can't wait. */
+    private static void checkSendFromCallback() throws Exception {
+        final SimulatedApi api = new SimulatedApi(TimeUnit.MILLISECONDS.toNanos(50), 0);
+        final AsyncGuaranteedProducer producer = new AsyncGuaranteedProducer(api.session(), 2);
+        api.start();
+        final AtomicReference<CompletableFuture<PublishReceipt>> second = new AtomicReference<>();
+        final AtomicReference<CompletableFuture<PublishReceipt>> third = new AtomicReference<>();
+        final CompletableFuture<Void> first = producer.sendAsync(JCSMPFactory.onlyInstance().createMessage(TextMessage.class), TOPIC)
+                .thenAccept(receipt -> {  // on the callback thread: the ACK is 50ms away
+                    second.set(producer.sendAsync(JCSMPFactory.onlyInstance().createMessage(TextMessage.class), TOPIC));
+                    third.set(producer.sendAsync(JCSMPFactory.onlyInstance().createMessage(TextMessage.class), TOPIC));
+                });
+        final CompletableFuture<PublishReceipt> other = producer.sendAsync(JCSMPFactory.onlyInstance().createMessage(TextMessage.class),
+                TOPIC);
+        try {
+            first.get(5, TimeUnit.SECONDS);
+            other.get(5, TimeUnit.SECONDS);
+            second.get().get(5, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("The callback thread deadlocked, sending with the window full: " + producer);
+        }
+        producer.close();
+        api.interrupt();
+        api.join();
+        try {
+            third.get().get();
+            throw new IllegalStateException("A send from the callback thread, with the window full, didn't fail");
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof IllegalStateException)) {
+                throw new IllegalStateException("A send from the callback thread failed the wrong way", e.getCause());
+            }
+        }
+    }
+
+    /** Nothing's ACKed: close() fails everything in flight, and any send after it. */
+    private static void checkClose() throws Exception {
+        final SimulatedApi api = new SimulatedApi(TimeUnit.HOURS.toNanos(1), 0);
+        final AsyncGuaranteedProducer producer = new AsyncGuaranteedProducer(api.session(), 100);
+        api.start();
+        final List<CompletableFuture<PublishReceipt>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(producer.sendAsync(JCSMPFactory.onlyInstance().createMessage(TextMessage.class), TOPIC));
+        }
+        producer.close();
+        futures.add(producer.sendAsync(JCSMPFactory.onlyInstance().createMessage(TextMessage.class), TOPIC));
+        api.interrupt();
+        api.join();
+        for (CompletableFuture<PublishReceipt> future : futures) {
+            if (!future.isCompletedExceptionally()) {
+                throw new IllegalStateException("close() didn't fail every send in flight, and after it: " + producer);
+            }
+        }
+        if (producer.getInFlight() != 0) {
+            throw new IllegalStateException("close() didn't free every send's permit: " + producer);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A session whose producer's send() waits while the publish window is full; each send is ACKed (or every
+     * nackEvery'th NACKed) rttNanos after it, in order, on this ("API callback") thread.
+     */
+    private static final class SimulatedApi extends Thread {
+        private final long rttNanos;
+        private final int nackEvery;
+        private final Semaphore window = new Semaphore(PUBLISH_WINDOW);
+        private final LinkedBlockingQueue<Object[]> sent = new LinkedBlockingQueue<>();
+        private final AtomicLong sends = new AtomicLong();
+        private volatile JCSMPStreamingPublishCorrelatingEventHandler handler;
+
+        SimulatedApi(long rttNanos, int nackEvery) {
+            super("api-callback");
+            setDaemon(true);
+            this.rttNanos = rttNanos;
+            this.nackEvery = nackEvery;
+        }
+
+        JCSMPSession session() {
+            final XMLMessageProducer producer = (XMLMessageProducer)Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { XMLMessageProducer.class }, (proxy, method, margs) -> {
+                        if (method.getName().equals("send")) {
+                            window.acquire();
+                            sent.put(new Object[] { ((XMLMessage)margs[0]).getCorrelationKey(), sends.getAndIncrement(),
+                                    System.nanoTime() + rttNanos });
+                        }
+                        return null;
+                    });
+            return (JCSMPSession)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { JCSMPSession.class },
+                    (proxy, method, margs) -> {
+                        if (method.getName().equals("getMessageProducer")) {
+                            handler = (JCSMPStreamingPublishCorrelatingEventHandler)margs[0];
+                            return producer;
+                        }
+                        return null;
+                    });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Object[] next = sent.take();
+                    for (long wait; (wait = (Long)next[2] - System.nanoTime()) > 0; ) {
+                        LockSupport.parkNanos(wait);
+                        if (isInterrupted()) {
+                            return;
+                        }
+                    }
+                    if (nackEvery > 0 && (Long)next[1] % nackEvery == 0) {
+                        handler.handleErrorEx(next[0], new JCSMPException("Simulated NACK"), System.currentTimeMillis());
+                    } else {
+                        handler.responseReceivedEx(next[0]);
+                    }
+                    window.release();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
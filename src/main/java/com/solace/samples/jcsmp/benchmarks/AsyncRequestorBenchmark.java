@@ -0,0 +1,261 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solace.samples.jcsmp.features.common.AsyncRequestor;
+import com.solace.samples.jcsmp.features.common.LatencyHistogram;
+import com.solace.samples.jcsmp.features.common.TimerWheel;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.Destination;
+import com.solacesystems.jcsmp.TextMessage;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+
+/**
+ * Measures an {@link AsyncRequestor}: first what a request's timeout costs to schedule and cancel in a
+ * {@link TimerWheel}, against a task per request in a {@code ScheduledThreadPoolExecutor}; then the
+ * requests/s and reply latency percentiles with 1 to 4,096 requests outstanding, against a simulated
+ * replier 1ms away, whose replies arrive on one thread as a Flow's would; then, with 1% of requests never
+ * replied to and 0.1% replied to too late, that every future completes, exactly the unreplied and late
+ * ones time out (no more than a couple of ticks late), and the late replies are counted as unmatched.
+ * No broker needed.
+ */
+public class AsyncRequestorBenchmark {
+
+    private static final long RTT_NANOS = 1_000_000;
+    private static final int[] CONCURRENCY = { 1, 16, 256, 4096 };
+    private static final long RUN_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long TIMEOUT_MS = 200;
+    private static final long TICK_MS = 10;
+    private static final Destination TOPIC = (Destination)Proxy.newProxyInstance(AsyncRequestorBenchmark.class.getClassLoader(),
+            new Class<?>[] { Destination.class }, (proxy, method, margs) -> null);
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final TimerWheel timers = new TimerWheel(TICK_MS, TimeUnit.MILLISECONDS, 512, "request-timeouts");
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);  // else cancelled tasks stay queued until they're due
+        final Runnable noop = () -> { };
+        final MicroBenchmark.Op wheel = n -> {
+            long sum = 0;
+            for (long i = 0; i < n; i++) {
+                final TimerWheel.Timeout timeout = new TimerWheel.Timeout() {
+                    @Override
+                    protected void expire() {
+                    }
+                };
+                timers.schedule(timeout, 5, TimeUnit.SECONDS);
+                sum += timeout.cancel() ? 1 : 0;
+            }
+            return sum;
+        };
+        final MicroBenchmark.Op scheduled = n -> {
+            long sum = 0;
+            for (long i = 0; i < n; i++) {
+                final ScheduledFuture<?> task = executor.schedule(noop, 5, TimeUnit.SECONDS);
+                sum += task.cancel(false) ? 1 : 0;
+            }
+            return sum;
+        };
+        MicroBenchmark.run("TimerWheel: schedule + cancel", 200_000, wheel);
+        MicroBenchmark.run("ScheduledThreadPoolExecutor: schedule + cancel", 200_000, scheduled);
+        MicroBenchmark.allocation("TimerWheel: schedule + cancel", 200_000, wheel);
+        MicroBenchmark.allocation("ScheduledThreadPoolExecutor: schedule + cancel", 200_000, scheduled);
+        executor.shutdown();
+
+        System.out.printf("%nReplier round trip: %,dus%n", RTT_NANOS / 1000);
+        System.out.printf("%12s %12s %10s %10s %10s %10s%n", "outstanding", "requests/s", "p50 (ms)", "p99 (ms)", "p99.9 (ms)", "max (ms)");
+        final double[] throughput = new double[CONCURRENCY.length];
+        for (int i = 0; i < CONCURRENCY.length; i++) {
+            throughput[i] = runClosedLoop(CONCURRENCY[i], timers);
+        }
+        final boolean timeoutsOk = runTimeouts(timers);
+        System.out.println(timers);
+        timers.close();
+        if (throughput[2] < throughput[0] * 20 || !timeoutsOk) {
+            throw new IllegalStateException("More outstanding requests didn't raise the throughput, or the timeouts were wrong");
+        }
+    }
+
+    /** Keeps 'concurrency' requests outstanding for RUN_NANOS; returns the requests/s. */
+    private static double runClosedLoop(int concurrency, TimerWheel timers) throws Exception {
+        final SimulatedReplier replier = new SimulatedReplier(0, 0);
+        final AsyncRequestor requestor = new AsyncRequestor(replier.producer(), TOPIC, concurrency, 10, TimeUnit.SECONDS, timers);
+        replier.requestor = requestor;
+        replier.start();
+        final long start = System.nanoTime();
+        long sent = 0;
+        while (System.nanoTime() - start < RUN_NANOS) {
+            requestor.request(newRequest(), TOPIC);  // waits while 'concurrency' are outstanding
+            sent++;
+        }
+        while (requestor.getOutstanding() > 0) {
+            Thread.sleep(1);
+        }
+        final long elapsed = System.nanoTime() - start;
+        replier.interrupt();
+        replier.join();
+        final double requestsPerSec = sent * 1e9 / elapsed;
+        final LatencyHistogram.Snapshot latency = requestor.getReplyLatency().snapshot();
+        System.out.printf("%,12d %,12.0f %,10.2f %,10.2f %,10.2f %,10.2f%n", concurrency, requestsPerSec,
+                latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6, latency.getValueAtPercentile(99.9) / 1e6,
+                latency.getMax() / 1e6);
+        if (requestor.getReplied().count() != sent || requestor.getTimedOut().count() != 0 || requestor.getUnmatched().count() != 0) {
+            throw new IllegalStateException(concurrency + " outstanding: not every request got its reply, once: " + requestor);
+        }
+        return requestsPerSec;
+    }
+
+    /** 1% never replied to, 0.1% replied to after the timeout: checks each completes, the right way, on time. */
+    private static boolean runTimeouts(TimerWheel timers) throws Exception {
+        final SimulatedReplier replier = new SimulatedReplier(100, 1000);
+        final AsyncRequestor requestor = new AsyncRequestor(replier.producer(), TOPIC, 256, TIMEOUT_MS, TimeUnit.MILLISECONDS, timers);
+        replier.requestor = requestor;
+        replier.start();
+        final int requests = 100_000;
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong timedOut = new AtomicLong();
+        final LatencyHistogram timeoutAfter = new LatencyHistogram();
+        for (int i = 0; i < requests; i++) {
+            final long sentNanos = System.nanoTime();
+            final CompletableFuture<BytesXMLMessage> future = requestor.request(newRequest(), TOPIC);
+            future.whenComplete((reply, e) -> {
+                if (e instanceof TimeoutException) {
+                    timeoutAfter.record(System.nanoTime() - sentNanos);
+                    timedOut.incrementAndGet();
+                }
+                completed.incrementAndGet();
+            });
+        }
+        while (completed.get() < requests || replier.pending() > 0) {
+            Thread.sleep(10);
+        }
+        replier.interrupt();
+        replier.join();
+        final LatencyHistogram.Snapshot after = timeoutAfter.snapshot();
+        final long expectedTimeouts = replier.dropped.get() + replier.late.get();
+        System.out.printf("%n%,d requests, %,d never replied to, %,d replied to late: %,d timed out, %,d unmatched replies%n", requests,
+                replier.dropped.get(), replier.late.get(), timedOut.get(), requestor.getUnmatched().count());
+        System.out.printf("Timed out after: min %,.1fms, p50 %,.1fms, max %,.1fms (timeout %,dms, tick %,dms)%n%s%n",
+                after.getValueAtPercentile(0) / 1e6, after.getValueAtPercentile(50) / 1e6, after.getMax() / 1e6, TIMEOUT_MS, TICK_MS,
+                requestor);
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        return timedOut.get() == expectedTimeouts && requestor.getTimedOut().count() == expectedTimeouts
+                && requestor.getUnmatched().count() == replier.late.get() && requestor.getReplied().count() == requests - expectedTimeouts
+                && after.getValueAtPercentile(0) >= timeoutNanos * 0.95  // the histogram's buckets are a few percent wide
+                && after.getMax() < timeoutNanos + TimeUnit.MILLISECONDS.toNanos(TICK_MS * 3);
+    }
+
+    /** A request message: only its correlation ID matters. */
+    private static TextMessage newRequest() {
+        final String[] correlationId = new String[1];
+        return (TextMessage)Proxy.newProxyInstance(AsyncRequestorBenchmark.class.getClassLoader(), new Class<?>[] { TextMessage.class },
+                (proxy, method, margs) -> {
+                    if (method.getName().equals("setCorrelationId")) {
+                        correlationId[0] = (String)margs[0];
+                    } else if (method.getName().equals("getCorrelationId")) {
+                        return correlationId[0];
+                    }
+                    return null;
+                });
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Replies to each request RTT_NANOS after it's sent, on its own thread (as the reply Flow's callback
+     * thread would); optionally never replies to one in dropEvery, and replies to one in lateEvery after the
+     * timeout, plus a bit.
+     */
+    private static final class SimulatedReplier extends Thread {
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong late = new AtomicLong();
+        private final LinkedBlockingQueue<Object[]> onTime = new LinkedBlockingQueue<>();
+        private final LinkedBlockingQueue<Object[]> tooLate = new LinkedBlockingQueue<>();
+        private final int dropEvery;
+        private final int lateEvery;
+        private long requests = 0;  // only used by the sending thread
+        volatile AsyncRequestor requestor;
+
+        SimulatedReplier(int dropEvery, int lateEvery) {
+            super("reply-flow");
+            setDaemon(true);
+            this.dropEvery = dropEvery;
+            this.lateEvery = lateEvery;
+        }
+
+        XMLMessageProducer producer() {
+            return (XMLMessageProducer)Proxy.newProxyInstance(AsyncRequestorBenchmark.class.getClassLoader(),
+                    new Class<?>[] { XMLMessageProducer.class }, (proxy, method, margs) -> {
+                        if (method.getName().equals("send")) {
+                            final String correlationId = ((TextMessage)margs[0]).getCorrelationId();
+                            final long now = System.nanoTime();
+                            requests++;
+                            if (dropEvery > 0 && requests % dropEvery == 0) {
+                                dropped.incrementAndGet();
+                            } else if (lateEvery > 0 && requests % lateEvery == 1) {
+                                late.incrementAndGet();
+                                tooLate.add(new Object[] { correlationId, now + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS * 3 / 2) });
+                            } else {
+                                onTime.add(new Object[] { correlationId, now + RTT_NANOS });
+                            }
+                        }
+                        return null;
+                    });
+        }
+
+        int pending() {
+            return onTime.size() + tooLate.size();
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                final Object[] first = onTime.peek();
+                final Object[] second = tooLate.peek();
+                final Object[] next = first == null ? second
+                        : second == null || (Long)first[1] - (Long)second[1] <= 0 ? first : second;
+                if (next == null) {
+                    LockSupport.parkNanos(50_000);
+                    continue;
+                }
+                final long wait = (Long)next[1] - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(Math.min(wait, 50_000));  // another might be due sooner, meanwhile
+                    continue;
+                }
+                (next == first ? onTime : tooLate).poll();
+                requestor.onReceive(reply((String)next[0]));
+            }
+        }
+
+        private static BytesXMLMessage reply(String correlationId) {
+            return (BytesXMLMessage)Proxy.newProxyInstance(AsyncRequestorBenchmark.class.getClassLoader(),
+                    new Class<?>[] { BytesXMLMessage.class },
+                    (proxy, method, margs) -> method.getName().equals("getCorrelationId") ? correlationId : null);
+        }
+    }
+}
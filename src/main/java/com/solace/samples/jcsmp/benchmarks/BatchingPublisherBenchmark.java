@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.solace.samples.jcsmp.features.common.BatchingPublisher;
+import com.solace.samples.jcsmp.features.common.RatePacer;
+import com.solacesystems.jcsmp.BytesMessage;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPProperties;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
+import com.solacesystems.jcsmp.Topic;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+
+/**
+ * Sweeps the {@link BatchingPublisher} batch size, measuring max throughput and the p50/p99 latency
+ * added by batching (commit to sendMultiple() returning) at a fixed offered rate.
+ * <p>
+ * With broker arguments it publishes Direct messages for real; without, it uses a simulated sender that
+ * costs a fixed amount per call plus a bit per message, roughly like a syscall plus encoding.
+ * Options: -Dmsg_rate=N offered rate for the latency runs (default 100,000), -Dbatch_linger_us=N (default 100).
+ */
+public class BatchingPublisherBenchmark {
+
+    private static final int[] BATCH_SIZES = { 1, 2, 5, 10, 20, 50, 100 };
+    private static final int THROUGHPUT_MSGS = 1_000_000;
+    private static final int LATENCY_MSGS = 200_000;
+    private static final long SIMULATED_NANOS_PER_CALL = 5_000;
+    private static final long SIMULATED_NANOS_PER_MSG = 100;
+    private static final int MSG_RATE_PER_SEC = Integer.getInteger("msg_rate", 100_000);
+    private static final long LINGER_MICROS = Long.getLong("batch_linger_us", 100);
+
+    private static long[] commitTimes;  // by message sequence number; messages are sent in commit order
+    private static long[] latencies;
+    private static int sentSeq;  // only touched by whoever is sending, under the batcher's lock
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final BatchingPublisher.MultiSender sender;
+        JCSMPSession session = null;
+        if (args.length >= 3) {  // <host:port> <message-vpn> <client-username> [password]
+            final JCSMPProperties properties = new JCSMPProperties();
+            properties.setProperty(JCSMPProperties.HOST, args[0]);
+            properties.setProperty(JCSMPProperties.VPN_NAME, args[1]);
+            properties.setProperty(JCSMPProperties.USERNAME, args[2]);
+            if (args.length > 3) {
+                properties.setProperty(JCSMPProperties.PASSWORD, args[3]);
+            }
+            session = JCSMPFactory.onlyInstance().createSession(properties);
+            session.connect();
+            final XMLMessageProducer producer = session.getMessageProducer(new JCSMPStreamingPublishCorrelatingEventHandler() {
+                @Override public void responseReceivedEx(Object key) {
+                }
+
+                @Override public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
+                    System.out.printf("### Producer handleErrorEx() callback: %s%n", cause);
+                }
+            });
+            sender = (entries, offset, length) -> producer.sendMultiple(entries, offset, length, 0);
+            System.out.println("Publishing to the broker at " + args[0]);
+        } else {
+            sender = (entries, offset, length) -> spin(SIMULATED_NANOS_PER_CALL + length * SIMULATED_NANOS_PER_MSG);
+            System.out.printf("No broker given, simulating %,d ns per sendMultiple() call + %,d ns per message%n",
+                    SIMULATED_NANOS_PER_CALL, SIMULATED_NANOS_PER_MSG);
+        }
+        // wrap the sender to time each message from commit() until its sendMultiple() call returns
+        final BatchingPublisher.MultiSender timingSender = (entries, offset, length) -> {
+            sender.sendMultiple(entries, offset, length);
+            long now = System.nanoTime();
+            for (int i = 0; i < length; i++, sentSeq++) {
+                if (sentSeq < latencies.length) {
+                    latencies[sentSeq] = now - commitTimes[sentSeq];
+                }
+            }
+        };
+        final Topic topic = JCSMPFactory.onlyInstance().createTopic("solace/samples/jcsmp/direct/pub/bench");
+        final byte[] payload = new byte[100];
+
+        System.out.printf("%nlinger=%,dus, latency measured at %,d msg/s offered%n", LINGER_MICROS, MSG_RATE_PER_SEC);
+        System.out.printf("%10s %16s %12s %12s %12s%n", "batch size", "max msgs/s", "p50 us", "p99 us", "max us");
+        for (int batchSize : BATCH_SIZES) {
+            // throughput: publish as fast as possible
+            commitTimes = new long[THROUGHPUT_MSGS];
+            latencies = new long[0];  // not recording
+            sentSeq = 0;
+            BatchingPublisher batcher = new BatchingPublisher(timingSender, batchSize, LINGER_MICROS);
+            long start = System.nanoTime();
+            for (int i = 0; i < THROUGHPUT_MSGS; i++) {
+                BytesMessage msg = batcher.claim();
+                msg.setData(payload);
+                batcher.commit(msg, topic);
+            }
+            batcher.close();
+            double msgsPerSec = THROUGHPUT_MSGS * 1_000_000_000.0 / (System.nanoTime() - start);
+
+            // latency: publish at a fixed rate, the first 10% is warm-up
+            commitTimes = new long[LATENCY_MSGS];
+            latencies = new long[LATENCY_MSGS];
+            sentSeq = 0;
+            batcher = new BatchingPublisher(timingSender, batchSize, LINGER_MICROS);
+            RatePacer pacer = new RatePacer(MSG_RATE_PER_SEC);
+            for (int i = 0; i < LATENCY_MSGS; i++) {
+                commitTimes[i] = pacer.acquire();  // intended send time, so a stalled sender is charged for it
+                BytesMessage msg = batcher.claim();
+                msg.setData(payload);
+                batcher.commit(msg, topic);
+            }
+            batcher.close();
+            long[] measured = Arrays.copyOfRange(latencies, LATENCY_MSGS / 10, LATENCY_MSGS);
+            Arrays.sort(measured);
+            System.out.printf("%10d %,16.0f %,12.1f %,12.1f %,12.1f%n", batchSize, msgsPerSec,
+                    micros(measured[measured.length / 2]), micros(measured[(int)(measured.length * 0.99)]),
+                    micros(measured[measured.length - 1]));
+        }
+        if (session != null) {
+            session.closeSession();
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / (double)TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // busy spin
+        }
+    }
+}
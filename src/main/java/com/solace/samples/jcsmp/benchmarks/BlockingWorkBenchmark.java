@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solace.samples.jcsmp.features.common.BoundedWorkExecutor;
+
+/**
+ * Compares ways of running blocking per-message work (like DirectProcessor -Dworkers=...) through a
+ * {@link BoundedWorkExecutor}: a new platform thread per message, a fixed pool, and virtual threads,
+ * each unordered and ordered per key.  The "backend" is a local stand-in that just blocks for a
+ * configurable time, like a remote lookup, so no database is needed.
+ * <p>
+ * Reports throughput, the latency from hand-off to done (p50/p99), and the peak number of live platform
+ * threads.  Also checks that work for the same key finishes in the order it was handed off.
+ * Options: -Dlookup_ms=N backend latency (default 2, +-50% jitter), -Dmsgs=N (default 20,000),
+ * -Dmax_in_flight=N (default 1,000), -Dpool_size=N (default 64), -Dkeys=N for the ordered runs (default 100).
+ */
+public class BlockingWorkBenchmark {
+
+    private static final long LOOKUP_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("lookup_ms", 2));
+    private static final int MSGS = Integer.getInteger("msgs", 20_000);
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("max_in_flight", 1_000);
+    private static final int POOL_SIZE = Integer.getInteger("pool_size", 64);
+    private static final int KEYS = Integer.getInteger("keys", 100);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        System.out.printf("%,d msgs, backend %,d us +-50%%, max %,d in flight, pool of %d, %d keys when ordered%n",
+                MSGS, TimeUnit.NANOSECONDS.toMicros(LOOKUP_NANOS), MAX_IN_FLIGHT, POOL_SIZE, KEYS);
+        if (!BoundedWorkExecutor.isVirtualThreadsSupported()) {
+            System.out.println("(no virtual threads before Java 21: 'virtual' falls back to a platform thread per message)");
+        }
+        System.out.printf("%-10s %-9s %14s %10s %10s %14s%n", "executor", "ordering", "msgs/s", "p50 ms", "p99 ms", "peak threads");
+        for (String type : new String[] { "platform", "pool", "virtual" }) {
+            for (boolean ordered : new boolean[] { false, true }) {
+                run(type, ordered, MSGS / 10, false);  // warm-up
+                run(type, ordered, MSGS, true);
+            }
+        }
+    }
+
+    private static void run(String type, boolean ordered, int msgs, boolean print) throws Exception {
+        final long[] latencies = new long[msgs];
+        final AtomicLongArray lastSeqByKey = new AtomicLongArray(KEYS);  // for the ordering check
+        for (int k = 0; k < KEYS; k++) {
+            lastSeqByKey.set(k, -1);
+        }
+        final boolean[] outOfOrder = new boolean[1];
+        THREADS.resetPeakThreadCount();
+        final BoundedWorkExecutor workers = new BoundedWorkExecutor(BoundedWorkExecutor.newExecutor(type, POOL_SIZE), MAX_IN_FLIGHT);
+        final long start = System.nanoTime();
+        for (int i = 0; i < msgs; i++) {
+            final int seq = i;
+            final int key = i % KEYS;
+            final long handedOff = System.nanoTime();
+            workers.execute(ordered ? Integer.valueOf(key) : null, () -> {
+                lookup();
+                if (lastSeqByKey.getAndSet(key, seq) > seq) {  // only a problem if ordered
+                    outOfOrder[0] = true;
+                }
+                latencies[seq] = System.nanoTime() - handedOff;
+            });
+        }
+        if (!workers.awaitIdle(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Work didn't finish: " + workers);
+        }
+        final long elapsed = System.nanoTime() - start;
+        final int peakThreads = THREADS.getPeakThreadCount();
+        workers.close();
+        if (ordered && outOfOrder[0]) {
+            throw new IllegalStateException("Work for the same key finished out of order with " + type);
+        }
+        if (workers.getCompleted().count() != msgs) {
+            throw new IllegalStateException("Expected " + msgs + " completed, got " + workers);
+        }
+        if (print) {
+            Arrays.sort(latencies);
+            System.out.printf("%-10s %-9s %,14.0f %,10.2f %,10.2f %,14d%n", type, ordered ? "per key" : "none",
+                    msgs * 1_000_000_000.0 / elapsed, millis(latencies[msgs / 2]), millis(latencies[(int)(msgs * 0.99)]),
+                    peakThreads);
+        }
+    }
+
+    /** The stand-in backend: blocks the calling thread, like waiting for a reply over the network. */
+    private static void lookup() {
+        final long nanos = LOOKUP_NANOS / 2 + ThreadLocalRandom.current().nextLong(LOOKUP_NANOS + 1);
+        final long end = System.nanoTime() + nanos;
+        for (long left = nanos; left > 0; left = end - System.nanoTime()) {
+            LockSupport.parkNanos(left);  // a virtual thread unmounts here, a platform thread is stuck
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double)TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
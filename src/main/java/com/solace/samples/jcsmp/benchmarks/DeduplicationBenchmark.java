@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.solace.samples.jcsmp.features.common.DeduplicationCache;
+import com.solace.samples.jcsmp.features.common.DeduplicationCache.Verdict;
+import com.solace.samples.jcsmp.features.common.TimeOrderedMessageIdGenerator;
+
+/**
+ * Checks 1M distinct message IDs (as made by {@link TimeOrderedMessageIdGenerator}) against a
+ * {@link DeduplicationCache} that remembers 100k exactly and 1M in its Bloom filter, and against an
+ * unbounded concurrent set of every ID, the simplest thing that could work.  Then the same with 10% of
+ * the messages redelivered shortly after, and from several threads.  Prints the measured false positive
+ * rate and each one's memory, and checks every redelivery is caught, no new ID is called a certain
+ * duplicate, and the TTL and forget() work.  No broker needed.
+ */
+public class DeduplicationBenchmark {
+
+    private static final int IDS = 1_000_000;
+    private static final int EXACT_SIZE = 100_000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int THREADS = 4;
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final TimeOrderedMessageIdGenerator generator = new TimeOrderedMessageIdGenerator();
+        final String[] ids = new String[IDS];
+        for (int i = 0; i < IDS; i++) {
+            ids[i] = generator.nextId();
+        }
+        final int[] verdicts = new int[Verdict.values().length];
+
+        MicroBenchmark.run("Unbounded ConcurrentHashMap set, 1M distinct", IDS, n -> {
+            final Set<String> seen = ConcurrentHashMap.newKeySet();
+            long duplicates = 0;
+            for (int i = 0; i < n; i++) {
+                duplicates += seen.add(ids[i]) ? 0 : 1;
+            }
+            return duplicates;
+        });
+
+        MicroBenchmark.run("DeduplicationCache, 1M distinct", IDS, n -> {
+            final DeduplicationCache cache = newCache(60);  // a new one each round, or they'd all be duplicates
+            java.util.Arrays.fill(verdicts, 0);
+            for (int i = 0; i < n; i++) {
+                verdicts[cache.check(ids[i]).ordinal()]++;
+            }
+            return verdicts[Verdict.DUPLICATE.ordinal()];
+        });
+        // none of them were seen before, so every PROBABLE_DUPLICATE was a false positive
+        final double falsePositives = (double)verdicts[Verdict.PROBABLE_DUPLICATE.ordinal()] / IDS;
+        System.out.printf("  false positives: %.3f%% (configured %.1f%% per generation)%n", falsePositives * 100, FALSE_POSITIVE_RATE * 100);
+        if (verdicts[Verdict.DUPLICATE.ordinal()] != 0 || falsePositives > FALSE_POSITIVE_RATE * 3) {
+            throw new IllegalStateException("New IDs called duplicates: " + java.util.Arrays.toString(verdicts));
+        }
+
+        // every 10th message is a redelivery of one from up to 50k messages earlier, within the exact LRU
+        final int redeliveries = IDS / 10;
+        MicroBenchmark.run("DeduplicationCache, 1M distinct + 10% redelivered", IDS + redeliveries, n -> {
+            final DeduplicationCache cache = newCache(60);
+            java.util.Arrays.fill(verdicts, 0);
+            for (int i = 0; i < IDS; i++) {
+                verdicts[cache.check(ids[i]).ordinal()]++;
+                if (i % 10 == 9) {
+                    verdicts[cache.check(ids[i - (int)(i * 7919L % Math.min(i, 50_000))]).ordinal()]++;
+                }
+            }
+            return verdicts[Verdict.DUPLICATE.ordinal()];
+        });
+        System.out.printf("  duplicates caught: %,d of %,d%n", verdicts[Verdict.DUPLICATE.ordinal()], redeliveries);
+        if (verdicts[Verdict.DUPLICATE.ordinal()] != redeliveries) {
+            throw new IllegalStateException("Missed redeliveries: " + java.util.Arrays.toString(verdicts));
+        }
+
+        final DeduplicationCache shared = newCache(60);
+        final AtomicInteger nextSlice = new AtomicInteger();
+        MicroBenchmark.runThreads("DeduplicationCache, 1M distinct, shared", THREADS, IDS / THREADS, n -> {
+            final int slice = nextSlice.getAndIncrement();  // each thread its own IDs, and new ones each round
+            final String suffix = "-" + slice / THREADS;
+            long duplicates = 0;
+            for (int i = (int)(slice % THREADS * n); i < (slice % THREADS + 1) * n; i++) {
+                duplicates += shared.check(ids[i] + suffix) == Verdict.DUPLICATE ? 1 : 0;
+            }
+            if (duplicates != 0) {
+                throw new IllegalStateException(duplicates + " new IDs called certain duplicates");
+            }
+            return duplicates;
+        });
+        System.out.println("  " + shared);
+
+        System.out.printf("Memory for %,d IDs (not counting the Strings): unbounded set ~%,d MB, DeduplicationCache ~%,d MB%n", IDS,
+                retainedBytes(() -> {
+                    final Set<String> seen = ConcurrentHashMap.newKeySet();
+                    for (String id : ids) {
+                        seen.add(id);
+                    }
+                    return seen;
+                }) >> 20,
+                retainedBytes(() -> {
+                    final DeduplicationCache cache = newCache(60);
+                    for (String id : ids) {
+                        cache.check(id);
+                    }
+                    return cache;
+                }) >> 20);
+
+        checkTtlAndForget();
+        System.out.println("OK");
+    }
+
+    private static DeduplicationCache newCache(int ttlSeconds) {
+        return new DeduplicationCache(EXACT_SIZE, IDS, FALSE_POSITIVE_RATE, ttlSeconds, TimeUnit.SECONDS);
+    }
+
+    /** Roughly how much heap the object built keeps alive. */
+    private static long retainedBytes(java.util.function.Supplier<Object> builder) throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        Thread.sleep(100);
+        final long before = runtime.totalMemory() - runtime.freeMemory();
+        final Object built = builder.get();
+        System.gc();
+        Thread.sleep(100);
+        final long after = runtime.totalMemory() - runtime.freeMemory();
+        if (built.hashCode() == 42) {  // keep it reachable until now
+            System.out.print("");
+        }
+        return Math.max(0, after - before);
+    }
+
+    private static void checkTtlAndForget() throws InterruptedException {
+        final DeduplicationCache cache = new DeduplicationCache(128, 1000, FALSE_POSITIVE_RATE, 200, TimeUnit.MILLISECONDS);
+        expect(cache.check("a"), Verdict.NEW);
+        expect(cache.check("a"), Verdict.DUPLICATE);
+        expect(cache.check("b"), Verdict.NEW);
+        cache.forget("b");  // processing it failed: its redelivery mustn't be skipped
+        expect(cache.check("b"), Verdict.PROBABLE_DUPLICATE);
+        Thread.sleep(300);  // past the TTL: the LRU has dropped it, the Bloom filter's previous generation still has it
+        expect(cache.check("a"), Verdict.PROBABLE_DUPLICATE);
+        Thread.sleep(300);
+        cache.check("c");  // past it again: both generations have been replaced
+        Thread.sleep(300);
+        expect(cache.check("b"), Verdict.NEW);
+        for (int i = 0; i < 1000; i++) {  // the exact LRU only keeps the last 128
+            cache.check("x" + i);
+        }
+        if (cache.getExactSize() > 128 || cache.check("x999") != Verdict.DUPLICATE || cache.check("x0") == Verdict.DUPLICATE) {
+            throw new IllegalStateException("LRU not bounded: " + cache);
+        }
+    }
+
+    private static void expect(Verdict actual, Verdict expected) {
+        if (actual != expected) {
+            throw new IllegalStateException("Expected " + expected + ", got " + actual);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.solace.samples.jcsmp.features.Replication;
+import com.solace.samples.jcsmp.features.common.InFlightTracker;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+
+/**
+ * Compares {@link InFlightTracker} with the Replication sample's UnackedList (a synchronized LinkedList,
+ * searched by correlation key) for keeping track of unACKed Guaranteed messages, with 100k in flight:
+ * each operation sends one more message and ACKs one.  ACKs normally come back in order, which is the
+ * best case for the list (the key is found at the front); out of order (a random one of the oldest 1,000),
+ * every ACK is a scan.  Checks the tracker's bookkeeping first, including fail() on the publishing thread
+ * racing ACKs on another.  No broker needed.
+ */
+public class InFlightTrackerBenchmark {
+
+    private static final int IN_FLIGHT = 100_000;
+    private static final long ITERATIONS = 1_000_000;
+    private static final int REORDER_WINDOW = 1_000;  // out of order: which of the oldest messages is ACKed next
+
+    /** The two trackers, behind one interface: track/ACK by sequence number. */
+    private interface Tracker {
+        void send(long seq);
+        void ack(long seq);
+    }
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        checkTracker();
+        checkConcurrentFail();
+        final int size = IN_FLIGHT * 2;  // enough messages that none is reused while in flight
+        final BytesXMLMessage[] msgs = new BytesXMLMessage[size];
+        final String[] keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            msgs[i] = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+            keys[i] = "Message " + i;
+        }
+
+        final InFlightTracker<BytesXMLMessage> tracker = new InFlightTracker<>(IN_FLIGHT);
+        final InFlightTracker.Key[] trackerKeys = new InFlightTracker.Key[size];  // what the API would hand back
+        final Tracker ring = new Tracker() {
+            @Override public void send(long seq) {
+                trackerKeys[(int)(seq % size)] = tracker.track(msgs[(int)(seq % size)]);
+            }
+            @Override public void ack(long seq) {
+                if (tracker.ack(trackerKeys[(int)(seq % size)]) == null) {
+                    throw new IllegalStateException("Not in flight: " + seq);
+                }
+            }
+        };
+        final Replication.UnackedList unackedList = new Replication().new UnackedList();
+        final Tracker list = new Tracker() {
+            @Override public void send(long seq) {
+                final BytesXMLMessage msg = msgs[(int)(seq % size)];
+                msg.setCorrelationKey(keys[(int)(seq % size)]);
+                unackedList.add(msg);
+            }
+            @Override public void ack(long seq) {
+                unackedList.remove(keys[(int)(seq % size)]);  // throws if not found
+            }
+        };
+
+        System.out.printf("%,d messages in flight, each op = send one + ACK one%n", IN_FLIGHT);
+        run("InFlightTracker, ACKs in order", ring, false, ITERATIONS);
+        run("Replication.UnackedList, ACKs in order", list, false, ITERATIONS);
+        run("InFlightTracker, ACKs out of order", ring, true, ITERATIONS);
+        run("Replication.UnackedList, ACKs out of order", list, true, 1_000);  // each ACK scans the list
+        System.out.println(tracker);
+    }
+
+    /** Fills the tracker to IN_FLIGHT, then times send+ACK pairs, then drains it again. */
+    private static void run(String name, Tracker tracker, boolean randomOrder, long iterations) throws Exception {
+        final long[] inFlight = new long[IN_FLIGHT];  // the sequence numbers in flight, in any order
+        final long[] next = { 0 };
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            tracker.send(next[0]);
+            inFlight[i] = next[0]++;
+        }
+        final SplittableRandom random = new SplittableRandom(42);
+        final int[] oldest = { 0 };  // inFlight is a ring, oldest first
+        MicroBenchmark.run(name, iterations, n -> {
+            for (long i = 0; i < n; i++) {
+                final int slot = oldest[0]++ % IN_FLIGHT;
+                if (randomOrder) {  // ACK one of the oldest few instead: swap it to the front
+                    final int other = (slot + random.nextInt(REORDER_WINDOW)) % IN_FLIGHT;
+                    final long seq = inFlight[other];
+                    inFlight[other] = inFlight[slot];
+                    inFlight[slot] = seq;
+                }
+                tracker.ack(inFlight[slot]);
+                tracker.send(next[0]);
+                inFlight[slot] = next[0]++;  // now the newest
+            }
+            return n;
+        });
+        for (int i = 0; i < IN_FLIGHT; i++) {  // drain, oldest first, so the next run starts empty
+            tracker.ack(inFlight[(oldest[0] + i) % IN_FLIGHT]);
+        }
+    }
+
+    /** Every 4th send "throws", so the publishing thread fails it while another thread ACKs the rest. */
+    private static void checkConcurrentFail() throws InterruptedException {
+        final InFlightTracker<String> tracker = new InFlightTracker<>(64);
+        final ArrayBlockingQueue<InFlightTracker.Key> sent = new ArrayBlockingQueue<>(32);
+        final Thread acker = new Thread(() -> {
+            try {
+                while (true) {
+                    tracker.ack(sent.take());
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }, "api-callback");
+        acker.setDaemon(true);
+        acker.start();
+        for (int i = 0; i < 1_000_000; i++) {
+            final InFlightTracker.Key key = tracker.track("m");  // throws if the tail is lost
+            if (i % 4 == 0) {
+                tracker.fail(key);
+            } else {
+                sent.put(key);
+            }
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (tracker.getInFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        acker.interrupt();
+        if (tracker.getInFlight() != 0 || tracker.getFailed() != 250_000) {
+            throw new IllegalStateException("InFlightTracker lost track with fail() and ack() on two threads: " + tracker);
+        }
+    }
+
+    private static void checkTracker() {
+        final InFlightTracker<String> tracker = new InFlightTracker<>(4);
+        final List<InFlightTracker.Key> keys = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            keys.add(tracker.track("m" + i));
+        }
+        boolean full = false;
+        try {
+            tracker.track("m4");
+        } catch (IllegalStateException e) {
+            full = true;
+        }
+        final StringBuilder unacked = new StringBuilder();
+        if (!full || !"m2".equals(tracker.ack(keys.get(2))) || tracker.ack(keys.get(2)) != null
+                || !"m1".equals(tracker.fail(keys.get(1))) || !"m0".equals(tracker.ack(0L)) || tracker.getInFlight() != 1) {
+            throw new IllegalStateException("InFlightTracker bookkeeping is wrong: " + tracker);
+        }
+        final InFlightTracker.Key k4 = tracker.track("m4");  // the slot freed by m0..m2
+        tracker.forEachUnacked((msg, seq) -> unacked.append(msg).append('#').append(seq).append(' '));
+        if (!"m3#3 m4#4 ".equals(unacked.toString()) || k4.getSequence() != 4 || tracker.getFailed() != 1) {
+            throw new IllegalStateException("InFlightTracker lists the wrong unACKed messages: " + unacked);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.solace.samples.jcsmp.features.common.MessageIdGenerator;
+import com.solace.samples.jcsmp.features.common.PublishJournal;
+import com.solace.samples.jcsmp.features.common.PublishJournal.FsyncPolicy;
+import com.solace.samples.jcsmp.features.common.TimeOrderedMessageIdGenerator;
+
+/**
+ * Measures what {@link PublishJournal} adds to each Guaranteed send, with each fsync policy.  Each op is
+ * what GuaranteedPublisher does per message: give it an ID, journal it (not in the baseline), encode it into a send
+ * buffer (standing in for {@code producer.send()}, which does about that much work before the socket), and
+ * ACK the message sent a publish window earlier.  Checks recovery first: crash, torn write, compaction.
+ * The baseline is far cheaper than a real send (a few microseconds, and a round trip for the ACK), so the
+ * added ns/message is the number to compare with a real publisher.  The journal's background threads need
+ * a core of their own to keep up.  Writes to a temporary directory, so run it on the disk you'd journal
+ * to; no broker needed.
+ */
+public class JournalBenchmark {
+
+    private static final int PAYLOAD_SIZE = 512;  // as GuaranteedPublisher
+    private static final int WINDOW = 50;         // ACKs trail sends by the publish window
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final long ITERATIONS = 200_000;
+    private static final String TOPIC = "solace/samples/jcsmp/pers/pub/A";
+    private static final MessageIdGenerator MSG_ID_GENERATOR = new TimeOrderedMessageIdGenerator();
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        checkRecovery();
+        final Path dir = Files.createTempDirectory("journal-bench");
+        System.out.printf("Journal in %s, %,d byte payloads, ACKs %d messages behind%n", dir, PAYLOAD_SIZE, WINDOW);
+        final double baseline = run("No journal", null, ITERATIONS);
+        final double none = run("Journal, fsync none", new PublishJournal(dir.resolve("none"), SEGMENT_SIZE, FsyncPolicy.NONE, 0, WINDOW), ITERATIONS);
+        final double group1 = run("Journal, fsync group every 1ms", new PublishJournal(dir.resolve("group1"), SEGMENT_SIZE, FsyncPolicy.GROUP, 1, WINDOW), ITERATIONS);
+        final double group10 = run("Journal, fsync group every 10ms", new PublishJournal(dir.resolve("group10"), SEGMENT_SIZE, FsyncPolicy.GROUP, 10, WINDOW), ITERATIONS);
+        final double always = run("Journal, fsync always", new PublishJournal(dir.resolve("always"), SEGMENT_SIZE, FsyncPolicy.ALWAYS, 0, WINDOW), 1_000);
+        System.out.printf("%nAdded per message: fsync none %,.0f ns, group 1ms %,.0f ns, group 10ms %,.0f ns, always %,.0f ns%n",
+                none - baseline, group1 - baseline, group10 - baseline, always - baseline);
+        System.out.printf("vs. no journal: fsync none %.1fx, group 1ms %.1fx, group 10ms %.1fx, always %.0fx%n",
+                none / baseline, group1 / baseline, group10 / baseline, always / baseline);
+        deleteAll(dir);
+    }
+
+    /** Times journal + encode + ACK per message, and returns the ns/op. */
+    private static double run(String name, PublishJournal journal, long iterations) throws Exception {
+        final byte[] payload = new byte[PAYLOAD_SIZE];
+        final byte[] topic = TOPIC.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(64 * 1024);  // like the API's socket buffer
+        final long[] acked = { journal == null ? 0 : journal.getNextSequence() };
+        final long[] next = { acked[0] };
+        final double nsPerOp = MicroBenchmark.run(name, iterations, n -> {
+            for (long i = 0; i < n; i++) {
+                payload[0] = (byte)i;
+                final String msgId = MSG_ID_GENERATOR.nextId();
+                if (journal != null) {
+                    next[0] = journal.append(TOPIC, msgId, payload, 0, PAYLOAD_SIZE) + 1;
+                } else {
+                    next[0]++;
+                }
+                if (sendBuffer.remaining() < PAYLOAD_SIZE + topic.length) {
+                    sendBuffer.clear();
+                }
+                sendBuffer.put(topic).put(payload).put((byte)msgId.length());
+                if (next[0] - acked[0] > WINDOW && journal != null) {
+                    journal.ack(acked[0]++);
+                } else if (next[0] - acked[0] > WINDOW) {
+                    acked[0]++;
+                }
+            }
+            return sendBuffer.position();
+        });
+        if (journal != null) {
+            while (acked[0] < next[0]) {
+                journal.ack(acked[0]++);
+            }
+            if (journal.getUnacked() != 0) {
+                throw new IllegalStateException("Low-water mark didn't catch up: " + journal);
+            }
+            System.out.printf("  %s%n", journal);
+            journal.close();
+        }
+        return nsPerOp;
+    }
+
+    private static void checkRecovery() throws IOException {
+        final Path dir = Files.createTempDirectory("journal-check");
+        final PublishJournal first = new PublishJournal(dir, 16 * 1024, FsyncPolicy.NONE, 0, 100);
+        for (int i = 0; i < 1_000; i++) {  // ~90 records per segment, so it rolls
+            final byte[] payload = new byte[i % 300];
+            Arrays.fill(payload, (byte)(i == 999 ? 0x5A : i));
+            first.append("t/" + i % 7, "id-" + i, payload, 0, payload.length);
+            if (i >= 60) {
+                first.ack((i - 60) ^ 1);  // out of order: each pair swapped
+            }
+        }
+        for (long seq = 0; seq < 980; seq++) {
+            first.ack(seq);  // the rest, and again: repeats are ignored
+        }
+        first.ack(985);  // above the mark, so still recovered (at-least-once)
+        if (first.getLowWaterMark() != 980 || first.getSegmentCount() > 3) {
+            throw new IllegalStateException("ACKed segments not deleted: " + first);
+        }
+        // crash: never closed.  Then tear the last record: the journal must drop just that one
+        final List<Path> segments = listFiles(dir, "journal-*.seg");
+        final Path newest = segments.get(segments.size() - 1);
+        final byte[] bytes = Files.readAllBytes(newest);
+        final byte[] marker = new byte[32];
+        Arrays.fill(marker, (byte)0x5A);
+        final int torn = lastIndexOf(bytes, marker);
+        if (torn < 0) {
+            throw new IllegalStateException("Last record not found in " + newest);
+        }
+        bytes[torn] ^= 1;
+        Files.write(newest, bytes);
+
+        final PublishJournal second = new PublishJournal(dir, 16 * 1024, FsyncPolicy.GROUP, 1, 100);
+        final List<PublishJournal.Entry> recovered = second.getRecovered();
+        if (recovered.size() != 19 || second.getNextSequence() != 999 + 19 || listFiles(dir, "journal-*.seg").size() != 1) {
+            // the torn record never happened, so its sequence number (999) is the first one reused
+            throw new IllegalStateException("Expected 980..998 recovered and compacted into one segment: " + second);
+        }
+        for (int i = 0; i < recovered.size(); i++) {
+            final PublishJournal.Entry e = recovered.get(i);
+            final int original = 980 + i;
+            final byte[] expected = new byte[original % 300];
+            Arrays.fill(expected, (byte)original);
+            if (e.getSequence() != 999 + i || !e.getTopic().equals("t/" + original % 7)
+                    || !e.getMessageId().equals("id-" + original) || !Arrays.equals(e.getPayload(), expected)) {
+                throw new IllegalStateException("Recovered the wrong message: " + e.getMessageId() + " #" + e.getSequence());
+            }
+            second.ack(e.getSequence());
+        }
+        second.close();
+        final PublishJournal third = new PublishJournal(dir, 16 * 1024, FsyncPolicy.NONE, 0, 100);
+        if (!third.getRecovered().isEmpty() || third.getNextSequence() != 1_018) {
+            throw new IllegalStateException("Nothing should be left after a clean close: " + third);
+        }
+        third.close();  // without appending: its empty segment is named for the next sequence number, as a reopen's is
+        final PublishJournal fourth = new PublishJournal(dir, 16 * 1024, FsyncPolicy.NONE, 0, 100);
+        if (!fourth.getRecovered().isEmpty() || fourth.getNextSequence() != 1_018 || listFiles(dir, "journal-*.seg").size() != 1) {
+            throw new IllegalStateException("Reopening an empty journal should leave just one empty segment: " + fourth);
+        }
+        fourth.ack(fourth.append("t/0", "id-1018", new byte[10], 0, 10));
+        fourth.close();
+        deleteAll(dir);
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte[] pattern) {
+        outer:
+        for (int i = bytes.length - pattern.length; i >= 0; i--) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static List<Path> listFiles(Path dir, String glob) throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private static void deleteAll(Path dir) throws IOException {
+        for (Path path : listFiles(dir, "*")) {
+            if (Files.isDirectory(path)) {
+                deleteAll(path);
+            } else {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solace.samples.jcsmp.features.common.KeyedLaneConsumer;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.FlowReceiver;
+
+/**
+ * Feeds a simulated queue Flow through {@link KeyedLaneConsumer} with 1, 4 and 16 lanes, with handlers
+ * that either spin (CPU-bound work) or park (waiting on a database, say).  The simulated Flow only delivers
+ * while it's started, so the consumer's stop()/start() at its watermarks is what bounds the messages in
+ * flight.  Checks that every key's messages are processed in order, that none is ACKed twice or left
+ * unACKed, and that the in-flight count never goes far past the high watermark.  No broker needed.
+ */
+public class KeyedLaneBenchmark {
+
+    private static final int MESSAGES = 20_000;  // simulated messages, reused round after round
+    private static final int KEYS = 64;
+    private static final int HIGH_WATERMARK = 1000;
+    private static final int LOW_WATERMARK = 500;
+
+    private static volatile boolean flowStarted = true;
+    private static volatile long ackCount = 0;  // written under the class lock
+    private static final long[] lastSeq = new long[KEYS];  // per key: only written by the key's lane
+    private static volatile int maxInFlight = 0;  // written by the delivering thread
+
+    /** A received message: its key and its position among that key's messages. */
+    private static final class SimulatedMessage implements InvocationHandler {
+        final int key;
+        final long keySeq;
+        boolean acked = false;
+
+        SimulatedMessage(int key, long keySeq) {
+            this.key = key;
+            this.keySeq = keySeq;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("ackMessage")) {
+                synchronized (KeyedLaneBenchmark.class) {
+                    if (acked) {
+                        throw new IllegalStateException("ACKed twice: key " + key + " #" + keySeq);
+                    }
+                    acked = true;
+                    ackCount++;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final SimulatedMessage[] handlers = new SimulatedMessage[MESSAGES];
+        final BytesXMLMessage[] msgs = new BytesXMLMessage[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            handlers[i] = new SimulatedMessage(i % KEYS, i / KEYS);
+            msgs[i] = (BytesXMLMessage)Proxy.newProxyInstance(KeyedLaneBenchmark.class.getClassLoader(),
+                    new Class<?>[] { BytesXMLMessage.class }, handlers[i]);
+        }
+        final FlowReceiver flow = (FlowReceiver)Proxy.newProxyInstance(KeyedLaneBenchmark.class.getClassLoader(),
+                new Class<?>[] { FlowReceiver.class }, (proxy, method, margs) -> {
+                    if (method.getName().equals("stop")) {
+                        flowStarted = false;
+                    } else if (method.getName().equals("start")) {
+                        flowStarted = true;
+                    }
+                    return null;
+                });
+        System.out.printf("%,d keys, watermarks %,d/%,d, %,d CPUs%n", KEYS, HIGH_WATERMARK, LOW_WATERMARK,
+                Runtime.getRuntime().availableProcessors());
+
+        for (boolean blocking : new boolean[] { false, true }) {
+            for (int laneCount : new int[] { 1, 4, 16 }) {
+                final KeyedLaneConsumer lanes = new KeyedLaneConsumer(laneCount, HIGH_WATERMARK, LOW_WATERMARK,
+                        msg -> ((SimulatedMessage)Proxy.getInvocationHandler(msg)).key,
+                        msg -> {
+                            final SimulatedMessage m = (SimulatedMessage)Proxy.getInvocationHandler(msg);
+                            if (lastSeq[m.key] + 1 != m.keySeq) {
+                                throw new IllegalStateException("Key " + m.key + ": #" + m.keySeq + " after #" + lastSeq[m.key]);
+                            }
+                            lastSeq[m.key] = m.keySeq;
+                            if (blocking) {
+                                LockSupport.parkNanos(20_000);  // e.g. a database write
+                            } else {
+                                spin(2_000);
+                            }
+                        });
+                lanes.setFlow(flow);
+                MicroBenchmark.run(String.format("%d lanes, %s handler", laneCount, blocking ? "20us parking" : "2us spinning"),
+                        MESSAGES, n -> {
+                    reset(handlers);
+                    for (int i = 0; i < n; i++) {
+                        for (int idle = 0; !flowStarted; idle++) {  // the broker stops sending
+                            if (idle > 100) {
+                                LockSupport.parkNanos(10_000);
+                            }
+                        }
+                        lanes.onReceive(msgs[i]);
+                        maxInFlight = Math.max(maxInFlight, lanes.getInFlight());
+                    }
+                    while (ackCount < n) {
+                        LockSupport.parkNanos(10_000);
+                    }
+                    return ackCount;
+                });
+                lanes.close();
+                System.out.printf("  %s, max in flight %,d%n", lanes, maxInFlight);
+                if (lanes.getFailed().count() > 0 || lanes.getInFlight() != 0 || maxInFlight > HIGH_WATERMARK * 2 || !flowStarted) {
+                    throw new IllegalStateException("Out of order, unACKed, unbounded, or left stopped: " + lanes);
+                }
+            }
+        }
+    }
+
+    private static void reset(SimulatedMessage[] handlers) {
+        synchronized (KeyedLaneBenchmark.class) {
+            for (SimulatedMessage handler : handlers) {
+                handler.acked = false;
+            }
+            ackCount = 0;
+        }
+        Arrays.fill(lastSeq, -1);
+        maxInFlight = 0;
+    }
+
+    private static void spin(long nanos) {
+        final long until = System.nanoTime() + nanos;
+        while (System.nanoTime() < until) {
+            // simulated work
+        }
+    }
+}
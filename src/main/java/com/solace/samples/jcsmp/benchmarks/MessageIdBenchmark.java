@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.util.Arrays;
+
+import com.solace.samples.jcsmp.features.common.MessageIdGenerator;
+import com.solace.samples.jcsmp.features.common.TimeOrderedMessageIdGenerator;
+
+/**
+ * Compares {@code UUID.randomUUID().toString()} against {@link TimeOrderedMessageIdGenerator}, on one
+ * thread and on all cores, and first checks that IDs generated concurrently by many threads are unique
+ * and that each thread's IDs are increasing.
+ */
+public class MessageIdBenchmark {
+
+    private static final long ITERATIONS = 1_000_000;
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final MessageIdGenerator uuid = MessageIdGenerator.randomUuid();
+        final TimeOrderedMessageIdGenerator timeOrdered = new TimeOrderedMessageIdGenerator();
+
+        checkUniqueness(timeOrdered, Math.max(4, threads), 500_000);
+
+        MicroBenchmark.run("UUID.randomUUID().toString()", ITERATIONS, n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                h += uuid.nextId().length();
+            }
+            return h;
+        });
+        MicroBenchmark.run("TimeOrderedMessageIdGenerator.nextId()", ITERATIONS, n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                h += timeOrdered.nextId().length();
+            }
+            return h;
+        });
+        final char[] buf = new char[TimeOrderedMessageIdGenerator.ID_LENGTH];
+        MicroBenchmark.run("TimeOrderedMessageIdGenerator.nextId(char[])", ITERATIONS, n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                timeOrdered.nextId(buf, 0);
+                h += buf[20];
+            }
+            return h;
+        });
+        MicroBenchmark.runThreads("UUID.randomUUID().toString()", threads, ITERATIONS, n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                h += uuid.nextId().length();
+            }
+            return h;
+        });
+        MicroBenchmark.runThreads("TimeOrderedMessageIdGenerator.nextId()", threads, ITERATIONS, n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                h += timeOrdered.nextId().length();
+            }
+            return h;
+        });
+    }
+
+    /** Generates IDs on several threads at once, then checks they're all distinct and ordered per thread. */
+    private static void checkUniqueness(MessageIdGenerator generator, int threads, int idsPerThread)
+            throws InterruptedException {
+        final String[][] ids = new String[threads][idsPerThread];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final String[] mine = ids[t];
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < mine.length; i++) {
+                    mine[i] = generator.nextId();
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        String[] all = new String[threads * idsPerThread];
+        for (int t = 0; t < threads; t++) {
+            for (int i = 1; i < idsPerThread; i++) {
+                if (ids[t][i].compareTo(ids[t][i - 1]) <= 0) {
+                    throw new IllegalStateException("IDs out of order on thread " + t + ": " + ids[t][i - 1] + ", " + ids[t][i]);
+                }
+            }
+            System.arraycopy(ids[t], 0, all, t * idsPerThread, idsPerThread);
+        }
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            if (all[i].equals(all[i - 1])) {
+                throw new IllegalStateException("Duplicate ID: " + all[i]);
+            }
+        }
+        System.out.printf("Uniqueness check passed: %,d IDs from %d threads, all distinct and increasing per thread (e.g. %s)%n%n",
+                all.length, threads, all[all.length - 1]);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import com.solace.samples.jcsmp.features.common.MessagePool;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.TextMessage;
+
+/**
+ * The processors' per-message outbound message handling, before and after {@link MessagePool}: time,
+ * and heap bytes allocated per message.  Compares creating a new TextMessage every time (the original
+ * samples) with a per-thread pool (Direct) and a shared pool (Guaranteed, released from another thread).
+ * Also checks that pooled messages come back reset.  No broker needed.
+ */
+public class MessagePoolBenchmark {
+
+    private static final long ITERATIONS = 2_000_000;
+    private static final String TEXT = "SOLACE/SAMPLES/JCSMP/DIRECT/PUB/A";
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final MessagePool<TextMessage> perThreadPool = MessagePool.perThread(TextMessage.class, 4);
+        final MessagePool<TextMessage> sharedPool = MessagePool.shared(TextMessage.class, 256);
+        checkReset(perThreadPool);
+        checkReset(sharedPool);
+
+        final MicroBenchmark.Op create = n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                final TextMessage msg = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
+                msg.setText(TEXT);
+                h += msg.hashCode();  // stand-in for send()
+            }
+            return h;
+        };
+        final MicroBenchmark.Op perThread = n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                final TextMessage msg = perThreadPool.acquire();
+                msg.setText(TEXT);
+                h += msg.hashCode();
+                perThreadPool.release(msg);  // Direct: right after send()
+            }
+            return h;
+        };
+        // Guaranteed: a window of messages waiting for their ACK, released in the order they're ACKed
+        final TextMessage[] window = new TextMessage[100];
+        final MicroBenchmark.Op shared = n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                final int slot = (int)(i % window.length);
+                if (window[slot] != null) {
+                    sharedPool.release(window[slot]);  // the ACK for the message sent window.length ago
+                }
+                final TextMessage msg = sharedPool.acquire();
+                msg.setText(TEXT);
+                h += msg.hashCode();
+                window[slot] = msg;
+            }
+            return h;
+        };
+
+        MicroBenchmark.run("createMessage() per message", ITERATIONS, create);
+        MicroBenchmark.run("MessagePool.perThread()", ITERATIONS, perThread);
+        MicroBenchmark.run("MessagePool.shared(), 100 awaiting ACK", ITERATIONS, shared);
+        System.out.println();
+        MicroBenchmark.allocation("createMessage() per message", ITERATIONS, create);
+        MicroBenchmark.allocation("MessagePool.perThread()", ITERATIONS, perThread);
+        MicroBenchmark.allocation("MessagePool.shared(), 100 awaiting ACK", ITERATIONS, shared);
+        System.out.println();
+        System.out.println(perThreadPool);
+        System.out.println(sharedPool);
+        if (perThreadPool.getMisses().count() > perThreadPool.getCapacity() || sharedPool.getMisses().count() > window.length + 1) {
+            throw new IllegalStateException("Pools should only miss while warming up");
+        }
+    }
+
+    private static void checkReset(MessagePool<TextMessage> pool) {
+        final TextMessage msg = pool.acquire();
+        msg.setText(TEXT);
+        msg.setApplicationMessageId("id");
+        pool.release(msg);
+        final TextMessage again = pool.acquire();
+        if (again != msg || again.getText() != null || again.getApplicationMessageId() != null) {
+            throw new IllegalStateException("Expected the same message back, reset");
+        }
+        pool.release(again);
+    }
+}
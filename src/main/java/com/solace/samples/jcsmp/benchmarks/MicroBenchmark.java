@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A very small harness for the micro-benchmarks in this package: warm up, then time a few rounds and
+ * report the best.  Good enough for comparing alternatives side by side; use JMH for anything serious.
+ */
+final class MicroBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 5;
+
+    static volatile long sink;  // consume results, so the JIT can't optimize away the work
+
+    /** The code under test: runs the operation 'iterations' times, and returns something to consume. */
+    @FunctionalInterface
+    interface Op {
+        long run(long iterations) throws Exception;
+    }
+
+    private MicroBenchmark() {
+    }
+
+    /** Single-threaded run, prints and returns the best ns/op. */
+    static double run(String name, long iterations, Op op) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += op.run(iterations);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += op.run(iterations);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double nsPerOp = (double)best / iterations;
+        System.out.printf("%-50s %,12.1f ns/op %,16.0f ops/s%n", name, nsPerOp, 1_000_000_000 / nsPerOp);
+        return nsPerOp;
+    }
+
+    /**
+     * Single-threaded run that measures heap allocation instead of time, prints and returns bytes/op.
+     * Needs a JVM that can count allocated bytes per thread (e.g. HotSpot), else returns -1.
+     */
+    static double allocation(String name, long iterations, Op op) throws Exception {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+            System.out.printf("%-50s (allocation counting not supported by this JVM)%n", name);
+            return -1;
+        }
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+        final long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {  // warm up, so caches are full and the JIT has done its escape analysis
+            sink += op.run(iterations);
+        }
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        sink += op.run(iterations);
+        final double bytesPerOp = (double)(threadBean.getThreadAllocatedBytes(threadId) - before) / iterations;
+        System.out.printf("%-50s %,12.1f bytes/op%n", name, bytesPerOp);
+        return bytesPerOp;
+    }
+
+    /** Runs the operation on 'threads' threads at once, prints and returns the best aggregate ops/s. */
+    static double runThreads(String name, int threads, long iterationsPerThread, Op op) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            timeThreads(threads, iterationsPerThread, op);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            best = Math.min(best, timeThreads(threads, iterationsPerThread, op));
+        }
+        double opsPerSec = threads * iterationsPerThread * 1_000_000_000.0 / best;
+        System.out.printf("%-50s %,12.1f ns/op %,16.0f ops/s  (%d threads)%n",
+                name, 1_000_000_000 / opsPerSec, opsPerSec, threads);
+        return opsPerSec;
+    }
+
+    private static long timeThreads(int threads, long iterationsPerThread, Op op) throws Exception {
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong result = new AtomicLong();
+        final Exception[] failure = new Exception[1];
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    ready.countDown();
+                    go.await();
+                    result.addAndGet(op.run(iterationsPerThread));
+                } catch (Exception e) {
+                    failure[0] = e;
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        sink += result.get();
+        return elapsed;
+    }
+}
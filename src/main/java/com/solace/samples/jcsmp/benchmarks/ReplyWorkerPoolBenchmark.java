@@ -0,0 +1,350 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solace.samples.jcsmp.features.common.LatencyHistogram;
+import com.solace.samples.jcsmp.features.common.MessagePool;
+import com.solace.samples.jcsmp.features.common.ReplyWorkerPool;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.Destination;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPSendMultipleEntry;
+import com.solacesystems.jcsmp.TextMessage;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+
+/**
+ * Measures a {@link ReplyWorkerPool} replying to a simulated queue with an endless backlog of requests,
+ * whose handler blocks for 200us (e.g. a database lookup), at several worker counts: the throughput, each
+ * stage's p99 latency, and how many replies each sendMultiple() call carried.  The simulated producer
+ * costs 20us per call plus 1us per reply, with a publish window of 255 and a 500us publish ACK round
+ * trip.  1% of the requests fail in the handler the first time, and are redelivered.  Checks every
+ * request gets exactly one reply, with its correlation ID, and is ACKed exactly once, after its reply;
+ * and that 16 workers reply at least four times as fast as one.  Also checks a NACKed reply is sent again,
+ * and one NACKed every time is settled as FAILED after 5 retries, to be redelivered; and that a request whose
+ * sendMultiple() threw (not losing the connection) is redelivered, rather than holding up the rest.  No
+ * broker needed.
+ */
+public class ReplyWorkerPoolBenchmark {
+
+    private static final long HANDLER_NANOS = 200_000;
+    private static final long CALL_NANOS = 20_000;
+    private static final long REPLY_NANOS = 1_000;
+    private static final long RTT_NANOS = 500_000;
+    private static final int PUBLISH_WINDOW = 255;
+    private static final int WINDOW = 1024;
+    private static final int[] WORKERS = { 1, 4, 16, 64 };
+    private static final long RUN_NANOS = TimeUnit.MILLISECONDS.toNanos(1500);
+    private static final int MAX_REQUESTS = 1 << 20;
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        checkNacks();
+        checkSendError();
+        System.out.printf("Handler %,dus (blocking), sendMultiple() %,dus + %,dus per reply, publish ACK round trip %,dus, %d cores%n",
+                HANDLER_NANOS / 1000, CALL_NANOS / 1000, REPLY_NANOS / 1000, RTT_NANOS / 1000, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %12s %12s %12s %12s %12s %14s %10s%n", "workers", "replies/s", "queued p99", "handler p99", "send p99",
+                "ACK p99", "e2e p99 (us)", "per send");
+        final double[] throughput = new double[WORKERS.length];
+        for (int i = 0; i < WORKERS.length; i++) {
+            throughput[i] = runWorkers(WORKERS[i]);
+        }
+        if (throughput[2] < throughput[0] * 4) {
+            throw new IllegalStateException("16 workers weren't four times as fast as one");
+        }
+    }
+
+    /** Runs the simulated replier with this many workers for RUN_NANOS, then drains it; returns its replies/s. */
+    private static double runWorkers(int workers) throws Exception {
+        final SimulatedQueue queue = new SimulatedQueue();
+        final SimulatedProducer api = new SimulatedProducer(queue);
+        final XMLMessageProducer producer = (XMLMessageProducer)Proxy.newProxyInstance(ReplyWorkerPoolBenchmark.class.getClassLoader(),
+                new Class<?>[] { XMLMessageProducer.class }, (proxy, method, margs) -> {
+                    if (method.getName().equals("sendMultiple")) {
+                        api.sendMultiple((JCSMPSendMultipleEntry[])margs[0], (Integer)margs[1], (Integer)margs[2]);
+                    }
+                    return null;
+                });
+        final ReplyWorkerPool<TextMessage> pool = new ReplyWorkerPool<>(producer, MessagePool.shared(TextMessage.class, WINDOW), workers,
+                WINDOW, 32, 1, TimeUnit.MILLISECONDS, (request, reply) -> {
+                    final int id = SimulatedQueue.id(request);
+                    if (id % 100 == 7 && queue.deliveries.incrementAndGet(id) == 1) {
+                        throw new IllegalStateException("request " + id + " failed, the first time");
+                    }
+                    LockSupport.parkNanos(HANDLER_NANOS);
+                    reply.setText("reply");
+                });
+        pool.setErrorListener(e -> { });  // the failures are expected
+        api.pool = pool;
+        final FlowReceiver flow = (FlowReceiver)Proxy.newProxyInstance(ReplyWorkerPoolBenchmark.class.getClassLoader(),
+                new Class<?>[] { FlowReceiver.class }, (proxy, method, margs) -> queue.invoke(method.getName()));
+        pool.setFlow(flow);
+        api.start();
+
+        final long start = System.nanoTime();
+        while (System.nanoTime() - start < RUN_NANOS && queue.next < MAX_REQUESTS) {
+            queue.deliver(pool, true);  // the Flow's callback thread
+        }
+        final long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((pool.getForwarder().getInFlight() > 0 || !queue.redeliveries.isEmpty()) && System.nanoTime() < drainDeadline) {
+            queue.deliver(pool, false);  // just the redeliveries
+        }
+        final long elapsed = System.nanoTime() - start;
+        pool.close();
+        api.interrupt();
+        api.join();
+
+        final double repliesPerSec = pool.getReplied().count() * 1e9 / elapsed;
+        System.out.printf("%8d %,12.0f %,12d %,12d %,12d %,12d %,14d %10d%n", workers, repliesPerSec, p99Micros(pool.getQueueLatency()),
+                p99Micros(pool.getHandlerLatency()), p99Micros(pool.getSendLatency()), p99Micros(pool.getAckLatency()),
+                p99Micros(pool.getForwarder().getForwardLatency()), pool.getSendBatchSizes().snapshot().getValueAtPercentile(50));
+        int wrong = 0;
+        for (int id = 0; id < queue.next; id++) {
+            wrong += queue.acks.get(id) == 1 && queue.replies.get(id) == 1 ? 0 : 1;
+        }
+        if (wrong > 0 || queue.mismatched.get(0) > 0 || queue.ackedBeforeReply.get(0) > 0 || pool.getReplied().count() != queue.next) {
+            throw new IllegalStateException(String.format("%d workers: %,d requests not replied to and ACKed exactly once, %,d replies "
+                    + "with the wrong correlation ID, %,d requests ACKed before their reply", workers, wrong, queue.mismatched.get(0),
+                    queue.ackedBeforeReply.get(0)));
+        }
+        return repliesPerSec;
+    }
+
+    /** One reply is NACKed once, then ACKed when sent again; the other is NACKed every time, so its request's redelivered. */
+    private static void checkNacks() throws Exception {
+        final SimulatedQueue queue = new SimulatedQueue();
+        final LinkedBlockingQueue<Object[]> sent = new LinkedBlockingQueue<>();  // each reply's correlation key, and request ID
+        final XMLMessageProducer producer = (XMLMessageProducer)Proxy.newProxyInstance(ReplyWorkerPoolBenchmark.class.getClassLoader(),
+                new Class<?>[] { XMLMessageProducer.class }, (proxy, method, margs) -> {
+                    if (method.getName().equals("sendMultiple")) {
+                        final JCSMPSendMultipleEntry[] entries = (JCSMPSendMultipleEntry[])margs[0];
+                        for (int i = (Integer)margs[1]; i < (Integer)margs[1] + (Integer)margs[2]; i++) {
+                            final TextMessage reply = (TextMessage)entries[i].getMessage();
+                            sent.add(new Object[] { reply.getCorrelationKey(), Integer.parseInt(reply.getCorrelationId().substring(4)) });
+                        }
+                    }
+                    return null;
+                });
+        final ReplyWorkerPool<TextMessage> pool = new ReplyWorkerPool<>(producer, MessagePool.shared(TextMessage.class, 16), 1, 16, 1, 1,
+                TimeUnit.MILLISECONDS, (request, reply) -> reply.setText("reply"));
+        pool.setErrorListener(e -> { });  // the FAILED request is expected
+        pool.setFlow((FlowReceiver)Proxy.newProxyInstance(ReplyWorkerPoolBenchmark.class.getClassLoader(),
+                new Class<?>[] { FlowReceiver.class }, (proxy, method, margs) -> queue.invoke(method.getName())));
+        pool.onReceive(queue.request(0));
+        pool.onReceive(queue.request(1));
+        final int[] sends = new int[2];
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((queue.acks.get(0) == 0 || queue.redeliveries.isEmpty()) && System.nanoTime() < deadline) {
+            final Object[] next = sent.poll(10, TimeUnit.MILLISECONDS);
+            if (next != null) {
+                final int id = (Integer)next[1];
+                if (++sends[id] == 1 || id == 1) {
+                    pool.replyFailed(next[0], new JCSMPException("simulated NACK"));
+                } else {
+                    pool.replyAcked(next[0]);
+                }
+            }
+        }
+        pool.close();
+        if (sends[0] != 2 || sends[1] != 6 || queue.acks.get(0) != 1 || queue.acks.get(1) != 0 || queue.redeliveries.size() != 1
+                || pool.getReplied().count() != 1 || pool.getDiscarded().count() != 0 || pool.getNacked().count() != 7) {
+            throw new IllegalStateException(String.format("NACKs: sent %d and %d times (expected 2, 6), ACKed %d and %d times, "
+                    + "%d redelivered; %s", sends[0], sends[1], queue.acks.get(0), queue.acks.get(1), queue.redeliveries.size(), pool));
+        }
+    }
+
+    /** The first sendMultiple() throws: its request's settled FAILED, and redelivered, and the redelivery's reply ACKed. */
+    private static void checkSendError() throws Exception {
+        final SimulatedQueue queue = new SimulatedQueue();
+        final LinkedBlockingQueue<Object> sent = new LinkedBlockingQueue<>();  // each reply's correlation key
+        final AtomicInteger calls = new AtomicInteger();
+        final XMLMessageProducer producer = (XMLMessageProducer)Proxy.newProxyInstance(ReplyWorkerPoolBenchmark.class.getClassLoader(),
+                new Class<?>[] { XMLMessageProducer.class }, (proxy, method, margs) -> {
+                    if (method.getName().equals("sendMultiple")) {
+                        if (calls.getAndIncrement() == 0) {
+                            throw new IllegalStateException("simulated send error");
+                        }
+                        final JCSMPSendMultipleEntry[] entries = (JCSMPSendMultipleEntry[])margs[0];
+                        for (int i = (Integer)margs[1]; i < (Integer)margs[1] + (Integer)margs[2]; i++) {
+                            sent.add(entries[i].getMessage().getCorrelationKey());
+                        }
+                    }
+                    return null;
+                });
+        final ReplyWorkerPool<TextMessage> pool = new ReplyWorkerPool<>(producer, MessagePool.shared(TextMessage.class, 16), 1, 16, 1, 1,
+                TimeUnit.MILLISECONDS, (request, reply) -> reply.setText("reply"));
+        pool.setErrorListener(e -> { });  // the send error is expected
+        pool.setFlow((FlowReceiver)Proxy.newProxyInstance(ReplyWorkerPoolBenchmark.class.getClassLoader(),
+                new Class<?>[] { FlowReceiver.class }, (proxy, method, margs) -> queue.invoke(method.getName())));
+        pool.onReceive(queue.request(0));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue.acks.get(0) == 0 && System.nanoTime() < deadline) {
+            final Integer redelivery = queue.redeliveries.poll();
+            if (redelivery != null) {
+                pool.onReceive(queue.request(redelivery));
+            }
+            final Object key = sent.poll(10, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                pool.replyAcked(key);
+            }
+        }
+        pool.close();
+        if (calls.get() != 2 || queue.acks.get(0) != 1 || pool.getSendErrors().count() != 1 || pool.getReplied().count() != 1
+                || pool.getForwarder().getInFlight() != 0) {
+            throw new IllegalStateException(String.format("Send error: %d sends, ACKed %d times, %d in flight; %s", calls.get(),
+                    queue.acks.get(0), pool.getForwarder().getInFlight(), pool));
+        }
+    }
+
+    private static long p99Micros(LatencyHistogram histogram) {
+        return histogram.snapshot().getValueAtPercentile(99) / 1000;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+
+    /** A request queue with an endless backlog, whose Flow delivers nothing while stopped; FAILED requests are redelivered first. */
+    private static final class SimulatedQueue {
+        static final Destination REPLY_TO = JCSMPFactory.onlyInstance().createQueue("#P2P/QTMP/replies");
+        final AtomicIntegerArray acks = new AtomicIntegerArray(MAX_REQUESTS);
+        final AtomicIntegerArray replies = new AtomicIntegerArray(MAX_REQUESTS);      // reply ACKs
+        final AtomicIntegerArray deliveries = new AtomicIntegerArray(MAX_REQUESTS);   // the handler's, for failing once
+        final AtomicIntegerArray mismatched = new AtomicIntegerArray(1);
+        final AtomicIntegerArray ackedBeforeReply = new AtomicIntegerArray(1);
+        final ConcurrentLinkedQueue<Integer> redeliveries = new ConcurrentLinkedQueue<>();
+        private volatile boolean started = true;
+        int next = 0;  // only used by the delivering thread
+
+        Object invoke(String method) {
+            if (method.equals("stop")) {
+                started = false;
+            } else if (method.equals("start")) {
+                started = true;
+            }
+            return null;
+        }
+
+        void deliver(ReplyWorkerPool<TextMessage> pool, boolean more) {
+            if (!started) {
+                LockSupport.parkNanos(10_000);
+                return;
+            }
+            final Integer redelivery = redeliveries.poll();
+            if (redelivery == null && !more) {
+                LockSupport.parkNanos(10_000);
+                return;
+            }
+            pool.onReceive(request(redelivery != null ? redelivery : next++));
+        }
+
+        BytesXMLMessage request(int id) {
+            final String correlationId = "req-" + id;
+            return (BytesXMLMessage)Proxy.newProxyInstance(ReplyWorkerPoolBenchmark.class.getClassLoader(),
+                    new Class<?>[] { BytesXMLMessage.class }, (proxy, method, margs) -> {
+                        switch (method.getName()) {
+                            case "getReplyTo":
+                                return REPLY_TO;
+                            case "getCorrelationId":
+                                return correlationId;
+                            case "ackMessage":
+                                acks.incrementAndGet(id);
+                                if (replies.get(id) == 0) {
+                                    ackedBeforeReply.incrementAndGet(0);
+                                }
+                                return null;
+                            case "settle":  // FAILED: redeliver it
+                                redeliveries.add(id);
+                                return null;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+
+        static int id(BytesXMLMessage request) {
+            return Integer.parseInt(request.getCorrelationId().substring(4));
+        }
+
+        /** A reply was ACKed by the "broker". */
+        void replied(TextMessage reply) {
+            final String correlationId = reply.getCorrelationId();
+            if (correlationId == null || !correlationId.startsWith("req-") || reply.getReplyTo() != null) {
+                mismatched.incrementAndGet(0);
+                return;
+            }
+            replies.incrementAndGet(Integer.parseInt(correlationId.substring(4)));
+        }
+    }
+
+    /**
+     * sendMultiple() costs CALL_NANOS plus REPLY_NANOS per reply, and waits while the publish window is full;
+     * each reply is ACKed RTT_NANOS after it was sent, in order, on this ("API callback") thread.
+     */
+    private static final class SimulatedProducer extends Thread {
+        private final SimulatedQueue queue;
+        private final Semaphore window = new Semaphore(PUBLISH_WINDOW);
+        private final ArrayBlockingQueue<Object[]> sent = new ArrayBlockingQueue<>(PUBLISH_WINDOW);
+        volatile ReplyWorkerPool<TextMessage> pool;
+
+        SimulatedProducer(SimulatedQueue queue) {
+            super("api-callback");
+            setDaemon(true);
+            this.queue = queue;
+        }
+
+        void sendMultiple(JCSMPSendMultipleEntry[] entries, int offset, int length) throws InterruptedException {
+            window.acquire(length);
+            final long end = System.nanoTime() + CALL_NANOS + REPLY_NANOS * length;
+            while (System.nanoTime() < end) {
+                // busy: serializing them, and the system call
+            }
+            for (int i = offset; i < offset + length; i++) {
+                final TextMessage reply = (TextMessage)entries[i].getMessage();
+                sent.put(new Object[] { reply, reply.getCorrelationKey(), end + RTT_NANOS });
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Object[] next = sent.take();
+                    final long wait = (Long)next[2] - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    queue.replied((TextMessage)next[0]);  // before the pool recycles it
+                    pool.replyAcked(next[1]);  // responseReceivedEx()
+                    window.release();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solace.samples.jcsmp.features.common.RatePacer;
+import com.solace.samples.jcsmp.features.common.ScalingConsumerGroup;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.ConsumerFlowProperties;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.XMLMessageListener;
+
+/**
+ * Runs a {@link ScalingConsumerGroup} against a simulated non-exclusive queue through a quiet, busy and
+ * quiet again phase, with a handler that waits 200us per message (e.g. on a database), and prints the
+ * Flows, sessions, backlog and each Flow's rate as it scales.  Each simulated session has one thread that
+ * hands the queue's messages to its started Flows in turn, as the API's does.  Checks the group scales up
+ * for the busy phase (within its max), back down after, and that every message is ACKed exactly once.
+ * No broker needed.
+ */
+public class ScalingConsumerGroupBenchmark {
+
+    private static final int MIN_FLOWS = 1;
+    private static final int MAX_FLOWS = 12;
+    private static final int FLOWS_PER_SESSION = 2;
+    private static final long HANDLER_NANOS = 200_000;
+    private static final int[][] PHASES = { { 1_000, 3 }, { 15_000, 8 }, { 500, 8 } };  // msgs/s, seconds
+
+    private static final LinkedBlockingDeque<Long> queue = new LinkedBlockingDeque<>();
+    private static final AtomicLong acked = new AtomicLong();
+    private static final List<Thread> dispatchers = new CopyOnWriteArrayList<>();
+
+    /** One started, stopped or closed Flow on a simulated session. */
+    private static final class SimulatedFlow {
+        final XMLMessageListener listener;
+        volatile boolean started = false;
+        volatile boolean closed = false;
+
+        SimulatedFlow(XMLMessageListener listener) {
+            this.listener = listener;
+        }
+    }
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final BytesXMLMessage message = (BytesXMLMessage)Proxy.newProxyInstance(ScalingConsumerGroupBenchmark.class.getClassLoader(),
+                new Class<?>[] { BytesXMLMessage.class }, (proxy, method, margs) -> {
+                    if (method.getName().equals("ackMessage")) {
+                        acked.incrementAndGet();
+                    }
+                    return null;
+                });
+        final ScalingConsumerGroup group = new ScalingConsumerGroup(newSession(message), () -> newSession(message),
+                new ConsumerFlowProperties(), MIN_FLOWS, MAX_FLOWS, FLOWS_PER_SESSION, msg -> LockSupport.parkNanos(HANDLER_NANOS));
+        group.setBacklogProbe(queue::size, 2_000);
+        group.setScaleInterval(250, TimeUnit.MILLISECONDS);
+        group.start();
+        System.out.printf("Handler: %,dus per message, Flows %d..%d, %d per session%n", HANDLER_NANOS / 1000, MIN_FLOWS, MAX_FLOWS,
+                FLOWS_PER_SESSION);
+
+        long produced = 0;
+        int peakFlows = 0;
+        for (int[] phase : PHASES) {
+            System.out.printf("--- %,d msgs/s for %ds%n", phase[0], phase[1]);
+            final RatePacer pacer = new RatePacer(phase[0]);
+            final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(phase[1]);
+            long nextStats = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (System.nanoTime() < end) {
+                pacer.acquire();
+                queue.offer(produced++);
+                if (System.nanoTime() > nextStats) {
+                    nextStats += TimeUnit.SECONDS.toNanos(1);
+                    peakFlows = Math.max(peakFlows, group.getFlowCount());
+                    System.out.printf("Flows: %d on %d sessions, backlog: %,d, rates: %s%n", group.getFlowCount(),
+                            group.getSessionCount(), queue.size(), group.getFlowRates());
+                }
+            }
+        }
+        while (!queue.isEmpty() && group.getFlowCount() > 0) {
+            Thread.sleep(10);
+        }
+        final int endFlows = group.getFlowCount();
+        group.close();
+        Thread.sleep(100);
+        for (Thread dispatcher : dispatchers) {
+            dispatcher.join(1000);
+        }
+        System.out.println(group);
+        System.out.printf("Produced %,d, ACKed %,d, peak %d Flows, %d at the end%n", produced, acked.get(), peakFlows, endFlows);
+        if (acked.get() != produced || peakFlows < 4 || peakFlows > MAX_FLOWS || endFlows > 2) {
+            throw new IllegalStateException("Didn't scale up and back down, or lost or duplicated messages");
+        }
+    }
+
+    /** A session whose one dispatcher thread hands the queue's messages to its started Flows, in turn. */
+    private static JCSMPSession newSession(BytesXMLMessage message) {
+        final List<SimulatedFlow> flows = new CopyOnWriteArrayList<>();
+        final Thread dispatcher = new Thread(() -> {
+            int next = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                SimulatedFlow flow = null;
+                for (int i = 0; i < flows.size() && flow == null; i++) {
+                    final SimulatedFlow f = flows.get((next + i) % flows.size());
+                    flow = f.started && !f.closed ? f : null;
+                }
+                final Long msg;
+                try {
+                    msg = flow == null ? null : queue.poll(1, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (msg == null) {
+                    LockSupport.parkNanos(100_000);
+                    continue;
+                }
+                if (!flow.started || flow.closed) {  // stopped meanwhile: it goes to another Flow
+                    queue.offerFirst(msg);
+                    continue;
+                }
+                next++;
+                flow.listener.onReceive(message);
+            }
+        }, "simulated-session-" + dispatchers.size());
+        dispatcher.setDaemon(true);
+        dispatchers.add(dispatcher);
+        dispatcher.start();
+        return (JCSMPSession)Proxy.newProxyInstance(ScalingConsumerGroupBenchmark.class.getClassLoader(),
+                new Class<?>[] { JCSMPSession.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("createFlow")) {
+                        final SimulatedFlow flow = new SimulatedFlow((XMLMessageListener)args[0]);
+                        flows.add(flow);
+                        return Proxy.newProxyInstance(ScalingConsumerGroupBenchmark.class.getClassLoader(),
+                                new Class<?>[] { FlowReceiver.class }, (p, m, a) -> {
+                                    if (m.getName().equals("start")) {
+                                        flow.started = true;
+                                    } else if (m.getName().equals("stop")) {
+                                        flow.started = false;
+                                    } else if (m.getName().equals("close")) {
+                                        flow.closed = true;
+                                        flows.remove(flow);
+                                    }
+                                    return null;
+                                });
+                    } else if (method.getName().equals("closeSession")) {
+                        dispatcher.interrupt();
+                    }
+                    return null;
+                });
+    }
+}
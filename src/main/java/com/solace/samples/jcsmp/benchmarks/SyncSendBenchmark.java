@@ -0,0 +1,172 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solace.samples.jcsmp.features.BlockingSynchronousSendGuaranteed;
+import com.solacesystems.jcsmp.DeliveryMode;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
+import com.solacesystems.jcsmp.TextMessage;
+import com.solacesystems.jcsmp.Topic;
+import com.solacesystems.jcsmp.XMLMessage;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+
+/**
+ * Compares blocking Guaranteed sends from many threads: the old BlockingSynchronousSendGuaranteed (a
+ * synchronized method, a new CyclicBarrier per message, and a publish window of 1, so one message per
+ * round trip for the whole JVM), with the current one (each caller parks until its own ACK, with a
+ * window of 255, so concurrent callers share a round trip).  The broker is simulated: it ACKs each
+ * message one round trip after it's sent, and holds send() while the publish window is full.
+ */
+public class SyncSendBenchmark {
+
+    private static final long RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int MSGS_PER_ROUND = 200;  // old: one per RTT, whatever the threads
+
+    /** A blocking send, old or new. */
+    private interface Sender {
+        void blockingSend(XMLMessage message, Topic topic) throws Exception;
+    }
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final Topic topic = JCSMPFactory.onlyInstance().createTopic("my/sample/topic");
+        System.out.printf("Simulated broker, round trip %,d us%n", TimeUnit.NANOSECONDS.toMicros(RTT_NANOS));
+        for (int threads : new int[] { 1, 4, 16, 64 }) {
+            final Sender legacy = new LegacyBlockingSend(new SimulatedBroker(1).session);
+            final Sender current = new BlockingSynchronousSendGuaranteed(new SimulatedBroker(255).session)::blockingSend;
+            final double before = run("synchronized + CyclicBarrier, window 1", legacy, topic, threads,
+                    Math.max(1, MSGS_PER_ROUND / threads));
+            final double after = run("park per caller, window 255", current, topic, threads, MSGS_PER_ROUND);
+            System.out.printf("  %d threads: %.1fx the throughput%n", threads, after / before);
+        }
+    }
+
+    private static double run(String name, Sender sender, Topic topic, int threads, int msgsPerThread) throws Exception {
+        return MicroBenchmark.runThreads(name, threads, msgsPerThread, n -> {
+            for (long i = 0; i < n; i++) {
+                final TextMessage msg = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
+                msg.setDeliveryMode(DeliveryMode.PERSISTENT);
+                sender.blockingSend(msg, topic);
+            }
+            return n;
+        });
+    }
+
+    /** The broker's side: a publish window, and an ACK one round trip after each send, in order. */
+    private static final class SimulatedBroker {
+        final JCSMPSession session;
+        private final Semaphore window;
+        private final LinkedBlockingQueue<Object[]> sent = new LinkedBlockingQueue<>();  // correlation key, send time
+        private volatile JCSMPStreamingPublishCorrelatingEventHandler callbacks;
+
+        SimulatedBroker(int windowSize) {
+            window = new Semaphore(windowSize);
+            final XMLMessageProducer producer = (XMLMessageProducer)Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { XMLMessageProducer.class }, (proxy, method, args) -> {
+                        if (method.getName().equals("send")) {  // the API blocks send() while the window is full
+                            window.acquire();
+                            sent.put(new Object[] { ((XMLMessage)args[0]).getCorrelationKey(), System.nanoTime() });
+                        }
+                        return null;
+                    });
+            session = (JCSMPSession)Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { JCSMPSession.class }, (proxy, method, args) -> {
+                        if (method.getName().equals("getMessageProducer")) {
+                            callbacks = (JCSMPStreamingPublishCorrelatingEventHandler)args[0];
+                            return producer;
+                        }
+                        return null;
+                    });
+            final Thread acker = new Thread(this::ackLoop, "simulated-broker");
+            acker.setDaemon(true);
+            acker.start();
+        }
+
+        private void ackLoop() {
+            try {
+                while (true) {
+                    final Object[] msg = sent.take();
+                    final long wait = (Long)msg[1] + RTT_NANOS - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    window.release();
+                    callbacks.responseReceivedEx(msg[0]);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** BlockingSynchronousSendGuaranteed.blockingSend() as it was, for comparison. */
+    private static final class LegacyBlockingSend implements Sender, JCSMPStreamingPublishCorrelatingEventHandler {
+        private final XMLMessageProducer producer;
+        private volatile Exception publishException;
+
+        LegacyBlockingSend(JCSMPSession session) throws JCSMPException {
+            producer = session.getMessageProducer(this);
+        }
+
+        @Override
+        public synchronized void blockingSend(XMLMessage message, Topic topic) throws Exception {
+            publishException = null;
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            message.setCorrelationKey(barrier);
+            producer.send(message, topic);
+            barrier.await();
+            if (publishException != null) {
+                throw publishException;
+            }
+        }
+
+        @Override
+        public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
+            if (key instanceof CyclicBarrier) {
+                publishException = cause;
+                await((CyclicBarrier)key);
+            }
+        }
+
+        @Override
+        public void responseReceivedEx(Object key) {
+            if (key instanceof CyclicBarrier) {
+                await((CyclicBarrier)key);
+            }
+        }
+
+        private static void await(CyclicBarrier barrier) {
+            try {
+                barrier.await();
+            } catch (InterruptedException | BrokenBarrierException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import com.solace.samples.jcsmp.features.common.TopicCache;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.Topic;
+
+/**
+ * Compares creating a new Topic for every message (as the publishers used to) against looking it up in
+ * a {@link TopicCache}.  No broker connection needed.
+ */
+public class TopicCacheBenchmark {
+
+    private static final String PREFIX = "solace/samples/jcsmp/direct/pub/";
+    private static final long ITERATIONS = 2_000_000;
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        for (int distinctTopics : new int[] { 26, 1_000, 100_000 }) {
+            final String[] suffixes = new String[distinctTopics];
+            for (int i = 0; i < distinctTopics; i++) {
+                suffixes[i] = Integer.toString(i);
+            }
+            final TopicCache cache = new TopicCache(PREFIX, 1024);  // smaller than the last key set, to show eviction
+            System.out.printf("%n--- %,d distinct topics, cache capacity %,d ---%n", distinctTopics, cache.capacity());
+
+            MicroBenchmark.run("uncached: StringBuilder + createTopic()", ITERATIONS, n -> {
+                long h = 0;
+                for (long i = 0; i < n; i++) {
+                    String topic = new StringBuilder(PREFIX).append(suffixes[(int)(i % distinctTopics)]).toString();
+                    h += JCSMPFactory.onlyInstance().createTopic(topic).getName().length();
+                }
+                return h;
+            });
+            MicroBenchmark.run("cached: TopicCache.get(suffix)", ITERATIONS, n -> {
+                long h = 0;
+                for (long i = 0; i < n; i++) {
+                    Topic topic = cache.get(suffixes[(int)(i % distinctTopics)]);
+                    h += topic.getName().length();
+                }
+                return h;
+            });
+            MicroBenchmark.runThreads("uncached: StringBuilder + createTopic()", threads, ITERATIONS, n -> {
+                long h = 0;
+                for (long i = 0; i < n; i++) {
+                    String topic = new StringBuilder(PREFIX).append(suffixes[(int)(i % distinctTopics)]).toString();
+                    h += JCSMPFactory.onlyInstance().createTopic(topic).getName().length();
+                }
+                return h;
+            });
+            MicroBenchmark.runThreads("cached: TopicCache.get(suffix)", threads, ITERATIONS, n -> {
+                long h = 0;
+                for (long i = 0; i < n; i++) {
+                    h += cache.get(suffixes[(int)(i % distinctTopics)]).getName().length();
+                }
+                return h;
+            });
+            System.out.println(cache);
+        }
+    }
+}
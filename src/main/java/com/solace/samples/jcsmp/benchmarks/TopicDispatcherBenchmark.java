@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import com.solace.samples.jcsmp.features.common.TopicDispatcher;
+
+/**
+ * Checks {@link TopicDispatcher} against Solace wildcard semantics, first with hand-written cases and
+ * then against a simple (split-the-strings) reference matcher on random subscriptions and topics.  Then
+ * times lookups with 100k subscriptions, against scanning the subscriptions one by one.
+ */
+public class TopicDispatcherBenchmark {
+
+    private static final int SUBSCRIPTIONS = 100_000;
+    private static final long ITERATIONS = 1_000_000;
+
+    /** subscription, topic, should it match? */
+    private static final Object[][] CASES = {
+        { "animals/domestic/cats", "animals/domestic/cats", true },
+        { "animals/domestic/cats", "animals/domestic/dogs", false },
+        { "animals/domestic/cats", "animals/domestic", false },
+        { "animals/domestic/cats", "animals/domestic/cats/tabby", false },
+        { "animals/domestic/*", "animals/domestic/cats", true },
+        { "animals/domestic/*", "animals/domestic/", true },  // an empty last level is still a level
+        { "animals/domestic/*", "animals/domestic", false },
+        { "animals/domestic/*", "animals/domestic/cats/tabby", false },
+        { "animals/*/cats", "animals/domestic/cats", true },
+        { "animals/*/cats", "animals/wild/dogs", false },
+        { "animals/domestic/dog*", "animals/domestic/dog", true },  // prefix wildcard matches zero or more chars
+        { "animals/domestic/dog*", "animals/domestic/doggy", true },
+        { "animals/domestic/dog*", "animals/domestic/do", false },
+        { "animals/domestic/dog*", "animals/domestic/cat", false },
+        { "animals/domestic/dog*", "animals/domestic/doggy/small", false },
+        { "animals/dom*tic/cats", "animals/domestic/cats", false },  // '*' inside a level is a literal
+        { "animals/dom*tic/cats", "animals/dom*tic/cats", true },
+        { "animals/>", "animals/domestic", true },
+        { "animals/>", "animals/domestic/cats/tabby", true },
+        { "animals/>", "animals", false },  // '>' needs at least one more level
+        { "animals/>", "animalsx/domestic", false },
+        { "animals/*/cats/>", "animals/domestic/cats/tabby/grey", true },
+        { "animals/*/cats/>", "animals/domestic/cats", false },
+        { "animals/dom*/>", "animals/domestic/cats", true },
+        { ">", "animals", true },
+        { ">", "animals/domestic/cats", true },
+        { "*", "animals", true },
+        { "*", "animals/domestic", false },
+        { "*/>", "animals/domestic", true },
+        { "animals>", "animals>", true },  // '>' that isn't a whole level is a literal
+        { "animals>", "animals/cats", false },
+        { "animals/>/cats", "animals/>/cats", true },  // '>' that isn't the last level is a literal
+        { "animals/>/cats", "animals/domestic/cats", false },
+        { "solace/samples/*/direct/pub/>", "solace/samples/jcsmp/direct/pub/A", true },
+        { "solace/samples/*/direct/pub/>", "solace/samples/jcsmp/direct/upper/A", false },
+        { "GET/solace/samples/*/direct/request", "GET/solace/samples/rest/direct/request", true },
+        { "GET/solace/samples/*/direct/request", "solace/samples/rest/direct/request", false },
+    };
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        checkCases();
+        checkAgainstReference(new Random(42), 2_000, 20_000);
+        checkUnsubscribe();
+
+        // a realistic-ish mix: mostly exact topics, plus some prefix, single-level and multi-level wildcards
+        final Random random = new Random(7);
+        final TopicDispatcher<Integer> dispatcher = new TopicDispatcher<>();
+        final String[] subscriptions = new String[SUBSCRIPTIONS];
+        for (int i = 0; i < SUBSCRIPTIONS; i++) {
+            final String app = "app" + (i % 1000);
+            switch (i % 10) {
+                case 0:
+                    subscriptions[i] = "acme/" + app + "/orders/*/" + i;
+                    break;
+                case 1:
+                    subscriptions[i] = "acme/" + app + "/trades/" + i + "/>";
+                    break;
+                case 2:
+                    subscriptions[i] = "acme/" + app + "/quotes/" + (i / 10) + "*";
+                    break;
+                default:
+                    subscriptions[i] = "acme/" + app + "/events/" + i;
+            }
+            dispatcher.subscribe(subscriptions[i], i);
+        }
+        final String[] topics = new String[1024];
+        for (int i = 0; i < topics.length; i++) {
+            final int n = random.nextInt(SUBSCRIPTIONS);
+            final String app = "app" + (n % 1000);
+            switch (random.nextInt(5)) {
+                case 0:
+                    topics[i] = "acme/" + app + "/orders/new/" + n;
+                    break;
+                case 1:
+                    topics[i] = "acme/" + app + "/trades/" + n + "/fx/eur";
+                    break;
+                case 2:
+                    topics[i] = "acme/" + app + "/quotes/" + (n / 10) + "42";
+                    break;
+                case 3:
+                    topics[i] = "acme/" + app + "/events/" + n;
+                    break;
+                default:
+                    topics[i] = "acme/" + app + "/unknown/" + n;  // matches nothing
+            }
+        }
+        System.out.printf("%,d subscriptions, %,d distinct topics%n", dispatcher.size(), topics.length);
+        final int mask = topics.length - 1;
+        MicroBenchmark.run("TopicDispatcher.lookup()", ITERATIONS, n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                final Integer handler = dispatcher.lookup(topics[(int)i & mask]);
+                h += handler == null ? 0 : handler;
+            }
+            return h;
+        });
+        final long[] sum = new long[1];
+        MicroBenchmark.run("TopicDispatcher.forEachMatch()", ITERATIONS, n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                h += dispatcher.forEachMatch(topics[(int)i & mask], handler -> sum[0] += handler);
+            }
+            return h + sum[0];
+        });
+        MicroBenchmark.run("linear scan of all subscriptions", 100, n -> {  // what a list of if()s would cost
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                final String topic = topics[(int)i & mask];
+                for (int s = 0; s < subscriptions.length; s++) {
+                    if (referenceMatches(subscriptions[s], topic)) {
+                        h += s;
+                        break;
+                    }
+                }
+            }
+            return h;
+        });
+    }
+
+    private static void checkCases() {
+        for (Object[] c : CASES) {
+            final TopicDispatcher<String> dispatcher = new TopicDispatcher<>();
+            dispatcher.subscribe((String)c[0], "handler");
+            final boolean expected = (Boolean)c[2];
+            if (dispatcher.matches((String)c[1]) != expected || referenceMatches((String)c[0], (String)c[1]) != expected) {
+                throw new IllegalStateException(String.format("'%s' should %smatch '%s'", c[0], expected ? "" : "not ", c[1]));
+            }
+        }
+        System.out.printf("Wildcard semantics check passed: %d cases%n", CASES.length);
+    }
+
+    /** Random subscriptions and topics from a small vocabulary, so that there are plenty of matches. */
+    private static void checkAgainstReference(Random random, int subscriptionCount, int topicCount) {
+        final String[] subLevels = { "a", "ab", "abc", "b", "", "*", "a*", "ab*", ">", "a>", "x*y" };
+        final String[] topicLevels = { "a", "ab", "abc", "abcd", "b", "", ">", "a>", "x*y", "*" };
+        final TopicDispatcher<Integer> dispatcher = new TopicDispatcher<>();
+        final List<String> subscriptions = new ArrayList<>();
+        for (int i = 0; i < subscriptionCount; i++) {
+            final String subscription = randomTopic(random, subLevels);
+            subscriptions.add(subscription);
+            dispatcher.subscribe(subscription, i);
+        }
+        long matches = 0;
+        for (int t = 0; t < topicCount; t++) {
+            final String topic = randomTopic(random, topicLevels);
+            final TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = 0; i < subscriptions.size(); i++) {
+                if (referenceMatches(subscriptions.get(i), topic)) {
+                    expected.add(i);
+                }
+            }
+            final TreeSet<Integer> actual = new TreeSet<>();
+            final int count = dispatcher.forEachMatch(topic, actual::add);
+            if (!actual.equals(expected) || count != expected.size() || (dispatcher.lookup(topic) == null) != expected.isEmpty()) {
+                throw new IllegalStateException("Mismatch for topic '" + topic + "': expected " + expected + " but got " + actual);
+            }
+            matches += count;
+        }
+        System.out.printf("Reference check passed: %,d random topics against %,d random subscriptions (%,d matches)%n",
+                topicCount, subscriptionCount, matches);
+    }
+
+    private static void checkUnsubscribe() {
+        final TopicDispatcher<String> dispatcher = new TopicDispatcher<>();
+        final String[] subscriptions = { "a/b/c", "a/b/*", "a/b*/c", "a/>", ">", "a/b/c" };
+        for (String subscription : subscriptions) {
+            dispatcher.subscribe(subscription, subscription);
+        }
+        if (dispatcher.forEachMatch("a/b/c", h -> { }) != subscriptions.length || !"a/b/c".equals(dispatcher.lookup("a/b/c"))) {
+            throw new IllegalStateException("Expected all subscriptions to match, most specific first");
+        }
+        for (String subscription : subscriptions) {
+            if (!dispatcher.unsubscribe(subscription, subscription)) {
+                throw new IllegalStateException("Could not unsubscribe " + subscription);
+            }
+        }
+        if (dispatcher.size() != 0 || dispatcher.matches("a/b/c") || dispatcher.unsubscribe("a/b/c", "a/b/c")) {
+            throw new IllegalStateException("Expected nothing left after unsubscribing everything");
+        }
+        System.out.println("Unsubscribe check passed");
+        System.out.println();
+    }
+
+    private static String randomTopic(Random random, String[] levels) {
+        final StringBuilder sb = new StringBuilder();
+        do {  // but not the empty topic
+            sb.setLength(0);
+            final int depth = 1 + random.nextInt(4);
+            for (int i = 0; i < depth; i++) {
+                sb.append(i == 0 ? "" : "/").append(levels[random.nextInt(levels.length)]);
+            }
+        } while (sb.length() == 0);
+        return sb.toString();
+    }
+
+    /** The obvious, slow way: split both into levels and compare them one by one. */
+    static boolean referenceMatches(String subscription, String topic) {
+        final String[] subLevels = subscription.split("/", -1);
+        final String[] topicLevels = topic.split("/", -1);
+        for (int i = 0; i < subLevels.length; i++) {
+            final String level = subLevels[i];
+            if (i == subLevels.length - 1 && level.equals(">")) {
+                return topicLevels.length > i;
+            }
+            if (i >= topicLevels.length) {
+                return false;
+            }
+            if (level.equals("*")) {
+                continue;
+            }
+            if (level.length() > 1 && level.endsWith("*")) {
+                if (!topicLevels[i].startsWith(level.substring(0, level.length() - 1))) {
+                    return false;
+                }
+                continue;
+            }
+            if (!level.equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return subLevels.length == topicLevels.length;
+    }
+}
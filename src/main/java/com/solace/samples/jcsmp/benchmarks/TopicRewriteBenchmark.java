@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.util.Collections;
+
+import com.solace.samples.jcsmp.features.common.TopicCache;
+import com.solace.samples.jcsmp.features.common.TopicRewriter;
+import com.solacesystems.jcsmp.JCSMPFactory;
+
+/**
+ * The processors' per-message topic work, before and after {@link TopicRewriter}: time, and heap bytes
+ * allocated per message.  Compares building the outbound topic with split() and a new Topic every time
+ * (the original samples), split() plus a {@link TopicCache} lookup, and TopicRewriter.  No broker needed.
+ */
+public class TopicRewriteBenchmark {
+
+    private static final String PREFIX = "solace/samples/jcsmp/direct/";
+    private static final long ITERATIONS = 2_000_000;
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        final String[] inboundTopics = new String[26];
+        for (int i = 0; i < inboundTopics.length; i++) {
+            inboundTopics[i] = PREFIX + "pub/" + (char)('A' + i);
+        }
+        final TopicCache topicCache = new TopicCache(PREFIX + "upper/", 1024);
+        final TopicRewriter topicRewriter = new TopicRewriter("solace/samples/{api}/direct/upper/{5..}",
+                Collections.singletonMap("api", "jcsmp"), 1024);
+        if (!topicRewriter.rewriteToString(PREFIX + "pub/A/B").equals(PREFIX + "upper/A/B")
+                || topicRewriter.rewrite(PREFIX + "pub") != null) {
+            throw new IllegalStateException("TopicRewriter produced the wrong topic");
+        }
+
+        final MicroBenchmark.Op original = n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                final String[] levels = inboundTopics[(int)(i % inboundTopics.length)].split("/", 6);
+                final String topic = new StringBuilder(PREFIX).append("upper/").append(levels[5]).toString();
+                h += JCSMPFactory.onlyInstance().createTopic(topic).getName().length();
+            }
+            return h;
+        };
+        final MicroBenchmark.Op splitAndCache = n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                final String[] levels = inboundTopics[(int)(i % inboundTopics.length)].split("/", 6);
+                h += topicCache.get(levels[5]).getName().length();
+            }
+            return h;
+        };
+        final MicroBenchmark.Op rewriter = n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                h += topicRewriter.rewrite(inboundTopics[(int)(i % inboundTopics.length)]).getName().length();
+            }
+            return h;
+        };
+        // received topics are new Strings, so their hash codes aren't cached yet; this shows that case
+        final StringBuilder[] receivedTopics = new StringBuilder[inboundTopics.length];
+        for (int i = 0; i < inboundTopics.length; i++) {
+            receivedTopics[i] = new StringBuilder(inboundTopics[i]);
+        }
+        final MicroBenchmark.Op rewriterUncachedHash = n -> {
+            long h = 0;
+            for (long i = 0; i < n; i++) {
+                h += topicRewriter.rewrite(receivedTopics[(int)(i % receivedTopics.length)]).getName().length();
+            }
+            return h;
+        };
+        MicroBenchmark.run("split + StringBuilder + createTopic()", ITERATIONS, original);
+        MicroBenchmark.run("split + TopicCache.get()", ITERATIONS, splitAndCache);
+        MicroBenchmark.run("TopicRewriter.rewrite()", ITERATIONS, rewriter);
+        MicroBenchmark.run("TopicRewriter.rewrite(), hash not cached", ITERATIONS, rewriterUncachedHash);
+        System.out.println();
+        MicroBenchmark.allocation("split + StringBuilder + createTopic()", ITERATIONS, original);
+        MicroBenchmark.allocation("split + TopicCache.get()", ITERATIONS, splitAndCache);
+        MicroBenchmark.allocation("TopicRewriter.rewrite()", ITERATIONS, rewriter);
+        MicroBenchmark.allocation("TopicRewriter.rewrite(), hash not cached", ITERATIONS, rewriterUncachedHash);
+        System.out.println(topicRewriter);
+    }
+}
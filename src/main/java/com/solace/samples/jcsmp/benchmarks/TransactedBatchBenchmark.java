@@ -0,0 +1,268 @@
+/*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.solace.samples.jcsmp.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solace.samples.jcsmp.features.common.RatePacer;
+import com.solace.samples.jcsmp.features.common.TransactedBatchProcessor;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+import com.solacesystems.jcsmp.transaction.RollbackException;
+import com.solacesystems.jcsmp.transaction.TransactedSession;
+
+/**
+ * Runs a {@link TransactedBatchProcessor} against a simulated transacted session whose commits and
+ * rollbacks take a 1ms round trip, and whose rolled back messages are redelivered (up to a max delivery
+ * count, then to a dead message queue): committing every message on its own, against adapting batches
+ * under a backlog, with 1% of commits rolled back by the "broker" and one poison message the handler
+ * always fails, with a handler slow enough (200us a message) that the latency target limits the batch
+ * size, and with messages arriving at a steady rate.  The session rolls back a transaction of more than
+ * 256 messages, consumed plus published, as the broker does by default.  Checks every message's output is
+ * committed exactly once (bar the poison, which must end up in the DMQ), that no transaction was too big,
+ * and that the slow handler's and steady rate's latencies are within the target.  No broker needed.
+ */
+public class TransactedBatchBenchmark {
+
+    private static final long COMMIT_RTT_NANOS = 1_000_000;
+    private static final int MAX_DELIVERIES = 10;
+    private static final int MAX_MESSAGES_PER_TRANSACTION = 256;  // the broker's default: consumed plus published
+    private static final int MAX_BATCH = MAX_MESSAGES_PER_TRANSACTION / 2;  // the handler publishes one per message
+    private static final long LATENCY_TARGET_MS = 20;
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        System.out.printf("Commit round trip: %,dus, max batch %d, latency target %dms%n", COMMIT_RTT_NANOS / 1000, MAX_BATCH,
+                LATENCY_TARGET_MS);
+        final Result perMessage = run("Commit per message, backlog", 2_000, 0, 1, 0, 0, -1);
+        final Result batched = run("Adaptive batches, backlog", 100_000, 0, MAX_BATCH, 0, 0, -1);
+        final Result failing = run("Adaptive batches, backlog, 1% rollbacks, 1 poison message", 100_000, 0, MAX_BATCH, 0, 0.01, 31_337);
+        final Result slow = run("Adaptive batches, backlog, 200us handler", 10_000, 0, MAX_BATCH, 200_000, 0, -1);
+        final Result steady = run("Adaptive batches, 5,000 msgs/s", 15_000, 5_000, MAX_BATCH, 0, 0, -1);
+        System.out.printf("%nBatching: %,.0fx the throughput of committing each message%n", batched.throughput / perMessage.throughput);
+        final long target = TimeUnit.MILLISECONDS.toNanos(LATENCY_TARGET_MS);
+        if (batched.throughput < perMessage.throughput * 10 || failing.processor.getRollbacks().count() == 0
+                || slow.processor.getBatchSize() >= MAX_BATCH || slow.processor.getBatchLatency().snapshot().getValueAtPercentile(50) > target
+                || steady.processor.getBatchLatency().snapshot().getValueAtPercentile(99) > target) {
+            throw new IllegalStateException("Batching didn't pay off, rollbacks weren't injected, or the latency target was missed");
+        }
+    }
+
+    /** A scenario's processor, and its throughput (msgs/s). */
+    private static final class Result {
+        final TransactedBatchProcessor processor;
+        final double throughput;
+
+        Result(TransactedBatchProcessor processor, double throughput) {
+            this.processor = processor;
+            this.throughput = throughput;
+        }
+    }
+
+    /** Runs one scenario, a backlog (rate 0) or messages arriving at a rate, to the end, and checks every message's output is committed once. */
+    private static Result run(String name, int messages, int rate, int maxBatch, long handlerNanos, double rollbackRate, int poison)
+            throws Exception {
+        final SimulatedTransactedSession sim = new SimulatedTransactedSession(messages, rollbackRate);
+        final TransactedBatchProcessor processor = sim.newProcessor(maxBatch, handlerNanos, poison);
+        final long start = System.nanoTime();
+        if (rate == 0) {
+            for (int i = 0; i < messages; i++) {
+                sim.queue.offer(i);
+            }
+        }
+        processor.start();
+        final RatePacer pacer = rate == 0 ? null : new RatePacer(rate);
+        for (int i = 0; pacer != null && i < messages; i++) {
+            pacer.acquire();
+            sim.queue.offer(i);
+        }
+        while (processor.getCommitted().count() + sim.dmqSize() < messages) {
+            Thread.sleep(1);
+        }
+        final long elapsed = System.nanoTime() - start;
+        processor.close();
+        final double throughput = messages * 1e9 / elapsed;
+        System.out.printf("%n--- %s: %,d messages in %,d ms, %,.0f msgs/s%n%s%n", name, messages, elapsed / 1_000_000, throughput,
+                processor);
+
+        int missing = 0;
+        int duplicated = 0;
+        for (int i = 0; i < messages; i++) {
+            final int outputs = sim.outputs.get(i);
+            if (outputs > 1) {
+                duplicated++;
+            } else if ((outputs == 1) == sim.dmq.contains(i)) {
+                missing++;  // or both committed and dead-lettered
+            }
+        }
+        System.out.printf("DMQ: %s, missing: %,d, duplicated: %,d%n", sim.dmq, missing, duplicated);
+        if (missing > 0 || duplicated > 0 || (poison >= 0 && !sim.dmq.contains(poison)) || sim.oversized > 0) {
+            throw new IllegalStateException(name + ": outputs weren't committed exactly once, the poison message wasn't dead-lettered, "
+                    + "or a transaction held too many messages");
+        }
+        return new Result(processor, throughput);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+
+    /** A message, as far as the processor and handler need one: its ID. */
+    private static final class SimulatedMessage implements InvocationHandler {
+        final int id;
+
+        SimulatedMessage(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) {
+            return method.getName().equals("getRedelivered") ? false : null;
+        }
+
+        static int idOf(Object msg) {
+            return ((SimulatedMessage)Proxy.getInvocationHandler(msg)).id;
+        }
+    }
+
+    /**
+     * A queue and a transacted session on it: received and sent messages are pending until a commit, which
+     * consumes the received ones and delivers the sent ones (to outputs); a rollback puts the received ones
+     * back at the front of the queue, in order, or in the DMQ once they've been delivered MAX_DELIVERIES times.
+     * Only the processor's thread uses the session, as with the real one.
+     */
+    private static final class SimulatedTransactedSession {
+        final LinkedBlockingDeque<Integer> queue = new LinkedBlockingDeque<>();
+        final List<Integer> dmq = new ArrayList<>();
+        final AtomicIntegerArray outputs;
+        final int[] deliveries;
+        final List<Integer> received = new ArrayList<>();
+        final List<Integer> sent = new ArrayList<>();
+        final double rollbackRate;
+        final Random random = new Random(42);
+        int oversized = 0;  // commits rolled back for holding too many messages
+
+        SimulatedTransactedSession(int messages, double rollbackRate) {
+            this.outputs = new AtomicIntegerArray(messages);
+            this.deliveries = new int[messages];
+            this.rollbackRate = rollbackRate;
+        }
+
+        int dmqSize() {
+            synchronized (dmq) {
+                return dmq.size();
+            }
+        }
+
+        TransactedBatchProcessor newProcessor(int maxBatch, long handlerNanos, int poison) {
+            final TransactedSession txSession = proxy(TransactedSession.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                case "commit":
+                    LockSupport.parkNanos(COMMIT_RTT_NANOS);
+                    if (received.size() + sent.size() > MAX_MESSAGES_PER_TRANSACTION) {
+                        oversized++;
+                        rollback();
+                        throw new RollbackException("Simulated: more messages than a transaction can hold");
+                    }
+                    if (random.nextDouble() < rollbackRate) {
+                        rollback();
+                        throw new RollbackException("Simulated: the broker rolled back the transaction");
+                    }
+                    for (Integer id : sent) {
+                        outputs.incrementAndGet(id);
+                    }
+                    sent.clear();
+                    received.clear();
+                    return null;
+                case "rollback":
+                    LockSupport.parkNanos(COMMIT_RTT_NANOS);
+                    rollback();
+                    return null;
+                default:
+                    return null;
+                }
+            });
+            final FlowReceiver receiver = proxy(FlowReceiver.class, (proxy, method, args) -> {
+                final Integer id;
+                switch (method.getName()) {
+                case "receive":
+                    id = args == null ? queue.take() : queue.poll((Integer)args[0], TimeUnit.MILLISECONDS);
+                    break;
+                case "receiveNoWait":
+                    id = queue.poll();
+                    break;
+                default:
+                    return null;
+                }
+                if (id == null) {
+                    return null;
+                }
+                deliveries[id]++;
+                received.add(id);
+                return Proxy.newProxyInstance(TransactedBatchBenchmark.class.getClassLoader(), new Class<?>[] { BytesXMLMessage.class },
+                        new SimulatedMessage(id));  // a new object for each delivery, as for redeliveries
+            });
+            final XMLMessageProducer producer = proxy(XMLMessageProducer.class, (proxy, method, args) -> {
+                if (method.getName().equals("send")) {
+                    sent.add(SimulatedMessage.idOf(args[0]));
+                }
+                return null;
+            });
+            final TransactedBatchProcessor processor = new TransactedBatchProcessor(txSession, receiver, producer, maxBatch, 5,
+                    LATENCY_TARGET_MS, TimeUnit.MILLISECONDS, (batch, out) -> {
+                        for (BytesXMLMessage msg : batch) {
+                            if (SimulatedMessage.idOf(msg) == poison) {
+                                throw new IllegalArgumentException("Simulated: can't parse message " + poison);
+                            }
+                            for (long end = System.nanoTime() + handlerNanos; System.nanoTime() < end; ) {
+                                // working on it
+                            }
+                            out.send(msg, null);  // its "output": the same ID
+                        }
+                    });
+            processor.setErrorListener(e -> { });  // counted; too many to print
+            return processor;
+        }
+
+        private void rollback() {
+            sent.clear();
+            for (int i = received.size() - 1; i >= 0; i--) {
+                final Integer id = received.get(i);
+                if (deliveries[id] >= MAX_DELIVERIES) {
+                    synchronized (dmq) {
+                        dmq.add(id);
+                    }
+                } else {
+                    queue.offerFirst(id);
+                }
+            }
+            received.clear();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+            return (T)Proxy.newProxyInstance(TransactedBatchBenchmark.class.getClassLoader(), new Class<?>[] { type }, handler);
+        }
+    }
+}
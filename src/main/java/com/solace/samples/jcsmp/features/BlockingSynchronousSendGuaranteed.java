@@ -5,9 +5,14 @@ package com.solace.samples.jcsmp.features;
 // associated event callbacks. The example's blockingSend() method blocks
 // until an acknowledgement (ACK) or negative acknowledgment (NACK) is
 // received from the broker for the published message.
+//
+// Many application threads can call blockingSend() at once: each one only
+// waits for its own message's ACK, and the publish window stays large, so
+// N callers' messages are all in flight together and share one broker
+// round trip (a group commit), rather than taking one round trip each.
 
-import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
 
 import com.solacesystems.jcsmp.DeliveryMode;
 import com.solacesystems.jcsmp.JCSMPException;
@@ -24,13 +29,32 @@ import com.solacesystems.jcsmp.XMLMessageProducer;
 
 public class BlockingSynchronousSendGuaranteed implements SessionEventHandler, JCSMPStreamingPublishCorrelatingEventHandler {
 
+    // how many application threads call blockingSend() at once in this example; override with -Dthreads=N
+    private static final int THREADS = Integer.getInteger("threads", 8);
+
     JCSMPSession session;
     XMLMessageProducer producer;
-    volatile Exception publishException;  // Used to pass the exception associated with a NACK back to the application
+
+    // The correlation key of a blocking send: the calling thread parks on it until the
+    // callback sets done (and error, for a NACK) and unparks it.  A thread only has
+    // one blocking send at a time, so each thread reuses its own.
+    static final class SendWaiter {
+        final Thread thread = Thread.currentThread();
+        volatile boolean done;
+        volatile JCSMPException error;  // Used to pass the exception associated with a NACK back to the caller
+    }
+
+    private final ThreadLocal<SendWaiter> waiters = ThreadLocal.withInitial(SendWaiter::new);
     
     public BlockingSynchronousSendGuaranteed() {
     }
 
+    /** Uses an already-connected session, with a publish window of more than 1 for concurrent callers. */
+    public BlockingSynchronousSendGuaranteed(JCSMPSession session) throws JCSMPException {
+        this.session = session;
+        this.producer = session.getMessageProducer(this);
+    }
+
     public void setup() throws JCSMPException {
     }
     
@@ -42,26 +66,35 @@ public class BlockingSynchronousSendGuaranteed implements SessionEventHandler, J
         properties.setProperty(JCSMPProperties.PASSWORD, "password");
         properties.setProperty(JCSMPProperties.VPN_NAME, "solace");
         
-        // Set the publish window size to 1. As the blockingSend() call blocks until
-        // an ACK or NACK is received only one message can be in flight at a time.
-        properties.setProperty(JCSMPProperties.PUB_ACK_WINDOW_SIZE, 1);  
+        // Set the publish window size to its maximum. Each blockingSend() call blocks until
+        // its own ACK or NACK is received, but with many threads calling it, up to 255
+        // messages can be in flight at a time, and are ACKed together.
+        properties.setProperty(JCSMPProperties.PUB_ACK_WINDOW_SIZE, 255);  
         
         session = JCSMPFactory.onlyInstance().createSession(properties, null, this);
         producer = session.getMessageProducer(this);
 
-        Topic topic = JCSMPFactory.onlyInstance().createTopic("my/sample/topic");
+        final Topic topic = JCSMPFactory.onlyInstance().createTopic("my/sample/topic");
 
-        TextMessage message = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
-        message.setText("Sample Text");
-        message.setDeliveryMode(DeliveryMode.PERSISTENT);
-        
-    	try {
-    		blockingSend(message, topic);
-    		System.out.println("Message accepted by broker.");
-    	} catch (Exception e) {
-    		System.out.println("Message rejected or another error occurred. See exception:");
-    		e.printStackTrace();
-    	}
+        final CountDownLatch finished = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final int threadNum = i;
+            new Thread(() -> {
+                TextMessage message = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
+                message.setText("Sample Text from thread " + threadNum);
+                message.setDeliveryMode(DeliveryMode.PERSISTENT);
+                try {
+                    blockingSend(message, topic);
+                    System.out.println("Message from thread " + threadNum + " accepted by broker.");
+                } catch (Exception e) {
+                    System.out.println("Message from thread " + threadNum + " rejected or another error occurred. See exception:");
+                    e.printStackTrace();
+                } finally {
+                    finished.countDown();
+                }
+            }, "sender-" + i).start();
+        }
+        finished.await();
 
     	producer.close();
     	session.closeSession();
@@ -76,25 +109,28 @@ public class BlockingSynchronousSendGuaranteed implements SessionEventHandler, J
     // until an ACK or NACK is received. Typically the broker only fails to respond with an ACK
     // or NACK if it is out of disk space to persist the received message.
     //
-    // This method uses a CyclicBarrier to synchronize between sending the message and receiving
-    // either an ACK, in the ResponseReceivedEx callback, or a NACK, in the
-    // handleErrorEx callback.
-    public synchronized void blockingSend(XMLMessage message, Topic topic) throws Exception {
-    	publishException = null;
-        CyclicBarrier barrier = new CyclicBarrier(2);
-		message.setCorrelationKey(barrier);
+    // This method is safe to call from many threads at once: it isn't synchronized, and the
+    // producer's send() is thread-safe. Each caller sets its own SendWaiter as the message's
+    // correlation key and parks on it, and the ResponseReceivedEx callback (ACK) or the
+    // handleErrorEx callback (NACK) unparks just that caller.
+    public void blockingSend(XMLMessage message, Topic topic) throws Exception {
+        final SendWaiter waiter = waiters.get();
+        waiter.error = null;
+        waiter.done = false;
+		message.setCorrelationKey(waiter);
 		producer.send(message, topic);
 		
-		try {
-			barrier.await();
-		} catch (InterruptedException e) {
-			throw(e);
-		} catch (BrokenBarrierException e) {
-			throw(e);
+		while (!waiter.done) {
+			LockSupport.park(waiter);
+			if (Thread.interrupted() && !waiter.done) {
+				// give up waiting; the ACK may still come, so this thread needs a new waiter next time
+				waiters.remove();
+				throw new InterruptedException("Interrupted while waiting for the ACK");
+			}
 		}
 
-		if (publishException != null) {
-			throw publishException; 
+		if (waiter.error != null) {
+			throw waiter.error; 
 		}
     }
     
@@ -106,28 +142,20 @@ public class BlockingSynchronousSendGuaranteed implements SessionEventHandler, J
     // broker has rejected it. The reason for the rejection is passed back to 
     // the application in the exception thrown from the call to blockingSend().
 	public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
-		if (key instanceof CyclicBarrier) {
-			try {
-	            this.publishException = cause;
-				((CyclicBarrier)key).await();
-	        } catch (InterruptedException e) {
-	            e.printStackTrace();
-	        } catch (BrokenBarrierException e) {
-	            e.printStackTrace();
-	        }
+		if (key instanceof SendWaiter) {
+			final SendWaiter waiter = (SendWaiter)key;
+			waiter.error = cause;
+			waiter.done = true;  // after the error, so the caller sees it
+			LockSupport.unpark(waiter.thread);
 		}
 	}
 
 	// This callback is invoked if an ACK is received for the message.
 	public void responseReceivedEx(Object key) {
-		if (key instanceof CyclicBarrier) {
-			try {
-				((CyclicBarrier)key).await();
-	        } catch (InterruptedException e) {
-	            e.printStackTrace();
-	        } catch (BrokenBarrierException e) {
-	            e.printStackTrace();
-	        }
+		if (key instanceof SendWaiter) {
+			final SendWaiter waiter = (SendWaiter)key;
+			waiter.done = true;
+			LockSupport.unpark(waiter.thread);
 		}
 	}
 
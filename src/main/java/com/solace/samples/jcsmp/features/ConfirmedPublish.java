@@ -19,81 +19,32 @@
 
 package com.solace.samples.jcsmp.features;
 
-import java.util.LinkedList;
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
-import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solace.samples.jcsmp.features.common.AsyncGuaranteedProducer;
+import com.solace.samples.jcsmp.features.common.AsyncGuaranteedProducer.PublishReceipt;
 import com.solacesystems.jcsmp.DeliveryMode;
 import com.solacesystems.jcsmp.JCSMPException;
 import com.solacesystems.jcsmp.JCSMPFactory;
 import com.solacesystems.jcsmp.JCSMPProperties;
 import com.solacesystems.jcsmp.JCSMPSession;
-import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
 import com.solacesystems.jcsmp.Queue;
 import com.solacesystems.jcsmp.TextMessage;
-import com.solacesystems.jcsmp.XMLMessageProducer;
 
 /**
- * Slightly older sample.  New streaming correlating publisher callback passes object back, rather than long ID
- * as before, so less need to have complicated MsgInfo data structure to track outstanding published messages.
- * Easier to just use actual Message object as key.
+ * Publishes a few Guaranteed messages and waits for each one to be confirmed (ACKed) by the broker.
+ * Rather than setting a correlation key on each message and matching up the ACKs and NACKs in a
+ * JCSMPStreamingPublishCorrelatingEventHandler by hand, AsyncGuaranteedProducer returns a
+ * CompletableFuture for each send, which completes when the broker ACKs (or rejects) it.
  */
 public class ConfirmedPublish {
 
     final int count = 5;
-    final CountDownLatch latch = new CountDownLatch(count); // used for synchronizing b/w threads
-
-    /*
-     * A correlation structure. This structure is passed back to the publisher
-     * callback when the message is acknowledged or rejected.
-     */
-    class MsgInfo {
-        public volatile boolean acked = false;
-        public volatile boolean publishedSuccessfully = false;
-        public BytesXMLMessage sessionIndependentMessage = null;
-        public final long id;
-
-        public MsgInfo(long id) {
-            this.id = id;
-        }
-
-        @Override
-        public String toString() {
-            return String.format("Message ID: %d, PubConf: %b, PubSuccessful: %b", id, acked, publishedSuccessfully);
-        }
-    }
-
-    /*
-     * A streaming producer can provide this callback handler to handle
-     * acknowledgement events.
-     */
-    class PubCallback implements JCSMPStreamingPublishCorrelatingEventHandler {
-
-        @Override
-        public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
-            if (key instanceof MsgInfo) {
-                MsgInfo i = (MsgInfo) key;
-                i.acked = true;
-                System.out.printf("Message response (rejected) received for %s, error was %s \n", i, cause);
-            }
-            latch.countDown();
-        }
-
-        @Override
-        public void responseReceivedEx(Object key) {
-            if (key instanceof MsgInfo) {
-                MsgInfo i = (MsgInfo) key;
-                i.acked = true;
-                i.publishedSuccessfully = true;
-                System.out.printf("Message response (accepted) received for %s \n", i);
-            }
-            latch.countDown();
-        }
-    }
 
     public void run(String... args) throws JCSMPException, InterruptedException {
-        final LinkedList<MsgInfo> msgList = new LinkedList<MsgInfo>();
-
         System.out.println("ConfirmedPublish initializing...");
         // Create a JCSMP Session
         final JCSMPProperties properties = new JCSMPProperties();
@@ -109,12 +60,13 @@ public class ConfirmedPublish {
         String queueName = "Q/tutorial";
         final Queue queue = JCSMPFactory.onlyInstance().createQueue(queueName);
 
-        /** Correlating event handler */
-        final XMLMessageProducer prod = session.getMessageProducer(new PubCallback());
+        /** Producer that completes a future per message from its own correlating event handler */
+        final AsyncGuaranteedProducer prod = new AsyncGuaranteedProducer(session, count);
 
         // Publish-only session is now hooked up and running!
         System.out.printf("Connected. About to send " + count + " messages to queue '%s'...%n", queue.getName());
 
+        final List<CompletableFuture<PublishReceipt>> confirmations = new ArrayList<>(count);
         for (int i = 1; i <= count; i++) {
             TextMessage msg = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
             msg.setDeliveryMode(DeliveryMode.PERSISTENT);
@@ -122,34 +74,25 @@ public class ConfirmedPublish {
             msg.setText(text);
 
             // The application will wait and confirm the message is published
-            // successfully.
-            // In this case, wrap the message in a MsgInfo instance, and
-            // use it as a correlation key.
-            final MsgInfo msgCorrelationInfo = new MsgInfo(i);
-            msgCorrelationInfo.sessionIndependentMessage = msg;
-            msgList.add(msgCorrelationInfo);
-
-            // Set the message's correlation key. This reference
-            // is used when calling back to responseReceivedEx().
-            msg.setCorrelationKey(msgCorrelationInfo);
-
+            // successfully: the future completes when the broker ACKs it.
             // Send message directly to the queue
-            prod.send(msg, queue);
+            confirmations.add(prod.sendAsync(msg, queue));
         }
         System.out.println("Messages sent. Processing replies.");
-        try {
-            latch.await(); // block here until message received, and latch will flip
-        } catch (InterruptedException e) {
-            System.out.println("I was awoken while waiting");
-        }
 
-        // Process the replies
-        while (msgList.peek() != null) {
-            final MsgInfo ackedMsgInfo = msgList.poll();
-            System.out.printf("Removing acknowledged message (%s) from application list.\n", ackedMsgInfo);
+        // Process the replies, in the order sent
+        for (int i = 0; i < count; i++) {
+            try {
+                final PublishReceipt receipt = confirmations.get(i).get();  // block here until this one is confirmed
+                System.out.printf("Message response (accepted) received for Message ID: %d, %s%n", i + 1, receipt);
+            } catch (ExecutionException e) {  // NACKed, or the session went down
+                System.out.printf("Message response (rejected) received for Message ID: %d, error was %s%n", i + 1, e.getCause());
+            }
         }
+        System.out.println(prod);
 
         // Close session
+        prod.close();
         session.closeSession();
     }
 
@@ -19,6 +19,7 @@ package com.solace.samples.jcsmp.features;
 
 import java.util.Map;
 import com.solace.samples.jcsmp.features.common.ArgParser;
+import com.solace.samples.jcsmp.features.common.MessagePool;
 import com.solace.samples.jcsmp.features.common.SampleApp;
 import com.solace.samples.jcsmp.features.common.SessionConfiguration;
 import com.solacesystems.jcsmp.BytesXMLMessage;
@@ -42,6 +43,8 @@ public class RRDirectReplier extends SampleApp {
     SessionConfiguration conf = null;
     XMLMessageProducer producer = null;
     XMLMessageConsumer consumer = null;
+    // Direct replies can be reused as soon as sendReply() returns, and they're all sent from the API's callback thread
+    final MessagePool<StreamMessage> replyMsgPool = MessagePool.perThread(StreamMessage.class, 4);
 
  // Format for the arithmetic operation
     private final String ARITHMETIC_EXPRESSION = "\t=================================\n\t  %d %s %d = %s  \t\n\t=================================\n";
@@ -81,7 +84,7 @@ public class RRDirectReplier extends SampleApp {
     class RequestHandler implements XMLMessageListener {
         //Create a success reply with a result
         private XMLMessage createReplyMessage(BytesXMLMessage request, double result) {
-            StreamMessage replyMessage = JCSMPFactory.onlyInstance().createMessage(StreamMessage.class);
+            StreamMessage replyMessage = replyMsgPool.acquire();
             SDTStream stream = JCSMPFactory.onlyInstance().createStream();
             //We have a result, thus we indicate a success
             stream.writeBoolean(true);
@@ -94,7 +97,7 @@ public class RRDirectReplier extends SampleApp {
         
         //Create a failure reply with no result
         private XMLMessage createReplyMessage(BytesXMLMessage request) throws JCSMPException {
-            StreamMessage replyMessage = JCSMPFactory.onlyInstance().createMessage(StreamMessage.class);
+            StreamMessage replyMessage = replyMsgPool.acquire();
             SDTStream stream = JCSMPFactory.onlyInstance().createStream();
             //We do not have a result, thus we indicate a failure
             stream.writeBoolean(false);
@@ -106,7 +109,11 @@ public class RRDirectReplier extends SampleApp {
         
         //Reply to a request
         private void sendReply(XMLMessage request, XMLMessage reply) throws JCSMPException {
-            producer.sendReply(request, reply);
+            try {
+                producer.sendReply(request, reply);
+            } finally {
+                replyMsgPool.release((StreamMessage) reply);
+            }
         }
         
         public void onReceive(BytesXMLMessage message) {
@@ -281,6 +288,7 @@ public class RRDirectReplier extends SampleApp {
             if (session != null) {
                 session.closeSession();
             }
+            System.out.println(replyMsgPool);
         }
     }
 
@@ -22,6 +22,7 @@ package com.solace.samples.jcsmp.features;
 import java.util.Calendar;
 import java.util.Map;
 import com.solace.samples.jcsmp.features.common.ArgParser;
+import com.solace.samples.jcsmp.features.common.MessagePool;
 import com.solace.samples.jcsmp.features.common.SampleApp;
 import com.solace.samples.jcsmp.features.common.SessionConfiguration;
 import com.solacesystems.jcsmp.BytesXMLMessage;
@@ -51,6 +52,8 @@ public class RRGuaranteedReplier extends SampleApp {
     String requestTopic = null;
     String requestQueue = null;
     FlowReceiver flow = null;
+    // Guaranteed replies can only be reused once ACKed, so the pool covers the publish window (255 by default)
+    final MessagePool<StreamMessage> replyMsgPool = MessagePool.shared(StreamMessage.class, 256);
     
  // Format for the arithmetic operation
     private final String ARITHMETIC_EXPRESSION = "\t=================================\n\t  %d %s %d = %s  \t\n\t=================================\n";
@@ -90,10 +93,31 @@ public class RRGuaranteedReplier extends SampleApp {
         System.out.println("\t -rq  \t the queue to listen on (RRGuaranteedRequester should be sending the request message to the same queue)\n");
     }
     
+    // Recycles each reply once the broker has ACKed (or NACKed) it
+    class ReplyAckHandler extends PrintingPubCallback {
+        @Override
+        public void responseReceivedEx(Object key) {
+            super.responseReceivedEx(key);
+            recycle(key);
+        }
+
+        @Override
+        public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
+            super.handleErrorEx(key, cause, timestamp);
+            recycle(key);
+        }
+
+        private void recycle(Object key) {
+            if (key instanceof StreamMessage) {  // the correlation key is the reply itself
+                replyMsgPool.release((StreamMessage) key);
+            }
+        }
+    }
+    
     class RequestHandler implements XMLMessageListener {
         //Create a success reply with a result
         private XMLMessage createReplyMessage(BytesXMLMessage request, double result) {
-            StreamMessage replyMessage = JCSMPFactory.onlyInstance().createMessage(StreamMessage.class);
+            StreamMessage replyMessage = replyMsgPool.acquire();
             SDTStream stream = JCSMPFactory.onlyInstance().createStream();
             //We have a result, thus we indicate a success
             stream.writeBoolean(true);
@@ -106,7 +130,7 @@ public class RRGuaranteedReplier extends SampleApp {
         
         //Create a failure reply with no result
         private XMLMessage createReplyMessage(BytesXMLMessage request) throws JCSMPException {
-            StreamMessage replyMessage = JCSMPFactory.onlyInstance().createMessage(StreamMessage.class);
+            StreamMessage replyMessage = replyMsgPool.acquire();
             SDTStream stream = JCSMPFactory.onlyInstance().createStream();
             //We do not have a result, thus we indicate a failure
             stream.writeBoolean(false);
@@ -123,11 +147,16 @@ public class RRGuaranteedReplier extends SampleApp {
             if (replyDestination == null) {
                 System.out.println("Failed to parse the request message : Missing replyto destination.");
                 System.out.println("Here's a message dump:" + request.toString());
-                
+                replyMsgPool.release((StreamMessage) reply);
                 throw new Exception("Missing replyto destination");
             }            
             
-            producer.send(reply, replyDestination);
+            try {
+                producer.send(reply, replyDestination);
+            } catch (JCSMPException e) {
+                replyMsgPool.release((StreamMessage) reply);  // not sent, so no ACK to wait for
+                throw e;
+            }
         }
         
         public void onReceive(BytesXMLMessage message) {
@@ -298,7 +327,7 @@ public class RRGuaranteedReplier extends SampleApp {
            if (requestTopic!=null) {
                flowProps.setNewSubscription(JCSMPFactory.onlyInstance().createTopic(requestTopic));
            }
-           producer = session.getMessageProducer(new PrintingPubCallback());
+           producer = session.getMessageProducer(new ReplyAckHandler());
            flow = session.createFlow(new RequestHandler(), flowProps);
            flow.start();
 
@@ -317,6 +346,7 @@ public class RRGuaranteedReplier extends SampleApp {
            if (session != null) {
                session.closeSession();
            }
+           System.out.println(replyMsgPool);
        }
    }
    
@@ -1,226 +1,290 @@
-/**
- * Transactions.java
- * 
- * This sample uses a simple request/reply scenario to show the use of transactions.
- * 
- * A requestor sends a request to a queue the replier is bound to.
- * A replier receives the message and replies with a message sent to a queue
- * the requestor is bound to. 
- * 
- * Copyright 2009-2022 Solace Corporation. All rights reserved.
- */
-
-package com.solace.samples.jcsmp.features;
-
-import com.solace.samples.jcsmp.features.common.ArgParser;
-import com.solace.samples.jcsmp.features.common.SampleApp;
-import com.solace.samples.jcsmp.features.common.SampleUtils;
-import com.solace.samples.jcsmp.features.common.SessionConfiguration;
-import com.solacesystems.jcsmp.BytesXMLMessage;
-import com.solacesystems.jcsmp.ConsumerFlowProperties;
-import com.solacesystems.jcsmp.DeliveryMode;
-import com.solacesystems.jcsmp.EndpointProperties;
-import com.solacesystems.jcsmp.FlowReceiver;
-import com.solacesystems.jcsmp.JCSMPException;
-import com.solacesystems.jcsmp.JCSMPFactory;
-import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
-import com.solacesystems.jcsmp.JCSMPTransportException;
-import com.solacesystems.jcsmp.ProducerFlowProperties;
-import com.solacesystems.jcsmp.Queue;
-import com.solacesystems.jcsmp.XMLMessageListener;
-import com.solacesystems.jcsmp.XMLMessageProducer;
-import com.solacesystems.jcsmp.transaction.RollbackException;
-import com.solacesystems.jcsmp.transaction.TransactedSession;
-
-public class Transactions extends SampleApp implements JCSMPStreamingPublishCorrelatingEventHandler {
-
-    public class Requestor implements JCSMPStreamingPublishCorrelatingEventHandler {
-        public TransactedSession txSession;
-        public XMLMessageProducer producer;
-        public FlowReceiver receiver;
-        public Queue queue;
-        
-        public Requestor() throws JCSMPException {
-            txSession = session.createTransactedSession();
-
-            queue = session.createTemporaryQueue();
-            
-            ProducerFlowProperties prodFlowProps = new ProducerFlowProperties();
-            prodFlowProps.setWindowSize(100);
-            producer = txSession.createProducer(prodFlowProps, this);
-            
-            ConsumerFlowProperties consFlowProps = new ConsumerFlowProperties();
-            consFlowProps.setEndpoint(queue);
-            consFlowProps.setStartState(true);
-            EndpointProperties endpointProps = new EndpointProperties();
-            endpointProps.setAccessType(EndpointProperties.ACCESSTYPE_EXCLUSIVE);
-            receiver = txSession.createFlow(null, consFlowProps, endpointProps);
-        }
-        
-        public void handleErrorEx(Object key, JCSMPException cause,
-                long timestamp) {
-            System.err.println("Requestor handleError " + cause);
-            cause.printStackTrace();
-        }
-
-        public void responseReceivedEx(Object key) {
-            // Do Nothing
-        } 
-    }
-
-    public class Replier implements JCSMPStreamingPublishCorrelatingEventHandler, XMLMessageListener {
-        public TransactedSession txSession;
-        public XMLMessageProducer producer;
-        public FlowReceiver receiver;
-        public Queue queue;
-        
-        public Replier() throws JCSMPException {
-            txSession = session.createTransactedSession();
-
-            queue = session.createTemporaryQueue();
-            
-            ProducerFlowProperties prodFlowProps = new ProducerFlowProperties();
-            prodFlowProps.setWindowSize(100);
-            producer = txSession.createProducer(prodFlowProps, this);
-            
-            ConsumerFlowProperties consFlowProps = new ConsumerFlowProperties();
-            consFlowProps.setEndpoint(queue);
-            consFlowProps.setStartState(true);
-            EndpointProperties endpointProps = new EndpointProperties();
-            endpointProps.setAccessType(EndpointProperties.ACCESSTYPE_EXCLUSIVE);
-            receiver = txSession.createFlow(this, consFlowProps, endpointProps);
-        }
-        
-        public void onReceive(BytesXMLMessage message) {
-            try {
-                System.out.println("Received Request Message From: " + message.getSenderId());
-                BytesXMLMessage reply = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
-                reply.setDeliveryMode(DeliveryMode.PERSISTENT);
-                reply.setSenderId("Replier");
-                reply.setCorrelationKey(reply);  // correlation key for receiving ACKs
-                producer.send(reply, message.getReplyTo());
-                
-                // this commit will acknowledge the received message and
-                // deliver the sent message.
-                txSession.commit();
-            } catch (RollbackException e) {
-                System.err.println("RollbackException: " + e);
-                e.printStackTrace();
-            } catch (JCSMPException e) {
-                System.err.println("JCSMPException: " + e);
-                e.printStackTrace();
-            }
-        }
-        
-        public void onException(JCSMPException exception) {
-            System.err.println("Replier onException " + exception);
-            exception.printStackTrace();            
-        }
-        
-        public void handleErrorEx(Object key, JCSMPException cause,
-                long timestamp) {
-            System.err.println("Replier handleError " + cause);
-            cause.printStackTrace();
-        }
-        
-        public void responseReceivedEx(Object key) {
-            // Do Nothing
-        }
-    }
-    
-    private SessionConfiguration conf;
-
-
-    public void handleErrorEx(Object key, JCSMPException cause,
-            long timestamp) {
-        // Do Nothing
-    }
-
-    public void responseReceivedEx(Object key) {
-        // Do Nothing
-    }
-
-    void printUsage(boolean secure) {
-        String strusage = ArgParser.getCommonUsage(secure);
-        System.out.println(strusage);
-        finish(1);
-    }
-
-    void createSession(String[] args) {
-        // Parse command-line arguments.
-        ArgParser parser = new ArgParser();
-        if (parser.parse(args) == 0)
-            conf = parser.getConfig();
-        else
-            printUsage(parser.isSecure());
-
-        session = SampleUtils.newSession(conf, new PrintingSessionEventHandler(),null);
-    }
-
-    public void run(String[] args) {
-        createSession(args);
-        try {
-	        session.connect();
-            session.getMessageProducer(this);
-
-            // Create a "requestor" transacted session
-            Requestor requestor = new Requestor();
-
-            // Create a "replier" transacted session
-            Replier replier = new Replier();
-            
-            // build and send a request to the Replier
-            BytesXMLMessage request = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
-            request.setDeliveryMode(DeliveryMode.PERSISTENT);
-            request.setSenderId("Requestor");
-            request.setReplyTo(requestor.queue);
-            request.setCorrelationKey(request);  // correlation key for receiving ACKs
-            requestor.producer.send(request, replier.queue);
-
-            // Need to commit to deliver the request message from a transacted session
-            requestor.txSession.commit();
-
-            // Wait for a reply from the replier
-            BytesXMLMessage reply = requestor.receiver.receive(10000);
-            if (reply == null) {
-                System.err.println("Timeout waiting for reply");
-            } else {
-                System.out.println("Received Reply Message From: " + reply.getSenderId());
-                // Make sure to commit to acknowledge receipt of the message.
-                requestor.txSession.commit();
-            }
-
-            requestor.txSession.close();
-            replier.txSession.close();
-            
-            finish(0);
-        } catch (JCSMPTransportException ex) {
-            System.err.println("Encountered a JCSMPTransportException, closing session... "
-                + ex.getMessage());
-            
-            // At this point the producer and consumer handles are unusable
-            // (closed). If application logic required their use, a new producer
-            // and consumer should be acquired from the session.
-            
-            finish(1);
-        } catch (JCSMPException ex) {
-            System.err.println("Encountered a JCSMPException, closing session... "
-                + ex.getMessage());
-            // Possible causes:
-            // - Authentication error: invalid username/password
-            // - Provisioning error: publisher not entitled is a common error in
-            // this category
-            // - Invalid or unsupported properties specified
-            finish(1);
-        } catch (Exception ex) {
-            System.err.println("Encountered an Exception... " + ex.getMessage());
-            finish(1);
-        }
-
-    }
-
-    public static void main(String[] args) {
-        Transactions r = new Transactions();
-        r.run(args);
-    }
-}
+/**
+ * Transactions.java
+ * 
+ * This sample uses a simple request/reply scenario to show the use of transactions.
+ * 
+ * A requestor sends a request to a queue the replier is bound to.
+ * A replier receives the message and replies with a message sent to a queue
+ * the requestor is bound to. 
+ * 
+ * With -Drequests=N it sends N requests, and the replier handles them in batches
+ * (see TransactedBatchProcessor): each commit is a round trip to the broker, so
+ * committing once per batch instead of once per message multiplies throughput.
+ * -Dbatch_max (default 128) caps the batch size, in requests: each one's reply is
+ * published in the same transaction, so 128 request-plus-reply pairs are the 256
+ * messages one transaction can hold by default.  -Dbatch_max=0 commits each
+ * request on its own, -Dbatch_wait_ms
+ * (default 5) is how long a batch waits to fill, and -Dbatch_latency_ms (default
+ * 50) is the latency target the batch size adapts to.
+ * 
+ * Copyright 2009-2022 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features;
+
+import com.solace.samples.jcsmp.features.common.ArgParser;
+import com.solace.samples.jcsmp.features.common.SampleApp;
+import com.solace.samples.jcsmp.features.common.SampleUtils;
+import com.solace.samples.jcsmp.features.common.SessionConfiguration;
+import com.solace.samples.jcsmp.features.common.TransactedBatchProcessor;
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.ConsumerFlowProperties;
+import com.solacesystems.jcsmp.DeliveryMode;
+import com.solacesystems.jcsmp.EndpointProperties;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
+import com.solacesystems.jcsmp.JCSMPTransportException;
+import com.solacesystems.jcsmp.ProducerFlowProperties;
+import com.solacesystems.jcsmp.Queue;
+import com.solacesystems.jcsmp.XMLMessageListener;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+import com.solacesystems.jcsmp.transaction.RollbackException;
+import com.solacesystems.jcsmp.transaction.TransactedSession;
+
+import java.util.concurrent.TimeUnit;
+
+public class Transactions extends SampleApp implements JCSMPStreamingPublishCorrelatingEventHandler {
+
+    private static final int MAX_MESSAGES_PER_TRANSACTION = 256;  // the broker's default limit
+    private static final int REQUESTS = Integer.getInteger("requests", 1);
+    // in requests, each with its reply: consumed plus published mustn't exceed MAX_MESSAGES_PER_TRANSACTION
+    private static final int BATCH_MAX = Integer.getInteger("batch_max", MAX_MESSAGES_PER_TRANSACTION / 2);
+    private static final int BATCH_WAIT_MS = Integer.getInteger("batch_wait_ms", 5);
+    private static final int BATCH_LATENCY_MS = Integer.getInteger("batch_latency_ms", 50);
+
+    public class Requestor implements JCSMPStreamingPublishCorrelatingEventHandler {
+        public TransactedSession txSession;
+        public XMLMessageProducer producer;
+        public FlowReceiver receiver;
+        public Queue queue;
+        
+        public Requestor() throws JCSMPException {
+            txSession = session.createTransactedSession();
+
+            queue = session.createTemporaryQueue();
+            
+            ProducerFlowProperties prodFlowProps = new ProducerFlowProperties();
+            prodFlowProps.setWindowSize(100);
+            producer = txSession.createProducer(prodFlowProps, this);
+            
+            ConsumerFlowProperties consFlowProps = new ConsumerFlowProperties();
+            consFlowProps.setEndpoint(queue);
+            consFlowProps.setStartState(true);
+            EndpointProperties endpointProps = new EndpointProperties();
+            endpointProps.setAccessType(EndpointProperties.ACCESSTYPE_EXCLUSIVE);
+            receiver = txSession.createFlow(null, consFlowProps, endpointProps);
+        }
+        
+        public void handleErrorEx(Object key, JCSMPException cause,
+                long timestamp) {
+            System.err.println("Requestor handleError " + cause);
+            cause.printStackTrace();
+        }
+
+        public void responseReceivedEx(Object key) {
+            // Do Nothing
+        } 
+    }
+
+    public class Replier implements JCSMPStreamingPublishCorrelatingEventHandler, XMLMessageListener {
+        public TransactedSession txSession;
+        public XMLMessageProducer producer;
+        public FlowReceiver receiver;
+        public Queue queue;
+        public TransactedBatchProcessor batchProcessor;
+        
+        public Replier() throws JCSMPException {
+            txSession = session.createTransactedSession();
+
+            queue = session.createTemporaryQueue();
+            
+            ProducerFlowProperties prodFlowProps = new ProducerFlowProperties();
+            prodFlowProps.setWindowSize(100);
+            producer = txSession.createProducer(prodFlowProps, this);
+            
+            ConsumerFlowProperties consFlowProps = new ConsumerFlowProperties();
+            consFlowProps.setEndpoint(queue);
+            consFlowProps.setStartState(true);
+            EndpointProperties endpointProps = new EndpointProperties();
+            endpointProps.setAccessType(EndpointProperties.ACCESSTYPE_EXCLUSIVE);
+            if (BATCH_MAX > 0) {
+                // No listener: the batch processor receives from the Flow itself, on its own thread,
+                // and commits once per batch of requests (and their replies).
+                receiver = txSession.createFlow(null, consFlowProps, endpointProps);
+                batchProcessor = new TransactedBatchProcessor(txSession, receiver, producer,
+                        BATCH_MAX, BATCH_WAIT_MS, BATCH_LATENCY_MS, TimeUnit.MILLISECONDS,
+                        (batch, out) -> {
+                            for (BytesXMLMessage request : batch) {
+                                out.send(createReply(), request.getReplyTo());
+                            }
+                        });
+                batchProcessor.start();
+            } else {
+                receiver = txSession.createFlow(this, consFlowProps, endpointProps);
+            }
+        }
+        
+        private BytesXMLMessage createReply() {
+            BytesXMLMessage reply = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+            reply.setDeliveryMode(DeliveryMode.PERSISTENT);
+            reply.setSenderId("Replier");
+            reply.setCorrelationKey(reply);  // correlation key for receiving ACKs
+            return reply;
+        }
+        
+        public void onReceive(BytesXMLMessage message) {
+            try {
+                if (REQUESTS == 1) {
+                    System.out.println("Received Request Message From: " + message.getSenderId());
+                }
+                producer.send(createReply(), message.getReplyTo());
+                
+                // this commit will acknowledge the received message and
+                // deliver the sent message.
+                txSession.commit();
+            } catch (RollbackException e) {
+                System.err.println("RollbackException: " + e);
+                e.printStackTrace();
+            } catch (JCSMPException e) {
+                System.err.println("JCSMPException: " + e);
+                e.printStackTrace();
+            }
+        }
+        
+        public void onException(JCSMPException exception) {
+            System.err.println("Replier onException " + exception);
+            exception.printStackTrace();            
+        }
+        
+        public void handleErrorEx(Object key, JCSMPException cause,
+                long timestamp) {
+            System.err.println("Replier handleError " + cause);
+            cause.printStackTrace();
+        }
+        
+        public void responseReceivedEx(Object key) {
+            // Do Nothing
+        }
+    }
+    
+    private SessionConfiguration conf;
+
+
+    public void handleErrorEx(Object key, JCSMPException cause,
+            long timestamp) {
+        // Do Nothing
+    }
+
+    public void responseReceivedEx(Object key) {
+        // Do Nothing
+    }
+
+    void printUsage(boolean secure) {
+        String strusage = ArgParser.getCommonUsage(secure);
+        System.out.println(strusage);
+        finish(1);
+    }
+
+    void createSession(String[] args) {
+        // Parse command-line arguments.
+        ArgParser parser = new ArgParser();
+        if (parser.parse(args) == 0)
+            conf = parser.getConfig();
+        else
+            printUsage(parser.isSecure());
+
+        session = SampleUtils.newSession(conf, new PrintingSessionEventHandler(),null);
+    }
+
+    public void run(String[] args) {
+        createSession(args);
+        try {
+	        session.connect();
+            session.getMessageProducer(this);
+
+            // Create a "requestor" transacted session
+            Requestor requestor = new Requestor();
+
+            // Create a "replier" transacted session
+            Replier replier = new Replier();
+            
+            long start = System.nanoTime();
+            for (int i = 1; i <= REQUESTS; i++) {
+                // build and send a request to the Replier
+                BytesXMLMessage request = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+                request.setDeliveryMode(DeliveryMode.PERSISTENT);
+                request.setSenderId("Requestor");
+                request.setReplyTo(requestor.queue);
+                request.setCorrelationKey(request);  // correlation key for receiving ACKs
+                requestor.producer.send(request, replier.queue);
+
+                // Need to commit to deliver the request messages from a transacted session
+                if (i % MAX_MESSAGES_PER_TRANSACTION == 0 || i == REQUESTS) {
+                    requestor.txSession.commit();
+                }
+            }
+
+            // Wait for the replies from the replier
+            int replies = 0;
+            while (replies < REQUESTS) {
+                BytesXMLMessage reply = requestor.receiver.receive(10000);
+                if (reply == null) {
+                    System.err.println("Timeout waiting for reply");
+                    break;
+                }
+                if (REQUESTS == 1) {
+                    System.out.println("Received Reply Message From: " + reply.getSenderId());
+                }
+                if (++replies % MAX_MESSAGES_PER_TRANSACTION == 0) {
+                    requestor.txSession.commit();
+                }
+            }
+            if (replies % MAX_MESSAGES_PER_TRANSACTION != 0) {
+                // Make sure to commit to acknowledge receipt of the messages.
+                requestor.txSession.commit();
+            }
+            if (REQUESTS > 1) {
+                System.out.printf("%,d replies to %,d requests in %,d ms%n", replies, REQUESTS,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            if (replier.batchProcessor != null) {
+                replier.batchProcessor.close();
+                System.out.println(replier.batchProcessor);
+            }
+
+            requestor.txSession.close();
+            replier.txSession.close();
+            
+            finish(0);
+        } catch (JCSMPTransportException ex) {
+            System.err.println("Encountered a JCSMPTransportException, closing session... "
+                + ex.getMessage());
+            
+            // At this point the producer and consumer handles are unusable
+            // (closed). If application logic required their use, a new producer
+            // and consumer should be acquired from the session.
+            
+            finish(1);
+        } catch (JCSMPException ex) {
+            System.err.println("Encountered a JCSMPException, closing session... "
+                + ex.getMessage());
+            // Possible causes:
+            // - Authentication error: invalid username/password
+            // - Provisioning error: publisher not entitled is a common error in
+            // this category
+            // - Invalid or unsupported properties specified
+            finish(1);
+        } catch (Exception ex) {
+            System.err.println("Encountered an Exception... " + ex.getMessage());
+            finish(1);
+        }
+
+    }
+
+    public static void main(String[] args) {
+        Transactions r = new Transactions();
+        r.run(args);
+    }
+}
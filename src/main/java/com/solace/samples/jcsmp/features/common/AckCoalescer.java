@@ -0,0 +1,232 @@
+/**
+ * AckCoalescer.java
+ *
+ * Collects message completions from any thread, and ACKs them to the broker in bursts, in order.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+/**
+ * Takes the ACKing of Guaranteed messages off the threads that process them.  The flow's callback
+ * thread registers each message as it arrives, workers (on any threads, in any order) mark them complete
+ * once they're fully processed, and a background thread ACKs them in bursts:
+ * <pre>
+ *   long seq = acks.register(msg);                      // onReceive(), on the API's thread
+ *   workers.execute(() -&gt; { process(msg); acks.complete(seq); });
+ * </pre>
+ * Completions are one bit each, set with an atomic OR in a bitmap window indexed by the message's
+ * sequence number, so workers never lock or wait for each other.  ACKs are cumulative: the flusher only
+ * ever ACKs the completed messages at the front of the window, oldest first, so a message is never ACKed
+ * before one that arrived earlier.  It ACKs a burst when maxBatch are ready, when the oldest completion
+ * has waited maxDelay, or when the window is full; meanwhile, {@link #register} blocks while the window
+ * is full, which stops the callback thread taking on more than the window's worth of unACKed messages.
+ * Only the flusher calls {@code ackMessage()}, so the flow's ACK lock is never contended by the workers.
+ * <p>
+ * The window should be at least the queue's max-delivered-unacked-msgs-per-flow, so it's normally the
+ * broker that limits how far processing can get ahead of the ACKs.  {@link #register} must only be
+ * called by one thread (one flow's callback thread).  The burst sizes, and how long each burst's oldest
+ * message waited from complete() to ACK, are kept as histograms.
+ */
+public final class AckCoalescer implements AutoCloseable {
+
+	private final BytesXMLMessage[] messages;  // by sequence number; written by the registering thread
+	private final long[] completedNanos;       // when each was completed, written before its bit is set
+	private final AtomicLongArray done;        // one bit per slot: completed, not yet ACKed
+	private final int mask;
+	private final int maxBatch;
+	private final long maxDelayNanos;
+	private volatile long head = 0;  // next sequence number to register; written by the registering thread
+	private volatile long tail = 0;  // oldest sequence number not yet ACKed; written by the flusher
+	private final Thread flusher;
+	private volatile boolean closed = false;
+
+	private final LatencyHistogram batchSizes = new LatencyHistogram();  // messages per burst of ACKs
+	private final LatencyHistogram ackDelay = new LatencyHistogram();    // complete() to ackMessage() of each burst's oldest, ns
+	private final Counter acked = new Counter();
+	private final Counter windowFullWaits = new Counter();
+
+	/**
+	 * @param windowSize max messages registered and not yet ACKed, rounded up to a power of two (at least 64)
+	 * @param maxBatch ACK as soon as this many completed messages are at the front of the window
+	 * @param maxDelay ACK completed messages once the oldest has waited this long, however few
+	 */
+	public AckCoalescer(int windowSize, int maxBatch, long maxDelay, TimeUnit unit) {
+		if (windowSize < 1 || windowSize > 1 << 28 || maxBatch < 1) {
+			throw new IllegalArgumentException("windowSize or maxBatch out of range: " + windowSize + ", " + maxBatch);
+		}
+		final int size = Math.max(64, Integer.highestOneBit(windowSize * 2 - 1));
+		messages = new BytesXMLMessage[size];
+		completedNanos = new long[size];
+		done = new AtomicLongArray(size / 64);
+		mask = size - 1;
+		this.maxBatch = maxBatch;
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+		flusher = new Thread(this::flushLoop, "AckCoalescer-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Adds a received message to the window, to be ACKed once it's completed.  Blocks while the window is
+	 * full.  Only call from one thread, in the order the messages arrive.
+	 *
+	 * @return its sequence number, for {@link #complete}
+	 */
+	public long register(BytesXMLMessage msg) {
+		final long seq = head;
+		if (seq - tail > mask) {
+			windowFullWaits.increment();
+			LockSupport.unpark(flusher);  // ACK whatever's ready now, rather than at the next deadline
+			for (int idle = 0; seq - tail > mask && !closed; ) {
+				idle = SpscRingBuffer.idle(idle);
+			}
+		}
+		messages[(int)seq & mask] = msg;
+		head = seq + 1;
+		return seq;
+	}
+
+	/** The message is fully processed: it can be ACKed, once every message before it has been.  Any thread. */
+	public void complete(long sequence) {
+		final int slot = (int)sequence & mask;
+		completedNanos[slot] = System.nanoTime();
+		final long bit = 1L << slot;  // shifts only use the low 6 bits
+		final int word = slot >>> 6;
+		long bits;
+		do {  // AtomicLongArray.accumulateAndGet(), without the lambda
+			bits = done.get(word);
+		} while (!done.compareAndSet(word, bits, bits | bit));
+	}
+
+	private void flushLoop() {
+		final long pollNanos = Math.max(TimeUnit.MICROSECONDS.toNanos(20), maxDelayNanos / 4);
+		while (!closed) {
+			if (flush(false) == 0) {
+				LockSupport.parkNanos(pollNanos);
+			}
+		}
+		while (flush(true) > 0) {  // ACK everything completed before closing
+		}
+	}
+
+	/** ACKs the completed messages at the front of the window if a burst is due; returns how many. */
+	private int flush(boolean force) {
+		final long t = tail;
+		final int ready = countReady(t, (int)Math.min(maxBatch, head - t));
+		if (ready == 0) {
+			return 0;
+		}
+		long oldestCompleted = Long.MAX_VALUE;  // completions come in any order: not necessarily the front one's
+		for (long seq = t; seq < t + ready; seq++) {
+			oldestCompleted = Math.min(oldestCompleted, completedNanos[(int)seq & mask]);
+		}
+		final long oldestDelay = System.nanoTime() - oldestCompleted;
+		if (!force && ready < maxBatch && head - t <= mask && oldestDelay < maxDelayNanos) {
+			return 0;  // not due yet: wait for more, or for the oldest to have waited maxDelay
+		}
+		for (long seq = t; seq < t + ready; seq++) {
+			final int slot = (int)seq & mask;
+			final BytesXMLMessage msg = messages[slot];
+			messages[slot] = null;
+			msg.ackMessage();
+		}
+		clearDone(t, ready);
+		tail = t + ready;  // the slots are free for register() again
+		acked.add(ready);
+		batchSizes.record(ready);
+		ackDelay.record(oldestDelay);  // once per burst: the longest any of them waited
+		return ready;
+	}
+
+	/** How many completed messages in a row, from sequence number 'from', up to max; a 64-bit word at a time. */
+	private int countReady(long from, int max) {
+		int ready = 0;
+		while (ready < max) {
+			final int slot = (int)(from + ready) & mask;
+			final int offset = slot & 63;
+			final long run = Long.numberOfTrailingZeros(~(done.get(slot >>> 6) >>> offset));  // 1s from offset up
+			final int inWord = (int)Math.min(run, 64 - offset);
+			ready += inWord;
+			if (inWord < 64 - offset) {
+				break;  // hit one that isn't done
+			}
+		}
+		return Math.min(ready, max);
+	}
+
+	/** Clears the bits of count ACKed messages from sequence number 'from': one CAS per 64-bit word. */
+	private void clearDone(long from, int count) {
+		while (count > 0) {
+			final int slot = (int)from & mask;
+			final int offset = slot & 63;
+			final int n = Math.min(count, 64 - offset);
+			final long bitsToClear = (n == 64 ? -1L : (1L << n) - 1) << offset;
+			final int word = slot >>> 6;
+			long bits;
+			do {
+				bits = done.get(word);
+			} while (!done.compareAndSet(word, bits, bits & ~bitsToClear));
+			from += n;
+			count -= n;
+		}
+	}
+
+	/** Messages registered and not yet ACKed: being processed, or completed and waiting for a burst. */
+	public long getPending() {
+		return head - tail;
+	}
+
+	/** How many messages each burst of ACKs had. */
+	public LatencyHistogram getBatchSizes() {
+		return batchSizes;
+	}
+
+	/** Nanoseconds from complete() to ACK, of the longest-waiting message in each burst. */
+	public LatencyHistogram getAckDelay() {
+		return ackDelay;
+	}
+
+	public Counter getAcked() {
+		return acked;
+	}
+
+	/** How many times register() found the window full, and had to wait. */
+	public Counter getWindowFullWaits() {
+		return windowFullWaits;
+	}
+
+	public int getWindowSize() {
+		return mask + 1;
+	}
+
+	/** ACKs everything already completed (in order), and stops the flusher; the rest stay unACKed, for redelivery. */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(flusher);
+		try {
+			flusher.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString() {
+		final LatencyHistogram.Snapshot batches = batchSizes.snapshot();
+		final LatencyHistogram.Snapshot delay = ackDelay.snapshot();
+		return String.format("AckCoalescer[window=%,d, pending=%,d, acked=%,d in %,d bursts (size p50=%,d p99=%,d max=%,d), "
+				+ "ACK delay p50=%,.0fus p99=%,.0fus, window full=%,d]",
+				mask + 1, getPending(), acked.count(), batches.getCount(), batches.getValueAtPercentile(50),
+				batches.getValueAtPercentile(99), batches.getMax(), delay.getValueAtPercentile(50) / 1e3,
+				delay.getValueAtPercentile(99) / 1e3, windowFullWaits.count());
+	}
+}
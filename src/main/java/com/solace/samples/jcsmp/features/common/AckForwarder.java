@@ -0,0 +1,401 @@
+/**
+ * AckForwarder.java
+ *
+ * Pipelines a processor's inbound messages: ACKs each one, in bursts, once its outbound message is ACKed.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.TimeUnit;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPErrorResponseException;
+import com.solacesystems.jcsmp.JCSMPErrorResponseSubcodeEx;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.XMLMessage.Outcome;
+
+/**
+ * For a processor that consumes a queue and republishes each message: keeps up to a window of inbound
+ * messages in flight (received, and their outbound message sent but not yet ACKed), and ACKs each inbound
+ * message only once its outbound one is ACKed by the broker, so nothing is lost if the processor dies:
+ * <pre>
+ *   AckForwarder.Key key = forwarder.track(inboundMsg, outboundMsg);  // processing thread
+ *   outboundMsg.setCorrelationKey(key);
+ *   producer.send(outboundMsg, topic);
+ *   ...
+ *   public void responseReceivedEx(Object key) {                      // API callback thread
+ *       pool.release((TextMessage)forwarder.ack(key));
+ * </pre>
+ * The correlation keys are the slots of a preallocated ring, indexed by sequence number, reused once their
+ * inbound message is ACKed, so nothing is allocated per message.  Outbound ACKs (and NACKs) just mark their
+ * slot done; the inbound ACKs are forwarded from the front of the ring, oldest first, in bursts: once
+ * ackBatch are done at the front, once the oldest of them has waited maxDelay (checked every 8th ACK,
+ * since reading the clock on every one would cost more than the rest), or right away if nothing else is
+ * outstanding (so an idle processor never holds one back).
+ * <p>
+ * The window bounds the memory used however fast the queue is: once window inbound messages are in flight,
+ * the Flow is stopped ({@code FlowReceiver.stop()}), and once the ACKs have brought that down to half the
+ * window, it's started again.  A few messages (up to the Flow's transport window) can still arrive after
+ * the stop, so the ring has room for twice the window; if it does fill up, {@link #track} waits.  The
+ * window should be at least the publish window ({@code PUB_ACK_WINDOW_SIZE}) plus ackBatch, or it's this,
+ * not the publish window, that limits how many messages are pipelined.
+ * <p>
+ * A NACKed outbound message's inbound message is settled as {@link Outcome#FAILED} (so the broker
+ * redelivers it), which needs the Flow to have been created with
+ * {@code addRequiredSettlementOutcomes(Outcome.FAILED)}; otherwise it's left unACKed.  Call
+ * {@link #fail} too if {@code send()} throws, since there'll be no ACK.  Rather than {@link #fail}, a NACKed
+ * message can be sent again with the same key, counting its attempts with {@link #retry} (a full queue
+ * soon drains).  A NACK can be permanent though (e.g. the ACL denies the topic; see {@link #isPermanent}),
+ * when sending it again, or redelivering the inbound message, only gets it NACKed again: {@link #reject}
+ * it, to settle its inbound message as {@link Outcome#REJECTED}, which moves it to the queue's DMQ (and
+ * needs that outcome in the Flow's required settlement outcomes too).  An inbound message is only ever
+ * ACKed once its outbound one is, never to give up on it.  {@link #track} must only be
+ * called by one thread; {@link #ack}/{@link #fail} normally are too (the API's callback thread), and
+ * the lock they forward under is then never contended.
+ */
+public final class AckForwarder implements AutoCloseable {
+
+	private static final int FREE = 0;
+	private static final int IN_FLIGHT = 1;
+	private static final int ACKED = 2;   // outbound ACKed; the inbound ACK not yet forwarded
+	private static final int FAILED = 3;  // outbound NACKed; the inbound not yet settled
+	private static final int REJECTED = 4;  // outbound NACKed for good; the inbound not yet settled
+	private static final int SAMPLE_MASK = 7;  // time one message in 8, and check the delay every 8th ACK: System.nanoTime() isn't free
+
+	/** One slot of the ring, and the correlation key of the outbound message in it. */
+	public static final class Key {
+		private long sequence;
+		private BytesXMLMessage inbound;
+		private Object attachment;
+		private long receivedNanos;
+		private int retries;  // only written by the NACKing thread, once tracked
+		private volatile int state = FREE;  // written after the fields above, so reading it first makes them visible
+
+		/** The inbound message (only valid while it's in flight). */
+		public BytesXMLMessage getInbound() {
+			return inbound;
+		}
+
+		/** What was tracked with it, e.g. the outbound message (only valid while it's in flight). */
+		public Object getAttachment() {
+			return attachment;
+		}
+
+		@Override
+		public String toString() {
+			return "Forward#" + sequence;
+		}
+	}
+
+	private final Key[] slots;
+	private final int mask;
+	private final int window;
+	private final int ackBatch;
+	private final long maxDelayNanos;
+	private volatile long head = 0;  // next sequence number to hand out; written by the tracking thread
+	private volatile long tail = 0;  // oldest sequence number not yet forwarded; written by the ACKing thread
+	private long scan = 0;           // first sequence number not known to be done; guarded by this
+	private long waitingTail = -1;   // the tail when the done messages at the front started waiting; guarded by this
+	private long waitingSinceNanos;  // and when; guarded by this
+	private int waitingChecks = 0;   // guarded by this
+	private volatile FlowReceiver flow;
+	private final Object flowLock = new Object();  // pausing and resuming, with the Flow's stop() and start(), happen under it
+	private volatile boolean paused = false;       // written under flowLock
+	private volatile boolean closed = false;
+
+	private final LatencyHistogram forwardLatency = new LatencyHistogram();  // tracked to inbound ACKed, ns
+	private final LatencyHistogram batchSizes = new LatencyHistogram();      // inbound ACKs per burst
+	private final Counter forwarded = new Counter();
+	private final Counter failed = new Counter();
+	private final Counter rejected = new Counter();
+	private final Counter retried = new Counter();
+	private final Counter pauses = new Counter();
+	private final Counter ringFullWaits = new Counter();
+
+	/**
+	 * @param window max inbound messages in flight before the Flow is stopped; at least the publish window plus ackBatch
+	 * @param ackBatch forward as soon as this many inbound ACKs are ready at the front
+	 * @param maxDelay forward ready inbound ACKs once the oldest has waited this long, however few
+	 */
+	public AckForwarder(int window, int ackBatch, long maxDelay, TimeUnit unit) {
+		if (window < 1 || window > 1 << 28 || ackBatch < 1 || maxDelay < 0) {
+			throw new IllegalArgumentException(String.format("Need 1 <= window <= 2^28, ackBatch >= 1, maxDelay >= 0: %d, %d, %d",
+					window, ackBatch, maxDelay));
+		}
+		this.window = window;
+		this.ackBatch = ackBatch;
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+		slots = new Key[Integer.highestOneBit(window * 4 - 1)];  // at least twice the window
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new Key();
+		}
+		mask = slots.length - 1;
+	}
+
+	/** The Flow the inbound messages come from, to stop and start at the window; set it before starting the Flow. */
+	public void setFlow(FlowReceiver flow) {
+		this.flow = flow;
+	}
+
+	/**
+	 * Starts tracking an inbound message, about to be republished: waits if the ring is full.
+	 *
+	 * @param attachment e.g. the outbound message, to release once it's ACKed
+	 * @return the correlation key, to set on the outbound message
+	 * @throws IllegalStateException if closed while waiting
+	 */
+	public Key track(BytesXMLMessage inbound, Object attachment) {
+		final long seq = head;
+		final Key slot = slots[(int)seq & mask];
+		if (slot.state != FREE) {
+			ringFullWaits.increment();
+			for (int idle = 0; slot.state != FREE; ) {
+				if (closed) {
+					throw new IllegalStateException("AckForwarder closed");
+				}
+				idle = SpscRingBuffer.idle(idle);
+			}
+		}
+		slot.sequence = seq;
+		slot.inbound = inbound;
+		slot.attachment = attachment;
+		slot.receivedNanos = (seq & SAMPLE_MASK) == 0 ? System.nanoTime() : 0;
+		slot.retries = 0;
+		slot.state = IN_FLIGHT;
+		head = seq + 1;
+		if (!paused && seq + 1 - tail >= window) {
+			pause();
+		}
+		return slot;
+	}
+
+	/** Stops the Flow, under the lock, so an ACK can't start it again between paused being set and the stop(). */
+	private void pause() {
+		synchronized (flowLock) {
+			if (paused) {
+				return;
+			}
+			paused = true;
+			pauses.increment();
+			final FlowReceiver f = flow;
+			if (f != null) {
+				f.stop();  // no more messages until the ACKs catch up
+			}
+		}
+		maybeResume();  // in case they already did, before paused was set
+	}
+
+	/**
+	 * The outbound message was ACKed: its inbound message will be ACKed, with the next burst.
+	 *
+	 * @param correlationKey as passed to responseReceivedEx()
+	 * @return what was tracked with it, or null if the key isn't (or is no longer) in flight
+	 */
+	public Object ack(Object correlationKey) {
+		return done(correlationKey, ACKED);
+	}
+
+	/**
+	 * The outbound message was NACKed: its inbound message will be settled as FAILED, to be redelivered.
+	 *
+	 * @param correlationKey as passed to handleErrorEx()
+	 * @return what was tracked with it, or null if the key isn't (or is no longer) in flight
+	 */
+	public Object fail(Object correlationKey) {
+		return done(correlationKey, FAILED);
+	}
+
+	/**
+	 * The outbound message was NACKed, and sending it again can't help ({@link #isPermanent}): its inbound
+	 * message will be settled as REJECTED, which moves it to the queue's DMQ (or deletes it, without one).
+	 *
+	 * @param correlationKey as passed to handleErrorEx()
+	 * @return what was tracked with it, or null if the key isn't (or is no longer) in flight
+	 */
+	public Object reject(Object correlationKey) {
+		return done(correlationKey, REJECTED);
+	}
+
+	/**
+	 * The outbound message was NACKed, and is going to be sent again with the same key: it stays in flight.
+	 *
+	 * @param correlationKey as passed to handleErrorEx()
+	 * @return how many times it's been retried, counting this one, or -1 if the key isn't (or is no longer) in flight
+	 */
+	public int retry(Object correlationKey) {
+		if (!(correlationKey instanceof Key) || ((Key)correlationKey).state != IN_FLIGHT) {
+			return -1;
+		}
+		retried.increment();
+		return ++((Key)correlationKey).retries;
+	}
+
+	/**
+	 * Whether a NACK is one that sending the message again won't fix: its destination doesn't exist (e.g. a
+	 * requestor's temporary reply queue, gone with its session), nothing subscribes to its topic, or the ACL
+	 * denies it.
+	 */
+	public static boolean isPermanent(JCSMPException cause) {
+		if (!(cause instanceof JCSMPErrorResponseException)) {
+			return false;
+		}
+		final int subcode = ((JCSMPErrorResponseException)cause).getSubcodeEx();
+		return subcode == JCSMPErrorResponseSubcodeEx.UNKNOWN_QUEUE_NAME || subcode == JCSMPErrorResponseSubcodeEx.QUEUE_NOT_FOUND
+				|| subcode == JCSMPErrorResponseSubcodeEx.UNKNOWN_DURABLE_TOPIC_ENDPOINT
+				|| subcode == JCSMPErrorResponseSubcodeEx.NO_SUBSCRIPTION_MATCH || subcode == JCSMPErrorResponseSubcodeEx.PUBLISH_ACL_DENIED;
+	}
+
+	private Object done(Object correlationKey, int outcome) {
+		if (!(correlationKey instanceof Key) || ((Key)correlationKey).state != IN_FLIGHT) {
+			return null;
+		}
+		final Key slot = (Key)correlationKey;
+		final Object attachment = slot.attachment;
+		slot.attachment = null;
+		slot.state = outcome;
+		forwardReady();
+		return attachment;
+	}
+
+	/** Forwards the done inbound messages at the front, if there are enough, or they've waited long enough, or nothing else is outstanding. */
+	private synchronized void forwardReady() {
+		final long h = head;
+		long s = scan;
+		while (s < h && slots[(int)s & mask].state > IN_FLIGHT) {
+			s++;
+		}
+		scan = s;
+		final long t = tail;
+		if (s == t) {
+			return;
+		}
+		if (s - t < ackBatch && s < h) {  // too few yet, and more to come: unless they've waited long enough
+			if (waitingTail != t) {
+				waitingTail = t;
+				waitingSinceNanos = System.nanoTime();
+				return;
+			}
+			if ((++waitingChecks & SAMPLE_MASK) != 0 || System.nanoTime() - waitingSinceNanos < maxDelayNanos) {
+				return;
+			}
+		}
+		final long now = System.nanoTime();
+		for (long seq = t; seq < s; seq++) {
+			final Key slot = slots[(int)seq & mask];
+			final BytesXMLMessage inbound = slot.inbound;
+			if (slot.state == ACKED) {
+				inbound.ackMessage();
+			} else {
+				final Outcome outcome = slot.state == FAILED ? Outcome.FAILED : Outcome.REJECTED;
+				(outcome == Outcome.FAILED ? failed : rejected).increment();
+				try {
+					inbound.settle(outcome);  // redeliver it, or DMQ it (needs the Flow's required settlement outcomes)
+				} catch (JCSMPException | RuntimeException e) {
+					System.out.printf("### Couldn't settle a NACKed message's inbound message as %s, it stays unACKed: %s%n", outcome, e);
+				}
+			}
+			if (slot.receivedNanos != 0) {
+				forwardLatency.record(now - slot.receivedNanos);
+			}
+			slot.inbound = null;
+			slot.state = FREE;
+		}
+		forwarded.add(s - t);
+		batchSizes.record(s - t);
+		tail = s;
+		maybeResume();
+	}
+
+	/** Starts the Flow again if it was stopped and the ACKs have brought the in-flight count down to half the window. */
+	private void maybeResume() {
+		if (!paused || head - tail > window / 2) {
+			return;  // the usual case, without the lock
+		}
+		synchronized (flowLock) {
+			if (!paused || head - tail > window / 2) {
+				return;
+			}
+			paused = false;
+			final FlowReceiver f = flow;
+			if (f != null && !closed) {
+				try {
+					f.start();
+				} catch (JCSMPException e) {
+					System.out.printf("### AckForwarder couldn't start the Flow again: %s%n", e);
+				}
+			}
+		}
+	}
+
+	/** Inbound messages tracked and not yet ACKed (or settled): a gauge. */
+	public long getInFlight() {
+		return head - tail;
+	}
+
+	/** Whether the Flow is stopped, waiting for the ACKs to catch up. */
+	public boolean isPaused() {
+		return paused;
+	}
+
+	/** Nanoseconds from track() to the inbound message being ACKed (or settled), for one message in 8. */
+	public LatencyHistogram getForwardLatency() {
+		return forwardLatency;
+	}
+
+	/** How many inbound ACKs each burst had. */
+	public LatencyHistogram getBatchSizes() {
+		return batchSizes;
+	}
+
+	/** Inbound messages ACKed or settled (FAILED or REJECTED). */
+	public Counter getForwarded() {
+		return forwarded;
+	}
+
+	/** Inbound messages settled as FAILED, their outbound message having been NACKed. */
+	public Counter getFailed() {
+		return failed;
+	}
+
+	/** Inbound messages settled as REJECTED, their outbound message having been NACKed for good. */
+	public Counter getRejected() {
+		return rejected;
+	}
+
+	/** How many times a NACKed outbound message was going to be sent again. */
+	public Counter getRetried() {
+		return retried;
+	}
+
+	/** How many times the Flow was stopped at the window. */
+	public Counter getPauses() {
+		return pauses;
+	}
+
+	/** How many times track() had to wait for a free slot, the Flow having delivered twice the window. */
+	public Counter getRingFullWaits() {
+		return ringFullWaits;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/** Stops track() waiting for a free slot, and the Flow being started again; call once done sending. */
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	@Override
+	public String toString() {
+		final LatencyHistogram.Snapshot latency = forwardLatency.snapshot();
+		return String.format("AckForwarder[window=%,d, inFlight=%,d, forwarded=%,d in bursts of p50 %,d, failed=%,d, rejected=%,d, "
+				+ "retried=%,d, latency p50=%,dus p99=%,dus, pauses=%,d, ringFullWaits=%,d]", window, getInFlight(), forwarded.count(),
+				batchSizes.snapshot().getValueAtPercentile(50), failed.count(), rejected.count(), retried.count(), latency.getValueAtPercentile(50) / 1000,
+				latency.getValueAtPercentile(99) / 1000, pauses.count(), ringFullWaits.count());
+	}
+}
@@ -0,0 +1,324 @@
+/**
+ * AsyncGuaranteedProducer.java
+ *
+ * Sends Guaranteed messages and hands back a CompletableFuture that completes when the broker ACKs them.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import com.solacesystems.jcsmp.DeliveryMode;
+import com.solacesystems.jcsmp.Destination;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
+import com.solacesystems.jcsmp.JCSMPTransportException;
+import com.solacesystems.jcsmp.XMLMessage;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+
+/**
+ * Wraps an {@link XMLMessageProducer} so that each Guaranteed send returns a future, instead of the
+ * application matching up ACKs and NACKs to messages by hand with its own correlation keys:
+ * <pre>
+ *   AsyncGuaranteedProducer producer = new AsyncGuaranteedProducer(session, 1000);
+ *   producer.sendAsync(msg, topic)
+ *           .thenAccept(receipt -&gt; ...)                  // ACKed: receipt.getAckLatencyNanos(), ...
+ *           .exceptionally(e -&gt; ...);                    // NACKed, or the session went down
+ * </pre>
+ * The future itself is the message's correlation key, so the ACK callback completes it directly: no map
+ * to look it up in, and no locks.  It's also put in a slot of a fixed-size ring (claimed with a CAS), only
+ * so that if the session goes down, or the producer is closed, everything still in flight can be failed
+ * rather than left waiting forever.
+ * <p>
+ * Up to maxInFlight messages can be waiting for their ACK, from any number of threads; after that,
+ * {@code sendAsync()} blocks until one is ACKed, which pushes back on the senders.  This can be more than
+ * the publish window ({@code PUB_ACK_WINDOW_SIZE}, at most 255): the API's own {@code send()} blocks while
+ * the window is full, so the extra senders just wait there instead.
+ * <p>
+ * The futures complete on the API's callback thread, so anything chained with {@code thenAccept()} etc.
+ * runs there: keep it short, or use the {@code ...Async()} variants.  In particular, sending from there
+ * (e.g. the next message, once one is ACKed) can't wait for the window, since only that thread's ACKs
+ * would free it: the future then fails straight away, with an IllegalStateException, rather than the
+ * callback thread deadlocking.  A message's own correlation key is put back before its future completes,
+ * and is in the receipt.
+ */
+public final class AsyncGuaranteedProducer implements AutoCloseable {
+
+	/** What an ACKed send completes with. */
+	public static final class PublishReceipt {
+		private final XMLMessage message;
+		private final Destination destination;
+		private final Object correlationKey;
+		private final long ackLatencyNanos;
+
+		PublishReceipt(XMLMessage message, Destination destination, Object correlationKey, long ackLatencyNanos) {
+			this.message = message;
+			this.destination = destination;
+			this.correlationKey = correlationKey;
+			this.ackLatencyNanos = ackLatencyNanos;
+		}
+
+		/** The message sent: the broker has it now, so it can be reused (e.g. released to a {@link MessagePool}). */
+		public XMLMessage getMessage() {
+			return message;
+		}
+
+		public Destination getDestination() {
+			return destination;
+		}
+
+		/** The message's own correlation key, if it had one when sent. */
+		public Object getCorrelationKey() {
+			return correlationKey;
+		}
+
+		/** Nanoseconds from send to ACK. */
+		public long getAckLatencyNanos() {
+			return ackLatencyNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("PublishReceipt[%s, ACKed in %,.1fms]", destination, ackLatencyNanos / 1e6);
+		}
+	}
+
+	/** The future of one send, and its correlation key. */
+	private static final class PendingSend extends CompletableFuture<PublishReceipt> {
+		final XMLMessage message;
+		final Destination destination;
+		final Object correlationKey;  // the message's own
+		long sentNanos;
+		int slot;
+
+		PendingSend(XMLMessage message, Destination destination) {
+			this.message = message;
+			this.destination = destination;
+			this.correlationKey = message.getCorrelationKey();
+		}
+	}
+
+	private final XMLMessageProducer producer;
+	private final int maxInFlight;
+	private final Semaphore permits;
+	private final AtomicReferenceArray<PendingSend> inFlight;  // twice maxInFlight, so a free slot is always near
+	private final int mask;
+	private final AtomicLong nextSlot = new AtomicLong();
+	private final LatencyHistogram ackLatency = new LatencyHistogram();
+	private final Counter acked = new Counter();
+	private final Counter nacked = new Counter();
+	private volatile Consumer<JCSMPException> errorListener = null;
+	private volatile JCSMPException closedCause = null;
+	private volatile Thread callbackThread = null;  // the API's, which mustn't wait for a permit
+
+	/**
+	 * Creates the session's producer, with this class's own ACK/NACK callbacks.
+	 *
+	 * @param maxInFlight how many messages can be waiting for their ACK before sendAsync() blocks; at least the publish window
+	 */
+	public AsyncGuaranteedProducer(JCSMPSession session, int maxInFlight) throws JCSMPException {
+		if (maxInFlight < 1 || maxInFlight > 1 << 28) {
+			throw new IllegalArgumentException("maxInFlight out of range: " + maxInFlight);
+		}
+		this.maxInFlight = maxInFlight;
+		this.permits = new Semaphore(maxInFlight);
+		final int slots = Integer.highestOneBit(maxInFlight * 4 - 1);
+		this.inFlight = new AtomicReferenceArray<>(slots);
+		this.mask = slots - 1;
+		this.producer = session.getMessageProducer(new CallbackHandler(), event -> {
+			// as of JCSMP v10.10, this event only occurs when republishing unACKed messages on an unknown flow (DR failover)
+			System.out.printf("*** Received a producer event: %s%n", event);
+		});
+	}
+
+	/**
+	 * Sends a Guaranteed message (PERSISTENT, unless it's already set to NON_PERSISTENT).  Blocks while
+	 * maxInFlight messages are waiting for their ACK, unless called on the API's callback thread.  The
+	 * message must not be touched until the future completes.
+	 *
+	 * @return completes with a receipt once the broker ACKs the message, or exceptionally if it NACKs it
+	 *     (with the JCSMPException from the API), if send() threw, if the session goes down first, or (with
+	 *     an IllegalStateException) if maxInFlight were already waiting and this is the callback thread
+	 */
+	public CompletableFuture<PublishReceipt> sendAsync(XMLMessage message, Destination destination) {
+		final PendingSend pending = new PendingSend(message, destination);
+		final JCSMPException cause = closedCause;
+		if (cause != null) {
+			pending.completeExceptionally(cause);
+			return pending;
+		}
+		if (!permits.tryAcquire()) {
+			if (Thread.currentThread() == callbackThread) {  // waiting would deadlock: only this thread frees permits
+				pending.completeExceptionally(new IllegalStateException("sendAsync() on the API's callback thread, with "
+						+ maxInFlight + " messages already in flight: send from another thread, e.g. with thenAcceptAsync()"));
+				return pending;
+			}
+			try {
+				permits.acquire();  // the backpressure
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				pending.completeExceptionally(e);
+				return pending;
+			}
+		}
+		claimSlot(pending);
+		if (message.getDeliveryMode() == DeliveryMode.DIRECT) {
+			message.setDeliveryMode(DeliveryMode.PERSISTENT);
+		}
+		message.setCorrelationKey(pending);
+		pending.sentNanos = System.nanoTime();
+		try {
+			producer.send(message, destination);
+		} catch (JCSMPException | RuntimeException e) {  // never sent, so there won't be an ACK
+			if (release(pending)) {
+				pending.completeExceptionally(e);
+			}
+		}
+		return pending;
+	}
+
+	/** Puts it in the next free slot: with at most half the slots in use, that's normally the first one tried. */
+	private void claimSlot(PendingSend pending) {
+		while (true) {
+			final int slot = (int)nextSlot.getAndIncrement() & mask;
+			if (inFlight.get(slot) == null && inFlight.compareAndSet(slot, null, pending)) {
+				pending.slot = slot;
+				return;
+			}
+		}
+	}
+
+	/** Frees its slot and permit, and puts the message's own correlation key back; false if something else already did. */
+	private boolean release(PendingSend pending) {
+		if (!inFlight.compareAndSet(pending.slot, pending, null)) {
+			return false;  // already completed, e.g. failed by close()
+		}
+		pending.message.setCorrelationKey(pending.correlationKey);
+		permits.release();
+		return true;
+	}
+
+	/** Fails everything in flight, e.g. because the session is gone, so the futures don't wait forever. */
+	private void failAll(Throwable cause) {
+		for (int i = 0; i < inFlight.length(); i++) {
+			final PendingSend pending = inFlight.get(i);
+			if (pending != null && release(pending)) {
+				pending.completeExceptionally(cause);
+			}
+		}
+	}
+
+	/** Called with errors that aren't about one message (e.g. the connection is lost), as well as failing whatever is in flight if fatal. */
+	public void setErrorListener(Consumer<JCSMPException> listener) {
+		this.errorListener = listener;
+	}
+
+	private class CallbackHandler implements JCSMPStreamingPublishCorrelatingEventHandler {
+
+		@Override
+		public void responseReceivedEx(Object key) {
+			noteCallbackThread();
+			if (!(key instanceof PendingSend)) {
+				return;
+			}
+			final PendingSend pending = (PendingSend)key;
+			final long latency = System.nanoTime() - pending.sentNanos;
+			if (release(pending)) {
+				ackLatency.record(latency);
+				acked.increment();
+				pending.complete(new PublishReceipt(pending.message, pending.destination, pending.correlationKey, latency));
+			}
+		}
+
+		@Override
+		public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
+			noteCallbackThread();
+			if (key instanceof PendingSend) {  // NACK
+				final PendingSend pending = (PendingSend)key;
+				if (release(pending)) {
+					nacked.increment();
+					pending.completeExceptionally(cause);
+				}
+			} else {  // not a NACK, but some other error (ACL violation, connection loss, message too big, ...)
+				if (cause instanceof JCSMPTransportException) {  // all reconnect attempts failed: no more ACKs coming
+					closedCause = cause;
+					failAll(cause);
+				}
+				final Consumer<JCSMPException> listener = errorListener;
+				if (listener != null) {
+					listener.accept(cause);
+				} else {
+					System.out.printf("### Producer handleErrorEx() callback: %s%n", cause);
+				}
+			}
+		}
+	}
+
+	/** Remembers the API's callback thread (it's the same one every time, so normally this only reads it). */
+	private void noteCallbackThread() {
+		final Thread current = Thread.currentThread();
+		if (callbackThread != current) {
+			callbackThread = current;
+		}
+	}
+
+	/** Waits until every message sent so far is ACKed or failed; returns false on timeout. */
+	public boolean awaitAcks(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!permits.tryAcquire(maxInFlight, timeout, unit)) {
+			return false;
+		}
+		permits.release(maxInFlight);
+		return true;
+	}
+
+	/** The wrapped producer, e.g. for Direct sends on the same session. */
+	public XMLMessageProducer getProducer() {
+		return producer;
+	}
+
+	/** Messages sent and not yet ACKed or NACKed. */
+	public int getInFlight() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/** Send-to-ACK latency of every ACKed message. */
+	public LatencyHistogram getAckLatency() {
+		return ackLatency;
+	}
+
+	public Counter getAcked() {
+		return acked;
+	}
+
+	public Counter getNacked() {
+		return nacked;
+	}
+
+	/** Closes the producer; anything still in flight fails, since its ACK won't be delivered now. */
+	@Override
+	public void close() {
+		if (closedCause == null) {
+			closedCause = new JCSMPException("AsyncGuaranteedProducer closed");
+		}
+		producer.close();
+		failAll(closedCause);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("AsyncGuaranteedProducer[inFlight=%,d/%,d, acked=%,d, nacked=%,d, ACK latency: %s]",
+				getInFlight(), maxInFlight, acked.count(), nacked.count(), ackLatency.snapshot());
+	}
+}
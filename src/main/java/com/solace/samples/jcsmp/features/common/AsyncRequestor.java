@@ -0,0 +1,256 @@
+/**
+ * AsyncRequestor.java
+ *
+ * Sends Guaranteed requests without waiting, and completes a future for each one as its reply arrives.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.DeliveryMode;
+import com.solacesystems.jcsmp.Destination;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.XMLMessage;
+import com.solacesystems.jcsmp.XMLMessageListener;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+
+/**
+ * Request-reply over Guaranteed messaging, with many requests outstanding at once.  Every request names
+ * the same reply queue (one per process, e.g. a temporary queue), and a correlation ID unique to it; the
+ * reply queue's Flow has this as its listener, which looks the reply's correlation ID up in a concurrent
+ * map of the outstanding requests, and completes that request's future:
+ * <pre>
+ *   AsyncRequestor requestor = new AsyncRequestor(producer, replyQueue, 10_000, 5, TimeUnit.SECONDS, timerWheel);
+ *   FlowReceiver replies = session.createFlow(requestor, replyFlowProps, null);
+ *   replies.start();
+ *   requestor.request(msg, requestTopic).thenAccept(reply -&gt; ...);
+ * </pre>
+ * A request that gets no reply within the timeout fails with a {@link TimeoutException}; the timeouts are
+ * kept in a {@link TimerWheel}, not a scheduled task each, so thousands of requests outstanding cost little
+ * more than their map entries.  A reply that comes after its request timed out (or a second one) is just
+ * ACKed and counted.  At most maxOutstanding requests can be outstanding: {@link #request} waits for one
+ * to finish, rather than the map (and the broker's queues) growing without bound.
+ * <p>
+ * The futures are completed on the reply Flow's callback thread (or the timer wheel's, for timeouts), so
+ * anything slow done with a reply should be handed on, e.g. with {@code thenAcceptAsync(..., executor)}.
+ * The requests are sent PERSISTENT, with the request itself as their correlation key: pass a publish NACK
+ * for one to {@link #publishFailed}, to fail its future.
+ */
+public final class AsyncRequestor implements XMLMessageListener, AutoCloseable {
+
+	/** One outstanding request: the map's value, its publish correlation key, and its timeout. */
+	private final class Pending extends TimerWheel.Timeout {
+		final String correlationId;
+		final CompletableFuture<BytesXMLMessage> future = new CompletableFuture<>();
+		final long sentNanos = System.nanoTime();
+
+		Pending(String correlationId) {
+			this.correlationId = correlationId;
+		}
+
+		@Override
+		protected void expire() {
+			if (outstanding.remove(correlationId, this)) {
+				timedOut.increment();
+				permits.release();
+				future.completeExceptionally(new TimeoutException("No reply within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos)
+						+ " ms to request " + correlationId));
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Request#" + correlationId;
+		}
+	}
+
+	private final XMLMessageProducer producer;
+	private final Destination replyTo;
+	private final int maxOutstanding;
+	private final long timeoutNanos;
+	private final TimerWheel timers;
+	private final ConcurrentHashMap<String, Pending> outstanding;
+	private final Semaphore permits;
+	private final String idPrefix;
+	private final AtomicLong nextId = new AtomicLong();
+	private volatile Consumer<JCSMPException> exceptionListener = null;
+
+	private final LatencyHistogram replyLatency = new LatencyHistogram();  // sent to reply received, ns
+	private final Counter sent = new Counter();
+	private final Counter replied = new Counter();
+	private final Counter timedOut = new Counter();
+	private final Counter failed = new Counter();
+	private final Counter unmatched = new Counter();  // replies to requests already timed out (or replied to)
+
+	/**
+	 * @param replyTo where the replies should go: the queue this is the listener of the Flow of
+	 * @param maxOutstanding most requests waiting for a reply at once; request() waits while there are this many
+	 * @param timeout how long to wait for each reply
+	 * @param timers expires the requests without a reply; a tick of a few percent of the timeout is fine
+	 */
+	public AsyncRequestor(XMLMessageProducer producer, Destination replyTo, int maxOutstanding, long timeout, TimeUnit unit,
+			TimerWheel timers) {
+		if (maxOutstanding < 1 || timeout <= 0) {
+			throw new IllegalArgumentException(String.format("Need maxOutstanding >= 1, timeout > 0: %d, %d", maxOutstanding, timeout));
+		}
+		this.producer = producer;
+		this.replyTo = replyTo;
+		this.maxOutstanding = maxOutstanding;
+		this.timeoutNanos = unit.toNanos(timeout);
+		this.timers = timers;
+		this.outstanding = new ConcurrentHashMap<>(maxOutstanding * 2);
+		this.permits = new Semaphore(maxOutstanding);
+		// unique to this process, so a reply to another one's request (e.g. with the same reply queue name) can't match
+		this.idPrefix = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36) + '-';
+	}
+
+	/** Called with the reply Flow's exceptions; without one, they're just printed. */
+	public void setExceptionListener(Consumer<JCSMPException> listener) {
+		this.exceptionListener = listener;
+	}
+
+	/**
+	 * Sends a request: waits first if maxOutstanding are already outstanding.  Sets the message's reply-to,
+	 * correlation ID, correlation key and delivery mode; don't reuse it until the future completes.
+	 *
+	 * @return completed with the reply, or exceptionally with a TimeoutException, or the publish NACK
+	 * @throws JCSMPException if send() throws (and then no future is returned)
+	 * @throws IllegalStateException if the timer wheel is closed
+	 */
+	public CompletableFuture<BytesXMLMessage> request(XMLMessage request, Destination destination)
+			throws JCSMPException, InterruptedException {
+		permits.acquire();
+		final Pending pending = new Pending(idPrefix + Long.toString(nextId.getAndIncrement(), 36));
+		outstanding.put(pending.correlationId, pending);
+		try {
+			timers.schedule(pending, timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (RuntimeException e) {  // e.g. the wheel is closed: give back the entry and the permit
+			outstanding.remove(pending.correlationId, pending);
+			permits.release();
+			throw e;
+		}
+		try {
+			request.setDeliveryMode(DeliveryMode.PERSISTENT);
+			request.setReplyTo(replyTo);
+			request.setCorrelationId(pending.correlationId);
+			request.setCorrelationKey(pending);  // for the publish ACK or NACK
+			producer.send(request, destination);
+		} catch (JCSMPException | RuntimeException e) {
+			finish(pending);
+			throw e;
+		}
+		sent.increment();
+		return pending.future;
+	}
+
+	/** The request with this publish correlation key was NACKed (e.g. no queue subscribed to its topic): fails its future. */
+	public void publishFailed(Object correlationKey, JCSMPException cause) {
+		if (correlationKey instanceof Pending) {
+			final Pending pending = (Pending)correlationKey;
+			if (finish(pending)) {
+				failed.increment();
+				pending.future.completeExceptionally(cause);
+			}
+		}
+	}
+
+	/** Stops it being outstanding, if it still was. */
+	private boolean finish(Pending pending) {
+		if (!outstanding.remove(pending.correlationId, pending)) {
+			return false;
+		}
+		pending.cancel();
+		permits.release();
+		return true;
+	}
+
+	/** A reply: completes its request's future. */
+	@Override
+	public void onReceive(BytesXMLMessage reply) {
+		final String correlationId = reply.getCorrelationId();
+		final Pending pending = correlationId == null ? null : outstanding.get(correlationId);
+		if (pending != null && finish(pending)) {
+			replied.increment();
+			replyLatency.record(System.nanoTime() - pending.sentNanos);
+			pending.future.complete(reply);
+		} else {
+			unmatched.increment();
+		}
+		reply.ackMessage();  // either way, it's been dealt with
+	}
+
+	@Override
+	public void onException(JCSMPException e) {
+		final Consumer<JCSMPException> listener = exceptionListener;
+		if (listener != null) {
+			listener.accept(e);
+		} else {
+			System.out.printf("### AsyncRequestor reply Flow exception: %s%n", e);
+		}
+	}
+
+	/** Requests waiting for a reply: a gauge. */
+	public int getOutstanding() {
+		return outstanding.size();
+	}
+
+	public int getMaxOutstanding() {
+		return maxOutstanding;
+	}
+
+	/** Nanoseconds from each request being sent to its reply being received. */
+	public LatencyHistogram getReplyLatency() {
+		return replyLatency;
+	}
+
+	public Counter getSent() {
+		return sent;
+	}
+
+	public Counter getReplied() {
+		return replied;
+	}
+
+	public Counter getTimedOut() {
+		return timedOut;
+	}
+
+	/** Requests whose publish was NACKed. */
+	public Counter getFailed() {
+		return failed;
+	}
+
+	/** Replies that matched no outstanding request: late, after it timed out, or duplicates. */
+	public Counter getUnmatched() {
+		return unmatched;
+	}
+
+	/** Fails every outstanding request (with a TimeoutException), e.g. before closing the session. */
+	@Override
+	public void close() {
+		for (Pending pending : outstanding.values()) {
+			if (pending.cancel()) {  // not expiring meanwhile
+				pending.expire();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		final LatencyHistogram.Snapshot latency = replyLatency.snapshot();
+		return String.format("AsyncRequestor[outstanding=%,d (max %,d), sent=%,d, replied=%,d, timedOut=%,d, failed=%,d, unmatched=%,d, "
+				+ "latency p50=%,.2fms p99=%,.2fms]", getOutstanding(), maxOutstanding, sent.count(), replied.count(), timedOut.count(),
+				failed.count(), unmatched.count(), latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6);
+	}
+}
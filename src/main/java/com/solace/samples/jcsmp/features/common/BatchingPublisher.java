@@ -0,0 +1,285 @@
+/**
+ * BatchingPublisher.java
+ *
+ * Accumulates messages and publishes them in batches with sendMultiple().
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.solacesystems.jcsmp.BytesMessage;
+import com.solacesystems.jcsmp.DeliveryMode;
+import com.solacesystems.jcsmp.Destination;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPSendMultipleEntry;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+
+/**
+ * A Nagle-style batching front-end for an {@link XMLMessageProducer}.  Messages are collected into a
+ * reusable {@link JCSMPSendMultipleEntry} array and published with one {@code sendMultiple()} call when
+ * the batch is full, or when the first message in the batch has waited {@code maxLinger}, whichever
+ * comes first.  The linger deadline is enforced by a background flusher thread, which parks for long
+ * waits and spins for the last few microseconds, so the bound holds even when no more messages arrive.
+ * <p>
+ * Usage, from one or more publishing threads:
+ * <pre>
+ *   BytesMessage msg = batcher.claim();  // a reset message from the pool
+ *   msg.setData(payload);
+ *   batcher.commit(msg, topic);          // hands the message back, might trigger a flush
+ * </pre>
+ * Messages are returned to the pool (reset) once their batch has been sent, so after warm-up no messages
+ * or entries are allocated.  Do not touch a message after committing it.
+ * <p>
+ * Direct messages only: a Guaranteed message still belongs to the API until its publish ACK, so it can't be
+ * recycled as soon as it's sent, and {@link #commit} rejects one.  If a {@code sendMultiple()} call throws,
+ * its messages and the rest of its batch's are dropped (as Direct messages can be, anywhere along the way):
+ * the exception is thrown to the next caller, and the dropped messages counted by {@link #getMessagesNotSent}.
+ */
+public final class BatchingPublisher implements AutoCloseable {
+
+	/** Whatever actually sends a batch; normally {@code XMLMessageProducer.sendMultiple()}. */
+	@FunctionalInterface
+	public interface MultiSender {
+		void sendMultiple(JCSMPSendMultipleEntry[] entries, int offset, int length) throws JCSMPException;
+	}
+
+	/** The API accepts at most this many messages per sendMultiple() call. */
+	public static final int MAX_ENTRIES_PER_CALL = 50;
+	private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final MultiSender sender;
+	private final int maxBatchSize;
+	private final long maxLingerNanos;
+	private final JCSMPSendMultipleEntry[] entries;  // guarded by lock
+	private final ArrayDeque<BytesMessage> freeMessages;  // guarded by lock
+	private int count = 0;  // messages in the current batch, guarded by lock
+	private long batchStartNanos;  // when the first message of the current batch was committed, guarded by lock
+	private long batchNumber = 0;  // incremented on every flush, guarded by lock
+	private JCSMPException sendError;  // from a background flush, rethrown to the next caller
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition batchStarted = lock.newCondition();
+	private final Thread flusher;
+	private volatile boolean closed = false;
+
+	// stats: only written under the lock, but read by stats threads
+	private volatile long flushes = 0;
+	private volatile long flushesWhenFull = 0;
+	private volatile long messagesSent = 0;
+	private volatile long messagesNotSent = 0;
+
+	/**
+	 * @param producer the producer to publish with
+	 * @param maxBatchSize flush as soon as this many messages are waiting
+	 * @param maxLingerMicros flush when the oldest waiting message has waited this long
+	 */
+	public BatchingPublisher(XMLMessageProducer producer, int maxBatchSize, long maxLingerMicros) {
+		this((entries, offset, length) -> producer.sendMultiple(entries, offset, length, 0),  // no flags
+				maxBatchSize, maxLingerMicros);
+	}
+
+	public BatchingPublisher(MultiSender sender, int maxBatchSize, long maxLingerMicros) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+		}
+		this.sender = sender;
+		this.maxBatchSize = maxBatchSize;
+		this.maxLingerNanos = TimeUnit.MICROSECONDS.toNanos(maxLingerMicros);
+		this.entries = new JCSMPSendMultipleEntry[maxBatchSize];  // created on first use, then reused
+		this.freeMessages = new ArrayDeque<BytesMessage>(maxBatchSize + 1);
+		for (int i = 0; i <= maxBatchSize; i++) {  // one extra, for the message being filled in
+			freeMessages.add(JCSMPFactory.onlyInstance().createMessage(BytesMessage.class));
+		}
+		flusher = new Thread(this::runFlusher, "BatchingPublisher-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/** Returns an empty message to fill in and then {@link #commit(BytesMessage, Destination)}. */
+	public BytesMessage claim() {
+		lock.lock();
+		try {
+			BytesMessage msg = freeMessages.pollFirst();
+			return msg != null ? msg : JCSMPFactory.onlyInstance().createMessage(BytesMessage.class);  // pool ran dry, grow
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds a claimed message to the current batch, sending the batch if it is now full.
+	 *
+	 * @throws JCSMPException if this, or an earlier background, flush failed (see {@link #getMessagesNotSent})
+	 * @throws IllegalArgumentException if the message isn't Direct
+	 */
+	public void commit(BytesMessage msg, Destination destination) throws JCSMPException {
+		final DeliveryMode mode = msg.getDeliveryMode();
+		if (mode == DeliveryMode.PERSISTENT || mode == DeliveryMode.NON_PERSISTENT) {
+			throw new IllegalArgumentException("BatchingPublisher only sends Direct messages, not " + mode);
+		}
+		lock.lock();
+		try {
+			throwPendingError();
+			if (closed) {
+				throw new IllegalStateException("BatchingPublisher is closed");
+			}
+			if (entries[count] == null) {
+				entries[count] = JCSMPFactory.onlyInstance().createSendMultipleEntry(msg, destination);
+			} else {
+				entries[count].setMessage(msg).setDestination(destination);
+			}
+			if (++count == 1) {  // first message of a new batch: start the linger clock
+				batchStartNanos = System.nanoTime();
+				batchStarted.signal();
+			}
+			if (count == maxBatchSize) {
+				flushesWhenFull++;
+				flushLocked();
+				throwPendingError();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Sends whatever is in the current batch now. */
+	public void flush() throws JCSMPException {
+		lock.lock();
+		try {
+			flushLocked();
+			throwPendingError();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Flushes anything left, and stops the flusher thread. */
+	@Override
+	public void close() throws JCSMPException {
+		lock.lock();
+		try {
+			closed = true;
+			batchStarted.signal();
+			flushLocked();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		lock.lock();
+		try {
+			throwPendingError();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void runFlusher() {
+		lock.lock();
+		try {
+			while (!closed) {
+				if (count == 0) {
+					batchStarted.awaitUninterruptibly();
+					continue;
+				}
+				final long batch = batchNumber;
+				final long batchStart = batchStartNanos;
+				long remaining = batchStart + maxLingerNanos - System.nanoTime();
+				if (remaining <= 0) {
+					flushLocked();
+				} else if (remaining > SPIN_THRESHOLD_NANOS) {
+					batchStarted.awaitNanos(remaining - SPIN_THRESHOLD_NANOS);  // releases the lock while waiting
+				} else {  // nearly due: spin without holding the lock, so publishers can keep adding
+					lock.unlock();
+					try {
+						while (System.nanoTime() - batchStart < maxLingerNanos) {
+							// busy spin
+						}
+					} finally {
+						lock.lock();
+					}
+					if (count > 0 && batchNumber == batch) {  // still the same batch, not already flushed
+						flushLocked();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Sends the current batch in chunks of up to MAX_ENTRIES_PER_CALL, then recycles its messages. */
+	private void flushLocked() {
+		if (count == 0) {
+			return;
+		}
+		int offset = 0;
+		try {
+			for (; offset < count; offset += MAX_ENTRIES_PER_CALL) {
+				sender.sendMultiple(entries, offset, Math.min(MAX_ENTRIES_PER_CALL, count - offset));
+			}
+			flushes++;
+		} catch (JCSMPException e) {
+			messagesNotSent += count - offset;  // this chunk and the rest are dropped; the chunks before it were sent
+			sendError = e;  // let the publishing thread decide what to do
+		}
+		messagesSent += Math.min(offset, count);
+		for (int i = 0; i < count; i++) {
+			BytesMessage msg = (BytesMessage)entries[i].getMessage();
+			msg.reset();
+			freeMessages.addLast(msg);
+		}
+		count = 0;
+		batchNumber++;
+	}
+
+	private void throwPendingError() throws JCSMPException {
+		if (sendError != null) {
+			JCSMPException e = sendError;
+			sendError = null;
+			throw e;
+		}
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public long getFlushes() {
+		return flushes;
+	}
+
+	/** How many flushes were because the batch filled up (the rest were because of the linger time). */
+	public long getFlushesWhenFull() {
+		return flushesWhenFull;
+	}
+
+	public long getMessagesSent() {
+		return messagesSent;
+	}
+
+	/** Messages dropped because their sendMultiple() call threw: its chunk, and the rest of its batch. */
+	public long getMessagesNotSent() {
+		return messagesNotSent;
+	}
+
+	@Override
+	public String toString() {
+		long f = flushes;
+		return String.format("BatchingPublisher[maxBatchSize=%d, maxLinger=%,dus, flushes=%,d (%,d when full), msgs=%,d, avg batch=%.1f, "
+				+ "not sent=%,d]", maxBatchSize, TimeUnit.NANOSECONDS.toMicros(maxLingerNanos), f, flushesWhenFull, messagesSent,
+				f == 0 ? 0.0 : (double)messagesSent / f, messagesNotSent);
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * BoundedWorkExecutor.java
+ *
+ * Runs blocking per-message work concurrently, with bounded concurrency and optional per-key ordering.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands each message's work (e.g. a database lookup, then a send) to an {@link ExecutorService}, so that
+ * blocking work doesn't hold up the receiving thread.  Intended for virtual threads, where a thread per
+ * message is cheap, but works with any executor:
+ * <pre>
+ *   BoundedWorkExecutor workers = new BoundedWorkExecutor(BoundedWorkExecutor.newExecutor("virtual", 0), 1000);
+ *   workers.execute(topic, () -&gt; process(msg));  // blocks if 1000 messages are already in progress
+ * </pre>
+ * A {@link Semaphore} bounds the number of messages accepted but not yet finished; when it's used up,
+ * {@code execute()} blocks, which pushes back on the receiving thread (and so on the API's receive
+ * queue) instead of piling up an unbounded backlog, or flooding whatever the work is calling.
+ * <p>
+ * Work given with a key runs in order, one at a time, with other work for the same key; work for
+ * different keys (or with no key) runs concurrently.  Waiting work for a busy key still holds its
+ * permit, so one very busy key can use up the whole limit.
+ * <p>
+ * This sample is built for Java 8, so virtual threads (Java 21+) are created by reflection, with a
+ * fallback to a new platform thread per task on older JVMs.
+ */
+public final class BoundedWorkExecutor implements AutoCloseable {
+
+	private final ExecutorService executor;
+	private final int maxInFlight;
+	private final Semaphore permits;
+	private final Map<Object, ArrayDeque<Runnable>> waitingByKey = new HashMap<>();  // guarded by itself; present = key busy
+	private final AtomicInteger peakInFlight = new AtomicInteger();
+	private final Counter completed = new Counter();
+	private final Counter failed = new Counter();
+
+	/**
+	 * @param executor runs the work; shut down by {@link #close()}
+	 * @param maxInFlight how many messages can be accepted and not yet finished
+	 */
+	public BoundedWorkExecutor(ExecutorService executor, int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+		}
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.permits = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * An executor of the given type:
+	 * <ul>
+	 * <li>"virtual": a new virtual thread per task, or a new platform thread per task before Java 21
+	 * <li>"platform": a new platform thread per task
+	 * <li>"pool": a fixed pool of {@code poolSize} platform threads
+	 * </ul>
+	 */
+	public static ExecutorService newExecutor(String type, int poolSize) {
+		switch (type) {
+			case "virtual":
+				final ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+				return virtual != null ? virtual : newThreadPerTaskExecutor();
+			case "platform":
+				return newThreadPerTaskExecutor();
+			case "pool":
+				return Executors.newFixedThreadPool(poolSize, daemonThreads("worker-"));
+			default:
+				throw new IllegalArgumentException("Unknown executor type: " + type + " (virtual, platform or pool)");
+		}
+	}
+
+	/** {@code Executors.newVirtualThreadPerTaskExecutor()}, or null if this JVM doesn't have virtual threads. */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		} catch (ReflectiveOperationException e) {  // before Java 21 (or 19/20 without --enable-preview)
+			return null;
+		}
+	}
+
+	public static boolean isVirtualThreadsSupported() {
+		final ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+		if (virtual == null) {
+			return false;
+		}
+		virtual.shutdown();
+		return true;
+	}
+
+	private static ExecutorService newThreadPerTaskExecutor() {
+		// a cached pool would reuse idle threads; this is the classic thread-per-request, to compare with virtual threads
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS,
+				new SynchronousQueue<>(), daemonThreads("task-"));
+	}
+
+	private static ThreadFactory daemonThreads(String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return r -> {
+			final Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/** Runs the work concurrently with everything else; blocks while maxInFlight messages are in progress. */
+	public void execute(Runnable work) throws InterruptedException {
+		execute(null, work);
+	}
+
+	/**
+	 * Runs the work after any earlier work with the same key has finished; blocks while maxInFlight
+	 * messages are in progress.
+	 *
+	 * @param key e.g. the topic, or a customer ID from the payload; null for no ordering
+	 */
+	public void execute(Object key, Runnable work) throws InterruptedException {
+		permits.acquire();
+		final int inFlight = maxInFlight - permits.availablePermits();
+		if (inFlight > peakInFlight.get()) {
+			peakInFlight.accumulateAndGet(inFlight, Math::max);
+		}
+		if (key != null) {
+			synchronized (waitingByKey) {
+				final ArrayDeque<Runnable> waiting = waitingByKey.get(key);
+				if (waiting != null) {  // the key is busy: the last one to finish starts this
+					waiting.add(work);
+					return;
+				}
+				waitingByKey.put(key, new ArrayDeque<>(4));
+			}
+		}
+		submit(key, work);
+	}
+
+	private void submit(Object key, Runnable work) {
+		try {
+			executor.execute(() -> run(key, work));
+		} catch (RuntimeException e) {  // rejected, e.g. after close()
+			permits.release();
+			throw e;
+		}
+	}
+
+	private void run(Object key, Runnable work) {
+		try {
+			work.run();
+			completed.increment();
+		} catch (RuntimeException e) {
+			failed.increment();
+			System.out.printf("### Caught in worker: %s%n", e);
+		} finally {
+			permits.release();
+			if (key != null) {
+				final Runnable next;
+				synchronized (waitingByKey) {
+					next = waitingByKey.get(key).poll();
+					if (next == null) {
+						waitingByKey.remove(key);  // the key is idle again
+					}
+				}
+				if (next != null) {
+					submit(key, next);
+				}
+			}
+		}
+	}
+
+	/** Waits until all accepted work has finished; returns false on timeout. */
+	public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!permits.tryAcquire(maxInFlight, timeout, unit)) {
+			return false;
+		}
+		permits.release(maxInFlight);
+		return true;
+	}
+
+	/** Messages accepted and not yet finished, including those waiting behind their key. */
+	public int getInFlight() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	public int getPeakInFlight() {
+		return peakInFlight.get();
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/** Work that finished normally. */
+	public Counter getCompleted() {
+		return completed;
+	}
+
+	/** Work that threw. */
+	public Counter getFailed() {
+		return failed;
+	}
+
+	/** Waits up to 10 seconds for work in progress to finish, then shuts down the executor. */
+	@Override
+	public void close() {
+		try {
+			awaitIdle(10, TimeUnit.SECONDS);
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BoundedWorkExecutor[inFlight=%,d/%,d, peak=%,d, completed=%,d, failed=%,d]",
+				getInFlight(), maxInFlight, getPeakInFlight(), completed.count(), failed.count());
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * Counter.java
+ *
+ * A lock-free counter that can be read per interval.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing counter, safe to increment from any number of threads (e.g. API callback
+ * threads) without losing updates, and cheap under contention since it's backed by a {@link LongAdder}.
+ * <p>
+ * Instead of resetting the counter every interval (which races with the threads incrementing it), the
+ * stats thread calls {@link #intervalCount()}, which returns the increase since its previous call.
+ */
+public final class Counter {
+
+	private final LongAdder adder = new LongAdder();
+	private long lastIntervalTotal = 0;  // only used by the thread calling intervalCount()
+
+	public void increment() {
+		adder.increment();
+	}
+
+	public void add(long n) {
+		adder.add(n);
+	}
+
+	/** Total since creation. */
+	public long count() {
+		return adder.sum();
+	}
+
+	/**
+	 * The increase since the previous call.  Meant to be called by one thread only, e.g. a stats thread
+	 * once per second.
+	 */
+	public long intervalCount() {
+		final long total = adder.sum();
+		final long delta = total - lastIntervalTotal;
+		lastIntervalTotal = total;
+		return delta;
+	}
+}
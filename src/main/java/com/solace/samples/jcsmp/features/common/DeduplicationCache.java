@@ -0,0 +1,313 @@
+/**
+ * DeduplicationCache.java
+ *
+ * Remembers recently seen message IDs, to skip duplicates of Guaranteed messages, in bounded memory.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.ReplicationGroupMessageId;
+
+/**
+ * Tells a consumer whether it has already seen a message, by its ID, so a duplicate isn't processed twice.
+ * Guaranteed delivery is at-least-once: a message is redelivered if its ACK was lost (the consumer
+ * reconnected, the broker failed over, ...), and a publisher that didn't get its ACK sends it again, as a
+ * new message with the same application message ID.
+ * <pre>
+ *   switch (dedup.check(msg)) {
+ *       case NEW:                process(msg); break;
+ *       case PROBABLE_DUPLICATE: if (!alreadyInDatabase(msg)) process(msg); break;
+ *       case DUPLICATE:          break;  // seen it: just ACK it
+ *   }
+ *   msg.ackMessage();
+ * </pre>
+ * Two tiers, so memory stays bounded however many IDs go by:
+ * <ul>
+ * <li>An exact LRU of the last exactSize IDs (each kept at most the TTL), split into stripes with a lock
+ * each so threads checking different IDs rarely contend.  A hit is certainly a {@link Verdict#DUPLICATE}.
+ * <li>Behind it, a Bloom filter of every ID seen within the TTL (or the last expectedIds of them), at a few
+ * bits per ID rather than the LRU's ~100 bytes, so it can cover a much longer window.  It's two
+ * generations, the older dropped each time the newer one fills up or reaches the TTL, since a Bloom filter
+ * can't forget single IDs.  An ID it has (probably) seen, but that's no longer in the LRU, is a
+ * {@link Verdict#PROBABLE_DUPLICATE}: it's either a false positive (about 2x falsePositiveRate of new IDs)
+ * or an older duplicate, so check somewhere authoritative (e.g. the database the message was written to)
+ * before skipping it.  Only those few have to be looked up, rather than every message.
+ * </ul>
+ * Checking an ID also records it.  If processing a NEW message then fails (so it will be redelivered),
+ * {@link #forget} it, or its redelivery would be skipped.  The ID is either the application message ID, if
+ * the publisher set one (it stays the same when the publisher sends it again), or else the replication
+ * group message ID the broker gave it (which stays the same when the broker redelivers it).
+ * All methods can be called from any thread.
+ */
+public final class DeduplicationCache {
+
+	/** What {@link #check} knows about an ID. */
+	public enum Verdict {
+		/** Not seen before (or the message has no ID). */
+		NEW,
+		/** Seen within the TTL, and still in the exact LRU: skip it. */
+		DUPLICATE,
+		/** Probably seen before, but no longer in the exact LRU: it's up to the application to check. */
+		PROBABLE_DUPLICATE
+	}
+
+	/**
+	 * One generation of the Bloom filter, blocked: all of an ID's k bits are in one 64-bit word, so checking
+	 * it is one cache miss rather than k, and setting them is one CAS.  That costs a somewhat higher false
+	 * positive rate than spreading them over the whole filter.
+	 */
+	private static final class BloomFilter {
+		final AtomicLongArray words;
+		final int wordMask;
+		final int hashes;
+		final long createdNanos = System.nanoTime();
+		final AtomicLong inserts = new AtomicLong();
+
+		BloomFilter(int bitCount, int hashes) {
+			this.words = new AtomicLongArray(bitCount / 64);
+			this.wordMask = bitCount / 64 - 1;
+			this.hashes = hashes;
+		}
+
+		/** The word is picked by the hash's high 32 bits, and the k bits in it by 6-bit slices of the rest, remixed. */
+		private long bitsOf(long hash) {
+			long slices = hash * 0x9e3779b97f4a7c15L;
+			long bits = 0;
+			for (int i = 0; i < hashes; i++) {
+				bits |= 1L << (slices >>> 58);
+				slices <<= 6;
+			}
+			return bits;
+		}
+
+		boolean mightContain(long hash) {
+			final long bits = bitsOf(hash);
+			return (words.get((int)(hash >>> 32) & wordMask) & bits) == bits;
+		}
+
+		void put(long hash) {
+			final long bits = bitsOf(hash);
+			final int index = (int)(hash >>> 32) & wordMask;
+			long word;
+			while (((word = words.get(index)) & bits) != bits && !words.compareAndSet(index, word, word | bits)) {
+				// another thread set bits in the same word: try again
+			}
+			inserts.incrementAndGet();
+		}
+	}
+
+	/**
+	 * One stripe of the exact LRU: ID to when it was first seen, least recently checked first.  Each insert
+	 * drops the eldest if the stripe is over its share of exactSize or the eldest is past the TTL; others
+	 * past the TTL are dropped as they reach the front, or when they're checked.
+	 */
+	private static final class Stripe extends LinkedHashMap<String, Long> {
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+		private final long ttlNanos;
+		long now;  // of the insert in progress
+
+		Stripe(int maxSize, long ttlNanos) {
+			super(maxSize * 4 / 3 + 1, 0.75f, true);  // access order
+			this.maxSize = maxSize;
+			this.ttlNanos = ttlNanos;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > maxSize || now - eldest.getValue() >= ttlNanos;
+		}
+	}
+
+	private final Stripe[] stripes;
+	private final int stripeMask;
+	private final int maxPerStripe;
+	private final long ttlNanos;
+	private final long expectedIds;
+	private final int bloomBits;
+	private final int bloomHashes;
+	private volatile BloomFilter current;
+	private volatile BloomFilter previous;
+	private final Counter checks = new Counter();
+	private final Counter duplicates = new Counter();
+	private final Counter probableDuplicates = new Counter();
+	private final Counter noId = new Counter();
+	private final Counter expired = new Counter();
+
+	/**
+	 * @param exactSize how many of the most recent IDs to remember exactly
+	 * @param expectedIds how many IDs the Bloom filter should cover (per generation): the most expected within the TTL
+	 * @param falsePositiveRate e.g. 0.01, for a Bloom filter with expectedIds in it; about twice that with both generations full
+	 * @param ttl how long an ID is remembered, at least (the Bloom filter may remember it for up to twice as long)
+	 */
+	public DeduplicationCache(int exactSize, long expectedIds, double falsePositiveRate, long ttl, TimeUnit unit) {
+		if (exactSize < 1 || expectedIds < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1 || ttl <= 0) {
+			throw new IllegalArgumentException(String.format("Out of range: exactSize=%d, expectedIds=%d, falsePositiveRate=%s, ttl=%d",
+					exactSize, expectedIds, falsePositiveRate, ttl));
+		}
+		final int stripeCount = Math.min(Integer.highestOneBit(exactSize),
+				Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 8 - 1) * 2);
+		stripes = new Stripe[Math.max(1, stripeCount)];
+		stripeMask = stripes.length - 1;
+		maxPerStripe = (exactSize + stripes.length - 1) / stripes.length;
+		ttlNanos = unit.toNanos(ttl);
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe(maxPerStripe, ttlNanos);
+		}
+		this.expectedIds = expectedIds;
+		// the optimal m = -n ln(p) / ln(2)^2 bits and k = (m/n) ln(2) hashes, with m rounded up to a power of two
+		final double optimalBits = -expectedIds * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		if (optimalBits > 1L << 30) {
+			throw new IllegalArgumentException("Bloom filter would need more than 2^30 bits: lower expectedIds or raise falsePositiveRate");
+		}
+		bloomBits = Math.max(64, Integer.highestOneBit((int)Math.ceil(optimalBits) * 2 - 1));
+		bloomHashes = Math.max(1, Math.min(10, (int)Math.round(-Math.log(falsePositiveRate) / Math.log(2))));  // 10 6-bit slices
+		current = new BloomFilter(bloomBits, bloomHashes);
+		previous = new BloomFilter(bloomBits, bloomHashes);
+	}
+
+	/** The message's application message ID if it has one, else its replication group message ID, else null. */
+	public static String messageId(BytesXMLMessage msg) {
+		final String appId = msg.getApplicationMessageId();
+		if (appId != null) {
+			return appId;
+		}
+		final ReplicationGroupMessageId rgmid = msg.getReplicationGroupMessageId();
+		return rgmid == null ? null : rgmid.toString();
+	}
+
+	/** Same as {@link #check(String)}, with the message's {@link #messageId}. */
+	public Verdict check(BytesXMLMessage msg) {
+		return check(messageId(msg));
+	}
+
+	/** Whether the ID has been seen before; and now it has. */
+	public Verdict check(String id) {
+		checks.increment();
+		if (id == null) {
+			noId.increment();
+			return Verdict.NEW;
+		}
+		final long hash = hash(id);
+		final long now = System.nanoTime();
+		final Stripe stripe = stripes[(int)hash & stripeMask];
+		synchronized (stripe) {
+			stripe.now = now;
+			final Long firstSeen = stripe.put(id, now);  // one lookup, and moves it to the back as most recently used
+			if (firstSeen != null) {
+				if (now - firstSeen < ttlNanos) {
+					stripe.put(id, firstSeen);  // seen within the TTL: keep when it was first seen
+					duplicates.increment();
+					return Verdict.DUPLICATE;
+				}
+				expired.increment();
+			}
+		}
+		BloomFilter bloom = current;
+		if (bloom.inserts.get() >= expectedIds || now - bloom.createdNanos >= ttlNanos) {
+			bloom = rotate(bloom);
+		}
+		final boolean seen = bloom.mightContain(hash) || previous.mightContain(hash);
+		if (seen) {  // it's already in one of them, if not a false positive; but make sure it's in the newest
+			probableDuplicates.increment();
+		}
+		bloom.put(hash);
+		return seen ? Verdict.PROBABLE_DUPLICATE : Verdict.NEW;
+	}
+
+	/** Starts a new generation, if no other thread just did, dropping the oldest; returns the new current one. */
+	private synchronized BloomFilter rotate(BloomFilter full) {
+		if (current == full) {
+			previous = full;
+			current = new BloomFilter(bloomBits, bloomHashes);
+		}
+		return current;
+	}
+
+	/**
+	 * Forgets an ID, e.g. because processing it failed and it's going to be redelivered.  It can't be taken
+	 * out of the Bloom filter, so its redelivery will be a {@link Verdict#PROBABLE_DUPLICATE}.
+	 */
+	public void forget(String id) {
+		if (id == null) {
+			return;
+		}
+		final Stripe stripe = stripes[(int)hash(id) & stripeMask];
+		synchronized (stripe) {
+			stripe.remove(id);
+		}
+	}
+
+	/** A 64-bit hash of the ID's chars: FNV-1a, then MurmurHash3's finalizer to spread the bits. */
+	private static long hash(String id) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < id.length(); i++) {
+			h = (h ^ id.charAt(i)) * 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	/** IDs in the exact LRU: a snapshot. */
+	public int getExactSize() {
+		int total = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				total += stripe.size();
+			}
+		}
+		return total;
+	}
+
+	/** The Bloom filter's memory: two generations of bits. */
+	public long getBloomBytes() {
+		return 2L * bloomBits / 8;
+	}
+
+	public Counter getChecks() {
+		return checks;
+	}
+
+	/** Certain duplicates: hits in the exact LRU. */
+	public Counter getDuplicates() {
+		return duplicates;
+	}
+
+	/** IDs only the Bloom filter had seen: older duplicates, or false positives. */
+	public Counter getProbableDuplicates() {
+		return probableDuplicates;
+	}
+
+	/** Messages with neither an application nor a replication group message ID, which can't be checked. */
+	public Counter getNoId() {
+		return noId;
+	}
+
+	/** Certain duplicates out of everything checked, so far. */
+	public double getHitRate() {
+		final long n = checks.count();
+		return n == 0 ? 0 : (double)duplicates.count() / n;
+	}
+
+	@Override
+	public String toString() {
+		final long n = Math.max(1, checks.count());
+		return String.format("DeduplicationCache[checks=%,d, duplicates=%,d (%.2f%%), probable=%,d (%.2f%%), no ID=%,d, "
+				+ "exact=%,d/%,d, expired=%,d, Bloom=%,d bits x %d hashes x 2, TTL=%,ds]",
+				checks.count(), duplicates.count(), 100.0 * duplicates.count() / n, probableDuplicates.count(),
+				100.0 * probableDuplicates.count() / n, noId.count(), getExactSize(), maxPerStripe * stripes.length,
+				expired.count(), bloomBits, bloomHashes, TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+	}
+}
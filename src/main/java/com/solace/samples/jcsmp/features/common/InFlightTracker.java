@@ -0,0 +1,211 @@
+/**
+ * InFlightTracker.java
+ *
+ * Tracks published Guaranteed messages until they're ACKed, in a ring indexed by publish sequence number.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Keeps track of Guaranteed messages that have been sent but not yet ACKed by the broker: how many, how
+ * long each one took to be ACKed, and which ones (in publish order) would have to be sent again if the
+ * session had to be recreated.  Each message gets the next publish sequence number, and lives in the slot
+ * of a preallocated ring at {@code sequence % capacity}, so tracking and ACKing are O(1) and allocate
+ * nothing, however many messages are in flight:
+ * <pre>
+ *   InFlightTracker.Key key = tracker.track(msgId);  // publishing thread
+ *   msg.setCorrelationKey(key);
+ *   producer.send(msg, topic);
+ *   ...
+ *   public void responseReceivedEx(Object key) {      // API callback thread
+ *       String msgId = tracker.ack(key);
+ * </pre>
+ * The correlation keys are the ring's own slot objects, reused once their message is done, so nothing
+ * (not even a boxed Long) is allocated per message.  ACKs can come in any order; the ring's tail moves on
+ * past the oldest message once it's done.  The capacity must be at least the publish window
+ * ({@code PUB_ACK_WINDOW_SIZE}), since that's the most the API will ever have in flight.
+ * <p>
+ * {@link #track} must only be called by one thread.  {@link #ack}/{@link #fail} can be called from any
+ * (e.g. fail() on the publishing thread when {@code send()} throws, while the API's callback thread ACKs),
+ * since they move the tail under a lock; normally they're all on the callback thread, and it's never
+ * contended.  The gauges and {@link #forEachUnacked} can be called from anywhere, and give a snapshot.
+ *
+ * @param <T> what to remember about each message, e.g. its application message ID, or the message itself
+ */
+public final class InFlightTracker<T> {
+
+	private static final int FREE = 0;
+	private static final int IN_FLIGHT = 1;
+	private static final int DONE = 2;  // ACKed or failed, but not yet passed by the tail
+
+	/** One slot of the ring, and the correlation key of the message in it. */
+	public static final class Key {
+		private long sequence;
+		private Object payload;
+		private long sentNanos;
+		private volatile int state = FREE;  // written after the fields above, so reading it first makes them visible
+
+		/** The message's publish sequence number (only valid while it's in flight). */
+		public long getSequence() {
+			return sequence;
+		}
+
+		@Override
+		public String toString() {
+			return "InFlight#" + sequence;
+		}
+	}
+
+	private final Key[] slots;
+	private final int mask;
+	private volatile long head = 0;       // next sequence number to hand out; written by the tracking thread
+	private volatile long tail = 0;       // oldest sequence number not yet passed; guarded by this
+	private volatile long completed = 0;  // ACKed + failed; guarded by this
+	private volatile long failed = 0;     // guarded by this
+	private final LatencyHistogram ackLatency = new LatencyHistogram();
+
+	/** @param capacity max messages in flight, rounded up to a power of two; at least the publish window */
+	public InFlightTracker(int capacity) {
+		if (capacity < 1 || capacity > 1 << 29) {
+			throw new IllegalArgumentException("capacity out of range: " + capacity);
+		}
+		slots = new Key[Integer.highestOneBit(capacity * 2 - 1)];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new Key();
+		}
+		mask = slots.length - 1;
+	}
+
+	/**
+	 * Starts tracking a message about to be sent.
+	 *
+	 * @return its correlation key, to set on the message
+	 * @throws IllegalStateException if capacity messages are already in flight
+	 */
+	public Key track(T payload) {
+		final long seq = head;
+		if (seq - tail >= slots.length) {
+			throw new IllegalStateException("More than " + slots.length + " messages in flight, capacity must be at least the publish window");
+		}
+		final Key slot = slots[(int)seq & mask];
+		slot.sequence = seq;
+		slot.payload = payload;
+		slot.sentNanos = System.nanoTime();
+		slot.state = IN_FLIGHT;
+		head = seq + 1;
+		return slot;
+	}
+
+	/**
+	 * The broker has the message: stops tracking it and records how long it took.
+	 *
+	 * @param correlationKey as passed to responseReceivedEx()
+	 * @return what was tracked with it, or null if the key isn't (or is no longer) in flight
+	 */
+	public T ack(Object correlationKey) {
+		if (!(correlationKey instanceof Key) || ((Key)correlationKey).state != IN_FLIGHT) {
+			return null;
+		}
+		return complete((Key)correlationKey, false);
+	}
+
+	/** Same as {@link #ack(Object)}, by publish sequence number. */
+	public T ack(long sequence) {
+		final Key slot = slots[(int)sequence & mask];
+		return slot.state == IN_FLIGHT && slot.sequence == sequence ? ack(slot) : null;
+	}
+
+	/**
+	 * The message was NACKed (or given up on): stops tracking it, without recording a latency.  To send it
+	 * again, {@link #track} it again, which gives it a new sequence number.
+	 *
+	 * @param correlationKey as passed to handleErrorEx()
+	 * @return what was tracked with it, or null if the key isn't (or is no longer) in flight
+	 */
+	public T fail(Object correlationKey) {
+		if (!(correlationKey instanceof Key) || ((Key)correlationKey).state != IN_FLIGHT) {
+			return null;
+		}
+		return complete((Key)correlationKey, true);
+	}
+
+	/** Synchronized, as fail() and ack() can race, for different keys or (a NACK and a send failure) the same one. */
+	@SuppressWarnings("unchecked")
+	private synchronized T complete(Key slot, boolean failure) {
+		if (slot.state != IN_FLIGHT) {  // completed meanwhile
+			return null;
+		}
+		if (failure) {
+			failed++;
+		} else {
+			ackLatency.record(System.nanoTime() - slot.sentNanos);
+		}
+		final T payload = (T)slot.payload;
+		slot.payload = null;
+		slot.state = DONE;
+		completed++;
+		long t = tail;
+		final long h = head;
+		while (t < h) {  // move the tail past every done message at the front, freeing their slots
+			final Key oldest = slots[(int)t & mask];
+			if (oldest.state != DONE) {
+				break;
+			}
+			oldest.state = FREE;
+			t++;
+		}
+		tail = t;
+		return payload;
+	}
+
+	/**
+	 * Calls the action for each message still in flight, oldest first, e.g. to send them again on a new
+	 * session.  If ACKs are still coming in, a message ACKed meanwhile may or may not be included.
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachUnacked(ObjLongConsumer<T> action) {
+		final long h = head;
+		for (long seq = tail; seq < h; seq++) {
+			final Key slot = slots[(int)seq & mask];
+			if (slot.state == IN_FLIGHT && slot.sequence == seq) {
+				final Object payload = slot.payload;
+				if (payload != null) {
+					action.accept((T)payload, seq);
+				}
+			}
+		}
+	}
+
+	/** Messages sent and not yet ACKed or failed: a gauge. */
+	public long getInFlight() {
+		return head - completed;
+	}
+
+	/** Total messages tracked so far, i.e. the next sequence number. */
+	public long getTracked() {
+		return head;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	/** Nanoseconds from track() to ack(), for every ACKed message. */
+	public LatencyHistogram getAckLatency() {
+		return ackLatency;
+	}
+
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("InFlightTracker[capacity=%,d, inFlight=%,d, tracked=%,d, failed=%,d, ACK latency: %s]",
+				slots.length, getInFlight(), head, failed, ackLatency.snapshot());
+	}
+}
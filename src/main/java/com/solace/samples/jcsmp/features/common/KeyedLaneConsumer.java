@@ -0,0 +1,312 @@
+/**
+ * KeyedLaneConsumer.java
+ *
+ * Processes a queue's messages on N worker lanes in parallel, in order per key, with bounded memory.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.Destination;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.SDTException;
+import com.solacesystems.jcsmp.SDTMap;
+import com.solacesystems.jcsmp.XMLMessage.Outcome;
+import com.solacesystems.jcsmp.XMLMessageListener;
+
+/**
+ * An {@link XMLMessageListener} for a queue's Flow that hands each message to one of N lanes, each with
+ * its own thread, chosen by hashing a key from the message: the topic, a user property, etc.  Messages
+ * with the same key always go to the same lane, so they're processed one at a time in the order the
+ * queue delivered them, while messages with different keys are processed in parallel on all the lanes:
+ * <pre>
+ *   KeyedLaneConsumer lanes = new KeyedLaneConsumer(8, 2000, 1000, KeyedLaneConsumer.byTopic(), msg -&gt; process(msg));
+ *   FlowReceiver flow = session.createFlow(lanes, flowProps, null, flowEventHandler);
+ *   lanes.setFlow(flow);
+ *   flow.start();
+ * </pre>
+ * Each lane settles its own messages: ACKed once the handler returns, or settled as
+ * {@link Outcome#FAILED} (so the broker redelivers it) if it throws, which needs the Flow to have been
+ * created with {@code addRequiredSettlementOutcomes(Outcome.FAILED)}.
+ * <p>
+ * The callback thread hands messages to the lanes through lock-free {@link SpscRingBuffer}s, and never
+ * waits on the processing.  Instead, memory is bounded by the Flow: once highWatermark messages are
+ * waiting or being processed, it's stopped ({@code FlowReceiver.stop()}), and once the lanes have worked
+ * that down to lowWatermark, it's started again.  A few messages (up to the Flow's transport window) can
+ * still arrive after the stop, so each lane has room for twice the high watermark; if a lane does fill up
+ * (e.g. every message has the same key), the callback thread waits for it.
+ */
+public final class KeyedLaneConsumer implements XMLMessageListener, AutoCloseable {
+
+	/** Processes one message; throw to have it redelivered. */
+	@FunctionalInterface
+	public interface MessageHandler {
+		void handle(BytesXMLMessage msg) throws Exception;
+	}
+
+	/** One entry in a lane's ring. */
+	private static final class Slot {
+		BytesXMLMessage msg;
+	}
+
+	private final Lane[] lanes;
+	private final int highWatermark;
+	private final int lowWatermark;
+	private final Function<BytesXMLMessage, Object> keyFunction;
+	private final MessageHandler handler;
+	private volatile FlowReceiver flow;
+	private volatile Consumer<JCSMPException> exceptionListener = null;
+	private final Object flowLock = new Object();  // pausing and resuming, with the Flow's stop() and start(), happen under it
+	private volatile boolean paused = false;       // written under flowLock
+	private volatile boolean closed = false;
+	private int nextUnkeyedLane = 0;  // only used by the callback thread
+	private final Counter processed = new Counter();
+	private final Counter failed = new Counter();
+	private final Counter pauses = new Counter();
+
+	/**
+	 * @param laneCount number of lanes (threads), e.g. the number of cores
+	 * @param highWatermark stop the Flow once this many messages are waiting or being processed, across all lanes
+	 * @param lowWatermark start it again once it's down to this many
+	 * @param keyFunction gives each message's ordering key; null keys are spread over the lanes, with no ordering
+	 * @param handler processes each message, on its lane's thread
+	 */
+	public KeyedLaneConsumer(int laneCount, int highWatermark, int lowWatermark,
+			Function<BytesXMLMessage, Object> keyFunction, MessageHandler handler) {
+		if (laneCount < 1 || lowWatermark < 0 || lowWatermark >= highWatermark) {
+			throw new IllegalArgumentException(String.format("Need laneCount >= 1 and 0 <= lowWatermark < highWatermark: %d, %d, %d",
+					laneCount, lowWatermark, highWatermark));
+		}
+		this.highWatermark = highWatermark;
+		this.lowWatermark = lowWatermark;
+		this.keyFunction = keyFunction;
+		this.handler = handler;
+		lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			lanes[i] = new Lane(i, highWatermark * 2);
+			lanes[i].start();
+		}
+	}
+
+	/** Key: the topic the message was published to. */
+	public static Function<BytesXMLMessage, Object> byTopic() {
+		return msg -> {
+			final Destination destination = msg.getDestination();
+			return destination == null ? null : destination.getName();
+		};
+	}
+
+	/** Key: a user property, e.g. a customer or account ID; messages without it aren't ordered. */
+	public static Function<BytesXMLMessage, Object> byUserProperty(String name) {
+		return msg -> {
+			final SDTMap properties = msg.getProperties();
+			try {
+				return properties == null ? null : properties.get(name);
+			} catch (SDTException e) {
+				return null;
+			}
+		};
+	}
+
+	/** The Flow this is the listener of, to stop and start at the watermarks; set it before starting the Flow. */
+	public void setFlow(FlowReceiver flow) {
+		this.flow = flow;
+	}
+
+	/** Called with the Flow's exceptions; without one, they're just printed. */
+	public void setExceptionListener(Consumer<JCSMPException> listener) {
+		this.exceptionListener = listener;
+	}
+
+	@Override
+	public void onReceive(BytesXMLMessage msg) {
+		final Object key = keyFunction.apply(msg);
+		final Lane lane;
+		if (key == null) {
+			lane = lanes[nextUnkeyedLane];
+			nextUnkeyedLane = (nextUnkeyedLane + 1) % lanes.length;
+		} else {
+			final int h = key.hashCode();
+			lane = lanes[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % lanes.length];
+		}
+		Slot slot = lane.ring.tryClaim();
+		for (int idle = 0; slot == null && !closed; slot = lane.ring.tryClaim()) {  // this lane is full: wait for it
+			idle = SpscRingBuffer.idle(idle);
+		}
+		if (slot == null) {
+			return;  // closed: leave it unACKed, to be redelivered
+		}
+		slot.msg = msg;
+		lane.ring.publish();
+		if (!paused && getInFlight() >= highWatermark) {
+			pause();
+		}
+	}
+
+	/** Stops the Flow, under the lock, so a lane can't start it again between paused being set and the stop(). */
+	private void pause() {
+		synchronized (flowLock) {
+			if (paused) {
+				return;
+			}
+			paused = true;
+			pauses.increment();
+			final FlowReceiver f = flow;
+			if (f != null) {
+				f.stop();  // no more messages until the lanes catch up
+			}
+		}
+		maybeResume();  // in case they already did, before paused was set
+	}
+
+	@Override
+	public void onException(JCSMPException e) {
+		final Consumer<JCSMPException> listener = exceptionListener;
+		if (listener != null) {
+			listener.accept(e);
+		} else {
+			System.out.printf("### KeyedLaneConsumer Flow exception: %s%n", e);
+		}
+	}
+
+	/** Called by a lane after each message: starts the Flow again if it was stopped and the lanes have caught up. */
+	private void maybeResume() {
+		if (!paused || getInFlight() > lowWatermark) {
+			return;  // the usual case, without the lock
+		}
+		synchronized (flowLock) {
+			if (!paused || getInFlight() > lowWatermark) {
+				return;
+			}
+			paused = false;
+			final FlowReceiver f = flow;
+			if (f != null && !closed) {
+				try {
+					f.start();
+				} catch (JCSMPException e) {
+					onException(e);
+				}
+			}
+		}
+	}
+
+	/** Messages handed to the lanes and not yet settled: a snapshot. */
+	public int getInFlight() {
+		int total = 0;
+		for (Lane lane : lanes) {
+			total += lane.ring.size();
+		}
+		return total;
+	}
+
+	/** Whether the Flow is stopped, waiting for the lanes to catch up. */
+	public boolean isPaused() {
+		return paused;
+	}
+
+	/** Messages processed and ACKed. */
+	public Counter getProcessed() {
+		return processed;
+	}
+
+	/** Messages whose handler threw, and were settled as FAILED. */
+	public Counter getFailed() {
+		return failed;
+	}
+
+	/** How many times the Flow was stopped at the high watermark. */
+	public Counter getPauses() {
+		return pauses;
+	}
+
+	/** Each lane's depth, e.g. "[3, 0, 12, 1]", to spot a hot key. */
+	public String getLaneDepths() {
+		final StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < lanes.length; i++) {
+			sb.append(i == 0 ? "" : ", ").append(lanes[i].ring.size());
+		}
+		return sb.append(']').toString();
+	}
+
+	/** Waits up to the timeout for the lanes to finish what they have, then stops them; call after stopping the Flow. */
+	public void close(long timeout, TimeUnit unit) {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (int idle = 0; getInFlight() > 0 && System.nanoTime() < deadline; ) {
+			idle = SpscRingBuffer.idle(idle);
+		}
+		closed = true;
+		for (Lane lane : lanes) {
+			try {
+				lane.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/** Same as {@code close(10, SECONDS)}. */
+	@Override
+	public void close() {
+		close(10, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("KeyedLaneConsumer[lanes=%d, inFlight=%,d (watermarks %,d/%,d), processed=%,d, failed=%,d, pauses=%,d]",
+				lanes.length, getInFlight(), highWatermark, lowWatermark, processed.count(), failed.count(), pauses.count());
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	/** One lane: a ring from the callback thread, and the thread that processes and settles its messages in order. */
+	private final class Lane extends Thread {
+		final SpscRingBuffer<Slot> ring;
+
+		Lane(int index, int capacity) {
+			super("lane-" + index);
+			setDaemon(true);
+			ring = new SpscRingBuffer<>(capacity, Slot::new);
+		}
+
+		@Override
+		public void run() {
+			int idle = 0;
+			while (!closed) {
+				final Slot slot = ring.poll();
+				if (slot == null) {
+					idle = SpscRingBuffer.idle(idle);
+					continue;
+				}
+				idle = 0;
+				final BytesXMLMessage msg = slot.msg;
+				slot.msg = null;
+				settle(msg);
+				ring.release();  // only now does it stop counting as in flight
+				maybeResume();
+			}
+		}
+
+		private void settle(BytesXMLMessage msg) {
+			try {
+				handler.handle(msg);
+				msg.ackMessage();
+				processed.increment();
+			} catch (Exception e) {
+				failed.increment();
+				try {
+					msg.settle(Outcome.FAILED);  // redeliver it (needs the Flow's required settlement outcomes)
+				} catch (JCSMPException | RuntimeException e2) {
+					System.out.printf("### Couldn't settle a failed message as FAILED (%s), it stays unACKed: %s%n", e, e2);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * LatencyHistogram.java
+ *
+ * A lock-free, allocation-free latency histogram.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An HdrHistogram-style recorder of latencies (or any non-negative long values, normally nanoseconds).
+ * <p>
+ * Values are counted in log-linear buckets: exact below 128, and above that each power-of-two range is
+ * split into 64 sub-buckets, so any value is reported within 1/64 (~1.6%) of its true value.  With values
+ * capped at one hour in nanoseconds, that's about 2,400 buckets (~19 KB).
+ * <p>
+ * {@link #record(long)} is lock-free and allocation-free, safe from any number of threads.  Snapshots
+ * allocate, and are meant to be taken by one stats thread: {@link #intervalSnapshot()} returns just the
+ * values recorded since the previous interval snapshot.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;  // 64 sub-buckets per power of 2
+	private static final long MAX_VALUE = TimeUnit.HOURS.toNanos(1);  // anything larger counts as this
+
+	private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+	private final AtomicLong max = new AtomicLong();
+	private final AtomicLong intervalMax = new AtomicLong();
+	private long[] lastIntervalCounts = new long[counts.length()];  // only used by the interval snapshot thread
+
+	/** Records one value, e.g. a latency in nanoseconds.  Negative values are counted as zero. */
+	public void record(long value) {
+		final long v = Math.min(Math.max(0, value), MAX_VALUE);
+		counts.incrementAndGet(indexOf(v));
+		updateMax(max, v);
+		updateMax(intervalMax, v);
+	}
+
+	/** Records the time from startNanos (a System.nanoTime()) until now, and returns that latency. */
+	public long recordSince(long startNanos) {
+		final long latency = System.nanoTime() - startNanos;
+		record(latency);
+		return latency;
+	}
+
+	private static void updateMax(AtomicLong current, long v) {
+		long m;
+		while (v > (m = current.get())) {  // normally false straight away, so no write
+			if (current.compareAndSet(m, v)) {
+				break;
+			}
+		}
+	}
+
+	/** Everything recorded since creation. */
+	public Snapshot snapshot() {
+		final long[] c = new long[counts.length()];
+		for (int i = 0; i < c.length; i++) {
+			c[i] = counts.get(i);
+		}
+		return new Snapshot(c, max.get());
+	}
+
+	/** Only what was recorded since the previous call.  Call from one thread only, e.g. once per second. */
+	public Snapshot intervalSnapshot() {
+		final long[] c = new long[counts.length()];
+		final long[] total = new long[c.length];
+		final long m = intervalMax.getAndSet(0);
+		for (int i = 0; i < c.length; i++) {
+			total[i] = counts.get(i);
+			c[i] = total[i] - lastIntervalCounts[i];
+		}
+		lastIntervalCounts = total;
+		return new Snapshot(c, m);
+	}
+
+	/** Bucket index: the value itself below 2 * SUB_BUCKETS, then (magnitude, top bits) pairs. */
+	static int indexOf(long v) {
+		if (v < 2 * SUB_BUCKETS) {
+			return (int)v;
+		}
+		final int shift = (63 - Long.numberOfLeadingZeros(v)) - SUB_BUCKET_BITS;  // keep the top 7 bits
+		return (shift + 1) * SUB_BUCKETS + (int)(v >>> shift) - SUB_BUCKETS;
+	}
+
+	/** Highest value that maps to this bucket. */
+	static long highestValueAt(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = index / SUB_BUCKETS - 1;
+		final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/** Lowest value that maps to this bucket. */
+	static long lowestValueAt(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = index / SUB_BUCKETS - 1;
+		return (long)(index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	/** An immutable copy of the bucket counts, to compute percentiles from. */
+	public static final class Snapshot {
+
+		private final long[] counts;
+		private final long totalCount;
+		private final long max;
+
+		private Snapshot(long[] counts, long max) {
+			this.counts = counts;
+			long total = 0;
+			for (long c : counts) {
+				total += c;
+			}
+			this.totalCount = total;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return totalCount;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * @param percentile e.g. 99.9
+		 * @return the highest value of the bucket holding that percentile (never more than the max seen), or 0 if empty
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (totalCount == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1, (long)Math.ceil(Math.min(100, percentile) / 100 * totalCount));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highestValueAt(i), max);
+				}
+			}
+			return max;
+		}
+
+		public double getMean() {
+			if (totalCount == 0) {
+				return 0;
+			}
+			double sum = 0;
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] != 0) {
+					sum += counts[i] * ((lowestValueAt(i) + highestValueAt(i)) / 2.0);
+				}
+			}
+			return sum / totalCount;
+		}
+
+		/** Adds another snapshot's counts to a copy of this one, e.g. to combine several recorders. */
+		public Snapshot merge(Snapshot other) {
+			final long[] c = counts.clone();
+			for (int i = 0; i < c.length; i++) {
+				c[i] += other.counts[i];
+			}
+			return new Snapshot(c, Math.max(max, other.max));
+		}
+
+		/** e.g. "p50=12.3us p90=... p99=... p99.9=... max=..." */
+		public String toMicrosString() {
+			return String.format("p50=%s p90=%s p99=%s p99.9=%s max=%s", micros(getValueAtPercentile(50)),
+					micros(getValueAtPercentile(90)), micros(getValueAtPercentile(99)),
+					micros(getValueAtPercentile(99.9)), micros(max));
+		}
+
+		private static String micros(long nanos) {
+			return String.format("%,.1fus", nanos / 1000.0);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%,d %s", totalCount, toMicrosString());
+		}
+	}
+}
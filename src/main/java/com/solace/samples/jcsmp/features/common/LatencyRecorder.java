@@ -0,0 +1,116 @@
+/**
+ * LatencyRecorder.java
+ *
+ * Records end-to-end and per-hop latencies from LatencyStamp headers.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+/**
+ * For the final receiver of messages stamped with a {@link LatencyStamp}: records the end-to-end latency
+ * into one histogram, and each segment of the path into its own, so the latency can be attributed:
+ * <pre>
+ *   origin -> hop 1 (transit),  hop 1 (processing),  hop 1 -> hop 2 (transit),  ...,  hop N -> here (transit)
+ * </pre>
+ * {@link #record(byte[], long)} is allocation-free and safe from any thread; summaries and reports are
+ * meant for a single stats thread.
+ */
+public final class LatencyRecorder {
+
+	private final LatencyHistogram endToEnd = new LatencyHistogram();
+	private final LatencyHistogram[] transit = new LatencyHistogram[LatencyStamp.MAX_HOPS + 1];
+	private final LatencyHistogram[] processing = new LatencyHistogram[LatencyStamp.MAX_HOPS];
+	private volatile int maxHopsSeen = 0;
+
+	public LatencyRecorder() {
+		for (int i = 0; i < transit.length; i++) {
+			transit[i] = new LatencyHistogram();
+		}
+		for (int i = 0; i < processing.length; i++) {
+			processing[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * @param header a payload starting with a {@link LatencyStamp} header (check with isStamped() first)
+	 * @param receiveEpochNanos when the message was received, from {@link LatencyStamp#epochNanos()}
+	 */
+	public void record(byte[] header, long receiveEpochNanos) {
+		final int hops = LatencyStamp.getHopCount(header);
+		long previousSend = LatencyStamp.getOriginEpochNanos(header);
+		endToEnd.record(receiveEpochNanos - previousSend);
+		for (int i = 0; i < hops; i++) {
+			final long hopReceive = LatencyStamp.getHopReceiveEpochNanos(header, i);
+			final long hopSend = LatencyStamp.getHopSendEpochNanos(header, i);
+			transit[i].record(hopReceive - previousSend);
+			processing[i].record(hopSend - hopReceive);
+			previousSend = hopSend;
+		}
+		transit[hops].record(receiveEpochNanos - previousSend);
+		if (hops > maxHopsSeen) {
+			maxHopsSeen = hops;
+		}
+	}
+
+	/** One-line summary of what was recorded since the previous call, for a once-a-second stats line. */
+	public String intervalSummary() {
+		final LatencyHistogram.Snapshot e2e = endToEnd.intervalSnapshot();
+		final StringBuilder sb = new StringBuilder("e2e latency: ").append(e2e.toMicrosString());
+		final int hops = maxHopsSeen;
+		if (hops > 0) {  // attribute the p99 to each segment
+			sb.append(String.format("%n    p99 by segment:"));
+			for (int i = 0; i <= hops; i++) {
+				sb.append(String.format(" %s %,.1fus", segmentName(true, i, hops), transit[i].intervalSnapshot().getValueAtPercentile(99) / 1000.0));
+				if (i < hops) {
+					sb.append(String.format(", %s %,.1fus,", segmentName(false, i, hops), processing[i].intervalSnapshot().getValueAtPercentile(99) / 1000.0));
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/** Writes the percentiles of everything recorded since creation to a text file. */
+	public void writeReport(Path file, String title) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+			out.printf("%s - latency report, %s%n%n", title, new Date());
+			out.printf("%-24s %12s %12s %12s %12s %12s %12s %12s%n", "segment (us)", "count", "mean", "p50", "p90", "p99", "p99.9", "max");
+			printRow(out, "end-to-end", endToEnd.snapshot());
+			final int hops = maxHopsSeen;
+			for (int i = 0; i <= hops; i++) {
+				printRow(out, segmentName(true, i, hops), transit[i].snapshot());
+				if (i < hops) {
+					printRow(out, segmentName(false, i, hops), processing[i].snapshot());
+				}
+			}
+			out.printf("%nend-to-end percentile distribution:%n");
+			final LatencyHistogram.Snapshot e2e = endToEnd.snapshot();
+			for (double p : new double[] { 0, 10, 20, 30, 40, 50, 60, 70, 80, 90, 95, 99, 99.5, 99.9, 99.99, 99.999, 100 }) {
+				out.printf("%9.3f%%  %,14.1f us%n", p, e2e.getValueAtPercentile(p) / 1000.0);
+			}
+		}
+	}
+
+	private static void printRow(PrintWriter out, String name, LatencyHistogram.Snapshot s) {
+		out.printf("%-24s %,12d %,12.1f %,12.1f %,12.1f %,12.1f %,12.1f %,12.1f%n", name, s.getCount(), s.getMean() / 1000,
+				s.getValueAtPercentile(50) / 1000.0, s.getValueAtPercentile(90) / 1000.0, s.getValueAtPercentile(99) / 1000.0,
+				s.getValueAtPercentile(99.9) / 1000.0, s.getMax() / 1000.0);
+	}
+
+	private static String segmentName(boolean isTransit, int index, int hops) {
+		if (!isTransit) {
+			return "hop" + (index + 1);
+		}
+		final String from = index == 0 ? "pub" : "hop" + index;
+		final String to = index == hops ? "sub" : "hop" + (index + 1);
+		return from + "->" + to;
+	}
+}
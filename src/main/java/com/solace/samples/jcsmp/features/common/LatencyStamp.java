@@ -0,0 +1,168 @@
+/**
+ * LatencyStamp.java
+ *
+ * A fixed-layout timestamp header at the start of a message payload.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import com.solacesystems.jcsmp.XMLMessage;
+
+/**
+ * Reads and writes a fixed-size timestamp header at the start of a binary payload, so that latency can be
+ * measured end to end, and attributed to each processing hop along the way.  Layout (big-endian):
+ * <pre>
+ *   0  int   magic "LAT1"
+ *   4  byte  number of hops recorded so far
+ *   8  long  origin send time, epoch nanos     (for one-way latency: needs synchronized clocks across hosts)
+ *  16  long  origin send time, System.nanoTime (for round-trip latency, back at the origin process)
+ *  24  long  origin publisher id               (so a publisher only counts its own echoes)
+ *  32  long, long  per hop: receive and send time, epoch nanos (up to MAX_HOPS)
+ * </pre>
+ * Epoch nanos come from {@link System#nanoTime()}, anchored once to the wall clock at startup, so they're
+ * cheap and monotonic.  The anchor is as precise as {@link Instant#now()}, which is microseconds on Java 9+
+ * but only milliseconds on Java 8, so one-way latency between processes is only as good as that (and as
+ * the clock sync between hosts).  All methods are static and allocation-free.
+ */
+public final class LatencyStamp {
+
+	public static final int MAX_HOPS = 4;
+	public static final int HEADER_SIZE = 32 + 16 * MAX_HOPS;
+
+	private static final int MAGIC = 0x4C415431;  // "LAT1"
+	private static final int HOPS_OFFSET = 4;
+	private static final int ORIGIN_EPOCH_OFFSET = 8;
+	private static final int ORIGIN_NANO_TIME_OFFSET = 16;
+	private static final int PUBLISHER_ID_OFFSET = 24;
+	private static final int FIRST_HOP_OFFSET = 32;
+
+	private static final long ANCHOR_NANO_TIME;
+	private static final long ANCHOR_EPOCH_NANOS;
+
+	static {
+		Instant now = Instant.now();
+		ANCHOR_NANO_TIME = System.nanoTime();
+		ANCHOR_EPOCH_NANOS = TimeUnit.SECONDS.toNanos(now.getEpochSecond()) + now.getNano();
+	}
+
+	private LatencyStamp() {
+	}
+
+	/** Now, as nanoseconds since the epoch. */
+	public static long epochNanos() {
+		return toEpochNanos(System.nanoTime());
+	}
+
+	/** Converts a System.nanoTime() from this JVM to nanoseconds since the epoch. */
+	public static long toEpochNanos(long nanoTime) {
+		return ANCHOR_EPOCH_NANOS + (nanoTime - ANCHOR_NANO_TIME);
+	}
+
+	/**
+	 * Writes a new header at the start of buf, with no hops.
+	 *
+	 * @param sendNanoTime the System.nanoTime() of the send; use the intended send time from a
+	 *        {@link RatePacer} so that a stalled publisher doesn't hide latency (coordinated omission)
+	 */
+	public static void stampOrigin(byte[] buf, long publisherId, long sendNanoTime) {
+		putInt(buf, 0, MAGIC);
+		buf[HOPS_OFFSET] = 0;
+		putLong(buf, ORIGIN_EPOCH_OFFSET, toEpochNanos(sendNanoTime));
+		putLong(buf, ORIGIN_NANO_TIME_OFFSET, sendNanoTime);
+		putLong(buf, PUBLISHER_ID_OFFSET, publisherId);
+	}
+
+	/** Whether the first length bytes of buf start with a header. */
+	public static boolean isStamped(byte[] buf, int length) {
+		return length >= HEADER_SIZE && getInt(buf, 0) == MAGIC && buf[HOPS_OFFSET] >= 0 && buf[HOPS_OFFSET] <= MAX_HOPS;
+	}
+
+	/**
+	 * Copies a received message's binary attachment into buf, and checks that it starts with a header.
+	 * Payloads shorter than a header, or too big for buf, are skipped without copying.
+	 *
+	 * @return true if buf now holds a header
+	 */
+	public static boolean readHeader(XMLMessage msg, byte[] buf) {
+		final int length = msg.getAttachmentContentLength();
+		if (length < HEADER_SIZE || length > buf.length) {
+			return false;
+		}
+		return isStamped(buf, msg.readAttachmentBytes(buf));
+	}
+
+	/**
+	 * Appends a hop, e.g. for a processor that received the message and is about to send it on.
+	 *
+	 * @return false if there was no room for another hop (the header is left as it was)
+	 */
+	public static boolean addHop(byte[] buf, long receiveEpochNanos, long sendEpochNanos) {
+		final int hops = buf[HOPS_OFFSET];
+		if (hops >= MAX_HOPS) {
+			return false;
+		}
+		putLong(buf, FIRST_HOP_OFFSET + 16 * hops, receiveEpochNanos);
+		putLong(buf, FIRST_HOP_OFFSET + 16 * hops + 8, sendEpochNanos);
+		buf[HOPS_OFFSET] = (byte)(hops + 1);
+		return true;
+	}
+
+	public static int getHopCount(byte[] buf) {
+		return buf[HOPS_OFFSET];
+	}
+
+	public static long getOriginEpochNanos(byte[] buf) {
+		return getLong(buf, ORIGIN_EPOCH_OFFSET);
+	}
+
+	public static long getOriginNanoTime(byte[] buf) {
+		return getLong(buf, ORIGIN_NANO_TIME_OFFSET);
+	}
+
+	public static long getPublisherId(byte[] buf) {
+		return getLong(buf, PUBLISHER_ID_OFFSET);
+	}
+
+	public static long getHopReceiveEpochNanos(byte[] buf, int hop) {
+		return getLong(buf, FIRST_HOP_OFFSET + 16 * hop);
+	}
+
+	public static long getHopSendEpochNanos(byte[] buf, int hop) {
+		return getLong(buf, FIRST_HOP_OFFSET + 16 * hop + 8);
+	}
+
+	private static void putInt(byte[] buf, int offset, int v) {
+		for (int i = 3; i >= 0; i--) {
+			buf[offset + i] = (byte)v;
+			v >>>= 8;
+		}
+	}
+
+	private static int getInt(byte[] buf, int offset) {
+		int v = 0;
+		for (int i = 0; i < 4; i++) {
+			v = (v << 8) | (buf[offset + i] & 0xFF);
+		}
+		return v;
+	}
+
+	private static void putLong(byte[] buf, int offset, long v) {
+		for (int i = 7; i >= 0; i--) {
+			buf[offset + i] = (byte)v;
+			v >>>= 8;
+		}
+	}
+
+	private static long getLong(byte[] buf, int offset) {
+		long v = 0;
+		for (int i = 0; i < 8; i++) {
+			v = (v << 8) | (buf[offset + i] & 0xFF);
+		}
+		return v;
+	}
+}
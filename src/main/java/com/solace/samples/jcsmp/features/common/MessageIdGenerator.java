@@ -0,0 +1,29 @@
+/**
+ * MessageIdGenerator.java
+ *
+ * Generates application message IDs.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.UUID;
+
+/**
+ * Generates unique IDs, e.g. for {@code XMLMessage.setApplicationMessageId()}.  Implementations must be
+ * safe to call from multiple threads at once.
+ *
+ * @see TimeOrderedMessageIdGenerator
+ */
+@FunctionalInterface
+public interface MessageIdGenerator {
+
+	/** Returns a new unique ID. */
+	String nextId();
+
+	/** Random UUIDs: simple, but every call goes through a shared SecureRandom and allocates several objects. */
+	static MessageIdGenerator randomUuid() {
+		return () -> UUID.randomUUID().toString();
+	}
+}
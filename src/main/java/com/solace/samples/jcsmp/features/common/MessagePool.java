@@ -0,0 +1,129 @@
+/**
+ * MessagePool.java
+ *
+ * Reuses outbound messages, instead of creating a new one for every message sent.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.XMLMessage;
+
+/**
+ * A pool of reset, ready-to-fill outbound messages of one type ({@code TextMessage}, {@code BytesMessage},
+ * {@code StreamMessage}, ...), so a processor or replier doesn't create a new message for every one it
+ * sends.  When a message can go back in the pool depends on the delivery mode:
+ * <ul>
+ * <li>Direct: as soon as {@code send()} returns, on the same thread.  Use {@link #perThread}: each thread
+ *     keeps its own few messages, with no synchronization at all.
+ * <li>Guaranteed: only once the broker has ACKed (or NACKed) it, i.e. in {@code responseReceivedEx()} or
+ *     {@code handleErrorEx()} on the API's thread, since until then the API holds on to it to resend
+ *     after a reconnect.  Use {@link #shared}, sized to at least the publish window.  Also use it when
+ *     messages are acquired on one thread and sent on another.
+ * </ul>
+ * If the pool is empty, {@link #acquire()} creates a new message (a miss); if it's full, {@link #release}
+ * drops the message for the GC.  After warm-up, a steady flow should have no misses.  The pool doesn't
+ * check ownership: a message must not be touched after it's released.
+ */
+public final class MessagePool<M extends XMLMessage> {
+
+	private final Class<M> type;
+	private final int capacity;
+	private final ThreadLocal<ArrayDeque<M>> perThread;  // null if shared
+	private final ArrayBlockingQueue<M> shared;          // null if per-thread
+	private final Counter acquired = new Counter();
+	private final Counter misses = new Counter();
+	private final Counter released = new Counter();
+	private final Counter dropped = new Counter();
+
+	private MessagePool(Class<M> type, int capacity, boolean threadLocal) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+		}
+		this.type = type;
+		this.capacity = capacity;
+		this.perThread = threadLocal ? ThreadLocal.withInitial(() -> new ArrayDeque<>(capacity)) : null;
+		this.shared = threadLocal ? null : new ArrayBlockingQueue<>(capacity);
+	}
+
+	/** A pool for Direct messages, acquired and released on the same thread: up to capacity messages per thread. */
+	public static <M extends XMLMessage> MessagePool<M> perThread(Class<M> type, int capacityPerThread) {
+		return new MessagePool<>(type, capacityPerThread, true);
+	}
+
+	/** A pool that can be released to from any thread, e.g. the API's ACK callback thread. */
+	public static <M extends XMLMessage> MessagePool<M> shared(Class<M> type, int capacity) {
+		return new MessagePool<>(type, capacity, false);
+	}
+
+	/** A reset message from the pool, or a new one if the pool is empty. */
+	public M acquire() {
+		acquired.increment();
+		final M msg = perThread != null ? perThread.get().pollLast() : shared.poll();
+		if (msg != null) {
+			return msg;
+		}
+		misses.increment();
+		return JCSMPFactory.onlyInstance().createMessage(type);
+	}
+
+	/** Resets the message and puts it back, for the next {@link #acquire()}. */
+	public void release(M msg) {
+		msg.reset();  // clears the payload, properties, correlation key, delivery mode...
+		released.increment();
+		final boolean pooled;
+		if (perThread != null) {
+			final ArrayDeque<M> pool = perThread.get();
+			pooled = pool.size() < capacity && pool.offerLast(msg);
+		} else {
+			pooled = shared.offer(msg);
+		}
+		if (!pooled) {
+			dropped.increment();
+		}
+	}
+
+	/** Messages sitting in the pool (across all threads, if per-thread); a snapshot, for stats. */
+	public long getPooled() {
+		if (shared != null) {
+			return shared.size();
+		}
+		return released.count() - dropped.count() - (acquired.count() - misses.count());
+	}
+
+	/** Messages acquired and not yet released, e.g. waiting for their ACK. */
+	public long getOutstanding() {
+		return acquired.count() - released.count();
+	}
+
+	/** Max pooled messages, per thread if per-thread. */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public Counter getAcquired() {
+		return acquired;
+	}
+
+	/** Acquires that found the pool empty, and created a new message. */
+	public Counter getMisses() {
+		return misses;
+	}
+
+	/** Releases that found the pool full, and dropped the message. */
+	public Counter getDropped() {
+		return dropped;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MessagePool[%s, %s capacity=%,d, pooled=%,d, outstanding=%,d, acquired=%,d, misses=%,d, dropped=%,d]",
+				type.getSimpleName(), perThread != null ? "per-thread" : "shared", capacity, getPooled(), getOutstanding(),
+				acquired.count(), misses.count(), dropped.count());
+	}
+}
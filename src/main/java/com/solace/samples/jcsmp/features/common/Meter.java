@@ -0,0 +1,103 @@
+/**
+ * Meter.java
+ *
+ * Measures the rate of events, per interval and as moving averages.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rate of events: per interval, as 1/5/15-minute exponentially weighted moving averages
+ * (like Unix load averages), and as a mean since creation.  {@link #mark()} is lock-free and allocation-free,
+ * and safe from any thread.  {@link #tick()} must be called regularly from a single thread (e.g. a stats
+ * thread once per second) to take the interval snapshot and update the averages.
+ */
+public final class Meter {
+
+	private final Counter counter = new Counter();
+	private final long startNanos = System.nanoTime();
+	private final Ewma m1 = new Ewma(TimeUnit.MINUTES.toNanos(1));
+	private final Ewma m5 = new Ewma(TimeUnit.MINUTES.toNanos(5));
+	private final Ewma m15 = new Ewma(TimeUnit.MINUTES.toNanos(15));
+	private long lastTickNanos = startNanos;  // only used by the ticking thread
+	private volatile double lastIntervalRate = 0;
+
+	/** An exponentially weighted moving average of a rate, only updated by the ticking thread. */
+	private static final class Ewma {
+		private final double windowNanos;
+		private volatile double rate = -1;  // per second, -1 until the first tick
+
+		private Ewma(long windowNanos) {
+			this.windowNanos = windowNanos;
+		}
+
+		private void update(double instantRate, long elapsedNanos) {
+			if (rate < 0) {
+				rate = instantRate;
+			} else {
+				double alpha = 1 - Math.exp(-elapsedNanos / windowNanos);
+				rate += alpha * (instantRate - rate);
+			}
+		}
+
+		private double get() {
+			return Math.max(0, rate);
+		}
+	}
+
+	public void mark() {
+		counter.increment();
+	}
+
+	public void mark(long n) {
+		counter.add(n);
+	}
+
+	/** Total events since creation. */
+	public long count() {
+		return counter.count();
+	}
+
+	/**
+	 * Takes an interval snapshot: updates the moving averages and returns the number of events since
+	 * the previous tick.  Call from one thread only.
+	 */
+	public long tick() {
+		final long now = System.nanoTime();
+		final long elapsed = Math.max(1, now - lastTickNanos);
+		lastTickNanos = now;
+		final long events = counter.intervalCount();
+		final double instantRate = events * (double)TimeUnit.SECONDS.toNanos(1) / elapsed;
+		lastIntervalRate = instantRate;
+		m1.update(instantRate, elapsed);
+		m5.update(instantRate, elapsed);
+		m15.update(instantRate, elapsed);
+		return events;
+	}
+
+	/** Events per second over the most recent interval. */
+	public double getIntervalRate() {
+		return lastIntervalRate;
+	}
+
+	public double getOneMinuteRate() {
+		return m1.get();
+	}
+
+	public double getFiveMinuteRate() {
+		return m5.get();
+	}
+
+	public double getFifteenMinuteRate() {
+		return m15.get();
+	}
+
+	public double getMeanRate() {
+		final long elapsed = System.nanoTime() - startNanos;
+		return elapsed <= 0 ? 0 : count() * (double)TimeUnit.SECONDS.toNanos(1) / elapsed;
+	}
+}
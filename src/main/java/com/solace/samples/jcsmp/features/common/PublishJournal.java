@@ -0,0 +1,525 @@
+/**
+ * PublishJournal.java
+ *
+ * A memory-mapped write-ahead journal of Guaranteed messages, so unACKed ones survive a publisher crash.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Each message is appended to the journal before it's sent, and ACKed in the journal when the broker
+ * ACKs it.  If the publisher dies, the messages it had sent but not had ACKed are still in the journal,
+ * and {@link #getRecovered()} hands them back the next time it starts, to send again:
+ * <pre>
+ *   PublishJournal journal = new PublishJournal(dir, 64 &lt;&lt; 20, FsyncPolicy.GROUP, 10, 1024);
+ *   for (Entry e : journal.getRecovered()) ...                        // resend these first
+ *   long seq = journal.append(topic, msgId, payload, 0, len);         // then, for each message: journal it,
+ *   producer.send(msg, topic);                                        //   send it,
+ *   journal.ack(seq);                                                 //   and in responseReceivedEx()
+ * </pre>
+ * The journal is a series of fixed-size segment files, each memory-mapped, so an append is a copy into
+ * memory with no system call.  The first write to each page of a new file is a page fault that costs more
+ * than the copy itself, so a background thread maps and touches every page of the next segment ahead of
+ * time, and a roll just renames it into place.  Once copied, the data is in the OS page cache, so it survives the process
+ * crashing even if it never gets to disk; {@code force()} (fsync) is only needed to survive the machine
+ * crashing, and that's what the {@link FsyncPolicy} chooses: never, every few milliseconds for everything
+ * appended meanwhile (a group commit, on a background thread), or on every append.
+ * <p>
+ * ACKs (which may come in any order) move a low-water mark forward: every message below it is ACKed.  The
+ * mark is kept in its own small mapped file, and forced along with the segments.  When a segment fills up
+ * the journal rolls to a new one, and segments entirely below the mark are deleted.  On startup, the
+ * messages at or above the mark are read back (each record has a CRC, so a torn last write is ignored),
+ * copied to a fresh segment, and the old segments deleted, so the journal is compacted down to just them.
+ * <p>
+ * Delivery is at-least-once: the mark is only as recent as the last force, so messages the broker had
+ * ACKed just before a crash can be sent again.  {@link #append} must only be called by one thread; {@link #ack}
+ * can be called from any (e.g. on the publishing thread, for a message given up on when {@code send()} throws),
+ * as it's synchronized, which costs little when it's normally only called by the API's callback thread.
+ */
+public final class PublishJournal implements AutoCloseable {
+
+	/** When to force the journal to disk. */
+	public enum FsyncPolicy {
+		/** Never: survives the process crashing, but not the OS. */
+		NONE,
+		/** Every groupCommitMillis, on a background thread, for everything appended meanwhile. */
+		GROUP,
+		/** Before every append returns: slowest, but nothing appended is ever lost. */
+		ALWAYS
+	}
+
+	/** A message read back from the journal. */
+	public static final class Entry {
+		private final long sequence;
+		private final String topic;
+		private final String messageId;
+		private final byte[] payload;
+
+		Entry(long sequence, String topic, String messageId, byte[] payload) {
+			this.sequence = sequence;
+			this.topic = topic;
+			this.messageId = messageId;
+			this.payload = payload;
+		}
+
+		/** Its sequence number in the journal, to {@link PublishJournal#ack} it. */
+		public long getSequence() {
+			return sequence;
+		}
+
+		public String getTopic() {
+			return topic;
+		}
+
+		/** The application message ID it was journaled with, or null. */
+		public String getMessageId() {
+			return messageId;
+		}
+
+		public byte[] getPayload() {
+			return payload;
+		}
+	}
+
+	private static final int SEGMENT_MAGIC = 0x4A524E31;  // "JRN1"
+	private static final int SEGMENT_HEADER_SIZE = 16;    // magic, unused, first sequence number
+	private static final int RECORD_HEADER_SIZE = 20;     // length, CRC, sequence number, topic length, message ID length
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String SPARE_NAME = "journal-spare.tmp";
+	private static final int PAGE_SIZE = 4096;
+	private static final byte[] EMPTY = new byte[0];
+
+	private final Path dir;
+	private final int segmentSize;
+	private final FsyncPolicy policy;
+	private final FileChannel markChannel;
+	private final MappedByteBuffer mark;  // the low-water mark, at offset 0
+	private final ArrayDeque<Segment> segments = new ArrayDeque<>();  // oldest first; only touched by the appending thread
+	private volatile Segment current;
+	private volatile Segment spare;  // the next segment, mapped and touched, but not yet named; null while being prepared
+	private final Thread allocator;
+	private final CRC32 crc = new CRC32();  // only used by the appending thread
+	private final Map<String, byte[]> topicBytes = new HashMap<>();  // encoded topics, only used by the appending thread
+	private final List<Entry> recovered;
+
+	private final long[] acked;  // one bit per in-flight sequence number, as a ring; guarded by this
+	private final int ackedMask;
+	private volatile long nextSequence;
+	private volatile long lowWaterMark;  // every sequence number below this is ACKed; written under this
+
+	private final Thread flusher;  // GROUP only
+	private final long groupCommitNanos;
+	private volatile long forcedUpTo;  // nextSequence as of the last force
+	private volatile boolean closed = false;
+	private final Counter forces = new Counter();
+
+	/** One mapped segment file. */
+	private static final class Segment {
+		final Path path;
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+		volatile long lastSequence = -1;  // -1 while empty
+
+		Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+			this.path = path;
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Opens (or creates) the journal in a directory, and reads back any unACKed messages.
+	 *
+	 * @param dir where the segment files go; one journal per directory
+	 * @param segmentSize bytes per segment file; a record (payload + topic + message ID + 20 bytes) must fit in one
+	 * @param policy when to force to disk
+	 * @param groupCommitMillis how often to force, for {@link FsyncPolicy#GROUP}
+	 * @param maxInFlight the most messages appended and not yet ACKed at once, e.g. the publish window
+	 */
+	public PublishJournal(Path dir, int segmentSize, FsyncPolicy policy, long groupCommitMillis, int maxInFlight)
+			throws IOException {
+		if (segmentSize < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + 1) {
+			throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+		}
+		this.dir = Files.createDirectories(dir);
+		this.segmentSize = segmentSize;
+		this.policy = policy;
+		this.markChannel = FileChannel.open(dir.resolve("journal.mark"),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.mark = markChannel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+
+		// read back what wasn't ACKed, then compact: copy it into a fresh segment and delete the old ones
+		final long savedMark = mark.getLong(0);
+		final List<Path> oldSegments = listSegments();
+		final List<Entry> unacked = new ArrayList<>();
+		long next = savedMark;
+		for (Path path : oldSegments) {
+			next = Math.max(next, readSegment(path, savedMark, unacked));
+		}
+		final int ackedBits = Integer.highestOneBit(Math.max(64, Math.max(maxInFlight, unacked.size())) * 2 - 1);
+		this.acked = new long[ackedBits / 64];
+		this.ackedMask = ackedBits - 1;
+		nextSequence = next;
+		lowWaterMark = next;
+		// an old segment already named for next has no records we need (any record in it would make next bigger),
+		// e.g. the empty one left by closing without appending: make way for the new one
+		final Path reused = segmentPath(next);
+		if (oldSegments.remove(reused)) {
+			Files.delete(reused);
+		}
+		current = newSegment(next);
+		touch(current.buffer);  // the allocator prepares the ones after this
+		final List<Entry> copied = new ArrayList<>(unacked.size());
+		for (Entry e : unacked) {
+			final byte[] topic = e.topic.getBytes(StandardCharsets.UTF_8);
+			final long seq = write(topic, encode(e.messageId), e.payload, 0, e.payload.length);
+			copied.add(new Entry(seq, e.topic, e.messageId, e.payload));
+		}
+		mark.putLong(0, next);  // everything before the copies is done with
+		force();  // the copies and the mark are on disk before the old segments go
+		for (Path path : oldSegments) {
+			Files.delete(path);
+		}
+		this.recovered = Collections.unmodifiableList(copied);
+
+		allocator = new Thread(this::allocateLoop, "PublishJournal-allocator");
+		allocator.setDaemon(true);
+		allocator.start();
+		this.groupCommitNanos = TimeUnit.MILLISECONDS.toNanos(groupCommitMillis);
+		if (policy == FsyncPolicy.GROUP) {
+			flusher = new Thread(this::flushLoop, "PublishJournal-flusher");
+			flusher.setDaemon(true);
+			flusher.start();
+		} else {
+			flusher = null;
+		}
+	}
+
+	/** The unACKed messages found when the journal was opened, oldest first, with their new sequence numbers. */
+	public List<Entry> getRecovered() {
+		return recovered;
+	}
+
+	/**
+	 * Journals a message, before sending it.
+	 *
+	 * @param topic the topic name it's sent to
+	 * @param messageId its application message ID, or null
+	 * @return its sequence number, for {@link #ack}
+	 * @throws IllegalStateException if maxInFlight messages are already waiting for their ACK
+	 */
+	public long append(String topic, String messageId, byte[] payload, int offset, int length) throws IOException {
+		byte[] encodedTopic = topicBytes.get(topic);
+		if (encodedTopic == null) {
+			if (topicBytes.size() >= 1024) {
+				topicBytes.clear();  // lots of different topics: just keep the recent ones
+			}
+			encodedTopic = topic.getBytes(StandardCharsets.UTF_8);
+			topicBytes.put(topic, encodedTopic);
+		}
+		if (nextSequence - lowWaterMark > ackedMask) {
+			throw new IllegalStateException("More than " + (ackedMask + 1) + " messages waiting for their ACK");
+		}
+		final long seq = write(encodedTopic, encode(messageId), payload, offset, length);
+		if (policy == FsyncPolicy.ALWAYS) {
+			force();
+		}
+		return seq;
+	}
+
+	private static byte[] encode(String s) {
+		return s == null ? EMPTY : s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private long write(byte[] topic, byte[] messageId, byte[] payload, int offset, int length) throws IOException {
+		final int recordSize = RECORD_HEADER_SIZE + topic.length + messageId.length + length;
+		if (SEGMENT_HEADER_SIZE + recordSize + 4 > segmentSize) {  // +4 for the end marker
+			throw new IllegalArgumentException("Record of " + recordSize + " bytes doesn't fit in a segment of " + segmentSize);
+		}
+		Segment segment = current;
+		if (segment.buffer.remaining() < recordSize + 4) {
+			segment = roll();
+		}
+		final long seq = nextSequence;
+		crc.reset();
+		crc.update(topic, 0, topic.length);
+		crc.update(messageId, 0, messageId.length);
+		crc.update(payload, offset, length);
+		final MappedByteBuffer buf = segment.buffer;
+		final int start = buf.position();
+		buf.position(start + 4);  // the length goes in last, so a record is only valid once complete
+		buf.putInt((int)crc.getValue());
+		buf.putLong(seq);
+		buf.putShort((short)topic.length);
+		buf.putShort((short)messageId.length);
+		buf.put(topic);
+		buf.put(messageId);
+		buf.put(payload, offset, length);
+		buf.putInt(buf.position(), 0);  // end marker, in case this segment file was reused
+		buf.putInt(start, recordSize);
+		segment.lastSequence = seq;
+		nextSequence = seq + 1;
+		return seq;
+	}
+
+	/** Moves on to a new segment, and deletes the old ones that are fully ACKed. */
+	private Segment roll() throws IOException {
+		if (policy != FsyncPolicy.NONE) {
+			current.buffer.force();  // the flusher only forces the current segment
+			forces.increment();
+		}
+		final Segment segment = newSegment(nextSequence);
+		current = segment;
+		deleteAckedSegments();
+		return segment;
+	}
+
+	private void deleteAckedSegments() throws IOException {
+		final long mark = lowWaterMark;
+		while (segments.size() > 1 && segments.peekFirst().lastSequence < mark) {
+			final Segment oldest = segments.pollFirst();
+			oldest.channel.close();  // the mapping goes when the GC collects the buffer
+			Files.delete(oldest.path);
+		}
+	}
+
+	/** The spare segment renamed into place if it's ready, else a new (untouched) file. */
+	private Segment newSegment(long firstSequence) throws IOException {
+		final Path path = segmentPath(firstSequence);
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+		final Segment ready = spare;
+		if (ready != null) {
+			spare = null;
+			Files.move(ready.path, path, StandardCopyOption.ATOMIC_MOVE);  // still mapped, that's fine
+			channel = ready.channel;
+			buffer = ready.buffer;
+			LockSupport.unpark(allocator);  // prepare the next one
+		} else {
+			channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+		buffer.putInt(SEGMENT_MAGIC);
+		buffer.putInt(0);
+		buffer.putLong(firstSequence);
+		final Segment segment = new Segment(path, channel, buffer);
+		segments.addLast(segment);
+		return segment;
+	}
+
+	private Path segmentPath(long firstSequence) {
+		return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+	}
+
+	private void allocateLoop() {
+		while (!closed) {
+			if (spare == null) {
+				try {
+					final Path path = dir.resolve(SPARE_NAME);
+					final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+					final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+					touch(buffer);
+					spare = new Segment(path, channel, buffer);
+				} catch (IOException e) {  // rolls will create the file themselves instead
+					System.out.printf("### Caught while preparing the next journal segment: %s%n", e);
+					LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+				}
+			}
+			LockSupport.park(this);  // until the spare is used (or close)
+		}
+	}
+
+	/** Writes to every page, so they're faulted in now rather than on the appending thread. */
+	private static void touch(MappedByteBuffer buffer) {
+		for (int i = 0; i < buffer.capacity(); i += PAGE_SIZE) {
+			buffer.put(i, (byte)0);
+		}
+	}
+
+	/**
+	 * The broker has the message: once every message before it is ACKed too, the low-water mark moves past it.
+	 * ACKing a sequence number that isn't in flight does nothing.
+	 */
+	public synchronized void ack(long sequence) {
+		long low = lowWaterMark;
+		if (sequence < low || sequence >= nextSequence) {
+			return;
+		}
+		acked[(int)(sequence & ackedMask) >>> 6] |= 1L << sequence;  // shifts only use the low 6 bits
+		final long next = nextSequence;
+		while (low < next) {
+			final int word = (int)(low & ackedMask) >>> 6;
+			final long bit = 1L << low;
+			if ((acked[word] & bit) == 0) {
+				break;
+			}
+			acked[word] &= ~bit;
+			low++;
+		}
+		if (low != lowWaterMark) {
+			lowWaterMark = low;
+			mark.putLong(0, low);  // in the page cache now, on disk with the next force
+		}
+	}
+
+	/** Forces everything appended so far, and the low-water mark, to disk. */
+	public void force() {
+		final long upTo = nextSequence;
+		current.buffer.force();
+		mark.force();
+		forcedUpTo = upTo;
+		forces.increment();
+	}
+
+	private void flushLoop() {
+		while (!closed) {
+			LockSupport.parkNanos(groupCommitNanos);
+			if (nextSequence != forcedUpTo) {  // something new to force
+				try {
+					force();
+				} catch (RuntimeException e) {  // e.g. the disk is full; keep trying
+					System.out.printf("### Caught while forcing the journal: %s%n", e);
+				}
+			}
+		}
+	}
+
+	private List<Path> listSegments() throws IOException {
+		final List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				paths.add(path);
+			}
+		}
+		Collections.sort(paths);  // the names are zero-padded first sequence numbers
+		return paths;
+	}
+
+	/** Adds the valid records at or above the mark to the list, and returns the sequence number after the last one. */
+	private long readSegment(Path path, long lowWater, List<Entry> into) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.remaining() < SEGMENT_HEADER_SIZE || buf.getInt() != SEGMENT_MAGIC) {
+				return lowWater;  // not a segment, or never got its header written
+			}
+			buf.getInt();
+			long expected = buf.getLong();  // the first sequence number
+			final CRC32 check = new CRC32();
+			while (buf.remaining() >= RECORD_HEADER_SIZE) {
+				final int start = buf.position();
+				final int recordSize = buf.getInt();
+				if (recordSize < RECORD_HEADER_SIZE || recordSize > buf.limit() - start) {
+					break;  // the end (0), or a torn write
+				}
+				final int recordCrc = buf.getInt();
+				final long seq = buf.getLong();
+				final byte[] topic = new byte[buf.getShort() & 0xFFFF];
+				final byte[] messageId = new byte[buf.getShort() & 0xFFFF];
+				if (seq != expected || RECORD_HEADER_SIZE + topic.length + messageId.length > recordSize) {
+					break;
+				}
+				buf.get(topic);
+				buf.get(messageId);
+				final byte[] payload = new byte[recordSize - RECORD_HEADER_SIZE - topic.length - messageId.length];
+				buf.get(payload);
+				check.reset();
+				check.update(topic, 0, topic.length);
+				check.update(messageId, 0, messageId.length);
+				check.update(payload, 0, payload.length);
+				if ((int)check.getValue() != recordCrc) {
+					break;  // torn write: this and anything after it never completed
+				}
+				if (seq >= lowWater) {
+					into.add(new Entry(seq, new String(topic, StandardCharsets.UTF_8),
+							messageId.length > 0 ? new String(messageId, StandardCharsets.UTF_8) : null, payload));
+				}
+				expected = seq + 1;
+			}
+			return expected;
+		}
+	}
+
+	/** Every sequence number below this has been ACKed. */
+	public long getLowWaterMark() {
+		return lowWaterMark;
+	}
+
+	/** Messages appended and not yet ACKed (nor passed by the low-water mark). */
+	public long getUnacked() {
+		return nextSequence - lowWaterMark;
+	}
+
+	public long getNextSequence() {
+		return nextSequence;
+	}
+
+	/** How many times the journal was forced to disk. */
+	public Counter getForces() {
+		return forces;
+	}
+
+	/** Segment files in use. */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/** Stops the background threads, forces (unless the policy is NONE), and closes the files. */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(allocator);
+		if (flusher != null) {
+			LockSupport.unpark(flusher);
+		}
+		try {
+			allocator.join(1000);
+			if (flusher != null) {
+				flusher.join(1000);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final Segment unused = spare;
+		if (unused != null) {
+			unused.channel.close();
+			Files.deleteIfExists(unused.path);
+		}
+		if (policy != FsyncPolicy.NONE) {
+			force();
+		}
+		for (Segment segment : segments) {
+			segment.channel.close();
+		}
+		markChannel.close();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PublishJournal[%s, %s, segments=%d, next=%,d, lowWaterMark=%,d, unacked=%,d, forces=%,d, recovered=%,d]",
+				dir, policy, segments.size(), nextSequence, lowWaterMark, getUnacked(), forces.count(), recovered.size());
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * RatePacer.java
+ *
+ * Paces a publishing loop at a fixed target rate.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A token-bucket pacer for publishing loops, good from 1 msg/s up to several million msg/s.
+ * <p>
+ * Each call to {@link #acquire()} takes one token, blocking until the next send slot on a fixed
+ * schedule ({@code start + n * interval}).  The schedule never drifts with the time spent sending, so
+ * if the publisher stalls it will catch up with up to {@code maxBurst} back-to-back sends, and the
+ * intended send time returned can be used to measure latency without coordinated omission.
+ * If the publisher falls further behind than the burst allows, the extra slots are dropped (and counted).
+ * <p>
+ * Waiting is a hybrid: long waits park the thread, and the last few microseconds are spent spinning,
+ * since {@code parkNanos()} is typically only accurate to ~50-100 us.
+ * <p>
+ * Not thread-safe: use one pacer per publishing thread.
+ */
+public final class RatePacer {
+
+	/** Remaining wait (nanos) below which we spin instead of parking. */
+	private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	private final double targetRate;       // msgs/sec, <= 0 means unlimited
+	private final double intervalNanos;    // nanos between tokens
+	private final long maxBurst;           // max tokens that can accumulate when behind schedule
+
+	private long startNanos;               // time of slot #0
+	private long nextSlot = 0;             // index of the next send slot
+	private volatile long droppedSlots = 0;  // slots skipped because we fell too far behind (read by stats thread)
+
+	/**
+	 * @param targetRate messages per second; zero or negative means as fast as possible
+	 * @param maxBurst max number of back-to-back sends allowed when catching up after a stall
+	 */
+	public RatePacer(double targetRate, int maxBurst) {
+		this.targetRate = targetRate;
+		this.intervalNanos = targetRate > 0 ? TimeUnit.SECONDS.toNanos(1) / targetRate : 0;
+		this.maxBurst = Math.max(1, maxBurst);
+		this.startNanos = System.nanoTime();
+	}
+
+	/** A pacer that allows catching up on up to 10 ms worth of messages (min 10). */
+	public RatePacer(double targetRate) {
+		this(targetRate, (int)Math.min(Integer.MAX_VALUE, Math.max(10, targetRate / 100)));
+	}
+
+	/**
+	 * Blocks until the next send slot is due.
+	 *
+	 * @return the scheduled (intended) send time of this slot, in {@link System#nanoTime()} units
+	 */
+	public long acquire() {
+		if (intervalNanos == 0) {  // unlimited
+			return System.nanoTime();
+		}
+		long slotTime = slotTime(nextSlot);
+		long now = System.nanoTime();
+		if (now - slotTime > maxBurst * intervalNanos) {  // too far behind, bucket is full so drop the excess
+			long behind = (long)((now - slotTime) / intervalNanos) - maxBurst;
+			nextSlot += behind;
+			droppedSlots += behind;
+			slotTime = slotTime(nextSlot);
+		}
+		nextSlot++;
+		long remaining;
+		while ((remaining = slotTime - now) > 0) {
+			if (remaining > SPIN_THRESHOLD_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+			}  // else busy spin
+			now = System.nanoTime();
+		}
+		return slotTime;
+	}
+
+	/** Restarts the schedule from now, e.g. after the publisher has been paused on purpose. */
+	public void reset() {
+		startNanos = System.nanoTime();
+		nextSlot = 0;
+	}
+
+	public double getTargetRate() {
+		return targetRate;
+	}
+
+	/** Number of send slots dropped so far because the publisher could not keep up. */
+	public long getDroppedSlots() {
+		return droppedSlots;
+	}
+
+	private long slotTime(long slot) {
+		return startNanos + (long)(slot * intervalNanos);  // computed from start every time, so no rounding drift
+	}
+}
@@ -0,0 +1,479 @@
+/**
+ * ReplyWorkerPool.java
+ *
+ * Replies to a queue's Guaranteed requests from a pool of worker threads, ACKing each request once its reply is ACKed.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.DeliveryMode;
+import com.solacesystems.jcsmp.Destination;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPSendMultipleEntry;
+import com.solacesystems.jcsmp.JCSMPTransportException;
+import com.solacesystems.jcsmp.XMLMessage;
+import com.solacesystems.jcsmp.XMLMessageListener;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+
+/**
+ * A Guaranteed replier: the request queue's Flow has this as its listener, which hands each request to a
+ * pool of worker threads; a worker fills in a reply, and one sender thread publishes the replies PERSISTENT,
+ * and each request is ACKed only once its reply is ACKed by the broker, so a request is never lost, or
+ * ACKed without a reply, if the replier dies:
+ * <pre>
+ *   ReplyWorkerPool&lt;TextMessage&gt; replier = new ReplyWorkerPool&lt;&gt;(producer, replyMsgPool, 8, 1024, 32, 1,
+ *           TimeUnit.MILLISECONDS, (request, reply) -&gt; reply.setText(...));
+ *   FlowReceiver requests = session.createFlow(replier, requestFlowProps, null);
+ *   replier.setFlow(requests);
+ *   requests.start();
+ *   ...
+ *   public void responseReceivedEx(Object key) {  // the producer's callbacks
+ *       replier.replyAcked(key);
+ * </pre>
+ * The handler runs on the workers, so slow (or blocking) request processing scales with their number, and
+ * never holds up the Flow.  The replies go to each request's reply-to, with its correlation ID, via
+ * {@code sendMultiple()}: the sender takes whatever replies are ready, up to 50 a call, so under load one
+ * call sends many (and the workers never contend for the producer), and when quiet each goes on its own
+ * straight away.  The requests are ACKed with an {@link AckForwarder}: in bursts, oldest first, which also
+ * bounds the requests in progress to its window, by stopping the Flow; so a slow request holds back the
+ * ACKs (not the replies) of the ones after it, and the window should cover the workers' slowest few too.
+ * <p>
+ * If the handler throws, the request is settled as FAILED, to be redelivered, which needs the Flow to have
+ * been created with {@code addRequiredSettlementOutcomes(Outcome.FAILED)}; the queue needs a max redelivery
+ * count too (its default, 0, is unlimited), or a request that always fails is retried for ever.  A NACKed
+ * reply (e.g. the reply queue's full) is sent again, after a backoff, up to {@value #MAX_RETRIES} times,
+ * about 3s in all (a requestor's usual timeout); if it's still NACKed, its request is settled as FAILED too.
+ * Only a reply whose reply-to doesn't exist (e.g. the requestor's temporary queue, gone with its session)
+ * is given up on straight away: its request is ACKed without a reply, and counted as discarded, since
+ * redelivering it would only have its reply NACKed again.  A request without a reply-to is just ACKed.
+ * <p>
+ * Each stage's latency is measured: waiting for a worker, the handler, waiting for the sender, the reply's
+ * publish ACK, and (for one request in 8) the whole, received to ACKed.
+ */
+public final class ReplyWorkerPool<M extends XMLMessage> implements XMLMessageListener, AutoCloseable {
+
+	/** Fills in the reply to a request (the correlation ID, delivery mode and correlation key are set after); throw to fail it. */
+	@FunctionalInterface
+	public interface RequestHandler<M> {
+		void handle(BytesXMLMessage request, M reply) throws Exception;
+	}
+
+	private static final int POLL_MILLIS = 100;  // how often an idle thread checks it hasn't been closed
+	private static final int MAX_RETRIES = 5;    // sends of a NACKed reply, after the first: 100ms to 1.6s apart, 3.1s in all
+	private static final long RETRY_BACKOFF_MILLIS = 100;  // before the first, doubling each time
+
+	/** A request in progress: the forwarder's attachment, so the reply's ACK finds it. */
+	private final class Job {
+		final BytesXMLMessage request;
+		final long receivedNanos;
+		AckForwarder.Key key;
+		M reply;
+		Destination replyTo;
+		long handledNanos;
+		long sentNanos;
+
+		Job(BytesXMLMessage request, long receivedNanos) {
+			this.request = request;
+			this.receivedNanos = receivedNanos;
+		}
+	}
+
+	private final XMLMessageProducer producer;
+	private final MessagePool<M> replyPool;
+	private final RequestHandler<M> handler;
+	private final AckForwarder forwarder;
+	private final ArrayBlockingQueue<Job> work;
+	private final ArrayBlockingQueue<Job> toSend;
+	private final Thread[] workers;
+	private final Thread sender;
+	private final ScheduledExecutorService retryTimer;  // queues NACKed replies to be sent again
+	private volatile boolean closed = false;
+	private volatile Consumer<Exception> errorListener = null;
+
+	private final LatencyHistogram queueLatency = new LatencyHistogram();    // received to a worker taking it, ns
+	private final LatencyHistogram handlerLatency = new LatencyHistogram();  // the handler, ns
+	private final LatencyHistogram sendLatency = new LatencyHistogram();     // handled to sendMultiple(), ns
+	private final LatencyHistogram ackLatency = new LatencyHistogram();      // sent to the reply's publish ACK, ns
+	private final LatencyHistogram sendBatchSizes = new LatencyHistogram();  // replies per sendMultiple()
+	private final Counter received = new Counter();
+	private final Counter replied = new Counter();      // replies ACKed
+	private final Counter failed = new Counter();       // the handler threw
+	private final Counter nacked = new Counter();       // replies NACKed (each time)
+	private final Counter discarded = new Counter();    // requests ACKed without a reply, their reply-to gone
+	private final Counter noReplyTo = new Counter();
+	private final Counter sendErrors = new Counter();   // sendMultiple() threw
+
+	/**
+	 * @param replyPool where the replies come from, and go back to once ACKed
+	 * @param workerCount threads running the handler, e.g. the number of cores, or more if it blocks
+	 * @param window most requests in progress, received and not yet ACKed, before the Flow is stopped
+	 * @param ackBatch ACK the requests as soon as this many are ready
+	 * @param ackMaxDelay ACK the ready requests once the oldest has waited this long, however few
+	 */
+	public ReplyWorkerPool(XMLMessageProducer producer, MessagePool<M> replyPool, int workerCount, int window, int ackBatch,
+			long ackMaxDelay, TimeUnit unit, RequestHandler<M> handler) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("workerCount must be at least 1: " + workerCount);
+		}
+		this.producer = producer;
+		this.replyPool = replyPool;
+		this.handler = handler;
+		this.forwarder = new AckForwarder(window, ackBatch, ackMaxDelay, unit);
+		// the forwarder never has more than four windows of requests tracked, so neither queue ever fills
+		this.work = new ArrayBlockingQueue<>(window * 4);
+		this.toSend = new ArrayBlockingQueue<>(window * 4);
+		workers = new Thread[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new Thread(this::runWorker, "ReplyWorker-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		sender = new Thread(this::runSender, "ReplySender");
+		sender.setDaemon(true);
+		sender.start();
+		retryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "ReplyRetry");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/** The request Flow, to stop and start at the window; set it before starting the Flow. */
+	public void setFlow(FlowReceiver flow) {
+		forwarder.setFlow(flow);
+	}
+
+	/** Called with the handler's and the sender's exceptions, and the Flow's; without one, they're printed. */
+	public void setErrorListener(Consumer<Exception> listener) {
+		this.errorListener = listener;
+	}
+
+	/** A request: on the Flow's thread, so it's only tracked and queued here. */
+	@Override
+	public void onReceive(BytesXMLMessage request) {
+		if (closed) {
+			return;  // left unACKed: redelivered to the next replier
+		}
+		received.increment();
+		final Job job = new Job(request, System.nanoTime());
+		job.key = forwarder.track(request, job);
+		if (!work.offer(job)) {
+			try {
+				work.put(job);  // can't happen: the forwarder stops the Flow well before
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				forwarder.fail(job.key);
+			}
+		}
+	}
+
+	@Override
+	public void onException(JCSMPException e) {
+		report(e, "request Flow exception");
+	}
+
+	private void runWorker() {
+		try {
+			while (!closed || !work.isEmpty()) {
+				final Job job = work.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (job != null) {
+					process(job);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void process(Job job) throws InterruptedException {
+		final long startNanos = System.nanoTime();
+		queueLatency.record(startNanos - job.receivedNanos);
+		final Destination replyTo = job.request.getReplyTo();
+		if (replyTo == null) {  // nothing to reply to: just ACK it
+			noReplyTo.increment();
+			forwarder.ack(job.key);
+			return;
+		}
+		final M reply = replyPool.acquire();
+		try {
+			handler.handle(job.request, reply);
+		} catch (Exception e) {  // have it redelivered
+			failed.increment();
+			replyPool.release(reply);
+			forwarder.fail(job.key);
+			report(e, "handler failed, the request will be redelivered");
+			return;
+		}
+		reply.setCorrelationId(job.request.getCorrelationId());  // for the requestor to match it up
+		reply.setDeliveryMode(DeliveryMode.PERSISTENT);
+		reply.setCorrelationKey(job.key);  // for the publish ACK or NACK
+		job.reply = reply;
+		job.replyTo = replyTo;
+		job.handledNanos = System.nanoTime();
+		handlerLatency.record(job.handledNanos - startNanos);
+		toSend.put(job);  // never waits, as for work
+	}
+
+	/** Sends whatever replies are ready, up to MAX_ENTRIES_PER_CALL at a time. */
+	private void runSender() {
+		final JCSMPSendMultipleEntry[] entries = new JCSMPSendMultipleEntry[BatchingPublisher.MAX_ENTRIES_PER_CALL];
+		final ArrayList<Job> batch = new ArrayList<>(entries.length);
+		try {
+			while (true) {
+				final Job first = toSend.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					if (closed && workersDone()) {
+						return;
+					}
+					continue;
+				}
+				batch.add(first);
+				toSend.drainTo(batch, entries.length - 1);
+				sendBatch(batch, entries);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void sendBatch(ArrayList<Job> batch, JCSMPSendMultipleEntry[] entries) {
+		final int n = batch.size();
+		final long now = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			final Job job = batch.get(i);
+			if (entries[i] == null) {
+				entries[i] = JCSMPFactory.onlyInstance().createSendMultipleEntry(job.reply, job.replyTo);
+			} else {
+				entries[i].setMessage(job.reply).setDestination(job.replyTo);
+			}
+			job.sentNanos = now;  // before sending: the ACK can come before sendMultiple() returns
+			sendLatency.record(now - job.handledNanos);
+		}
+		try {
+			producer.sendMultiple(entries, 0, n, JCSMPFactory.JCSMP_SEND_MULTIPLE_FLAG_NONE);
+			sendBatchSizes.record(n);
+		} catch (JCSMPTransportException e) {
+			// which of them were sent is unknown, and those could still be ACKed or NACKed: freeing their keys could
+			// have that settle some other request, so they're all left in flight.  The session's gone anyway, and the
+			// requests not yet ACKed are redelivered, to the next replier
+			sendErrors.increment();
+			report(e, "sendMultiple() of " + n + " replies lost the connection, they're left waiting for their ACK or NACK");
+		} catch (JCSMPException | RuntimeException e) {
+			// the API didn't take them, so no ACK or NACK will come: left in flight, they'd hold back every later
+			// request's ACK (which are forwarded in order) until the window stopped the Flow for good
+			sendErrors.increment();
+			report(e, "couldn't send " + n + " replies, their requests will be redelivered");
+			for (int i = 0; i < n; i++) {
+				final Job job = batch.get(i);
+				if (forwarder.fail(job.key) != null) {
+					replyPool.release(job.reply);
+				}
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			entries[i].setMessage(null);  // don't keep the replies from being garbage collected, if dropped from the pool
+		}
+	}
+
+	private boolean workersDone() {
+		for (Thread worker : workers) {
+			if (worker.isAlive()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** A reply's publish ACK, from the producer's callbacks: its request will be ACKed, with the next burst. */
+	public void replyAcked(Object correlationKey) {
+		final long now = System.nanoTime();
+		@SuppressWarnings("unchecked")
+		final Job job = (Job)forwarder.ack(correlationKey);
+		if (job != null) {
+			replied.increment();
+			ackLatency.record(now - job.sentNanos);
+			replyPool.release(job.reply);
+		}
+	}
+
+	/**
+	 * A reply's publish NACK, from the producer's callbacks: it's sent again after a backoff, unless it's been
+	 * retried enough already (then its request's settled as FAILED, to be redelivered), or its reply-to is
+	 * gone (then its request's ACKed without a reply).
+	 */
+	public void replyFailed(Object correlationKey, JCSMPException cause) {
+		if (AckForwarder.isPermanent(cause)) {
+			@SuppressWarnings("unchecked")
+			final Job job = (Job)forwarder.ack(correlationKey);  // no one to reply to: only the report's left of it
+			if (job != null) {
+				nacked.increment();
+				discarded.increment();
+				replyPool.release(job.reply);
+				report(cause, "request " + job.request.getCorrelationId() + "'s reply-to is gone, ACKing it without a reply");
+			}
+			return;
+		}
+		final int attempt = forwarder.retry(correlationKey);
+		if (attempt > 0 && attempt <= MAX_RETRIES) {
+			@SuppressWarnings("unchecked")
+			final Job job = (Job)((AckForwarder.Key)correlationKey).getAttachment();
+			nacked.increment();
+			try {
+				retryTimer.schedule(() -> resend(job), RETRY_BACKOFF_MILLIS << (attempt - 1), TimeUnit.MILLISECONDS);
+				return;
+			} catch (RejectedExecutionException e) {  // closed: have it redelivered
+			}
+		}
+		@SuppressWarnings("unchecked")
+		final Job job = (Job)forwarder.fail(correlationKey);  // up to the queue's max redelivery count
+		if (job != null) {
+			nacked.increment();
+			replyPool.release(job.reply);
+			report(cause, "reply to request " + job.request.getCorrelationId() + " still NACKed, the request will be redelivered");
+		}
+	}
+
+	/** Queues a NACKed reply for the sender again; its key's still in flight, so its ACK or NACK finds it. */
+	private void resend(Job job) {
+		if (!toSend.offer(job)) {  // can't happen: there's room for four windows
+			forwarder.fail(job.key);
+			replyPool.release(job.reply);
+		}
+	}
+
+	private void report(Exception e, String what) {
+		final Consumer<Exception> listener = errorListener;
+		if (listener != null) {
+			listener.accept(e);
+		} else {
+			System.out.printf("### ReplyWorkerPool %s: %s%n", what, e);
+		}
+	}
+
+	/** What ACKs the requests: its window, and the latency from received to ACKed. */
+	public AckForwarder getForwarder() {
+		return forwarder;
+	}
+
+	/** Requests waiting for a worker: a gauge. */
+	public int getQueued() {
+		return work.size();
+	}
+
+	public int getWorkerCount() {
+		return workers.length;
+	}
+
+	/** Nanoseconds from each request being received to a worker taking it. */
+	public LatencyHistogram getQueueLatency() {
+		return queueLatency;
+	}
+
+	/** Nanoseconds the handler took for each request. */
+	public LatencyHistogram getHandlerLatency() {
+		return handlerLatency;
+	}
+
+	/** Nanoseconds from each reply being filled in to being sent. */
+	public LatencyHistogram getSendLatency() {
+		return sendLatency;
+	}
+
+	/** Nanoseconds from each reply being sent to its publish ACK. */
+	public LatencyHistogram getAckLatency() {
+		return ackLatency;
+	}
+
+	/** How many replies each sendMultiple() call sent. */
+	public LatencyHistogram getSendBatchSizes() {
+		return sendBatchSizes;
+	}
+
+	public Counter getReceived() {
+		return received;
+	}
+
+	/** Replies ACKed by the broker. */
+	public Counter getReplied() {
+		return replied;
+	}
+
+	/** Requests the handler threw for, which were settled as FAILED. */
+	public Counter getFailed() {
+		return failed;
+	}
+
+	/** Replies NACKed, counting each retry's NACK. */
+	public Counter getNacked() {
+		return nacked;
+	}
+
+	/** Requests ACKed without a reply: theirs was NACKed because its reply-to doesn't exist. */
+	public Counter getDiscarded() {
+		return discarded;
+	}
+
+	/** Requests without a reply-to, just ACKed. */
+	public Counter getNoReplyTo() {
+		return noReplyTo;
+	}
+
+	/** How many times sendMultiple() threw. */
+	public Counter getSendErrors() {
+		return sendErrors;
+	}
+
+	/**
+	 * Stops taking requests (any still arriving are left unACKed, to be redelivered), and waits up to the
+	 * timeout for the ones received to be handled and their replies sent.  Their publish ACKs, and so the
+	 * requests' ACKs, can still be to come: wait a little before closing the session.
+	 */
+	public void close(long timeout, TimeUnit unit) {
+		closed = true;
+		forwarder.close();  // don't start the Flow again
+		retryTimer.shutdownNow();  // replies waiting to be sent again aren't: their requests are left unACKed
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			for (Thread worker : workers) {
+				worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			}
+			sender.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Same as {@code close(10, SECONDS)}. */
+	@Override
+	public void close() {
+		close(10, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ReplyWorkerPool[workers=%d, received=%,d, replied=%,d, failed=%,d, nacked=%,d, discarded=%,d, "
+				+ "noReplyTo=%,d, sendErrors=%,d, replies per send p50=%,d; p50/p99 queued %s, handler %s, send %s, ACK %s; %s]",
+				workers.length, received.count(), replied.count(), failed.count(), nacked.count(), discarded.count(), noReplyTo.count(),
+				sendErrors.count(), sendBatchSizes.snapshot().getValueAtPercentile(50), percentiles(queueLatency), percentiles(handlerLatency),
+				percentiles(sendLatency), percentiles(ackLatency), forwarder);
+	}
+
+	private static String percentiles(LatencyHistogram histogram) {
+		final LatencyHistogram.Snapshot s = histogram.snapshot();
+		return String.format("%,d/%,dus", s.getValueAtPercentile(50) / 1000, s.getValueAtPercentile(99) / 1000);
+	}
+}
@@ -0,0 +1,381 @@
+/**
+ * ScalingConsumerGroup.java
+ *
+ * Consumes a non-exclusive queue on a varying number of Flows and sessions, scaled to keep up with it.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.ConsumerFlowProperties;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.XMLMessage.Outcome;
+import com.solacesystems.jcsmp.XMLMessageListener;
+
+/**
+ * A group of Flows bound to the same non-exclusive queue, which the broker shares the messages between,
+ * that grows and shrinks between minFlows and maxFlows as the load changes:
+ * <pre>
+ *   ScalingConsumerGroup group = new ScalingConsumerGroup(session, () -&gt; newConnectedSession(), flowProps,
+ *           1, 8, 1, msg -&gt; process(msg));
+ *   group.start();
+ * </pre>
+ * Each of a session's Flows delivers on that session's one callback thread, so to use more cores a new
+ * Flow goes on a new session (from the factory) once the current ones have flowsPerSession each.  More
+ * than one Flow per session only helps when the broker's window per Flow (max-delivered-unacked-msgs-per-flow)
+ * is what's limiting, not the processing.  Each Flow's handler runs on its session's callback thread; a
+ * message is ACKed once it returns, or settled as {@link Outcome#FAILED} (so the broker redelivers it) if
+ * it throws, which needs the Flow properties to have {@code addRequiredSettlementOutcomes(Outcome.FAILED)}.
+ * <p>
+ * Every scale interval, it measures how busy the sessions' callback threads were: the time spent in the
+ * handler, out of the interval.  By Little's law, that total is how many threads the load needed; it scales
+ * up to enough for them to be {@value #TARGET_UTILIZATION} busy once the average is over {@value #SCALE_UP_UTILIZATION},
+ * and down by one once it's under {@value #SCALE_DOWN_UTILIZATION} for a few intervals running.  The API
+ * can't see how many messages are waiting in the queue, but with a backlog probe (e.g. a SEMP query of
+ * the queue's spooled message count) it also scales up by one while the backlog is over the threshold,
+ * and doesn't scale down until it's under it again.
+ * <p>
+ * A Flow being removed is stopped, its handler allowed to finish the message it has, and then closed;
+ * anything it had been sent but not yet processed is redelivered to the others.
+ */
+public final class ScalingConsumerGroup implements AutoCloseable {
+
+	/** Processes one message; throw to have it redelivered. */
+	@FunctionalInterface
+	public interface MessageHandler {
+		void handle(BytesXMLMessage msg) throws Exception;
+	}
+
+	/** Creates and connects another session, like the first one. */
+	@FunctionalInterface
+	public interface SessionFactory {
+		JCSMPSession create() throws JCSMPException;
+	}
+
+	private static final double SCALE_UP_UTILIZATION = 0.75;
+	private static final double TARGET_UTILIZATION = 0.6;
+	private static final double SCALE_DOWN_UTILIZATION = 0.25;
+	private static final int SCALE_DOWN_INTERVALS = 3;  // quiet intervals in a row before removing a Flow
+
+	/** A session, and how many of the group's Flows are on it. */
+	private static final class SessionSlot {
+		final JCSMPSession session;
+		final boolean owned;  // created by the factory, so closed when its last Flow is
+		int flows = 0;
+
+		SessionSlot(JCSMPSession session, boolean owned) {
+			this.session = session;
+			this.owned = owned;
+		}
+	}
+
+	/** One Flow in the group, and its listener. */
+	private final class Member implements XMLMessageListener {
+		final int id;
+		final SessionSlot slot;
+		volatile FlowReceiver flow;
+		final Counter messages = new Counter();
+		final LatencyHistogram latency = new LatencyHistogram();  // handler time, ns
+		volatile long busyNanos = 0;        // total handler time; only written by the callback thread
+		volatile boolean inHandler = false;
+		long lastBusyNanos = 0;             // at the previous scale interval; only used by the scaler
+
+		Member(int id, SessionSlot slot) {
+			this.id = id;
+			this.slot = slot;
+		}
+
+		@Override
+		public void onReceive(BytesXMLMessage msg) {
+			inHandler = true;
+			final long start = System.nanoTime();
+			try {
+				handler.handle(msg);
+				msg.ackMessage();
+			} catch (Exception e) {
+				failed.increment();
+				try {
+					msg.settle(Outcome.FAILED);  // redeliver it (needs the Flow's required settlement outcomes)
+				} catch (JCSMPException | RuntimeException e2) {
+					System.out.printf("### Couldn't settle a failed message as FAILED (%s), it stays unACKed: %s%n", e, e2);
+				}
+			} finally {
+				final long elapsed = System.nanoTime() - start;
+				busyNanos += elapsed;
+				latency.record(elapsed);
+				messages.increment();
+				processed.increment();
+				inHandler = false;
+			}
+		}
+
+		@Override
+		public void onException(JCSMPException e) {
+			final Consumer<JCSMPException> listener = exceptionListener;
+			if (listener != null) {
+				listener.accept(e);
+			} else {
+				System.out.printf("### ScalingConsumerGroup Flow %d exception: %s%n", id, e);
+			}
+		}
+	}
+
+	private final SessionFactory sessionFactory;
+	private final ConsumerFlowProperties flowProperties;
+	private final int minFlows;
+	private final int maxFlows;
+	private final int flowsPerSession;
+	private final MessageHandler handler;
+	private final List<SessionSlot> sessions = new ArrayList<>();         // only used under this's lock
+	private final List<Member> members = new CopyOnWriteArrayList<>();  // also read by the stats thread
+	private volatile int sessionCount = 1;
+	private volatile LongSupplier backlogProbe = null;
+	private volatile long backlogThreshold = 0;
+	private volatile Consumer<JCSMPException> exceptionListener = null;
+	private volatile long scaleIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+	private int nextMemberId = 1;
+	private int quietIntervals = 0;
+	private volatile String lastScaleEvent = "none";
+	private final Counter scaleUps = new Counter();
+	private final Counter scaleDowns = new Counter();
+	private final Counter processed = new Counter();
+	private final Counter failed = new Counter();
+	private Thread scaler;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param session the first session, which the group never closes
+	 * @param sessionFactory for any more sessions the group needs; it closes them once they have no Flows
+	 * @param flowProperties for every Flow: a non-exclusive queue, client ACK mode, etc.
+	 * @param minFlows how many Flows to start with, and never go under
+	 * @param maxFlows how many Flows never to go over
+	 * @param flowsPerSession how many Flows to put on each session, e.g. 1 to use as many cores as Flows
+	 * @param handler processes each message, on its session's callback thread
+	 */
+	public ScalingConsumerGroup(JCSMPSession session, SessionFactory sessionFactory, ConsumerFlowProperties flowProperties,
+			int minFlows, int maxFlows, int flowsPerSession, MessageHandler handler) {
+		if (minFlows < 1 || maxFlows < minFlows || flowsPerSession < 1) {
+			throw new IllegalArgumentException(String.format("Need 1 <= minFlows <= maxFlows and flowsPerSession >= 1: %d, %d, %d",
+					minFlows, maxFlows, flowsPerSession));
+		}
+		this.sessionFactory = sessionFactory;
+		this.flowProperties = flowProperties;
+		this.minFlows = minFlows;
+		this.maxFlows = maxFlows;
+		this.flowsPerSession = flowsPerSession;
+		this.handler = handler;
+		sessions.add(new SessionSlot(session, false));
+	}
+
+	/** How many messages are waiting in the queue, e.g. from SEMP; scale up while it's over the threshold. */
+	public void setBacklogProbe(LongSupplier probe, long threshold) {
+		this.backlogProbe = probe;
+		this.backlogThreshold = threshold;
+	}
+
+	/** Called with the Flows' exceptions; without one, they're just printed. */
+	public void setExceptionListener(Consumer<JCSMPException> listener) {
+		this.exceptionListener = listener;
+	}
+
+	/** How often to measure the load and scale; 1 second by default. */
+	public void setScaleInterval(long interval, TimeUnit unit) {
+		this.scaleIntervalNanos = unit.toNanos(interval);
+	}
+
+	/** Opens and starts minFlows Flows, and starts scaling. */
+	public synchronized void start() throws JCSMPException {
+		while (members.size() < minFlows) {
+			addFlow();
+		}
+		lastScaleEvent = String.format("started with %d Flows", members.size());
+		scaler = new Thread(this::scaleLoop, "ScalingConsumerGroup-scaler");
+		scaler.setDaemon(true);
+		scaler.start();
+	}
+
+	private void scaleLoop() {
+		long last = System.nanoTime();
+		while (!closed) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(scaleIntervalNanos);
+			} catch (InterruptedException e) {
+				return;
+			}
+			final long now = System.nanoTime();
+			try {
+				scale(now - last);
+			} catch (JCSMPException | RuntimeException e) {
+				lastScaleEvent = "failed to scale: " + e;
+				System.out.printf("### ScalingConsumerGroup %s%n", lastScaleEvent);
+			}
+			last = now;
+		}
+	}
+
+	/** Measures the last interval's load, and adds or removes Flows for it. */
+	private synchronized void scale(long elapsedNanos) throws JCSMPException {
+		if (closed) {
+			return;
+		}
+		long busy = 0;
+		for (Member member : members) {
+			final long total = member.busyNanos;
+			busy += total - member.lastBusyNanos;
+			member.lastBusyNanos = total;
+		}
+		final int flows = members.size();
+		final int threads = (flows + flowsPerSession - 1) / flowsPerSession;  // a session's Flows share its callback thread
+		final double needed = (double)busy / elapsedNanos;  // callback threads kept busy, on average: Little's law
+		final double utilization = needed / threads;
+		final LongSupplier probe = backlogProbe;
+		final long backlog = probe == null ? -1 : probe.getAsLong();
+		final boolean backedUp = backlog > backlogThreshold;
+		int target = flows;
+		if (utilization > SCALE_UP_UTILIZATION || backedUp) {
+			target = Math.max(flows + 1, (int)Math.ceil(needed / TARGET_UTILIZATION) * flowsPerSession);
+			quietIntervals = 0;
+		} else if (utilization < SCALE_DOWN_UTILIZATION) {
+			if (++quietIntervals >= SCALE_DOWN_INTERVALS) {
+				target = flows - 1;
+				quietIntervals = 0;
+			}
+		} else {
+			quietIntervals = 0;  // in between: only quiet intervals in a row count
+		}
+		target = Math.max(minFlows, Math.min(maxFlows, target));
+		if (target == flows) {
+			return;
+		}
+		final String why = String.format("%.0f%% busy%s", utilization * 100, backlog < 0 ? "" : String.format(", backlog %,d", backlog));
+		if (target > flows) {
+			while (members.size() < target) {
+				addFlow();
+			}
+			scaleUps.increment();
+		} else {
+			removeFlow();
+			scaleDowns.increment();
+		}
+		lastScaleEvent = String.format("%d -> %d Flows on %d sessions (%s)", flows, members.size(), sessionCount, why);
+		System.out.printf("### ScalingConsumerGroup scaled %s%n", lastScaleEvent);
+	}
+
+	private void addFlow() throws JCSMPException {
+		SessionSlot slot = null;
+		for (SessionSlot s : sessions) {
+			if (s.flows < flowsPerSession) {
+				slot = s;
+				break;
+			}
+		}
+		if (slot == null) {
+			slot = new SessionSlot(sessionFactory.create(), true);
+			sessions.add(slot);
+			sessionCount = sessions.size();
+		}
+		final Member member = new Member(nextMemberId++, slot);
+		final FlowReceiver flow = slot.session.createFlow(member, flowProperties, null);
+		member.flow = flow;
+		slot.flows++;
+		flow.start();
+		members.add(member);
+	}
+
+	/** Removes the newest Flow, letting its handler finish the message it's on. */
+	private void removeFlow() {
+		final Member member = members.remove(members.size() - 1);
+		closeFlow(member);
+	}
+
+	private void closeFlow(Member member) {
+		member.flow.stop();  // no more messages to its handler
+		for (int idle = 0; member.inHandler && idle < 100_000; ) {
+			idle = SpscRingBuffer.idle(idle);  // up to ~5s for the message it's on
+		}
+		member.flow.close();  // anything it was sent and hasn't processed is redelivered to the others
+		final SessionSlot slot = member.slot;
+		if (--slot.flows == 0 && slot.owned) {
+			slot.session.closeSession();
+			sessions.remove(slot);
+			sessionCount = sessions.size();
+		}
+	}
+
+	/** Flows in the group now. */
+	public int getFlowCount() {
+		return members.size();
+	}
+
+	/** Sessions in use now, including the first. */
+	public int getSessionCount() {
+		return sessionCount;
+	}
+
+	/**
+	 * Each Flow's message rate since the previous call, and its handler latency (p50/p99, in microseconds)
+	 * over the same interval, e.g. "[#1 1,234/s 42/180us, #2 ...]".  Meant for one stats thread, once per second.
+	 */
+	public String getFlowRates() {
+		final StringBuilder sb = new StringBuilder("[");
+		for (Member member : members) {
+			final LatencyHistogram.Snapshot latency = member.latency.intervalSnapshot();
+			sb.append(sb.length() == 1 ? "" : ", ").append(String.format("#%d %,d/s %,d/%,dus", member.id,
+					member.messages.intervalCount(), latency.getValueAtPercentile(50) / 1000, latency.getValueAtPercentile(99) / 1000));
+		}
+		return sb.append(']').toString();
+	}
+
+	/** The most recent scale event, e.g. "2 -> 4 Flows on 4 sessions (95% busy)". */
+	public String getLastScaleEvent() {
+		return lastScaleEvent;
+	}
+
+	public Counter getScaleUps() {
+		return scaleUps;
+	}
+
+	public Counter getScaleDowns() {
+		return scaleDowns;
+	}
+
+	/** Messages processed, by all the Flows there have been. */
+	public Counter getProcessed() {
+		return processed;
+	}
+
+	/** Messages whose handler threw, and were settled as FAILED. */
+	public Counter getFailed() {
+		return failed;
+	}
+
+	/** Stops scaling, and stops and closes every Flow (and the sessions the group created). */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if (scaler != null) {
+			scaler.interrupt();
+		}
+		while (!members.isEmpty()) {
+			removeFlow();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ScalingConsumerGroup[Flows=%d (%d..%d) on %d sessions, processed=%,d, failed=%,d, scaled up %,d and down %,d times, last: %s]",
+				members.size(), minFlows, maxFlows, sessionCount, processed.count(), failed.count(), scaleUps.count(),
+				scaleDowns.count(), lastScaleEvent);
+	}
+}
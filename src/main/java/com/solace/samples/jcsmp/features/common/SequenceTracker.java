@@ -0,0 +1,261 @@
+/**
+ * SequenceTracker.java
+ *
+ * Detects gaps, duplicates and reordering in per-publisher message sequence numbers.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.Arrays;
+
+/**
+ * Checks the sequence numbers of each stream of messages (e.g. each publisher, by sender ID) and counts
+ * what went wrong: gaps (and how many messages were missing), duplicates, and messages that arrived late
+ * but inside the last 64 sequence numbers, which fill in an earlier gap (reorders).  A sequence number far
+ * below what was expected, or one back at 0 or 1 that doesn't fill in a gap, is taken to be the publisher
+ * restarting, and starts the stream over.  Nothing before a stream's first message counts as missing.
+ * <p>
+ * Streams are looked up in an open-addressing hash table of primitive long keys, with each stream's state
+ * in parallel primitive arrays, so after a new stream is first seen, {@link #record(long, long)} does not
+ * allocate.  Gap sizes go into a {@link LatencyHistogram}, which works for any non-negative long.
+ * <p>
+ * {@code record()} must only be called by one thread (e.g. the API's message callback thread); the totals
+ * can be read by any thread, e.g. a stats thread.
+ */
+public final class SequenceTracker {
+
+	private static final int WINDOW = 64;  // how far back a late message can still be recognized
+	private static final long RESTART_MAX_SEQUENCE = 1;  // publishers number from 0 or 1: seeing that again is a restart
+	private static final int FREE = -1;
+
+	private int[] table;  // open addressing, linear probing: index into the stream arrays, or FREE
+	private int tableMask;
+	private int streams = 0;
+
+	// per stream, indexed densely 0..streams-1
+	private long[] keys;
+	private String[] names;
+	private long[] nextExpected;
+	private long[] window;      // bit i set: sequence number (nextExpected - 1 - i) was received
+	private long[] received;
+	private long[] missing;     // currently missing, i.e. gaps minus late arrivals that filled them in
+	private long[] duplicates;
+	private long[] reorders;
+
+	// totals, written only by the recording thread; not volatile, to keep the per-message cost down, so it can
+	// lag a little when read from another thread (the rarely-written anomaly counts below are volatile)
+	private long totalReceived = 0;
+	private volatile long totalGaps = 0;
+	private volatile long totalMissing = 0;
+	private volatile long totalDuplicates = 0;
+	private volatile long totalReorders = 0;
+	private volatile long totalRestarts = 0;
+	private final LatencyHistogram gapSizes = new LatencyHistogram();
+
+	public SequenceTracker() {
+		this(64);
+	}
+
+	/** @param expectedStreams initial size, it grows if needed */
+	public SequenceTracker(int expectedStreams) {
+		final int capacity = Math.max(4, expectedStreams);
+		table = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];  // at most half full
+		Arrays.fill(table, FREE);
+		tableMask = table.length - 1;
+		keys = new long[capacity];
+		names = new String[capacity];
+		nextExpected = new long[capacity];
+		window = new long[capacity];
+		received = new long[capacity];
+		missing = new long[capacity];
+		duplicates = new long[capacity];
+		reorders = new long[capacity];
+	}
+
+	/**
+	 * Checks a message's sequence number, for a stream named by e.g. its sender ID.  The name is hashed
+	 * without allocating, and only copied the first time the stream is seen.
+	 */
+	public void record(CharSequence streamName, long sequenceNumber) {
+		final long key = hash(streamName);
+		int stream = find(key);
+		if (stream < 0) {
+			stream = add(key, streamName.toString());
+		}
+		check(stream, sequenceNumber);
+	}
+
+	/** Checks a message's sequence number, for a stream identified by a number. */
+	public void record(long streamKey, long sequenceNumber) {
+		int stream = find(streamKey);
+		if (stream < 0) {
+			stream = add(streamKey, Long.toHexString(streamKey));
+		}
+		check(stream, sequenceNumber);
+	}
+
+	private void check(int s, long seq) {
+		received[s]++;
+		totalReceived++;
+		final long next = nextExpected[s];
+		if (seq == next) {  // the normal case
+			window[s] = (window[s] << 1) | 1;
+			nextExpected[s] = seq + 1;
+		} else if (received[s] == 1) {  // the first message of a stream: nothing before it is missing
+			startFrom(s, seq);
+		} else if (seq > next) {  // jumped ahead: everything in between is missing (for now)
+			final long gap = seq - next;
+			missing[s] += gap;
+			totalGaps++;
+			totalMissing += gap;
+			gapSizes.record(gap);
+			window[s] = gap >= WINDOW ? 1 : (window[s] << gap << 1) | 1;  // shift in the gap, then this one
+			nextExpected[s] = seq + 1;
+		} else if (next - seq <= WINDOW) {  // behind: filling in a gap, seen before, or starting over?
+			final long bit = 1L << (next - 1 - seq);
+			if ((window[s] & bit) == 0) {
+				window[s] |= bit;
+				missing[s]--;
+				reorders[s]++;
+				totalMissing--;
+				totalReorders++;
+			} else if (seq <= RESTART_MAX_SEQUENCE) {  // back to the start: assume the publisher restarted
+				totalRestarts++;
+				startFrom(s, seq);
+			} else {
+				duplicates[s]++;
+				totalDuplicates++;
+			}
+		} else {  // way behind: assume the publisher restarted its numbering
+			totalRestarts++;
+			startFrom(s, seq);
+		}
+	}
+
+	/** Starts a stream (over) at this sequence number: everything before it counts as received. */
+	private void startFrom(int s, long seq) {
+		window[s] = -1L;
+		nextExpected[s] = seq + 1;
+	}
+
+	private int find(long key) {
+		for (int i = mix(key) & tableMask; ; i = (i + 1) & tableMask) {
+			final int stream = table[i];
+			if (stream == FREE) {
+				return -1;
+			}
+			if (keys[stream] == key) {
+				return stream;
+			}
+		}
+	}
+
+	/** Adds a new stream (this allocates, but only once per stream, and a little more when growing). */
+	private int add(long key, String name) {
+		if (streams == keys.length) {
+			final int capacity = keys.length * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			names = Arrays.copyOf(names, capacity);
+			nextExpected = Arrays.copyOf(nextExpected, capacity);
+			window = Arrays.copyOf(window, capacity);
+			received = Arrays.copyOf(received, capacity);
+			missing = Arrays.copyOf(missing, capacity);
+			duplicates = Arrays.copyOf(duplicates, capacity);
+			reorders = Arrays.copyOf(reorders, capacity);
+		}
+		if ((streams + 1) * 2 > table.length) {  // keep the table at most half full
+			table = new int[table.length * 2];
+			Arrays.fill(table, FREE);
+			tableMask = table.length - 1;
+			for (int s = 0; s < streams; s++) {
+				insert(keys[s], s);
+			}
+		}
+		final int stream = streams++;
+		keys[stream] = key;
+		names[stream] = name;
+		insert(key, stream);
+		return stream;
+	}
+
+	private void insert(long key, int stream) {
+		int i = mix(key) & tableMask;
+		while (table[i] != FREE) {
+			i = (i + 1) & tableMask;
+		}
+		table[i] = stream;
+	}
+
+	/** 64-bit FNV-1a of the chars, so different names practically never share a key. */
+	private static long hash(CharSequence cs) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < cs.length(); i++) {
+			h = (h ^ cs.charAt(i)) * 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private static int mix(long key) {
+		key *= 0x9E3779B97F4A7C15L;  // Fibonacci hashing: spread all the bits into the top ones
+		return (int)(key >>> 32);
+	}
+
+	public long getReceived() {
+		return totalReceived;
+	}
+
+	/** How many times the sequence jumped ahead. */
+	public long getGaps() {
+		return totalGaps;
+	}
+
+	/** Messages still missing: the sum of all gap sizes, less the late messages that filled them in. */
+	public long getMissing() {
+		return totalMissing;
+	}
+
+	public long getDuplicates() {
+		return totalDuplicates;
+	}
+
+	/** Late messages that filled in an earlier gap. */
+	public long getReorders() {
+		return totalReorders;
+	}
+
+	public long getRestarts() {
+		return totalRestarts;
+	}
+
+	/** Gaps, duplicates, reorders and restarts added up: if this hasn't changed, nothing went wrong. */
+	public long getAnomalies() {
+		return totalGaps + totalDuplicates + totalReorders + totalRestarts;
+	}
+
+	/**
+	 * A multi-line summary, including each stream.  The per-stream numbers are only exact once the
+	 * recording thread has stopped, e.g. after the session is closed.
+	 */
+	public String summary() {
+		final StringBuilder sb = new StringBuilder(toString());
+		final LatencyHistogram.Snapshot gaps = gapSizes.snapshot();
+		if (gaps.getCount() > 0) {
+			sb.append(String.format("%n  gap sizes: p50=%,d p99=%,d max=%,d", gaps.getValueAtPercentile(50),
+					gaps.getValueAtPercentile(99), gaps.getMax()));
+		}
+		final int n = streams;
+		for (int s = 0; s < n; s++) {
+			sb.append(String.format("%n  %s: received=%,d, last seq=%,d, missing=%,d, duplicates=%,d, reorders=%,d",
+					names[s], received[s], nextExpected[s] - 1, missing[s], duplicates[s], reorders[s]));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SequenceTracker[streams=%d, received=%,d, gaps=%,d, missing=%,d, duplicates=%,d, reorders=%,d, restarts=%,d]",
+				streams, totalReceived, totalGaps, totalMissing, totalDuplicates, totalReorders, totalRestarts);
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * SpscRingBuffer.java
+ *
+ * A preallocated, lock-free, single-producer single-consumer ring buffer.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A Disruptor-style ring of preallocated, reusable entries, for handing work from one thread (stage) to
+ * exactly one other.  The producer claims the next free entry, fills it in and publishes it; the consumer
+ * reads the next published entry and releases it back to the producer:
+ * <pre>
+ *   E e = ring.tryClaim();  // producer: null if full        E e = ring.poll();  // consumer: null if empty
+ *   e.x = ...;                                               use(e.x);
+ *   ring.publish();                                          ring.release();
+ * </pre>
+ * Each side owns one sequence counter, padded onto its own cache line, and only reads the other side's
+ * counter when its cached copy says the ring looks full (or empty), so in steady state the two threads
+ * don't contend on any cache line except the entries themselves.  Nothing is allocated after construction.
+ * <p>
+ * {@link #idle(int)} is a spin-then-yield-then-park backoff for stage loops that find nothing to do.
+ *
+ * @param <E> the entry type, normally a small mutable holder
+ */
+public final class SpscRingBuffer<E> {
+
+	private final Object[] entries;
+	private final int mask;
+
+	// producer side: everything below 'published' is visible to the consumer, and the next to claim is 'published'
+	private final Sequence published = new Sequence();  // its cachedOther is the producer's copy of 'released'
+	// consumer side: everything below 'released' has been handed back to the producer
+	private final Sequence released = new Sequence();   // its cachedOther is the consumer's copy of 'published'
+
+	/**
+	 * @param capacity number of entries, rounded up to a power of two
+	 * @param entryFactory creates the (reusable) entries up front
+	 */
+	public SpscRingBuffer(int capacity, Supplier<E> entryFactory) {
+		if (capacity < 1 || capacity > 1 << 29) {
+			throw new IllegalArgumentException("capacity out of range: " + capacity);
+		}
+		final int size = Integer.highestOneBit(capacity * 2 - 1);
+		entries = new Object[size];
+		for (int i = 0; i < size; i++) {
+			entries[i] = entryFactory.get();
+		}
+		mask = size - 1;
+	}
+
+	/** Producer: the next free entry to fill in and then {@link #publish()}, or null if the ring is full. */
+	@SuppressWarnings("unchecked")
+	public E tryClaim() {
+		final long next = published.value;
+		if (next - published.cachedOther >= entries.length) {  // looks full: check the consumer's real position
+			published.cachedOther = released.value;
+			if (next - published.cachedOther >= entries.length) {
+				return null;
+			}
+		}
+		return (E)entries[(int)next & mask];
+	}
+
+	/** Producer: makes the claimed entry visible to the consumer. */
+	public void publish() {
+		published.lazySet(published.value + 1);  // ordered store: the entry's fields are written first
+	}
+
+	/** Consumer: the next published entry, to read and then {@link #release()}, or null if the ring is empty. */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		final long next = released.value;
+		if (next >= released.cachedOther) {  // looks empty: check the producer's real position
+			released.cachedOther = published.value;
+			if (next >= released.cachedOther) {
+				return null;
+			}
+		}
+		return (E)entries[(int)next & mask];
+	}
+
+	/** Consumer: hands the entry it just read back to the producer. */
+	public void release() {
+		released.lazySet(released.value + 1);
+	}
+
+	/** Entries published but not yet released; a snapshot, for stats. */
+	public int size() {
+		final long r = released.value;
+		return (int)Math.max(0, published.value - r);
+	}
+
+	public int capacity() {
+		return entries.length;
+	}
+
+	/** Total number of entries published so far. */
+	public long getPublished() {
+		return published.value;
+	}
+
+	/**
+	 * A backoff for stage loops: spins at first (lowest latency), then yields, then parks briefly so an
+	 * idle stage doesn't burn a whole core.
+	 *
+	 * @param idleCount how many times in a row the caller has found nothing to do
+	 * @return idleCount + 1, to pass in next time (reset it to 0 after doing some work)
+	 */
+	public static int idle(int idleCount) {
+		if (idleCount < 100) {
+			// busy spin
+		} else if (idleCount < 200) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(50_000);
+		}
+		return idleCount + 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SpscRingBuffer[capacity=%,d, size=%,d, published=%,d]", capacity(), size(), getPublished());
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * One side's position, plus that side's private copy of the other side's position, with cache-line
+	 * padding before and after (superclass fields are laid out first), so the two sides never share a line.
+	 */
+	@SuppressWarnings("unused")
+	private static final class Sequence extends SequenceFields {
+		long p9, p10, p11, p12, p13, p14, p15;
+
+		private static final AtomicLongFieldUpdater<SequenceFields> VALUE =
+				AtomicLongFieldUpdater.newUpdater(SequenceFields.class, "value");
+
+		/** An ordered store: cheaper than a volatile write, and enough for a single writer. */
+		void lazySet(long v) {
+			VALUE.lazySet(this, v);
+		}
+	}
+
+	private static class SequenceFields extends SequencePadding {
+		volatile long value = 0;  // written only by the owning side
+		long cachedOther = 0;     // only used by the owning side
+	}
+
+	@SuppressWarnings("unused")
+	private static class SequencePadding {
+		long p1, p2, p3, p4, p5, p6, p7;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * TimeOrderedMessageIdGenerator.java
+ *
+ * A fast, contention-free, time-ordered message ID generator.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ULID/Snowflake-style {@link MessageIdGenerator}.  Each ID is 21 characters of Crockford base32:
+ * <pre>
+ *   10 chars  epoch millis        (sorts by time)
+ *    4 chars  node id, 20 bits    (per generator, random unless given)
+ *    3 chars  thread slot, 15 bits
+ *    4 chars  counter, 20 bits    (per thread, per millisecond)
+ * </pre>
+ * Every thread has its own slot, clock and counter, so generating an ID takes no locks, no shared
+ * writes, and no random numbers; the digits are written into a per-thread char buffer, and the only
+ * allocation is the returned String.  IDs from one thread are strictly increasing.  If a thread generates
+ * more than 2^20 IDs in one millisecond, it borrows from the next millisecond rather than blocking.
+ * <p>
+ * Uniqueness across processes relies on the node id: pass one explicitly (e.g. from a deployment
+ * config) if random 20-bit node ids are not unique enough.  Thread slots wrap after 32,768 threads.
+ */
+public final class TimeOrderedMessageIdGenerator implements MessageIdGenerator {
+
+	/** Length of every generated ID. */
+	public static final int ID_LENGTH = 21;
+
+	private static final char[] CROCKFORD = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+	private static final int NODE_BITS = 20;
+	private static final int SLOT_BITS = 15;
+	private static final int COUNTER_BITS = 20;
+	private static final int COUNTER_MAX = (1 << COUNTER_BITS) - 1;
+
+	private final int nodeId;
+	private final AtomicInteger nextSlot = new AtomicInteger();
+	private final ThreadLocal<PerThread> perThread = ThreadLocal.withInitial(PerThread::new);
+
+	/** Per-thread state, only ever touched by its own thread. */
+	private final class PerThread {
+		final char[] buf = new char[ID_LENGTH];
+		long lastMillis = -1;
+		int counter;
+
+		PerThread() {
+			encode(nodeId, buf, 10, 4);  // node and slot never change for this thread, so write them once
+			encode(nextSlot.getAndIncrement() & ((1 << SLOT_BITS) - 1), buf, 14, 3);
+		}
+	}
+
+	/** Uses a random node id. */
+	public TimeOrderedMessageIdGenerator() {
+		this(new SecureRandom().nextInt(1 << NODE_BITS));
+	}
+
+	/** @param nodeId identifies this process, 0 to 2^20 - 1 */
+	public TimeOrderedMessageIdGenerator(int nodeId) {
+		if (nodeId < 0 || nodeId >= 1 << NODE_BITS) {
+			throw new IllegalArgumentException("nodeId must be between 0 and " + ((1 << NODE_BITS) - 1) + ": " + nodeId);
+		}
+		this.nodeId = nodeId;
+	}
+
+	@Override
+	public String nextId() {
+		return new String(nextIdChars());
+	}
+
+	/** Writes the next ID into dst, at offset, without allocating. Needs {@link #ID_LENGTH} chars of room. */
+	public void nextId(char[] dst, int offset) {
+		System.arraycopy(nextIdChars(), 0, dst, offset, ID_LENGTH);
+	}
+
+	/** Advances this thread's clock/counter and returns its buffer holding the new ID. */
+	private char[] nextIdChars() {
+		final PerThread t = perThread.get();
+		final long now = System.currentTimeMillis();
+		if (now > t.lastMillis) {  // new millisecond: reset the counter (if the clock goes backwards, keep going from lastMillis)
+			t.lastMillis = now;
+			t.counter = 0;
+			encode(t.lastMillis, t.buf, 0, 10);  // only re-encoded when it changes
+		} else if (++t.counter > COUNTER_MAX) {  // counter exhausted for this millisecond, so borrow the next one
+			t.lastMillis++;
+			t.counter = 0;
+			encode(t.lastMillis, t.buf, 0, 10);
+		}
+		encode(t.counter, t.buf, 17, 4);
+		return t.buf;
+	}
+
+	/** Writes the low (5 * chars) bits of value as fixed-width base32, most significant digit first. */
+	private static void encode(long value, char[] buf, int offset, int chars) {
+		for (int i = offset + chars - 1; i >= offset; i--) {
+			buf[i] = CROCKFORD[(int)(value & 0x1F)];
+			value >>>= 5;
+		}
+	}
+
+	public int getNodeId() {
+		return nodeId;
+	}
+}
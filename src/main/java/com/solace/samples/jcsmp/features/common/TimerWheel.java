@@ -0,0 +1,277 @@
+/**
+ * TimerWheel.java
+ *
+ * A hashed timer wheel: cheap to schedule and cancel many thousands of timeouts that mostly never fire.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fires timeouts, e.g. for requests waiting for a reply, from one thread that ticks every tickDuration.
+ * Each timeout goes in the bucket (a linked list) for the tick it's due in, modulo the number of buckets,
+ * along with how many more turns of the wheel it has to wait; each tick, the thread expires whatever in
+ * the current bucket is due.  So scheduling and cancelling are O(1) however many timeouts are pending,
+ * unlike a {@code ScheduledExecutorService}'s heap, where each is O(log n) under a lock; the price is that
+ * timeouts fire up to one tick late.
+ * <p>
+ * A timeout is the caller's own object, extending {@link Timeout}, so scheduling one allocates nothing
+ * more:
+ * <pre>
+ *   class PendingRequest extends TimerWheel.Timeout {
+ *       protected void expire() { future.completeExceptionally(new TimeoutException()); }
+ *   }
+ *   wheel.schedule(pending, 5, TimeUnit.SECONDS);   // any thread
+ *   ...
+ *   pending.cancel();                               // the reply came: any thread
+ * </pre>
+ * Only the wheel's thread touches the buckets: {@link #schedule} and {@link Timeout#cancel()} push the
+ * timeout onto a lock-free stack, which the thread empties each tick, so a cancelled timeout is unlinked
+ * (and can be garbage collected) within a tick, not left until it would have been due.  Timeouts expire on
+ * the wheel's thread, so {@link Timeout#expire()} should be quick, and must not block.
+ */
+public final class TimerWheel implements AutoCloseable {
+
+	private static final int NEW = 0;
+	private static final int WAITING = 1;
+	private static final int CANCELLED = 2;
+	private static final int EXPIRED = 3;
+
+	/** Something to do if it isn't cancelled in time.  Each one can only be scheduled once. */
+	public abstract static class Timeout {
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		private volatile int state = NEW;
+		private TimerWheel wheel;
+		private long deadlineNanos;
+		private Timeout nextScheduled;  // in the scheduled stack
+		private Timeout nextCancelled;  // in the cancelled stack: it can be in both at once
+		private long rounds;         // the rest are only used by the wheel's thread
+		private Bucket bucket;
+		private Timeout prev;
+		private Timeout next;
+
+		/** Called on the wheel's thread once the timeout is due, if it wasn't cancelled first. */
+		protected abstract void expire();
+
+		/** Stops it expiring: true if it hadn't already (or been cancelled). */
+		public final boolean cancel() {
+			if (!STATE.compareAndSet(this, WAITING, CANCELLED)) {
+				return false;
+			}
+			wheel.pushCancelled(this);
+			return true;
+		}
+
+		/** Whether it expired, i.e. {@link #expire()} was (or is being) called. */
+		public final boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		public final boolean isCancelled() {
+			return state == CANCELLED;
+		}
+	}
+
+	/** A doubly linked list of timeouts, so one can be unlinked in O(1). */
+	private static final class Bucket {
+		Timeout head;
+
+		void add(Timeout t) {
+			t.bucket = this;
+			t.next = head;
+			if (head != null) {
+				head.prev = t;
+			}
+			head = t;
+		}
+
+		void remove(Timeout t) {
+			if (t.prev != null) {
+				t.prev.next = t.next;
+			} else {
+				head = t.next;
+			}
+			if (t.next != null) {
+				t.next.prev = t.prev;
+			}
+			t.prev = null;
+			t.next = null;
+			t.bucket = null;
+		}
+	}
+
+	private final long tickNanos;
+	private final Bucket[] buckets;
+	private final int mask;
+	private final long startNanos;
+	private final AtomicReference<Timeout> scheduled = new AtomicReference<>();
+	private final AtomicReference<Timeout> cancelled = new AtomicReference<>();
+	private final Thread thread;
+	private volatile boolean closed = false;
+	private long tick = 0;  // only used by the wheel's thread
+	private volatile long pending = 0;  // written by the wheel's thread
+
+	private final Counter expiredCount = new Counter();
+	private final Counter cancelledCount = new Counter();
+	private final Counter scheduledCount = new Counter();
+
+	/**
+	 * @param tickDuration how often to expire the timeouts that are due, i.e. how late one can fire
+	 * @param ticksPerWheel number of buckets, rounded up to a power of two; best if tickDuration times this
+	 *     is longer than most timeouts, so they don't go round the wheel more than once
+	 */
+	public TimerWheel(long tickDuration, TimeUnit unit, int ticksPerWheel, String threadName) {
+		if (tickDuration <= 0 || ticksPerWheel < 1 || ticksPerWheel > 1 << 20) {
+			throw new IllegalArgumentException(String.format("Need tickDuration > 0, 1 <= ticksPerWheel <= 2^20: %d, %d",
+					tickDuration, ticksPerWheel));
+		}
+		tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MICROSECONDS.toNanos(100));
+		buckets = new Bucket[Integer.highestOneBit(ticksPerWheel * 2 - 1)];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new Bucket();
+		}
+		mask = buckets.length - 1;
+		startNanos = System.nanoTime();
+		thread = new Thread(this::run, threadName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Has the timeout expire after the delay, unless it's cancelled first.
+	 *
+	 * @throws IllegalStateException if it's already been scheduled, or the wheel is closed
+	 */
+	public void schedule(Timeout timeout, long delay, TimeUnit unit) {
+		if (closed) {
+			throw new IllegalStateException("TimerWheel closed");
+		}
+		timeout.wheel = this;
+		timeout.deadlineNanos = System.nanoTime() + unit.toNanos(delay);
+		if (!Timeout.STATE.compareAndSet(timeout, NEW, WAITING)) {
+			throw new IllegalStateException("Timeout already scheduled");
+		}
+		scheduledCount.increment();
+		Timeout top;
+		do {
+			top = scheduled.get();
+			timeout.nextScheduled = top;
+		} while (!scheduled.compareAndSet(top, timeout));
+	}
+
+	private void pushCancelled(Timeout timeout) {
+		Timeout top;
+		do {
+			top = cancelled.get();
+			timeout.nextCancelled = top;
+		} while (!cancelled.compareAndSet(top, timeout));
+	}
+
+	private void run() {
+		while (!closed) {
+			final long deadline = startNanos + (tick + 1) * tickNanos;
+			for (long wait = deadline - System.nanoTime(); wait > 0 && !closed; wait = deadline - System.nanoTime()) {
+				LockSupport.parkNanos(wait);
+			}
+			addScheduled();
+			removeCancelled();
+			expireDue(buckets[(int)tick & mask]);
+			tick++;
+		}
+	}
+
+	/** Puts the newly scheduled timeouts in their buckets. */
+	private void addScheduled() {
+		for (Timeout t = scheduled.getAndSet(null); t != null; ) {
+			final Timeout next = t.nextScheduled;
+			t.nextScheduled = null;
+			if (t.state == WAITING) {  // not already cancelled
+				final long dueTick = Math.max(tick, (t.deadlineNanos - startNanos + tickNanos - 1) / tickNanos - 1);
+				t.rounds = (dueTick - tick) / buckets.length;
+				buckets[(int)dueTick & mask].add(t);
+				pending++;
+			}
+			t = next;
+		}
+	}
+
+	/** Unlinks the cancelled timeouts, so they aren't kept until they'd have been due. */
+	private void removeCancelled() {
+		for (Timeout t = cancelled.getAndSet(null); t != null; ) {
+			final Timeout next = t.nextCancelled;
+			t.nextCancelled = null;
+			if (t.bucket != null) {  // else it was cancelled before it was added
+				t.bucket.remove(t);
+				pending--;
+			}
+			cancelledCount.increment();
+			t = next;
+		}
+	}
+
+	private void expireDue(Bucket bucket) {
+		for (Timeout t = bucket.head; t != null; ) {
+			final Timeout next = t.next;
+			if (t.rounds > 0) {
+				t.rounds--;
+			} else if (Timeout.STATE.compareAndSet(t, WAITING, EXPIRED)) {
+				bucket.remove(t);
+				pending--;
+				expiredCount.increment();
+				try {
+					t.expire();
+				} catch (RuntimeException e) {
+					System.out.printf("### TimerWheel timeout threw: %s%n", e);
+				}
+			}  // else cancelled meanwhile: removeCancelled() unlinks it next tick
+			t = next;
+		}
+	}
+
+	/** Timeouts in the buckets, as of the last tick: a gauge. */
+	public long getPending() {
+		return pending;
+	}
+
+	/** How late a timeout can fire. */
+	public long getTickNanos() {
+		return tickNanos;
+	}
+
+	public Counter getScheduled() {
+		return scheduledCount;
+	}
+
+	public Counter getExpired() {
+		return expiredCount;
+	}
+
+	public Counter getCancelled() {
+		return cancelledCount;
+	}
+
+	/** Stops the thread: timeouts not yet expired never will. */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TimerWheel[tick=%,dus, buckets=%,d, pending=%,d, scheduled=%,d, expired=%,d, cancelled=%,d]",
+				tickNanos / 1000, buckets.length, pending, scheduledCount.count(), expiredCount.count(), cancelledCount.count());
+	}
+}
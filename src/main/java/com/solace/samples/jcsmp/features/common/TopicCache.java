@@ -0,0 +1,176 @@
+/**
+ * TopicCache.java
+ *
+ * A bounded cache of Topic objects for dynamically built publish destinations.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.Topic;
+
+/**
+ * A concurrent, size-bounded cache of {@link Topic} objects, so that a publisher sending to the same few
+ * dynamic topics doesn't create (and validate) a new Topic for every message.
+ * <p>
+ * Entries are keyed by the varying part of the topic (the suffix appended to a fixed prefix), or by the
+ * whole topic string if the prefix is empty.  Lookups take any {@link CharSequence}, so a caller can look
+ * up a topic from a reusable StringBuilder without first allocating a String.
+ * <p>
+ * Internally this is a set-associative table: a key hashes to one small set of slots, and when that set
+ * is full one entry is evicted using CLOCK (second-chance) replacement.  Lookups are lock-free; only
+ * misses take a lock.
+ */
+public final class TopicCache {
+
+	private static final int WAYS = 4;  // slots per set
+
+	private static final class Entry {
+		final String key;
+		final int hash;
+		final Topic topic;
+		volatile boolean referenced = true;  // CLOCK reference bit
+
+		Entry(String key, int hash, Topic topic) {
+			this.key = key;
+			this.hash = hash;
+			this.topic = topic;
+		}
+	}
+
+	private final String prefix;
+	private final Function<String, Topic> topicFactory;
+	private final AtomicReferenceArray<Entry> slots;
+	private final int setMask;
+	private final int[] clockHands;  // one CLOCK hand per set, guarded by 'this'
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param prefix fixed topic prefix that all keys are appended to, e.g. "solace/samples/jcsmp/direct/pub/"
+	 * @param capacity approximate max number of topics to cache, rounded up to a power of two
+	 */
+	public TopicCache(String prefix, int capacity) {
+		this(prefix, capacity, topic -> JCSMPFactory.onlyInstance().createTopic(topic));
+	}
+
+	/** A cache keyed by the full topic string. */
+	public TopicCache(int capacity) {
+		this("", capacity);
+	}
+
+	/** Allows a different way of creating the topics, e.g. for benchmarking. */
+	public TopicCache(String prefix, int capacity, Function<String, Topic> topicFactory) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		int sets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS) * 2 - 1);  // round up to a power of 2
+		this.prefix = prefix;
+		this.topicFactory = topicFactory;
+		this.slots = new AtomicReferenceArray<Entry>(sets * WAYS);
+		this.setMask = sets - 1;
+		this.clockHands = new int[sets];
+	}
+
+	/**
+	 * Returns the cached Topic for prefix + key, creating it on a miss.
+	 *
+	 * @param key the topic suffix (or the whole topic if there is no prefix)
+	 */
+	public Topic get(CharSequence key) {
+		final int hash = hash(key);
+		final int base = (hash & setMask) * WAYS;
+		for (int i = 0; i < WAYS; i++) {
+			Entry e = slots.get(base + i);
+			if (e != null && e.hash == hash && e.key.contentEquals(key)) {
+				if (!e.referenced) {  // only write when needed, to keep the cache line clean for other readers
+					e.referenced = true;
+				}
+				hits.increment();
+				return e.topic;
+			}
+		}
+		misses.increment();
+		return insert(key.toString(), hash, base);
+	}
+
+	private synchronized Topic insert(String key, int hash, int base) {
+		for (int i = 0; i < WAYS; i++) {  // check again, another thread might have added it
+			Entry e = slots.get(base + i);
+			if (e != null && e.hash == hash && e.key.equals(key)) {
+				return e.topic;
+			}
+		}
+		final Topic topic = topicFactory.apply(prefix.isEmpty() ? key : prefix + key);
+		final int set = base / WAYS;
+		int victim = -1;
+		for (int i = 0; i < WAYS; i++) {  // prefer an empty slot
+			if (slots.get(base + i) == null) {
+				victim = base + i;
+				break;
+			}
+		}
+		if (victim < 0) {  // CLOCK: sweep the set, clearing reference bits, until an unreferenced entry is found
+			while (true) {
+				int idx = base + clockHands[set];
+				clockHands[set] = (clockHands[set] + 1) % WAYS;
+				Entry e = slots.get(idx);
+				if (e.referenced) {
+					e.referenced = false;  // give it a second chance
+				} else {
+					victim = idx;
+					evictions.increment();
+					break;
+				}
+			}
+		}
+		slots.set(victim, new Entry(key, hash, topic));
+		return topic;
+	}
+
+	/** Same as String.hashCode(), but for any CharSequence, then spread so the low bits pick the set. */
+	private static int hash(CharSequence cs) {
+		int h;
+		if (cs instanceof String) {
+			h = cs.hashCode();  // same result, but intrinsified (and cached if the String is reused)
+		} else {
+			h = 0;
+			for (int i = 0; i < cs.length(); i++) {
+				h = 31 * h + cs.charAt(i);
+			}
+		}
+		return h ^ (h >>> 16);
+	}
+
+	public int capacity() {
+		return slots.length();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		long h = getHits();
+		long m = getMisses();
+		return String.format("TopicCache[capacity=%d, hits=%,d, misses=%,d, evictions=%,d, hit ratio=%.2f%%]",
+				capacity(), h, m, getEvictions(), h + m == 0 ? 0.0 : 100.0 * h / (h + m));
+	}
+}
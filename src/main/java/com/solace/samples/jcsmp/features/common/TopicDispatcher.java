@@ -0,0 +1,390 @@
+/**
+ * TopicDispatcher.java
+ *
+ * Routes inbound topics to handlers, using Solace topic wildcard rules.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A trie of topic subscriptions, each mapped to a handler, for routing received messages inside an
+ * application the same way the broker matches subscriptions:
+ * <ul>
+ * <li>levels are separated by {@code /}</li>
+ * <li>{@code *} as a whole level matches any one level; {@code abc*} matches any level starting with "abc"
+ *     (a {@code *} anywhere else in a level is just a character)</li>
+ * <li>{@code >} as the whole last level matches one or more further levels (anywhere else it's just a
+ *     character)</li>
+ * </ul>
+ * Matching walks the topic one level at a time without splitting or copying it: literal levels are found
+ * in a small per-node hash table keyed directly off the characters of the topic, so the cost is about
+ * O(levels) however many subscriptions there are.  Matching does not allocate.
+ * <p>
+ * Not thread-safe for changes: add the subscriptions first, then match from any number of threads (or
+ * guard changes with a lock of your own).  A handler that is subscribed under several subscriptions that
+ * all match a topic is visited once for each of them.
+ *
+ * @param <H> the handler type, e.g. a {@code Consumer<BytesXMLMessage>}
+ */
+public final class TopicDispatcher<H> {
+
+	private static final Object[] NO_HANDLERS = new Object[0];
+
+	private final Node root = new Node();
+	private int subscriptionCount = 0;
+
+	/** Adds a handler for a subscription, e.g. "solace/samples/jcsmp/direct/pub/&gt;". */
+	public void subscribe(String subscription, H handler) {
+		if (subscription.isEmpty()) {
+			throw new IllegalArgumentException("Empty subscription");
+		}
+		Node node = root;
+		int start = 0;
+		while (true) {
+			int end = subscription.indexOf('/', start);
+			if (end < 0) {
+				end = subscription.length();
+			}
+			final boolean isLast = end == subscription.length();
+			if (isLast && end - start == 1 && subscription.charAt(start) == '>') {
+				node.gtHandlers = add(node.gtHandlers, handler);
+				break;
+			}
+			node = node.child(subscription, start, end, true);
+			if (isLast) {
+				node.handlers = add(node.handlers, handler);
+				break;
+			}
+			start = end + 1;
+		}
+		subscriptionCount++;
+	}
+
+	/**
+	 * Removes one handler from a subscription.
+	 *
+	 * @return false if that handler wasn't subscribed to exactly that subscription
+	 */
+	public boolean unsubscribe(String subscription, H handler) {
+		if (remove(root, subscription, 0, handler)) {
+			subscriptionCount--;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean remove(Node node, String subscription, int start, Object handler) {
+		int end = subscription.indexOf('/', start);
+		if (end < 0) {
+			end = subscription.length();
+		}
+		final boolean isLast = end == subscription.length();
+		if (isLast && end - start == 1 && subscription.charAt(start) == '>') {
+			final Object[] remaining = without(node.gtHandlers, handler);
+			if (remaining == node.gtHandlers) {
+				return false;
+			}
+			node.gtHandlers = remaining;
+			return true;
+		}
+		final Node child = node.child(subscription, start, end, false);
+		if (child == null) {
+			return false;
+		}
+		if (isLast) {
+			final Object[] remaining = without(child.handlers, handler);
+			if (remaining == child.handlers) {
+				return false;
+			}
+			child.handlers = remaining;
+		} else if (!remove(child, subscription, end + 1, handler)) {
+			return false;
+		}
+		if (child.isEmpty()) {  // prune, so unsubscribing everything leaves nothing behind
+			node.removeChild(child);
+		}
+		return true;
+	}
+
+	/**
+	 * Calls the action with every handler whose subscription matches the topic, most specific first
+	 * (at each level: the exact level, then prefix wildcards, then {@code *}, then {@code >}).
+	 *
+	 * @return the number of handlers called
+	 */
+	public int forEachMatch(CharSequence topic, Consumer<? super H> action) {
+		return topic.length() == 0 ? 0 : match(root, topic, 0, action);
+	}
+
+	/** The most specific handler whose subscription matches the topic, or null if none does. */
+	public H lookup(CharSequence topic) {
+		return topic.length() == 0 ? null : first(root, topic, 0);
+	}
+
+	/** Whether any subscription matches the topic. */
+	public boolean matches(CharSequence topic) {
+		return lookup(topic) != null;
+	}
+
+	public int size() {
+		return subscriptionCount;
+	}
+
+	private int match(Node node, CharSequence topic, int start, Consumer<? super H> action) {
+		final int end = indexOf(topic, '/', start);
+		final boolean isLast = end == topic.length();
+		int matched = 0;
+		Node child = node.literal(topic, start, end);
+		if (child != null) {
+			matched += isLast ? call(child.handlers, action) : match(child, topic, end + 1, action);
+		}
+		for (int i = 0; i < node.prefixCount; i++) {
+			if (startsWith(topic, start, end, node.prefixes[i])) {
+				child = node.prefixNodes[i];
+				matched += isLast ? call(child.handlers, action) : match(child, topic, end + 1, action);
+			}
+		}
+		if (node.star != null) {
+			matched += isLast ? call(node.star.handlers, action) : match(node.star, topic, end + 1, action);
+		}
+		return matched + call(node.gtHandlers, action);  // there's at least this level left, so '>' matches
+	}
+
+	@SuppressWarnings("unchecked")
+	private int call(Object[] handlers, Consumer<? super H> action) {
+		for (Object handler : handlers) {
+			action.accept((H)handler);
+		}
+		return handlers.length;
+	}
+
+	private H first(Node node, CharSequence topic, int start) {
+		final int end = indexOf(topic, '/', start);
+		final boolean isLast = end == topic.length();
+		H found;
+		Node child = node.literal(topic, start, end);
+		if (child != null && (found = isLast ? firstOf(child.handlers) : first(child, topic, end + 1)) != null) {
+			return found;
+		}
+		for (int i = 0; i < node.prefixCount; i++) {
+			if (startsWith(topic, start, end, node.prefixes[i])) {
+				child = node.prefixNodes[i];
+				if ((found = isLast ? firstOf(child.handlers) : first(child, topic, end + 1)) != null) {
+					return found;
+				}
+			}
+		}
+		if (node.star != null && (found = isLast ? firstOf(node.star.handlers) : first(node.star, topic, end + 1)) != null) {
+			return found;
+		}
+		return firstOf(node.gtHandlers);
+	}
+
+	@SuppressWarnings("unchecked")
+	private H firstOf(Object[] handlers) {
+		return handlers.length == 0 ? null : (H)handlers[0];
+	}
+
+	private static int indexOf(CharSequence cs, char c, int from) {
+		final int length = cs.length();
+		for (int i = from; i < length; i++) {
+			if (cs.charAt(i) == c) {
+				return i;
+			}
+		}
+		return length;
+	}
+
+	private static boolean startsWith(CharSequence cs, int start, int end, String prefix) {
+		if (end - start < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (cs.charAt(start + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Same as String.hashCode(), for part of any CharSequence. */
+	private static int hash(CharSequence cs, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + cs.charAt(i);
+		}
+		return h;
+	}
+
+	private static boolean regionEquals(CharSequence cs, int start, int end, String s) {
+		if (end - start != s.length()) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (cs.charAt(start + i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Object[] add(Object[] handlers, Object handler) {
+		final Object[] bigger = Arrays.copyOf(handlers, handlers.length + 1);
+		bigger[handlers.length] = handler;
+		return bigger;
+	}
+
+	/** A copy without (one occurrence of) the handler, or the same array if it wasn't there. */
+	private static Object[] without(Object[] handlers, Object handler) {
+		for (int i = 0; i < handlers.length; i++) {
+			if (handlers[i].equals(handler)) {
+				final Object[] smaller = new Object[handlers.length - 1];
+				System.arraycopy(handlers, 0, smaller, 0, i);
+				System.arraycopy(handlers, i + 1, smaller, i, smaller.length - i);
+				return smaller;
+			}
+		}
+		return handlers;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	/** One level of the trie: its children, and the handlers of subscriptions that end here. */
+	private static final class Node {
+
+		// literal children: open addressing, linear probing, kept at most half full
+		String[] keys = new String[0];
+		int[] hashes;
+		Node[] literals;
+		int literalCount = 0;
+
+		// prefix wildcard children ("abc*"), few enough per level to just scan
+		String[] prefixes = new String[0];
+		Node[] prefixNodes = new Node[0];
+		int prefixCount = 0;
+
+		Node star;  // the "*" child
+		Object[] handlers = NO_HANDLERS;    // subscriptions that end at this node
+		Object[] gtHandlers = NO_HANDLERS;  // subscriptions that end with a ">" after this node
+
+		/** The child for one subscription level, created if asked to. */
+		Node child(String subscription, int start, int end, boolean create) {
+			final int length = end - start;
+			if (length == 1 && subscription.charAt(start) == '*') {
+				if (star == null && create) {
+					star = new Node();
+				}
+				return star;
+			}
+			if (length > 1 && subscription.charAt(end - 1) == '*') {  // "abc*"
+				final String prefix = subscription.substring(start, end - 1);
+				for (int i = 0; i < prefixCount; i++) {
+					if (prefixes[i].equals(prefix)) {
+						return prefixNodes[i];
+					}
+				}
+				if (!create) {
+					return null;
+				}
+				if (prefixCount == prefixes.length) {
+					prefixes = Arrays.copyOf(prefixes, Math.max(2, prefixCount * 2));
+					prefixNodes = Arrays.copyOf(prefixNodes, prefixes.length);
+				}
+				prefixes[prefixCount] = prefix;
+				return prefixNodes[prefixCount++] = new Node();
+			}
+			Node node = literal(subscription, start, end);
+			if (node == null && create) {
+				node = new Node();
+				putLiteral(subscription.substring(start, end), node);
+			}
+			return node;
+		}
+
+		Node literal(CharSequence topic, int start, int end) {
+			if (literalCount == 0) {
+				return null;
+			}
+			final int h = hash(topic, start, end);
+			final int mask = keys.length - 1;
+			for (int i = (h ^ (h >>> 16)) & mask; keys[i] != null; i = (i + 1) & mask) {
+				if (hashes[i] == h && regionEquals(topic, start, end, keys[i])) {
+					return literals[i];
+				}
+			}
+			return null;
+		}
+
+		private void putLiteral(String key, Node node) {
+			if ((literalCount + 1) * 2 > keys.length) {  // grow and rehash
+				final String[] oldKeys = keys;
+				final Node[] oldLiterals = literals;
+				final int capacity = Math.max(4, keys.length * 2);
+				keys = new String[capacity];
+				hashes = new int[capacity];
+				literals = new Node[capacity];
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldKeys[i] != null) {
+						insert(oldKeys[i], oldLiterals[i]);
+					}
+				}
+			}
+			insert(key, node);
+			literalCount++;
+		}
+
+		private void insert(String key, Node node) {
+			final int h = key.hashCode();
+			final int mask = keys.length - 1;
+			int i = (h ^ (h >>> 16)) & mask;
+			while (keys[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			hashes[i] = h;
+			literals[i] = node;
+		}
+
+		void removeChild(Node child) {
+			if (star == child) {
+				star = null;
+				return;
+			}
+			for (int i = 0; i < prefixCount; i++) {
+				if (prefixNodes[i] == child) {
+					prefixCount--;
+					prefixes[i] = prefixes[prefixCount];
+					prefixNodes[i] = prefixNodes[prefixCount];
+					prefixes[prefixCount] = null;
+					prefixNodes[prefixCount] = null;
+					return;
+				}
+			}
+			for (int i = 0; i < keys.length; i++) {
+				if (literals[i] == child) {  // rebuild the table without it, simpler than fixing up the probe chain
+					final String[] oldKeys = keys;
+					final Node[] oldLiterals = literals;
+					keys = new String[oldKeys.length];
+					hashes = new int[oldKeys.length];
+					literals = new Node[oldKeys.length];
+					literalCount--;
+					for (int j = 0; j < oldKeys.length; j++) {
+						if (oldKeys[j] != null && j != i) {
+							insert(oldKeys[j], oldLiterals[j]);
+						}
+					}
+					return;
+				}
+			}
+		}
+
+		boolean isEmpty() {
+			return handlers.length == 0 && gtHandlers.length == 0 && literalCount == 0 && prefixCount == 0 && star == null;
+		}
+	}
+}
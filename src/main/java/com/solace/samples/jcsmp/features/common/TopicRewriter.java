@@ -0,0 +1,190 @@
+/**
+ * TopicRewriter.java
+ *
+ * Rewrites inbound topics into outbound topics from a template, without allocating.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.Topic;
+
+/**
+ * Builds an outbound topic from the levels of an inbound one, following a template, e.g. for a processor:
+ * <pre>
+ *   new TopicRewriter("solace/samples/{api}/direct/upper/{5..}", Collections.singletonMap("api", "jcsmp"), 1024)
+ *   "solace/samples/jcsmp/direct/pub/A/B"  -&gt;  "solace/samples/jcsmp/direct/upper/A/B"
+ * </pre>
+ * Placeholders are {@code {N}} for inbound level N (counting from 0), {@code {N..M}} for levels N to M
+ * and {@code {N..}} for level N onwards (joined with '/'), or {@code {name}} for a fixed variable.
+ * <p>
+ * Since the outbound topic only depends on the inbound one, the outbound Topic objects are cached in a
+ * {@link TopicCache} keyed by the inbound topic: once the cache is warm, a rewrite is one lookup and
+ * allocates nothing.  On a miss, the inbound topic is split into levels by recording offsets, and the
+ * outbound topic is written into a reused per-thread buffer.  Safe to use from any number of threads.
+ */
+public final class TopicRewriter {
+
+	private static final int TO_END = Integer.MAX_VALUE;
+
+	private final String template;
+	private final Object[] segments;  // String literals, and int[] {from, to} level ranges
+	private final int levelsNeeded;   // the inbound topic must have at least this many levels
+	private final TopicCache topicCache;
+	private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+	/** Per-thread scratch space. */
+	private static final class Buffers {
+		final StringBuilder out = new StringBuilder(250);  // max topic length
+		int[] levelStarts = new int[16];
+		int[] levelEnds = new int[16];
+	}
+
+	/**
+	 * @param template the outbound topic, with placeholders
+	 * @param variables values for any {@code {name}} placeholders
+	 * @param cacheCapacity how many outbound topics to cache
+	 */
+	public TopicRewriter(String template, Map<String, String> variables, int cacheCapacity) {
+		this.template = template;
+		final List<Object> parsed = new ArrayList<>();
+		final StringBuilder literal = new StringBuilder();
+		int needed = 0;
+		int i = 0;
+		while (i < template.length()) {
+			final char c = template.charAt(i);
+			if (c != '{') {
+				literal.append(c);
+				i++;
+				continue;
+			}
+			final int close = template.indexOf('}', i);
+			if (close < 0) {
+				throw new IllegalArgumentException("Unclosed '{' in template: " + template);
+			}
+			final String placeholder = template.substring(i + 1, close);
+			i = close + 1;
+			if (placeholder.isEmpty() || !Character.isDigit(placeholder.charAt(0))) {  // a variable
+				final String value = variables.get(placeholder);
+				if (value == null) {
+					throw new IllegalArgumentException("No value for {" + placeholder + "} in template: " + template);
+				}
+				literal.append(value);
+				continue;
+			}
+			final int[] range = parseRange(placeholder, template);
+			if (literal.length() > 0) {
+				parsed.add(literal.toString());
+				literal.setLength(0);
+			}
+			parsed.add(range);
+			needed = Math.max(needed, (range[1] == TO_END ? range[0] : range[1]) + 1);
+		}
+		if (literal.length() > 0) {
+			parsed.add(literal.toString());
+		}
+		this.segments = parsed.toArray();
+		this.levelsNeeded = needed;
+		this.topicCache = new TopicCache("", cacheCapacity, inbound -> createTopic(rewriteToString(inbound)));
+	}
+
+	/** A template with no variables. */
+	public TopicRewriter(String template, int cacheCapacity) {
+		this(template, Collections.<String, String>emptyMap(), cacheCapacity);
+	}
+
+	private static int[] parseRange(String placeholder, String template) {
+		try {
+			final int dots = placeholder.indexOf("..");
+			if (dots < 0) {
+				final int level = Integer.parseInt(placeholder);
+				return new int[] { level, level };
+			}
+			final int from = Integer.parseInt(placeholder.substring(0, dots));
+			final int to = dots + 2 == placeholder.length() ? TO_END : Integer.parseInt(placeholder.substring(dots + 2));
+			if (to < from) {
+				throw new IllegalArgumentException("Empty level range {" + placeholder + "} in template: " + template);
+			}
+			return new int[] { from, to };
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad placeholder {" + placeholder + "} in template: " + template, e);
+		}
+	}
+
+	/**
+	 * @return the (cached) outbound Topic for this inbound topic, or null if the inbound topic doesn't
+	 *         have enough levels for the template
+	 */
+	public Topic rewrite(CharSequence inboundTopic) {
+		return topicCache.get(inboundTopic);  // a too-short topic is cached as null, like any other
+	}
+
+	private static Topic createTopic(String name) {
+		return name == null ? null : JCSMPFactory.onlyInstance().createTopic(name);
+	}
+
+	/** Same as rewrite(), but just the outbound topic name, as a new String. */
+	public String rewriteToString(CharSequence inboundTopic) {
+		final StringBuilder out = rewriteToBuffer(inboundTopic);
+		return out == null ? null : out.toString();
+	}
+
+	/** Writes the outbound topic into this thread's buffer, and returns it (only valid until the next call). */
+	private StringBuilder rewriteToBuffer(CharSequence inboundTopic) {
+		final Buffers b = buffers.get();
+		final int levels = tokenize(inboundTopic, b);
+		if (levels < levelsNeeded) {
+			return null;
+		}
+		final StringBuilder out = b.out;
+		out.setLength(0);
+		for (Object segment : segments) {
+			if (segment instanceof String) {
+				out.append((String)segment);
+			} else {
+				final int[] range = (int[])segment;
+				final int to = Math.min(range[1], levels - 1);
+				out.append(inboundTopic, b.levelStarts[range[0]], b.levelEnds[to]);  // the levels, with the '/'s in between
+			}
+		}
+		return out;
+	}
+
+	/** Records where each level starts and ends, and returns the number of levels. */
+	private static int tokenize(CharSequence topic, Buffers b) {
+		int levels = 0;
+		int start = 0;
+		final int length = topic.length();
+		for (int i = 0; i <= length; i++) {
+			if (i == length || topic.charAt(i) == '/') {
+				if (levels == b.levelStarts.length) {  // more levels than ever before on this thread
+					b.levelStarts = Arrays.copyOf(b.levelStarts, levels * 2);
+					b.levelEnds = Arrays.copyOf(b.levelEnds, levels * 2);
+				}
+				b.levelStarts[levels] = start;
+				b.levelEnds[levels] = i;
+				levels++;
+				start = i + 1;
+			}
+		}
+		return levels;
+	}
+
+	/** The cache of outbound Topics, keyed by inbound topic. */
+	public TopicCache getTopicCache() {
+		return topicCache;
+	}
+
+	@Override
+	public String toString() {
+		return "TopicRewriter[" + template + ", " + topicCache + "]";
+	}
+}
@@ -0,0 +1,292 @@
+/**
+ * TransactedBatchProcessor.java
+ *
+ * Consumes, processes and publishes a queue's messages in transactions of many messages each, not one.
+ *
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
+ */
+
+package com.solace.samples.jcsmp.features.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPTransportException;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+import com.solacesystems.jcsmp.transaction.RollbackException;
+import com.solacesystems.jcsmp.transaction.TransactedSession;
+
+/**
+ * Runs consume-process-publish on a {@link TransactedSession}, committing once per batch of messages
+ * instead of once per message, since each commit is a round trip to the broker:
+ * <pre>
+ *   FlowReceiver receiver = txSession.createFlow(null, flowProps, endpointProps);  // no listener: receive()
+ *   XMLMessageProducer producer = txSession.createProducer(producerProps, callbacks);
+ *   TransactedBatchProcessor processor = new TransactedBatchProcessor(txSession, receiver, producer,
+ *           128, 5, 50, TimeUnit.MILLISECONDS, (batch, out) -&gt; { for (...) out.send(result, destination); });
+ *   processor.start();
+ * </pre>
+ * A batch is up to the current batch size of messages, or however many arrive within maxWait of the
+ * first.  The handler processes them and publishes its results with the producer it's given, then the
+ * one commit both consumes the batch and delivers the results, or (if it rolls back) neither.  The results
+ * count against the broker's limit on messages per transaction (256 by default) as well as the batch: a
+ * handler publishing one result per message can have batches of at most 128.
+ * <p>
+ * The batch size adapts to the load: a full batch that committed well within the latency target (from
+ * its first message being received to the commit completing) grows it by an eighth, up to maxBatch; a
+ * batch over the target shrinks it by a quarter.  So under a backlog it grows until each commit's round
+ * trip is spread over as many messages as the target allows, and when the queue is quiet the batches
+ * are simply whatever arrives within maxWait.
+ * <p>
+ * If the commit throws {@link RollbackException} (e.g. the broker failed over), or the handler throws
+ * (then the transaction is rolled back here), none of the batch was consumed: the broker redelivers those
+ * messages, so the batch in memory is dropped and the next one received again, from them.  Each rollback
+ * in a row also halves the batch size and backs off a little longer, so a message that always fails
+ * (e.g. can't be parsed) soon ends up in a batch of its own, until the queue's max redelivery count moves
+ * it to its dead message queue, rather than stopping every other message from being committed.
+ * <p>
+ * A transacted session must only be used by one thread at a time, so this does everything on its own
+ * thread: don't use the session (or its producer and receiver) elsewhere while it's running.
+ */
+public final class TransactedBatchProcessor implements AutoCloseable {
+
+	/** Processes a batch, publishing any results with the producer; throw to roll the batch back. */
+	@FunctionalInterface
+	public interface BatchHandler {
+		void process(List<BytesXMLMessage> batch, XMLMessageProducer producer) throws Exception;
+	}
+
+	private static final int POLL_MILLIS = 100;  // how often an idle processor checks it hasn't been closed
+	private static final long MAX_BACKOFF_MILLIS = 1000;
+
+	private final TransactedSession txSession;
+	private final FlowReceiver receiver;
+	private final XMLMessageProducer producer;
+	private final int maxBatch;
+	private final long maxWaitNanos;
+	private final long latencyTargetNanos;
+	private final BatchHandler handler;
+	private final List<BytesXMLMessage> batch;
+	private final List<BytesXMLMessage> batchView;
+	private volatile int batchSize;
+	private int rollbacksInARow = 0;
+	private volatile Consumer<Exception> errorListener = null;
+	private Thread thread;
+	private volatile boolean closed = false;
+
+	private final LatencyHistogram batchLatency = new LatencyHistogram();  // first received to committed, ns
+	private final LatencyHistogram batchSizes = new LatencyHistogram();
+	private final Counter committed = new Counter();    // messages
+	private final Counter commits = new Counter();
+	private final Counter rollbacks = new Counter();    // RollbackException from commit()
+	private final Counter failures = new Counter();     // the handler (or something else) threw, and it was rolled back
+
+	/**
+	 * @param receiver a Flow from the same transacted session, created without a listener and started
+	 * @param producer from the same transacted session
+	 * @param maxBatch most messages consumed per transaction: with those the handler publishes for them, no more
+	 *        than the broker allows (256 by default), e.g. 128 if it publishes one per message
+	 * @param maxWait longest to wait for a batch to fill, from its first message
+	 * @param latencyTarget how long a message may take, received to committed; the batch size adapts to it
+	 */
+	public TransactedBatchProcessor(TransactedSession txSession, FlowReceiver receiver, XMLMessageProducer producer,
+			int maxBatch, long maxWait, long latencyTarget, TimeUnit unit, BatchHandler handler) {
+		if (maxBatch < 1 || maxWait < 0 || latencyTarget <= 0) {
+			throw new IllegalArgumentException(String.format("Need maxBatch >= 1, maxWait >= 0, latencyTarget > 0: %d, %d, %d",
+					maxBatch, maxWait, latencyTarget));
+		}
+		this.txSession = txSession;
+		this.receiver = receiver;
+		this.producer = producer;
+		this.maxBatch = maxBatch;
+		this.maxWaitNanos = unit.toNanos(maxWait);
+		this.latencyTargetNanos = unit.toNanos(latencyTarget);
+		this.handler = handler;
+		this.batch = new ArrayList<>(maxBatch);
+		this.batchView = Collections.unmodifiableList(batch);
+		this.batchSize = Math.max(1, maxBatch / 8);
+	}
+
+	/** Called with each failed batch's exception, and with the one that stops the processor (if any); without one, they're printed. */
+	public void setErrorListener(Consumer<Exception> listener) {
+		this.errorListener = listener;
+	}
+
+	/** Starts processing, on a new thread. */
+	public synchronized void start() {
+		thread = new Thread(this::runLoop, "TransactedBatchProcessor");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void runLoop() {
+		try {
+			while (!closed) {
+				final long firstNanos = receiveBatch();
+				if (!batch.isEmpty()) {
+					processBatch(firstNanos);
+				}
+			}
+		} catch (JCSMPException e) {  // the session is gone (transport) or unusable: stop
+			closed = true;
+			report(e, "stopped");
+		} finally {
+			batch.clear();
+		}
+	}
+
+	/** Receives up to batchSize messages, for up to maxWait from the first; returns when the first was received. */
+	private long receiveBatch() throws JCSMPException {
+		BytesXMLMessage msg = receiver.receive(POLL_MILLIS);
+		if (msg == null) {
+			return 0;
+		}
+		final long firstNanos = System.nanoTime();
+		final long deadline = firstNanos + maxWaitNanos;
+		final int size = batchSize;
+		while (msg != null) {
+			batch.add(msg);
+			if (batch.size() >= size) {
+				break;
+			}
+			msg = receiver.receiveNoWait();
+			if (msg == null) {
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					break;
+				}
+				msg = receiver.receive((int)Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+			}
+		}
+		return firstNanos;
+	}
+
+	private void processBatch(long firstNanos) throws JCSMPException {
+		final int size = batch.size();
+		try {
+			handler.process(batchView, producer);
+			txSession.commit();  // consumes the batch and delivers what the handler sent, together
+		} catch (RollbackException e) {  // the broker rolled it back: it'll redeliver the batch
+			rollbacks.increment();
+			rolledBack(e);
+			return;
+		} catch (JCSMPTransportException e) {
+			throw e;
+		} catch (Exception e) {  // the handler (or the commit) failed: roll back, so it's redelivered
+			failures.increment();
+			txSession.rollback();
+			rolledBack(e);
+			return;
+		} finally {
+			batch.clear();  // after a rollback, the redelivered messages are new message objects
+		}
+		final long latency = System.nanoTime() - firstNanos;
+		batchLatency.record(latency);
+		batchSizes.record(size);
+		committed.add(size);
+		commits.increment();
+		rollbacksInARow = 0;
+		adapt(size, latency);
+	}
+
+	/** Additive increase while full batches are well within the latency target, multiplicative decrease when over. */
+	private void adapt(int size, long latency) {
+		final int current = batchSize;
+		if (latency > latencyTargetNanos) {
+			batchSize = Math.max(1, current * 3 / 4);
+		} else if (size >= current && latency < latencyTargetNanos * 4 / 5) {
+			batchSize = Math.min(maxBatch, current + Math.max(1, current / 8));
+		}
+	}
+
+	/** Shrinks the batch, to isolate a message that keeps failing, and backs off before receiving it again. */
+	private void rolledBack(Exception cause) {
+		rollbacksInARow++;
+		batchSize = Math.max(1, batchSize / 2);
+		report(cause, "batch rolled back (" + rollbacksInARow + " in a row)");
+		try {
+			Thread.sleep(Math.min(MAX_BACKOFF_MILLIS, 10L << Math.min(rollbacksInARow - 1, 10)));
+		} catch (InterruptedException e) {
+			closed = true;
+		}
+	}
+
+	private void report(Exception e, String what) {
+		final Consumer<Exception> listener = errorListener;
+		if (listener != null) {
+			listener.accept(e);
+		} else {
+			System.out.printf("### TransactedBatchProcessor %s: %s%n", what, e);
+		}
+	}
+
+	/** The number of messages the next batch can have. */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/** Nanoseconds from each committed batch's first message being received to its commit completing. */
+	public LatencyHistogram getBatchLatency() {
+		return batchLatency;
+	}
+
+	/** How many messages each committed batch had. */
+	public LatencyHistogram getBatchSizes() {
+		return batchSizes;
+	}
+
+	/** Messages consumed in committed transactions. */
+	public Counter getCommitted() {
+		return committed;
+	}
+
+	public Counter getCommits() {
+		return commits;
+	}
+
+	/** Commits the broker rolled back. */
+	public Counter getRollbacks() {
+		return rollbacks;
+	}
+
+	/** Batches the handler failed, which were rolled back. */
+	public Counter getFailures() {
+		return failures;
+	}
+
+	/** Stops once the batch in progress is committed (or rolled back); waits up to the timeout for that. */
+	public void close(long timeout, TimeUnit unit) {
+		closed = true;
+		final Thread t = thread;
+		if (t != null && t != Thread.currentThread()) {
+			try {
+				t.join(unit.toMillis(timeout));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** Same as {@code close(10, SECONDS)}. */
+	@Override
+	public void close() {
+		close(10, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public String toString() {
+		final LatencyHistogram.Snapshot sizes = batchSizes.snapshot();
+		final LatencyHistogram.Snapshot latency = batchLatency.snapshot();
+		return String.format("TransactedBatchProcessor[batch size=%d (max %d), committed=%,d in %,d commits (size p50=%,d max=%,d), "
+				+ "latency p50=%,.1fms p99=%,.1fms (target %,.1fms), rollbacks=%,d, failures=%,d]",
+				batchSize, maxBatch, committed.count(), commits.count(), sizes.getValueAtPercentile(50), sizes.getMax(),
+				latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6, latencyTargetNanos / 1e6,
+				rollbacks.count(), failures.count());
+	}
+}
@@ -16,6 +16,14 @@
 
 package com.solace.samples.jcsmp.patterns;
 
+import com.solace.samples.jcsmp.features.common.BoundedWorkExecutor;
+import com.solace.samples.jcsmp.features.common.LatencyStamp;
+import com.solace.samples.jcsmp.features.common.MessagePool;
+import com.solace.samples.jcsmp.features.common.Meter;
+import com.solace.samples.jcsmp.features.common.SpscRingBuffer;
+import com.solace.samples.jcsmp.features.common.TopicDispatcher;
+import com.solace.samples.jcsmp.features.common.TopicRewriter;
+import com.solacesystems.jcsmp.BytesMessage;
 import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.JCSMPChannelProperties;
 import com.solacesystems.jcsmp.JCSMPErrorResponseException;
@@ -29,10 +37,15 @@ import com.solacesystems.jcsmp.JCSMPTransportException;
 import com.solacesystems.jcsmp.SessionEventArgs;
 import com.solacesystems.jcsmp.SessionEventHandler;
 import com.solacesystems.jcsmp.TextMessage;
+import com.solacesystems.jcsmp.Topic;
+import com.solacesystems.jcsmp.XMLMessage;
 import com.solacesystems.jcsmp.XMLMessageConsumer;
 import com.solacesystems.jcsmp.XMLMessageListener;
 import com.solacesystems.jcsmp.XMLMessageProducer;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -43,15 +56,38 @@ import java.util.concurrent.TimeUnit;
  * it has received an input message.
  * This class is meant to be used with DirectPub and DirectSub, intercepting the published messages and
  * sending them on to a different topic.
+ * With -Dlatency=true, the timestamp header of messages from DirectPublisher -Dlatency=true is carried
+ * on in front of the processed text, with this hop's receive and send times added, so that DirectSubscriber
+ * can attribute the end-to-end latency to each hop.
+ * With -Dpipeline=true, receiving, processing and publishing each get their own thread (see Pipeline).
+ * With -Dworkers=virtual, each message is processed on its own virtual thread (Java 21+), so blocking
+ * per-message work (e.g. a DB lookup, simulated with -Dlookup_ms=N) doesn't stall the receive loop.
+ * At most -Dmax_in_flight messages are worked on at once, and -Dordered=true keeps the order per topic.
  */
 public class DirectProcessor {
 
     private static final String SAMPLE_NAME = DirectProcessor.class.getSimpleName();
     private static final String TOPIC_PREFIX = "solace/samples/";  // used as the topic "root"
     private static final String API = "JCSMP";
+    // -Dlatency=true forwards (and adds this hop to) any LatencyStamp header on the inbound messages
+    private static final boolean LATENCY = Boolean.getBoolean("latency");
+    // -Dpipeline=true runs receive, transform and publish on separate threads, see Pipeline below
+    private static final boolean PIPELINE = Boolean.getBoolean("pipeline");
+    private static final int RING_SIZE = Integer.getInteger("ring_size", 8192);  // entries between each stage
+    // -Dworkers=virtual|platform|pool processes each message on its own (virtual) thread, for blocking work
+    private static final String WORKERS = System.getProperty("workers");
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("max_in_flight", 1000);  // messages being worked on at once
+    private static final int POOL_SIZE = Integer.getInteger("pool_size", 64);  // threads, for -Dworkers=pool
+    private static final boolean ORDERED = Boolean.getBoolean("ordered");  // keep the order of messages per topic
+    private static final long LOOKUP_MILLIS = Long.getLong("lookup_ms", 0);  // simulated blocking work per message
+    // Direct messages can be reused as soon as send() returns.  Per-thread pools need no locking, but only work if
+    // the same thread fills and sends the message, so not with -Dpipeline, or -Dworkers (a virtual thread per message)
+    private static final MessagePool<TextMessage> textMsgPool = newMessagePool(TextMessage.class);
+    private static final MessagePool<BytesMessage> bytesMsgPool = newMessagePool(BytesMessage.class);
     
-    private static volatile int msgRecvCounter = 0;              // num messages received
-    private static volatile int msgSentCounter = 0;                   // num messages sent
+    private static final Meter msgRecvMeter = new Meter();       // num messages received
+    private static final Meter msgTransformedMeter = new Meter();  // num messages processed, with -Dpipeline=true
+    private static final Meter msgSentMeter = new Meter();       // num messages sent
     private static volatile boolean isShutdown = false;  // are we done yet?
 
     /** Main method. */
@@ -108,53 +144,288 @@ public class DirectProcessor {
 
         // pass null as message listener to initiate blocking/sync receive() behaviour (check Subscriber for async)
         final XMLMessageConsumer consumer = session.getMessageConsumer((XMLMessageListener)null);
-        session.addSubscription(JCSMPFactory.onlyInstance().createTopic(TOPIC_PREFIX + "*/direct/pub/>"));  // listen to the direct publisher samples
-        // add more subscriptions here if you want
+        // builds (and caches) the outbound topic from the inbound one's levels, without splitting or copying strings
+        final TopicRewriter topicRewriter = new TopicRewriter(TOPIC_PREFIX + "{api}/direct/upper/{5..}",
+                Collections.singletonMap("api", API.toLowerCase()), 1024);
+        // reused per thread, to read the inbound timestamp headers
+        final ThreadLocal<byte[]> inboundPayloads = ThreadLocal.withInitial(() -> new byte[1024]);
+        // routes each inbound message to its handler by topic, with the same wildcard rules as the broker
+        final TopicDispatcher<InboundHandler> dispatcher = new TopicDispatcher<>();
+        final String publisherSubscription = TOPIC_PREFIX + "*/direct/pub/>";  // listen to the direct publisher samples
+        dispatcher.subscribe(publisherSubscription, (inboundMsg, inboundTopic, receiveTime, outbound) -> {
+            // how to "process" the incoming message? maybe do a DB lookup? add some additional properties? or change the payload?
+            if (LOOKUP_MILLIS > 0) {
+                try {
+                    Thread.sleep(LOOKUP_MILLIS);  // stand-in for a blocking call, e.g. a DB lookup
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            final Topic outboundTopic = topicRewriter.rewrite(inboundTopic);  // e.g. .../direct/pub/A -> .../direct/upper/A
+            if (outboundTopic == null) {  // not enough levels for the template
+                return false;
+            }
+            final String upperCaseMessage = inboundTopic.toUpperCase();  // as a silly example of "processing"
+            final XMLMessage outboundMsg;
+            final byte[] inboundPayload = LATENCY ? inboundPayloads.get() : null;
+            if (LATENCY && LatencyStamp.readHeader(inboundMsg, inboundPayload)) {
+                outboundMsg = createStampedMessage(inboundPayload, receiveTime, upperCaseMessage);
+            } else {
+                TextMessage textMsg = textMsgPool.acquire();  // a reset message, so no leftovers from the last one
+                textMsg.setText(upperCaseMessage);
+                outboundMsg = textMsg;
+            }
+            if (inboundMsg.getApplicationMessageId() != null) {  // populate for traceability
+                outboundMsg.setApplicationMessageId(inboundMsg.getApplicationMessageId());
+            }
+            outbound.msg = outboundMsg;
+            outbound.topic = outboundTopic;
+            return true;
+        });
+        session.addSubscription(JCSMPFactory.onlyInstance().createTopic(publisherSubscription));
+        // add more subscriptions (to both the session and the dispatcher) here if you want
         consumer.start();
-        
+
+        final Pipeline pipeline = PIPELINE ? new Pipeline(consumer, dispatcher, producer, RING_SIZE) : null;
+        final BoundedWorkExecutor workers;
+        if (WORKERS != null && pipeline == null) {
+            workers = new BoundedWorkExecutor(BoundedWorkExecutor.newExecutor(WORKERS, POOL_SIZE), MAX_IN_FLIGHT);
+            if ("virtual".equals(WORKERS) && !BoundedWorkExecutor.isVirtualThreadsSupported()) {
+                System.out.println("No virtual threads before Java 21, using a new platform thread per message instead");
+            }
+        } else {
+            workers = null;  // -Dworkers is ignored with -Dpipeline=true
+        }
         // make a thread for printing message rate stats
         ScheduledExecutorService statsPrintingThread = Executors.newSingleThreadScheduledExecutor();
         statsPrintingThread.scheduleAtFixedRate(() -> {
-            System.out.printf("%s %s Received -> Published msgs/s: %,d -> %,d%n",
-                    API, SAMPLE_NAME, msgRecvCounter, msgSentCounter);  // simple way of calculating message rates
-            msgRecvCounter = 0;
-            msgSentCounter = 0;
+            final String poolStats = String.format("[pooled msgs: %,d, misses: %,d]", textMsgPool.getPooled() + bytesMsgPool.getPooled(),
+                    textMsgPool.getMisses().intervalCount() + bytesMsgPool.getMisses().intervalCount());
+            if (workers != null) {
+                System.out.printf("%s %s Received -> Published msgs/s: %,d -> %,d (in flight: %,d/%,d) %s%n",
+                        API, SAMPLE_NAME, msgRecvMeter.tick(), msgSentMeter.tick(), workers.getInFlight(), MAX_IN_FLIGHT, poolStats);
+            } else if (pipeline == null) {
+                System.out.printf("%s %s Received -> Published msgs/s: %,d -> %,d %s%n",
+                        API, SAMPLE_NAME, msgRecvMeter.tick(), msgSentMeter.tick(), poolStats);  // counts since the last tick
+            } else {
+                System.out.printf("%s %s Received -> Transformed -> Published msgs/s: %,d -> %,d -> %,d (queue depths: %,d/%,d -> %,d/%,d) %s%n",
+                        API, SAMPLE_NAME, msgRecvMeter.tick(), msgTransformedMeter.tick(), msgSentMeter.tick(),
+                        pipeline.inbound.size(), pipeline.inbound.capacity(), pipeline.outbound.size(), pipeline.outbound.capacity(),
+                        poolStats);
+            }
         }, 1, 1, TimeUnit.SECONDS);
 
         System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
-        BytesXMLMessage inboundMsg;
-        while (System.in.available() == 0 && !isShutdown) {  // time to loop!
-        	inboundMsg = consumer.receive(1000); // try to receive a message\
-        	if (inboundMsg == null) continue;  // timed out trying to get message, so continue to loop
-            msgRecvCounter++;
-            String inboundTopic = inboundMsg.getDestination().getName();
-            if (inboundTopic.contains("/direct/pub/")) {  // simple validation of topic
-                // how to "process" the incoming message? maybe do a DB lookup? add some additional properties? or change the payload?
-                TextMessage outboundMsg = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
-                final String upperCaseMessage = inboundTopic.toUpperCase();  // as a silly example of "processing"
-                outboundMsg.setText(upperCaseMessage);
-                if (inboundMsg.getApplicationMessageId() != null) {  // populate for traceability
-                    outboundMsg.setApplicationMessageId(inboundMsg.getApplicationMessageId());
-                }
-                String [] inboundTopicLevels = inboundTopic.split("/",6);
-                String outboundTopic = new StringBuilder(TOPIC_PREFIX).append(API.toLowerCase())
-                        .append("/direct/upper/").append(inboundTopicLevels[5]).toString();
-                try {
-                    producer.send(outboundMsg, JCSMPFactory.onlyInstance().createTopic(outboundTopic));
-                    msgSentCounter++;
-                } catch (JCSMPException e) {  // threw from send(), only thing that is throwing here, but keep looping (unless shutdown?)
-                    System.out.printf("### Caught while trying to producer.send(): %s%n",e);
-                    if (e instanceof JCSMPTransportException) {  // connection issue; connect again, or terminate
-                        isShutdown = true;
+        if (pipeline != null) {
+            pipeline.start();
+            while (System.in.available() == 0 && !isShutdown) {
+                Thread.sleep(50);  // the stage threads do all the work
+            }
+            isShutdown = true;
+            pipeline.join();
+        } else {
+            final Outbound outbound = new Outbound();  // reused
+            BytesXMLMessage inboundMsg;
+            while (System.in.available() == 0 && !isShutdown) {  // time to loop!
+            	inboundMsg = consumer.receive(1000); // try to receive a message\
+            	if (inboundMsg == null) continue;  // timed out trying to get message, so continue to loop
+                final long receiveTime = LATENCY ? LatencyStamp.epochNanos() : 0;
+                msgRecvMeter.mark();
+                String inboundTopic = inboundMsg.getDestination().getName();
+                final InboundHandler handler = dispatcher.lookup(inboundTopic);
+                if (handler != null && workers != null) {  // hand it off, and on to the next message
+                    final BytesXMLMessage msg = inboundMsg;
+                    workers.execute(ORDERED ? inboundTopic : null, () -> {
+                        final Outbound result = new Outbound();
+                        if (handler.handle(msg, inboundTopic, receiveTime, result)) {
+                            send(producer, result);  // the producer is thread-safe
+                        }
+                    });  // blocks while MAX_IN_FLIGHT messages are being worked on
+                } else if (handler != null) {
+                    if (handler.handle(inboundMsg, inboundTopic, receiveTime, outbound)) {
+                        send(producer, outbound);
                     }
+                } else {
+                	// received a message that I wasn't expecting... handle it here somehow
                 }
-            } else {
-            	// received a message that I wasn't expecting... handle it here somehow
             }
         }
         isShutdown = true;
+        if (workers != null) {
+            workers.close();  // let the messages in progress finish
+            System.out.println(workers);
+        }
         statsPrintingThread.shutdown();  // stop printing stats
         session.closeSession();  // will also close producer and consumer objects
+        System.out.println(topicRewriter);
+        System.out.println(textMsgPool);
+        System.out.println(bytesMsgPool);
         System.out.println("Main thread quitting.");
     }
+
+    /** What to do with an inbound message, looked up by its topic. */
+    @FunctionalInterface
+    private interface InboundHandler {
+        /** Fills in the message to send and where to, and returns false if there's nothing to send. */
+        boolean handle(BytesXMLMessage inboundMsg, String inboundTopic, long receiveTime, Outbound outbound);
+    }
+
+    /** A message to send, and its topic.  Reused, so it's cleared once sent. */
+    private static final class Outbound {
+        XMLMessage msg;
+        Topic topic;
+    }
+
+    /** A received message waiting to be processed.  Reused, one per ring entry. */
+    private static final class Inbound {
+        BytesXMLMessage msg;
+        String topic;
+        long receiveTime;
+    }
+
+    private static void send(XMLMessageProducer producer, Outbound outbound) {
+        try {
+            producer.send(outbound.msg, outbound.topic);
+            msgSentMeter.mark();
+        } catch (JCSMPException e) {  // threw from send(), only thing that is throwing here, but keep looping (unless shutdown?)
+            System.out.printf("### Caught while trying to producer.send(): %s%n",e);
+            if (e instanceof JCSMPTransportException) {  // connection issue; connect again, or terminate
+                isShutdown = true;
+            }
+        } finally {
+            recycle(outbound.msg);  // Direct, so the API is done with it
+            outbound.msg = null;
+            outbound.topic = null;
+        }
+    }
+
+    private static <M extends XMLMessage> MessagePool<M> newMessagePool(Class<M> type) {
+        if (PIPELINE) {  // filled by the transform thread, sent by the publish thread
+            return MessagePool.shared(type, RING_SIZE + 2);
+        } else if (WORKERS != null) {
+            return MessagePool.shared(type, MAX_IN_FLIGHT);
+        } else {
+            return MessagePool.perThread(type, 4);  // only one in use at a time
+        }
+    }
+
+    private static void recycle(XMLMessage msg) {
+        if (msg instanceof TextMessage) {
+            textMsgPool.release((TextMessage)msg);
+        } else if (msg instanceof BytesMessage) {
+            bytesMsgPool.release((BytesMessage)msg);
+        }
+    }
+
+    /**
+     * With -Dpipeline=true, the receive, transform and publish steps each run on their own thread, connected
+     * by two preallocated lock-free rings of -Dring_size entries:  receive -> [inbound] -> transform -> [outbound] -> publish.
+     * A slow publish (e.g. flow control from the broker) then doesn't hold up receiving, and a busy transform
+     * gets a core to itself.  If a ring fills up, the stage before it waits, which pushes back up to the
+     * consumer (and so to the API's own receive queue).  The queue depths in the stats show which stage is
+     * the bottleneck: the ring in front of it stays full.
+     */
+    private static final class Pipeline {
+
+        final SpscRingBuffer<Inbound> inbound;
+        final SpscRingBuffer<Outbound> outbound;
+        private final Thread[] stages;
+
+        Pipeline(XMLMessageConsumer consumer, TopicDispatcher<InboundHandler> dispatcher, XMLMessageProducer producer, int ringSize) {
+            inbound = new SpscRingBuffer<>(ringSize, Inbound::new);
+            outbound = new SpscRingBuffer<>(ringSize, Outbound::new);
+            stages = new Thread[] {
+                    new Thread(() -> receiveStage(consumer), SAMPLE_NAME + "-receive"),
+                    new Thread(() -> transformStage(dispatcher), SAMPLE_NAME + "-transform"),
+                    new Thread(() -> publishStage(producer), SAMPLE_NAME + "-publish") };
+        }
+
+        void start() {
+            for (Thread stage : stages) {
+                stage.start();
+            }
+        }
+
+        /** Waits for the stages to stop, once isShutdown is set. */
+        void join() throws InterruptedException {
+            for (Thread stage : stages) {
+                stage.join();
+            }
+        }
+
+        private void receiveStage(XMLMessageConsumer consumer) {
+            int idle = 0;
+            try {
+                while (!isShutdown) {
+                    final Inbound entry = inbound.tryClaim();
+                    if (entry == null) {  // transform stage is behind
+                        idle = SpscRingBuffer.idle(idle);
+                        continue;
+                    }
+                    idle = 0;
+                    BytesXMLMessage msg = consumer.receive(100);  // short timeout, to notice shutdown
+                    if (msg == null) continue;
+                    entry.receiveTime = LATENCY ? LatencyStamp.epochNanos() : 0;
+                    msgRecvMeter.mark();
+                    entry.msg = msg;
+                    entry.topic = msg.getDestination().getName();
+                    inbound.publish();
+                }
+            } catch (JCSMPException e) {
+                System.out.printf("### Caught while trying to consumer.receive(): %s%n",e);
+                isShutdown = true;
+            }
+        }
+
+        private void transformStage(TopicDispatcher<InboundHandler> dispatcher) {
+            int idle = 0;
+            while (!isShutdown) {
+                final Inbound in = inbound.poll();
+                final Outbound out = in == null ? null : outbound.tryClaim();  // only claim when there's work
+                if (out == null) {  // nothing received, or publish stage is behind
+                    idle = SpscRingBuffer.idle(idle);
+                    continue;
+                }
+                idle = 0;
+                final InboundHandler handler = dispatcher.lookup(in.topic);
+                final boolean toSend = handler != null && handler.handle(in.msg, in.topic, in.receiveTime, out);
+                in.msg = null;  // don't hold on to it
+                in.topic = null;
+                inbound.release();
+                msgTransformedMeter.mark();
+                if (toSend) {
+                    outbound.publish();
+                }  // else received a message that I wasn't expecting... (the outbound entry stays claimed, for the next one)
+            }
+        }
+
+        private void publishStage(XMLMessageProducer producer) {
+            int idle = 0;
+            while (!isShutdown) {
+                final Outbound out = outbound.poll();
+                if (out == null) {
+                    idle = SpscRingBuffer.idle(idle);
+                    continue;
+                }
+                idle = 0;
+                send(producer, out);  // clears the entry
+                outbound.release();
+            }
+        }
+    }
+
+    /**
+     * A binary message of the inbound timestamp header, with this hop added, followed by the processed text.
+     * The hop's send time is taken here, as the last step before sending.
+     */
+    private static BytesMessage createStampedMessage(byte[] inboundHeader, long receiveTime, String text) {
+        final byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        final byte[] payload = Arrays.copyOf(inboundHeader, LatencyStamp.HEADER_SIZE + textBytes.length);
+        System.arraycopy(textBytes, 0, payload, LatencyStamp.HEADER_SIZE, textBytes.length);
+        LatencyStamp.addHop(payload, receiveTime, LatencyStamp.epochNanos());  // if full, the hop is just not attributed
+        final BytesMessage msg = bytesMsgPool.acquire();
+        msg.setData(payload);
+        return msg;
+    }
 }
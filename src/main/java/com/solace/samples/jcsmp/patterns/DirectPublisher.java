@@ -18,12 +18,21 @@ package com.solace.samples.jcsmp.patterns;
 
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
+import com.solace.samples.jcsmp.features.common.BatchingPublisher;
+import com.solace.samples.jcsmp.features.common.LatencyHistogram;
+import com.solace.samples.jcsmp.features.common.LatencyStamp;
+import com.solace.samples.jcsmp.features.common.MessageIdGenerator;
+import com.solace.samples.jcsmp.features.common.Meter;
+import com.solace.samples.jcsmp.features.common.RatePacer;
+import com.solace.samples.jcsmp.features.common.TimeOrderedMessageIdGenerator;
+import com.solace.samples.jcsmp.features.common.TopicCache;
 import com.solacesystems.jcsmp.BytesMessage;
+import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.JCSMPChannelProperties;
 import com.solacesystems.jcsmp.JCSMPErrorResponseException;
 import com.solacesystems.jcsmp.JCSMPErrorResponseSubcodeEx;
@@ -35,20 +44,41 @@ import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
 import com.solacesystems.jcsmp.JCSMPTransportException;
 import com.solacesystems.jcsmp.SessionEventArgs;
 import com.solacesystems.jcsmp.SessionEventHandler;
+import com.solacesystems.jcsmp.XMLMessageConsumer;
+import com.solacesystems.jcsmp.XMLMessageListener;
 import com.solacesystems.jcsmp.XMLMessageProducer;
 
 /**
  * A more performant sample that shows an application that publishes.
+ * Options (JVM system properties): -Dmsg_rate=N (0 for max), -Dstripes=N for N publishing threads
+ * each with their own session, -Dpin_topics=false to let every stripe publish to every topic, and
+ * -Dbatch_size=N / -Dbatch_linger_us=N to publish in batches with sendMultiple(), and -Dlatency=true to
+ * stamp each message with its send time for DirectSubscriber to measure latency (and round-trip latency, for
+ * messages that DirectSubscriber -Dlatency_echo=true sends back).
  */
 public class DirectPublisher {
     
     private static final String SAMPLE_NAME = DirectPublisher.class.getSimpleName();
     private static final String TOPIC_PREFIX = "solace/samples/";  // used as the topic "root"
     private static final String API = "JCSMP";
-    private static final int APPROX_MSG_RATE_PER_SEC = 100;
+    // override with -Dmsg_rate=N on the command line (e.g. via JAVA_OPTS), use 0 for max speed
+    private static final int MSG_RATE_PER_SEC = Integer.getInteger("msg_rate", 100);
     private static final int PAYLOAD_SIZE = 100;
+    // -Dstripes=N runs N publisher threads, each with its own session (TCP connection); default is 1, this thread
+    private static final int NUM_STRIPES = Integer.getInteger("stripes", 1);
+    // when striped, each topic is only published by one stripe (chosen by hash) so per-topic ordering holds
+    private static final boolean PIN_TOPICS_TO_STRIPES = Boolean.parseBoolean(System.getProperty("pin_topics", "true"));
+    // -Dbatch_size=N publishes up to N messages per sendMultiple() call, waiting at most -Dbatch_linger_us to fill a batch
+    private static final int BATCH_SIZE = Integer.getInteger("batch_size", 1);
+    private static final long BATCH_LINGER_MICROS = Long.getLong("batch_linger_us", 100);
+    // much cheaper than UUID.randomUUID() per message: no locks, no SecureRandom, and IDs sort by time
+    private static final MessageIdGenerator MSG_ID_GENERATOR = new TimeOrderedMessageIdGenerator();
+    // -Dlatency=true puts a LatencyStamp header (send timestamps) at the start of each payload
+    private static final boolean LATENCY = Boolean.getBoolean("latency");
+    private static final long PUBLISHER_ID = ThreadLocalRandom.current().nextLong();  // so we only count our own echoes
     
-    private static volatile int msgSentCounter = 0;                   // num messages sent
+    private static final Meter msgSentMeter = new Meter();            // num messages sent
+    private static final LatencyHistogram roundTripLatency = new LatencyHistogram();  // of echoed messages
     private static volatile boolean isShutdown = false;
 
     /** Main method. */
@@ -67,23 +97,20 @@ public class DirectPublisher {
             properties.setProperty(JCSMPProperties.PASSWORD, args[3]);  // client-password
         }
         properties.setProperty(JCSMPProperties.GENERATE_SEQUENCE_NUMBERS, true);  // not required, but interesting
+        properties.setProperty(JCSMPProperties.GENERATE_SENDER_ID, true);  // lets subscribers check sequence numbers per publisher
         JCSMPChannelProperties channelProps = new JCSMPChannelProperties();
         channelProps.setReconnectRetries(20);      // recommended settings
         channelProps.setConnectRetriesPerHost(5);  // recommended settings
         // https://docs.solace.com/Solace-PubSub-Messaging-APIs/API-Developer-Guide/Configuring-Connection-T.htm
         properties.setProperty(JCSMPProperties.CLIENT_CHANNEL_PROPERTIES, channelProps);
-        final JCSMPSession session;
-        session = JCSMPFactory.onlyInstance().createSession(properties, null, new SessionEventHandler() {
+        final SessionEventHandler sessionEventHandler = new SessionEventHandler() {
             @Override
             public void handleEvent(SessionEventArgs event) {  // could be reconnecting, connection lost, etc.
                 System.out.printf("### Received a Session event: %s%n", event);
             }
-        });
-        session.connect();  // connect to the broker
-
+        };
         // Simple anonymous inner-class for handling publishing events
-        final XMLMessageProducer producer;
-        producer = session.getMessageProducer(new JCSMPStreamingPublishCorrelatingEventHandler() {
+        final JCSMPStreamingPublishCorrelatingEventHandler publishEventHandler = new JCSMPStreamingPublishCorrelatingEventHandler() {
             // unused in Direct Messaging application, only for Guaranteed/Persistent publishing application
             @Override public void responseReceivedEx(Object key) {
             }
@@ -101,49 +128,250 @@ public class DirectPublisher {
                     System.out.println(cause);
                 }
             }
-        });
+        };
+        if (NUM_STRIPES > 1) {  // multi-threaded, multi-session mode
+            runStriped(properties, sessionEventHandler, publishEventHandler);
+            return;
+        }
 
+        final JCSMPSession session;
+        session = JCSMPFactory.onlyInstance().createSession(properties, null, sessionEventHandler);
+        session.connect();  // connect to the broker
+        final XMLMessageProducer producer = session.getMessageProducer(publishEventHandler);
+        if (LATENCY) {
+            startEchoConsumer(session);
+        }
+
+        // fixed-schedule pacing: holds the target rate with low jitter, from 1 msg/s up to millions of msg/s
+        final RatePacer pacer = new RatePacer(MSG_RATE_PER_SEC);
         ScheduledExecutorService statsPrintingThread = Executors.newSingleThreadScheduledExecutor();
         statsPrintingThread.scheduleAtFixedRate(() -> {
-            System.out.printf("%s %s Published msgs/s: %,d%n",API,SAMPLE_NAME,msgSentCounter);  // simple way of calculating message rates
-            msgSentCounter = 0;
+            System.out.printf("%s %s Published msgs/s: %,d (target: %s, dropped slots: %,d)%n",API,SAMPLE_NAME,
+                    msgSentMeter.tick(), MSG_RATE_PER_SEC > 0 ? String.format("%,d", MSG_RATE_PER_SEC) : "max",
+                    pacer.getDroppedSlots());  // tick() gives the count since the last tick
+            printRoundTripLatency(true);
         }, 1, 1, TimeUnit.SECONDS);
   
         System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
         // preallocate a binary message, reuse it each loop, for performance
         final BytesMessage message = JCSMPFactory.onlyInstance().createMessage(BytesMessage.class);
         byte[] payload = new byte[PAYLOAD_SIZE];  // preallocate memory, for reuse, for performance
+        // cache the Topic objects, rather than creating a new one for every message
+        final TopicCache topicCache = new TopicCache(TOPIC_PREFIX + API.toLowerCase() + "/direct/pub/", 64);
+        final StringBuilder topicSuffix = new StringBuilder(8);  // reused to look up the cache without allocating
+        // optional batching: amortizes the per-send cost over many messages, at the cost of up to BATCH_LINGER_MICROS delay
+        final BatchingPublisher batcher = BATCH_SIZE > 1 ? new BatchingPublisher(producer, BATCH_SIZE, BATCH_LINGER_MICROS) : null;
+        long loopCount = 0;
         // loop the main thread, waiting for a quit signal
         while (System.in.available() == 0 && !isShutdown) {
+            final long sendTime = pacer.acquire();  // wait for the next send slot
+            // Note: STANDARD Edition Solace PubSub+ broker is limited to 10k msg/s max ingress
             try {
                 // each loop, change the payload, less trivial example than static payload
-                char chosenCharacter = (char)(Math.round(msgSentCounter % 26) + 65);  // rotate through letters [A-Z]
-                Arrays.fill(payload,(byte)chosenCharacter);  // fill the payload completely with that char
-                message.setData(payload);
-                message.setApplicationMessageId(UUID.randomUUID().toString());  // as an example of a header
+                char chosenCharacter = (char)(loopCount++ % 26 + 65);  // rotate through letters [A-Z]
+                fillPayload(payload, chosenCharacter, sendTime);  // fill the payload completely with that char
+                final BytesMessage msg = batcher != null ? batcher.claim() : message;  // batcher has its own message pool
+                msg.setData(payload);
+                msg.setApplicationMessageId(MSG_ID_GENERATOR.nextId());  // as an example of a header
                 // dynamic topics!!  "solace/samples/jcsmp/direct/pub/A"
-                String topicString = new StringBuilder(TOPIC_PREFIX).append(API.toLowerCase())
-                        .append("/direct/pub/").append(chosenCharacter).toString();  // StringBuilder faster than +
-                producer.send(message,JCSMPFactory.onlyInstance().createTopic(topicString));  // send the message
-                msgSentCounter++;  // add one
-                message.reset();   // reuse this message, to avoid having to recreate it: better performance
+                topicSuffix.setLength(0);
+                topicSuffix.append(chosenCharacter);
+                if (batcher != null) {
+                    batcher.commit(msg, topicCache.get(topicSuffix));  // sent once the batch fills, or lingers too long
+                } else {
+                    producer.send(message,topicCache.get(topicSuffix));  // send the message
+                    message.reset();   // reuse this message, to avoid having to recreate it: better performance
+                }
+                msgSentMeter.mark();  // add one
             } catch (JCSMPException e) {  // threw from send(), only thing that is throwing here, but keep trying (unless shutdown?)
                 System.out.printf("### Caught while trying to producer.send(): %s%n",e);
                 if (e instanceof JCSMPTransportException) {  // all reconnect attempts failed
                     isShutdown = true;  // let's quit; or, could initiate a new connection attempt
                 }
-            } finally {  // add a delay between messages
-                try {
-                    Thread.sleep(1000 / APPROX_MSG_RATE_PER_SEC);  // do Thread.sleep(0) for max speed
-                    // Note: STANDARD Edition Solace PubSub+ broker is limited to 10k msg/s max ingress
-                } catch (InterruptedException e) {
-                    isShutdown = true;
-                }
             }
         }
         isShutdown = true;
         statsPrintingThread.shutdown();  // stop printing stats
+        if (batcher != null) {
+            batcher.close();  // send anything still waiting
+            System.out.println(batcher);
+        }
         session.closeSession();  // will also close producer object
+        System.out.println(topicCache);
+        printRoundTripLatency(false);
+        System.out.println("Main thread quitting.");
+    }
+
+    /**
+     * Fills the payload with the chosen character and, when measuring latency, overwrites the start of it
+     * with a timestamp header.  The intended send time from the pacer is used rather than "now", so any
+     * time the publisher spends behind schedule still counts as latency (no coordinated omission).
+     */
+    private static void fillPayload(byte[] payload, char chosenCharacter, long intendedSendNanoTime) {
+        Arrays.fill(payload, (byte)chosenCharacter);
+        if (LATENCY) {
+            LatencyStamp.stampOrigin(payload, PUBLISHER_ID, intendedSendNanoTime);
+        }
+    }
+
+    /** The topic DirectSubscriber -Dlatency_echo=true sends our messages' timestamp headers back on. */
+    static String echoTopic(long publisherId) {
+        return TOPIC_PREFIX + API.toLowerCase() + "/latency/echo/" + Long.toHexString(publisherId);
+    }
+
+    /** Listens for echoed timestamp headers, and records the round-trip latency on this JVM's own clock. */
+    private static void startEchoConsumer(JCSMPSession session) throws JCSMPException {
+        final XMLMessageConsumer echoConsumer = session.getMessageConsumer(new XMLMessageListener() {
+            private final byte[] header = new byte[LatencyStamp.HEADER_SIZE];  // only used by the one callback thread
+
+            @Override
+            public void onReceive(BytesXMLMessage message) {
+                if (LatencyStamp.readHeader(message, header) && LatencyStamp.getPublisherId(header) == PUBLISHER_ID) {
+                    roundTripLatency.recordSince(LatencyStamp.getOriginNanoTime(header));
+                }
+            }
+
+            @Override
+            public void onException(JCSMPException e) {
+                System.out.printf("### Echo MessageListener's onException(): %s%n", e);
+            }
+        });
+        session.addSubscription(JCSMPFactory.onlyInstance().createTopic(echoTopic(PUBLISHER_ID)));
+        echoConsumer.start();
+    }
+
+    private static void printRoundTripLatency(boolean interval) {
+        if (!LATENCY) {
+            return;
+        }
+        final LatencyHistogram.Snapshot rtt = interval ? roundTripLatency.intervalSnapshot() : roundTripLatency.snapshot();
+        if (rtt.getCount() > 0) {
+            System.out.printf("%s %s Round-trip latency%s: %s%n", API, SAMPLE_NAME, interval ? "" : " (total)",
+                    interval ? rtt.toMicrosString() : rtt);
+        }
+    }
+
+    /** Runs NUM_STRIPES publisher threads, each with its own session, and waits for ENTER to quit. */
+    private static void runStriped(JCSMPProperties properties, SessionEventHandler sessionEventHandler,
+            JCSMPStreamingPublishCorrelatingEventHandler publishEventHandler)
+            throws JCSMPException, IOException, InterruptedException {
+        final TopicCache topicCache = new TopicCache(TOPIC_PREFIX + API.toLowerCase() + "/direct/pub/", 64);  // thread-safe
+        final PublisherStripe[] stripes = new PublisherStripe[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            final JCSMPSession stripeSession = JCSMPFactory.onlyInstance().createSession(properties, null, sessionEventHandler);
+            stripeSession.connect();  // one session (and TCP connection) per stripe
+            stripes[i] = new PublisherStripe(i, stripeSession, stripeSession.getMessageProducer(publishEventHandler), topicCache);
+        }
+        if (LATENCY) {
+            startEchoConsumer(stripes[0].session);  // one is enough, all stripes share the publisher id
+        }
+        final Thread[] threads = new Thread[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            threads[i] = new Thread(stripes[i], SAMPLE_NAME + "-stripe-" + i);
+            threads[i].start();
+        }
+
+        ScheduledExecutorService statsPrintingThread = Executors.newSingleThreadScheduledExecutor();
+        statsPrintingThread.scheduleAtFixedRate(() -> {
+            long total = 0;
+            long dropped = 0;
+            StringBuilder perStripe = new StringBuilder();
+            for (int i = 0; i < NUM_STRIPES; i++) {
+                long rate = stripes[i].msgSentMeter.tick();  // count since the last tick
+                total += rate;
+                dropped += stripes[i].pacer.getDroppedSlots();
+                perStripe.append(i == 0 ? "" : " | ").append(String.format("%,d", rate));
+            }
+            System.out.printf("%s %s Published msgs/s: %,d (target: %s, dropped slots: %,d) per stripe: [%s]%n",
+                    API, SAMPLE_NAME, total, MSG_RATE_PER_SEC > 0 ? String.format("%,d", MSG_RATE_PER_SEC) : "max",
+                    dropped, perStripe);
+            printRoundTripLatency(true);
+        }, 1, 1, TimeUnit.SECONDS);
+
+        System.out.printf("%s %s connected with %d stripes%s, and running. Press [ENTER] to quit.%n", API, SAMPLE_NAME,
+                NUM_STRIPES, PIN_TOPICS_TO_STRIPES ? " (topics pinned to stripes)" : "");
+        while (System.in.available() == 0 && !isShutdown) {
+            Thread.sleep(100);
+        }
+        isShutdown = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        statsPrintingThread.shutdown();  // stop printing stats
+        for (PublisherStripe stripe : stripes) {
+            if (stripe.batcher != null) {
+                stripe.batcher.close();  // send anything still waiting
+            }
+            stripe.session.closeSession();  // will also close producer object
+        }
+        System.out.println(topicCache);
+        printRoundTripLatency(false);
         System.out.println("Main thread quitting.");
     }
+
+    ////////////////////////////////////////////////////////////////////////////
+
+    /** One publishing thread of the striped mode: has its own session, producer, message and payload buffer. */
+    private static class PublisherStripe implements Runnable {
+
+        private final JCSMPSession session;
+        private final XMLMessageProducer producer;
+        private final TopicCache topicCache;
+        private final RatePacer pacer = new RatePacer((double)MSG_RATE_PER_SEC / NUM_STRIPES);  // share the rate
+        private final BytesMessage message = JCSMPFactory.onlyInstance().createMessage(BytesMessage.class);  // preallocate
+        private final byte[] payload = new byte[PAYLOAD_SIZE];  // preallocate
+        private final StringBuilder topicSuffix = new StringBuilder(8);
+        private final BatchingPublisher batcher;  // null if not batching
+        private final char[] letters;  // the topics this stripe publishes to
+        private final Meter msgSentMeter = new Meter();
+
+        private PublisherStripe(int index, JCSMPSession session, XMLMessageProducer producer, TopicCache topicCache) {
+            this.session = session;
+            this.producer = producer;
+            this.topicCache = topicCache;
+            this.batcher = BATCH_SIZE > 1 ? new BatchingPublisher(producer, BATCH_SIZE, BATCH_LINGER_MICROS) : null;
+            StringBuilder mine = new StringBuilder();
+            for (char c = 'A'; c <= 'Z'; c++) {
+                // pinned: the topic's hash picks exactly one stripe, so messages on one topic stay in order
+                if (!PIN_TOPICS_TO_STRIPES || Math.floorMod(Character.hashCode(c), NUM_STRIPES) == index) {
+                    mine.append(c);
+                }
+            }
+            letters = mine.toString().toCharArray();
+        }
+
+        @Override
+        public void run() {
+            if (letters.length == 0) {  // more stripes than topics
+                System.out.printf("%s: no topics hash to this stripe, it will stay idle%n", Thread.currentThread().getName());
+                return;
+            }
+            long count = 0;
+            while (!isShutdown) {
+                final long sendTime = pacer.acquire();  // wait for the next send slot
+                try {
+                    char chosenCharacter = letters[(int)(count % letters.length)];  // rotate through this stripe's letters
+                    fillPayload(payload, chosenCharacter, sendTime);
+                    final BytesMessage msg = batcher != null ? batcher.claim() : message;
+                    msg.setData(payload);
+                    msg.setApplicationMessageId(MSG_ID_GENERATOR.nextId());
+                    topicSuffix.setLength(0);
+                    topicSuffix.append(chosenCharacter);
+                    if (batcher != null) {
+                        batcher.commit(msg, topicCache.get(topicSuffix));
+                    } else {
+                        producer.send(message, topicCache.get(topicSuffix));
+                        message.reset();
+                    }
+                    msgSentMeter.mark();
+                    count++;
+                } catch (JCSMPException e) {
+                    System.out.printf("### Caught while trying to producer.send(): %s%n", e);
+                    if (e instanceof JCSMPTransportException) {  // all reconnect attempts failed
+                        isShutdown = true;
+                    }
+                }
+            }
+        }
+    }
 }
@@ -16,6 +16,8 @@
 
 package com.solace.samples.jcsmp.patterns;
 
+import com.solace.samples.jcsmp.features.common.MessagePool;
+import com.solace.samples.jcsmp.features.common.TopicDispatcher;
 import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.JCSMPChannelProperties;
 import com.solacesystems.jcsmp.JCSMPException;
@@ -31,6 +33,7 @@ import com.solacesystems.jcsmp.XMLMessageConsumer;
 import com.solacesystems.jcsmp.XMLMessageListener;
 import com.solacesystems.jcsmp.XMLMessageProducer;
 import java.io.IOException;
+import java.util.function.Consumer;
 
 public class DirectReplier {
 
@@ -39,6 +42,8 @@ public class DirectReplier {
     private static final String API = "JCSMP";
 
     private static volatile boolean isShutdown = false;
+    // Direct replies can be reused as soon as sendReply() returns, and they're all sent from the API's callback thread
+    private static final MessagePool<TextMessage> replyMsgPool = MessagePool.perThread(TextMessage.class, 4);
 
     /** Main method. */
     public static void main(String... args) throws JCSMPException, IOException {
@@ -87,32 +92,45 @@ public class DirectReplier {
             }
         });
 
+        // routes each request to its handler by topic, with the same wildcard rules as the broker
+        final TopicDispatcher<Consumer<BytesXMLMessage>> dispatcher = new TopicDispatcher<>();
+        final Consumer<BytesXMLMessage> requestHandler = requestMsg -> {
+            // allowed to reply/publish from callback thread because this is Direct messaging
+            if (requestMsg.getReplyTo() != null) {
+                System.out.printf(">> %s %s received request on '%s', generating response.%n",
+                        API,SAMPLE_NAME,requestMsg.getDestination());
+                System.out.println(requestMsg.dump());
+                TextMessage replyMsg = replyMsgPool.acquire();  // reply with a Text, reset and reused
+                if (requestMsg.getApplicationMessageId() != null) {
+                    replyMsg.setApplicationMessageId(requestMsg.getApplicationMessageId());  // populate for traceability
+                }
+                final String text = "Hello! Here is a response to your message on topic '" + requestMsg.getDestination() + "'.";
+                replyMsg.setText(text);
+                try {
+                    // only allowed to publish messages from API-owned (callback) thread when JCSMPProperties.MESSAGE_CALLBACK_ON_REACTOR == false
+                    producer.sendReply(requestMsg, replyMsg);  // convenience method: copies in reply-to, correlationId, etc.
+                } catch (JCSMPException e) {
+                    System.out.printf("### Caught while trying to producer.sendReply(): %s%n", e);
+                    if (e instanceof JCSMPTransportException) {  // all reconnect attempts failed
+                        isShutdown = true;  // let's quit; or, could initiate a new connection attempt
+                    }
+                } finally {
+                    replyMsgPool.release(replyMsg);
+                }
+            } else {
+                System.out.println("Received message without reply-to field");
+            }
+        };
+
         // Anonymous inner-class for request handling
         final XMLMessageConsumer cons = session.getMessageConsumer(new XMLMessageListener() {
             @Override
             public void onReceive(BytesXMLMessage requestMsg) {
-            	// allowed to reply/publish from callback thread because this is Direct messaging
-                if (requestMsg.getDestination().getName().contains("direct/request") && requestMsg.getReplyTo() != null) {
-                    System.out.printf(">> %s %s received request on '%s', generating response.%n",
-                            API,SAMPLE_NAME,requestMsg.getDestination());
-                    System.out.println(requestMsg.dump());
-                    TextMessage replyMsg = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);  // reply with a Text
-                    if (requestMsg.getApplicationMessageId() != null) {
-                        replyMsg.setApplicationMessageId(requestMsg.getApplicationMessageId());  // populate for traceability
-                    }
-                    final String text = "Hello! Here is a response to your message on topic '" + requestMsg.getDestination() + "'.";
-                    replyMsg.setText(text);
-                    try {
-                        // only allowed to publish messages from API-owned (callback) thread when JCSMPProperties.MESSAGE_CALLBACK_ON_REACTOR == false
-                        producer.sendReply(requestMsg, replyMsg);  // convenience method: copies in reply-to, correlationId, etc.
-                    } catch (JCSMPException e) {
-                        System.out.printf("### Caught while trying to producer.sendReply(): %s%n", e);
-                        if (e instanceof JCSMPTransportException) {  // all reconnect attempts failed
-                            isShutdown = true;  // let's quit; or, could initiate a new connection attempt
-                        }
-                    }
+                final Consumer<BytesXMLMessage> handler = dispatcher.lookup(requestMsg.getDestination().getName());
+                if (handler != null) {
+                    handler.accept(requestMsg);
                 } else {
-                    System.out.println("Received message without reply-to field");
+                    System.out.println("Received message on an unexpected topic: " + requestMsg.getDestination());
                 }
             }
 
@@ -122,10 +140,12 @@ public class DirectReplier {
         });
 
         // subscribe to 'solace/samples/*/direct/request' ... the * is to match any pub
-        session.addSubscription(JCSMPFactory.onlyInstance().createTopic(TOPIC_PREFIX + "*/direct/request"));
-        // for use with Solace HTTP MicroGateway feature, will respond to REST GET request on same URI
+        // and for use with Solace HTTP MicroGateway feature, will respond to REST GET request on same URI
         // change Message VPN REST mode to "gateway" and try doing: curl http://localhost:9000/solace/samples/rest/direct/request
-        session.addSubscription(JCSMPFactory.onlyInstance().createTopic("GET/" + TOPIC_PREFIX + "*/direct/request"));
+        for (String subscription : new String[] { TOPIC_PREFIX + "*/direct/request", "GET/" + TOPIC_PREFIX + "*/direct/request" }) {
+            dispatcher.subscribe(subscription, requestHandler);
+            session.addSubscription(JCSMPFactory.onlyInstance().createTopic(subscription));
+        }
         cons.start();
 
         System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
@@ -138,6 +158,7 @@ public class DirectReplier {
         }
         isShutdown = true;
         session.closeSession();  // will also close producer and consumer objects
+        System.out.println(replyMsgPool);
         System.out.println("Main thread quitting.");
     }
 }
@@ -16,27 +16,52 @@
 
 package com.solace.samples.jcsmp.patterns;
 
+import com.solace.samples.jcsmp.features.common.LatencyRecorder;
+import com.solace.samples.jcsmp.features.common.LatencyStamp;
+import com.solace.samples.jcsmp.features.common.Meter;
+import com.solace.samples.jcsmp.features.common.SequenceTracker;
+import com.solacesystems.jcsmp.BytesMessage;
 import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.JCSMPChannelProperties;
 import com.solacesystems.jcsmp.JCSMPException;
 import com.solacesystems.jcsmp.JCSMPFactory;
 import com.solacesystems.jcsmp.JCSMPProperties;
 import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
 import com.solacesystems.jcsmp.JCSMPTransportException;
 import com.solacesystems.jcsmp.SessionEventArgs;
 import com.solacesystems.jcsmp.SessionEventHandler;
+import com.solacesystems.jcsmp.Topic;
 import com.solacesystems.jcsmp.XMLMessageConsumer;
 import com.solacesystems.jcsmp.XMLMessageListener;
+import com.solacesystems.jcsmp.XMLMessageProducer;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
-/** This is a more detailed subscriber sample. */
+/**
+ * This is a more detailed subscriber sample.
+ * Options (JVM system properties): -Dlatency=true to measure the latency of messages stamped by
+ * DirectPublisher -Dlatency=true (printed every second, with a final report written to -Dlatency_report),
+ * and -Dlatency_echo=true to also send each timestamp back to its publisher, for round-trip latency.
+ * Sequence numbers from DirectPublisher are checked for gaps, duplicates and reordering, per publisher;
+ * -Dseq_check=false turns that off.
+ */
 public class DirectSubscriber {
 
     private static final String SAMPLE_NAME = DirectSubscriber.class.getSimpleName();
     private static final String TOPIC_PREFIX = "solace/samples/";  // used as the topic "root"
     private static final String API = "JCSMP";
 
-    private static volatile int msgRecvCounter = 0;              // num messages received
+    // -Dlatency_echo=true also sends each message's timestamp header back to its publisher; implies -Dlatency=true
+    private static final boolean LATENCY_ECHO = Boolean.getBoolean("latency_echo");
+    private static final boolean LATENCY = Boolean.getBoolean("latency") || LATENCY_ECHO;
+    private static final String LATENCY_REPORT = System.getProperty("latency_report", SAMPLE_NAME + "-latency.txt");
+    private static final boolean SEQ_CHECK = Boolean.parseBoolean(System.getProperty("seq_check", "true"));
+
+    private static final Meter msgRecvMeter = new Meter();       // num messages received, safe to mark from any thread
+    private static final LatencyRecorder latencyRecorder = new LatencyRecorder();  // end-to-end and per-hop
+    private static final SequenceTracker sequenceTracker = new SequenceTracker();  // only used by the callback thread
     private static volatile boolean hasDetectedDiscard = false;  // detected any discards yet?
     private static volatile boolean isShutdown = false;          // are we done yet?
 
@@ -69,13 +94,37 @@ public class DirectSubscriber {
             }
         });
         session.connect();  // connect to the broker
+        // only needed to echo timestamps back to publishers
+        final XMLMessageProducer echoProducer = LATENCY_ECHO ? session.getMessageProducer(new JCSMPStreamingPublishCorrelatingEventHandler() {
+            @Override public void responseReceivedEx(Object key) {
+            }
+
+            @Override
+            public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
+                System.out.printf("### Echo producer handleErrorEx() callback: %s%n", cause);
+            }
+        }) : null;
 
         // Anonymous inner-class for MessageListener, this demonstrates the async threaded message callback
         final XMLMessageConsumer consumer = session.getMessageConsumer(new XMLMessageListener() {
+            // reused for every message, since this callback is only ever called by the one API thread
+            private final byte[] payload = new byte[1024];  // bigger than the publishers' payloads; larger ones are skipped
+            private final byte[] echoPayload = new byte[LatencyStamp.HEADER_SIZE];
+            private final BytesMessage echoMessage = JCSMPFactory.onlyInstance().createMessage(BytesMessage.class);
+            private long echoPublisherId;
+            private Topic echoTopic;
+
             @Override
             public void onReceive(BytesXMLMessage message) {
+                final long receiveTime = LATENCY ? LatencyStamp.epochNanos() : 0;  // first thing, before any work
                 // do not print anything to console... too slow!
-                msgRecvCounter++;
+                msgRecvMeter.mark();
+                if (LATENCY && LatencyStamp.readHeader(message, payload)) {
+                    latencyRecorder.record(payload, receiveTime);
+                    if (echoProducer != null) {
+                        echo();
+                    }
+                }
                 // do some message processing here... validate the payload, increment some counters, update some graphics, trigger another event
                 if (message.getDiscardIndication()) {  // since Direct messages, check if there have been any lost any messages
                     // If the consumer is being over-driven (i.e. publish rates too high), the broker might discard some messages for this consumer
@@ -86,6 +135,31 @@ public class DirectSubscriber {
                     //  c) increase size of consumer's D-1 egress buffers (check client-profile) (helps more with bursts)
                     hasDetectedDiscard = true;  // set my own flag
                 }
+                if (SEQ_CHECK) {  // discards will show up here as gaps, with exact counts
+                    final Long seqNum = message.getSequenceNumber();  // only if the publisher has GENERATE_SEQUENCE_NUMBERS
+                    if (seqNum != null) {
+                        final String senderId = message.getSenderId();  // only if the publisher has GENERATE_SENDER_ID
+                        sequenceTracker.record(senderId != null ? senderId : "unknown", seqNum);
+                    }
+                }
+            }
+
+            /** Sends the timestamp header back to the publisher that stamped it, so it can measure the round trip. */
+            private void echo() {
+                final long publisherId = LatencyStamp.getPublisherId(payload);
+                if (echoTopic == null || publisherId != echoPublisherId) {  // normally just the one publisher
+                    echoTopic = JCSMPFactory.onlyInstance().createTopic(DirectPublisher.echoTopic(publisherId));
+                    echoPublisherId = publisherId;
+                }
+                System.arraycopy(payload, 0, echoPayload, 0, echoPayload.length);
+                echoMessage.setData(echoPayload);
+                try {
+                    echoProducer.send(echoMessage, echoTopic);
+                } catch (JCSMPException e) {
+                    System.out.printf("### Caught while trying to echo: %s%n", e);
+                } finally {
+                    echoMessage.reset();
+                }
             }
 
             @Override
@@ -101,18 +175,35 @@ public class DirectSubscriber {
         // add more subscriptions here if you want
         consumer.start();
         System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
+        long lastSeqAnomalies = 0;
         while (System.in.available() == 0 && !isShutdown) {
             Thread.sleep(1000);  // wait 1 second
-            System.out.printf("%s %s Received msgs/s: %,d%n",API,SAMPLE_NAME,msgRecvCounter);  // simple way of calculating message rates
-            msgRecvCounter = 0;
+            System.out.printf("%s %s Received msgs/s: %,d (1-min avg: %,.0f)%n",API,SAMPLE_NAME,
+                    msgRecvMeter.tick(), msgRecvMeter.getOneMinuteRate());  // tick() gives the count since the last tick
+            if (LATENCY) {
+                System.out.printf("%s %s %s%n", API, SAMPLE_NAME, latencyRecorder.intervalSummary());
+            }
             if (hasDetectedDiscard) {
                 System.out.println("*** Egress discard detected *** : "
                         + SAMPLE_NAME + " unable to keep up with full message rate");
                 hasDetectedDiscard = false;  // only show the error once per second
             }
+            final long seqAnomalies = sequenceTracker.getAnomalies();
+            if (seqAnomalies != lastSeqAnomalies) {  // only print when something new went wrong
+                System.out.println("*** Sequence problems detected *** : " + sequenceTracker);
+                lastSeqAnomalies = seqAnomalies;
+            }
         }
         isShutdown = true;
         session.closeSession();  // will also close consumer object
+        if (SEQ_CHECK) {
+            System.out.println(sequenceTracker.summary());
+        }
+        if (LATENCY) {
+            final Path report = Paths.get(LATENCY_REPORT);
+            latencyRecorder.writeReport(report, API + " " + SAMPLE_NAME);
+            System.out.println("Latency report written to " + report.toAbsolutePath());
+        }
         System.out.println("Main thread quitting.");
     }
 }
@@ -16,6 +16,11 @@
 
 package com.solace.samples.jcsmp.patterns;
 
+import com.solace.samples.jcsmp.features.common.AckForwarder;
+import com.solace.samples.jcsmp.features.common.MessagePool;
+import com.solace.samples.jcsmp.features.common.Meter;
+import com.solace.samples.jcsmp.features.common.TopicDispatcher;
+import com.solace.samples.jcsmp.features.common.TopicRewriter;
 import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.ConsumerFlowProperties;
 import com.solacesystems.jcsmp.DeliveryMode;
@@ -38,11 +43,16 @@ import com.solacesystems.jcsmp.Queue;
 import com.solacesystems.jcsmp.SessionEventArgs;
 import com.solacesystems.jcsmp.SessionEventHandler;
 import com.solacesystems.jcsmp.TextMessage;
+import com.solacesystems.jcsmp.Topic;
+import com.solacesystems.jcsmp.XMLMessage.Outcome;
 import com.solacesystems.jcsmp.XMLMessageProducer;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -52,13 +62,35 @@ public class GuaranteedProcessor {
     private static final String SAMPLE_NAME = GuaranteedProcessor.class.getSimpleName();
     static final String TOPIC_PREFIX = "solace/samples/";  // used as the topic "root"
     private static final String API = "JCSMP";
-    private static final int PUBLISH_WINDOW_SIZE = 100;
+    private static final int PUBLISH_WINDOW_SIZE = 255;  // the most the API allows: as many sends pipelined as possible
     private static final String QUEUE_NAME = "q_jcsmp_processor";
+    // -Dwindow=N inbound messages in flight (received, not yet ACKed) at most: the Flow is stopped there, until
+    // they're down to half that.  Each inbound message is ACKed once its outbound one is, in bursts of up to
+    // ack_batch, or sooner once the oldest has waited ack_max_delay_us
+    private static final int WINDOW = Integer.getInteger("window", 512);
+    private static final int ACK_BATCH = Integer.getInteger("ack_batch", 32);
+    private static final int ACK_MAX_DELAY_US = Integer.getInteger("ack_max_delay_us", 1000);
+    // a NACKed outbound message (e.g. its queue is full) is sent again after 100ms, 200ms, 400ms, ... up to 5s apart,
+    // until it's ACKed: the window bounds how many can be waiting.  If sending it again can't help (e.g. the ACL
+    // denies its topic), its inbound message is settled REJECTED instead, which moves it to the queue's DMQ.  An
+    // inbound message is never ACKed without its outbound one having been
+    private static final long RETRY_BACKOFF_MS = 100;
+    private static final long RETRY_MAX_BACKOFF_MS = 5000;
     
-    private static volatile int msgSentCounter = 0;                 // num messages sent
-    private static volatile int msgRecvCounter = 0;                 // num messages received
+    private static final Meter msgSentMeter = new Meter();          // num messages sent
+    private static final Meter msgRecvMeter = new Meter();          // num messages received
+    // outbound messages are only handed back once ACKed, so the pool needs to cover the publish window
+    private static final MessagePool<TextMessage> outboundMsgPool = MessagePool.shared(TextMessage.class, PUBLISH_WINDOW_SIZE * 2);
+    // the outbound messages' correlation keys, reused: each one's inbound message, to ACK once it's ACKed
+    private static final AckForwarder forwarder = new AckForwarder(WINDOW, ACK_BATCH, ACK_MAX_DELAY_US, TimeUnit.MICROSECONDS);
     private static volatile boolean isShutdown = false;             // are we done?
     private static FlowReceiver flowQueueReceiver;
+    private static XMLMessageProducer producer;
+    // builds (and caches) the outbound topic from the inbound one's levels, without splitting or copying strings
+    private static final TopicRewriter topicRewriter = new TopicRewriter(TOPIC_PREFIX + "{api}/pers/upper/{5..}",
+            Collections.singletonMap("api", API.toLowerCase()), 1024);
+    // sends NACKed messages again, after a backoff
+    private static final ScheduledExecutorService retryThread = Executors.newSingleThreadScheduledExecutor();
 
     // remember to add log4j2.xml to your classpath
     private static final Logger logger = LogManager.getLogger();  // log4j2, but could also use SLF4J, JCL, etc.
@@ -94,7 +126,7 @@ public class GuaranteedProcessor {
         });
         session.connect();
         
-        XMLMessageProducer producer = session.getMessageProducer(new PublishCallbackHandler(), new JCSMPProducerEventHandler() {
+        producer = session.getMessageProducer(new PublishCallbackHandler(), new JCSMPProducerEventHandler() {
             @Override
             public void handleEvent(ProducerEventArgs event) {
                 // as of v10.10, this event only occurs when republishing unACKed messages on an unknown flow (DR failover)
@@ -109,6 +141,8 @@ public class GuaranteedProcessor {
         flow_prop.setEndpoint(queue);
         flow_prop.setAckMode(JCSMPProperties.SUPPORTED_MESSAGE_ACK_CLIENT);  // best practice
         flow_prop.setActiveFlowIndication(true);  // Flow events will advise when 
+        // so a NACKed message's inbound one can be redelivered, or moved to the DMQ
+        flow_prop.addRequiredSettlementOutcomes(Outcome.FAILED, Outcome.REJECTED);
 
         System.out.printf("Attempting to bind to queue '%s' on the broker.%n", QUEUE_NAME);
         try {
@@ -132,51 +166,63 @@ public class GuaranteedProcessor {
             System.err.println("Exiting.");
             return;
         }
+        forwarder.setFlow(flowQueueReceiver);  // to stop it while the window is full
         // tell the broker to start sending messages on this queue receiver
         flowQueueReceiver.start();
         // sync/blocking queue receive working now, so time to wait until done...
         System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
         System.out.println(" * Remember to modify the queue topic subscriptions to match Publisher and Processor");
-        BytesXMLMessage inboundMsg;
+        // routes each inbound message to its handler by topic, with the same wildcard rules as the queue's subscriptions
+        final TopicDispatcher<BiConsumer<BytesXMLMessage, String>> dispatcher = new TopicDispatcher<>();
+        dispatcher.subscribe(TOPIC_PREFIX + "*/pers/pub/>", (inboundMsg, inboundTopic) -> {
+            // how to "process" the incoming message? maybe do a DB lookup? add some additional properties? or change the payload?
+            TextMessage outboundMsg = outboundMsgPool.acquire();  // a reset message, recycled after its ACK
+            final String upperCaseTopic = inboundTopic.toUpperCase();  // as a silly example of "processing"
+            outboundMsg.setText(upperCaseTopic);
+            if (inboundMsg.getApplicationMessageId() != null) {  // set the new message ID to the same as this one
+                outboundMsg.setApplicationMessageId(inboundMsg.getApplicationMessageId());  // populate for traceability
+            }
+            outboundMsg.setDeliveryMode(DeliveryMode.PERSISTENT);
+            // need to wait for publish ACK: a pooled key, which stops the Flow if the window is full
+            final AckForwarder.Key key = forwarder.track(inboundMsg, outboundMsg);
+            outboundMsg.setCorrelationKey(key);
+            final Topic outboundTopic = topicRewriter.rewrite(inboundTopic);  // e.g. .../pers/pub/A -> .../pers/upper/A
+            try {
+                producer.send(outboundMsg, outboundTopic);
+                msgSentMeter.mark();
+            } catch (JCSMPException e) {  // threw from send(), only thing that is throwing here, but keep trying (unless shutdown?)
+                System.out.printf("### Caught while trying to producer.send(): %s%n",e);
+                forwarder.fail(key);  // not sent, so there won't be an ACK for it: have the inbound one redelivered
+                outboundMsgPool.release(outboundMsg);
+                if (e instanceof JCSMPTransportException) {  // all reconnect attempts failed
+                    isShutdown = true;  // let's quit; or, could initiate a new connection attempt
+                }
+            }
+        });
+        // add more handlers here if you want, for the other subscriptions on the queue
 
         // make a thread for printing message rate stats
         ScheduledExecutorService statsPrintingThread = Executors.newSingleThreadScheduledExecutor();
         statsPrintingThread.scheduleAtFixedRate(() -> {
-            System.out.printf("%s %s Received -> Published msgs/s: %,d -> %,d%n",
-                    API, SAMPLE_NAME, msgRecvCounter, msgSentCounter);  // simple way of calculating message rates
-            msgRecvCounter = 0;
-            msgSentCounter = 0;
+            System.out.printf("%s %s Received -> Published msgs/s: %,d -> %,d [pooled msgs: %,d, awaiting ACK: %,d, misses: %,d, "
+                    + "in flight: %,d/%,d%s, received to ACKed p99: %,dus]%n",
+                    API, SAMPLE_NAME, msgRecvMeter.tick(), msgSentMeter.tick(),  // counts since the last tick
+                    outboundMsgPool.getPooled(), outboundMsgPool.getOutstanding(), outboundMsgPool.getMisses().intervalCount(),
+                    forwarder.getInFlight(), WINDOW, forwarder.isPaused() ? " (paused)" : "",
+                    forwarder.getForwardLatency().intervalSnapshot().getValueAtPercentile(99) / 1000);
         }, 1, 1, TimeUnit.SECONDS);
         
+        BytesXMLMessage inboundMsg;
         while (System.in.available() == 0 && !isShutdown) {
             inboundMsg = flowQueueReceiver.receive(1000);  // blocking receive a message
             if (inboundMsg == null) {  // receive() either got interrupted, or timed out
                 continue;
             }
-            msgRecvCounter++;
+            msgRecvMeter.mark();
             String inboundTopic = inboundMsg.getDestination().getName();
-            if (inboundTopic.contains("/pers/pub/")) {  // simple validation of topic
-                // how to "process" the incoming message? maybe do a DB lookup? add some additional properties? or change the payload?
-                TextMessage outboundMsg = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
-                final String upperCaseTopic = inboundTopic.toUpperCase();  // as a silly example of "processing"
-                outboundMsg.setText(upperCaseTopic);
-                if (inboundMsg.getApplicationMessageId() != null) {  // set the new message ID to the same as this one
-                    outboundMsg.setApplicationMessageId(inboundMsg.getApplicationMessageId());  // populate for traceability
-                }
-                outboundMsg.setDeliveryMode(DeliveryMode.PERSISTENT);
-                outboundMsg.setCorrelationKey(new ProcessorCorrelationKey(inboundMsg, outboundMsg));  // need to wait for publish ACK
-                String [] inboundTopicLevels = inboundTopic.split("/",6);
-                String onwardsTopic = new StringBuilder(TOPIC_PREFIX).append(API.toLowerCase())
-                		.append("/pers/upper/").append(inboundTopicLevels[5]).toString();
-                try {
-                    producer.send(outboundMsg, JCSMPFactory.onlyInstance().createTopic(onwardsTopic));
-                    msgSentCounter++;
-                } catch (JCSMPException e) {  // threw from send(), only thing that is throwing here, but keep trying (unless shutdown?)
-                    System.out.printf("### Caught while trying to producer.send(): %s%n",e);
-                    if (e instanceof JCSMPTransportException) {  // all reconnect attempts failed
-                        isShutdown = true;  // let's quit; or, could initiate a new connection attempt
-                    }
-                }
+            final BiConsumer<BytesXMLMessage, String> handler = dispatcher.lookup(inboundTopic);
+            if (handler != null) {
+                handler.accept(inboundMsg, inboundTopic);
             } else {  // unexpected. either log or something
                 logger.info("Received an unexpected message with topic "+inboundTopic+".  Ignoring");
                 inboundMsg.ackMessage();
@@ -186,48 +232,64 @@ public class GuaranteedProcessor {
         flowQueueReceiver.stop();
         statsPrintingThread.shutdown();  // stop printing stats
         Thread.sleep(1500);  // give time for the ACKs to arrive to/from the broker
+        retryThread.shutdownNow();  // any still waiting to be sent again stay unACKed, to be redelivered
+        forwarder.close();
         session.closeSession();  // will also close consumer object
+        System.out.println(forwarder);
+        System.out.println(topicRewriter);
+        System.out.println(outboundMsgPool);
         System.out.println("Main thread quitting.");
     }
 
     
     ////////////////////////////////////////////////////////////////////////////
     
-    /** Hold onto both messages, wait for outbound ACK to come back, and then ACK inbound message */
-    private static class ProcessorCorrelationKey {
-        
-        private final BytesXMLMessage inboundMsg;
-        private final BytesXMLMessage outboundMsg;
-        
-        private ProcessorCorrelationKey(BytesXMLMessage inboundMsg, BytesXMLMessage outboundMsg) {
-            this.inboundMsg = inboundMsg;
-            this.outboundMsg = outboundMsg;
-        }
-    }
-    
     /** Very simple static inner class, used for handling publish ACKs/NACKs from broker. **/
     private static class PublishCallbackHandler implements JCSMPStreamingPublishCorrelatingEventHandler {
 
         @Override
         public void responseReceivedEx(Object key) {
             assert key != null;  // this shouldn't happen, this should only get called for an ACK
-            assert key instanceof ProcessorCorrelationKey;
-            ProcessorCorrelationKey ck = (ProcessorCorrelationKey)key;
-            ck.inboundMsg.ackMessage();  // ONLY ACK inbound msg of my queue once outbound msg is Guaranteed
-            logger.debug(String.format("ACK for Message %s", ck));  // good enough, the broker has it now
+            assert key instanceof AckForwarder.Key;
+            logger.debug(String.format("ACK for Message %s", key));  // good enough, the broker has it now
+            // ONLY ACK inbound msg of my queue once outbound msg is Guaranteed: with the next burst of them
+            final TextMessage outboundMsg = (TextMessage)forwarder.ack(key);
+            if (outboundMsg != null) {
+                outboundMsgPool.release(outboundMsg);  // the API is done with it now
+            }
         }
         
         @Override
         public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
             if (key != null) {  // NACK
-                assert key instanceof ProcessorCorrelationKey;
-                ProcessorCorrelationKey ck = (ProcessorCorrelationKey)key;
-                logger.warn(String.format("NACK for Message %s - %s", ck.outboundMsg, cause));
+                assert key instanceof AckForwarder.Key;
+                logger.warn(String.format("NACK for Message %s - %s", key, cause));
                 // probably want to do something here.  some error handling possibilities:
                 //  - send the message again
                 //  - send it somewhere else (error handling queue?)
                 //  - log and continue
                 //  - pause and retry (backoff) - maybe set a flag to slow down the publisher
+                // here, it's sent again after a backoff until it's ACKed, unless that can't help: then it's dead-lettered
+                if (AckForwarder.isPermanent(cause)) {
+                    logger.warn(String.format("Rejecting Message %s's inbound message, to the DMQ: %s", key, cause));
+                    final TextMessage outboundMsg = (TextMessage)forwarder.reject(key);
+                    if (outboundMsg != null) {
+                        outboundMsgPool.release(outboundMsg);
+                    }
+                } else {
+                    final int attempt = forwarder.retry(key);  // -1 if it's no longer in flight
+                    if (attempt > 0) {
+                        final long backoff = Math.min(RETRY_BACKOFF_MS << Math.min(attempt - 1, 16), RETRY_MAX_BACKOFF_MS);
+                        try {
+                            retryThread.schedule(() -> resend((AckForwarder.Key)key), backoff, TimeUnit.MILLISECONDS);
+                        } catch (RejectedExecutionException e) {  // shutting down: have the inbound one redelivered
+                            final TextMessage outboundMsg = (TextMessage)forwarder.fail(key);
+                            if (outboundMsg != null) {
+                                outboundMsgPool.release(outboundMsg);
+                            }
+                        }
+                    }
+                }
             } else {  // not a NACK, but some other error (ACL violation, connection loss, ...)
                 logger.warn("### Producer handleErrorEx() callback: %s%n", cause);
                 if (cause instanceof JCSMPTransportException) {  // all reconnect attempts failed
@@ -240,5 +302,16 @@ public class GuaranteedProcessor {
         }
     }
 
-    
+    /** Sends a NACKed outbound message again, with the same key: on the retry thread. */
+    private static void resend(AckForwarder.Key key) {
+        final TextMessage outboundMsg = (TextMessage)key.getAttachment();
+        try {
+            producer.send(outboundMsg, topicRewriter.rewrite(key.getInbound().getDestination().getName()));
+        } catch (JCSMPException e) {  // no ACK will come: have the inbound one redelivered
+            logger.warn("### Caught while trying to send Message " + key + " again", e);
+            if (forwarder.fail(key) != null) {
+                outboundMsgPool.release(outboundMsg);
+            }
+        }
+    }
 }
@@ -17,8 +17,8 @@
 package com.solace.samples.jcsmp.patterns;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -26,8 +26,15 @@ import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.solace.samples.jcsmp.features.common.InFlightTracker;
+import com.solace.samples.jcsmp.features.common.LatencyHistogram;
+import com.solace.samples.jcsmp.features.common.MessageIdGenerator;
+import com.solace.samples.jcsmp.features.common.Meter;
+import com.solace.samples.jcsmp.features.common.PublishJournal;
+import com.solace.samples.jcsmp.features.common.RatePacer;
+import com.solace.samples.jcsmp.features.common.TimeOrderedMessageIdGenerator;
+import com.solace.samples.jcsmp.features.common.TopicCache;
 import com.solacesystems.jcsmp.BytesMessage;
-import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.DeliveryMode;
 import com.solacesystems.jcsmp.JCSMPChannelProperties;
 import com.solacesystems.jcsmp.JCSMPErrorResponseException;
@@ -52,13 +59,27 @@ public class GuaranteedPublisher {
     static final String TOPIC_PREFIX = "solace/samples/";  // used as the topic "root"
     private static final String API = "JCSMP";
     private static final int PUBLISH_WINDOW_SIZE = 50;
-    private static final int APPROX_MSG_RATE_PER_SEC = 100;
+    // override with -Dmsg_rate=N on the command line (e.g. via JAVA_OPTS), use 0 for max speed
+    private static final int MSG_RATE_PER_SEC = Integer.getInteger("msg_rate", 100);
     private static final int PAYLOAD_SIZE = 512;
+    // much cheaper than UUID.randomUUID() per message: no locks, no SecureRandom, and IDs sort by time
+    private static final MessageIdGenerator MSG_ID_GENERATOR = new TimeOrderedMessageIdGenerator();
+    // -Djournal=<dir> to journal each message before sending it, so unACKed ones are sent again after a crash
+    private static final String JOURNAL_DIR = System.getProperty("journal");
+    // none: survives the process crashing; group: also the OS, bar the last few ms; always: everything, but slow
+    private static final String JOURNAL_FSYNC = System.getProperty("journal_fsync", "group");
+    private static final int JOURNAL_FSYNC_MS = Integer.getInteger("journal_fsync_ms", 10);  // group commit interval
+    private static final int JOURNAL_SEGMENT_MB = Integer.getInteger("journal_segment_mb", 64);
     
     // remember to add log4j2.xml to your classpath
     private static final Logger logger = LogManager.getLogger();  // log4j2, but could also use SLF4J, JCL, etc.
 
-    private static volatile int msgSentCounter = 0;                   // num messages sent
+    private static final Meter msgSentMeter = new Meter();            // num messages sent
+    // messages waiting for their ACK, by publish sequence number; remembers each one's application message ID
+    private static final InFlightTracker<String> inFlight = new InFlightTracker<>(PUBLISH_WINDOW_SIZE);
+    private static PublishJournal journal = null;  // if -Djournal
+    // every message is journaled just before it's tracked, so journal sequence number = this + tracker sequence number
+    private static long journalBase = 0;
     private static volatile boolean isShutdown = false;
 
     /** Main. */
@@ -68,6 +89,12 @@ public class GuaranteedPublisher {
             System.exit(-1);
         }
         System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+        if (JOURNAL_DIR != null) {  // open it first: if there's a problem with it, don't connect
+            journal = new PublishJournal(Paths.get(JOURNAL_DIR), JOURNAL_SEGMENT_MB << 20,
+                    PublishJournal.FsyncPolicy.valueOf(JOURNAL_FSYNC.toUpperCase()), JOURNAL_FSYNC_MS, PUBLISH_WINDOW_SIZE);
+            journalBase = journal.getNextSequence() - journal.getRecovered().size();
+            System.out.println(journal);
+        }
 
         final JCSMPProperties properties = new JCSMPProperties();
         properties.setProperty(JCSMPProperties.HOST, args[0]);          // host:port
@@ -99,57 +126,93 @@ public class GuaranteedPublisher {
             }
         });
         
+        // fixed-schedule pacing: holds the target rate with low jitter, from 1 msg/s up to millions of msg/s
+        final RatePacer pacer = new RatePacer(MSG_RATE_PER_SEC);
         ScheduledExecutorService statsPrintingThread = Executors.newSingleThreadScheduledExecutor();
         statsPrintingThread.scheduleAtFixedRate(() -> {
-            System.out.printf("%s %s Published msgs/s: %,d%n",API,SAMPLE_NAME,msgSentCounter);  // simple way of calculating message rates
-            msgSentCounter = 0;
+            final LatencyHistogram.Snapshot ackLatency = inFlight.getAckLatency().intervalSnapshot();
+            System.out.printf("%s %s Published msgs/s: %,d (target: %s, dropped slots: %,d), in flight: %,d, ACK latency p50=%,.1fms p99=%,.1fms%s%n",
+                    API, SAMPLE_NAME, msgSentMeter.tick(), MSG_RATE_PER_SEC > 0 ? String.format("%,d", MSG_RATE_PER_SEC) : "max",
+                    pacer.getDroppedSlots(), inFlight.getInFlight(),  // tick() gives the count since the last tick
+                    ackLatency.getValueAtPercentile(50) / 1e6, ackLatency.getValueAtPercentile(99) / 1e6,
+                    journal == null ? "" : String.format(" [journal unACKed: %,d, fsyncs: %,d]",
+                            journal.getUnacked(), journal.getForces().intervalCount()));
         }, 1, 1, TimeUnit.SECONDS);
         
         System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
         byte[] payload = new byte[PAYLOAD_SIZE];  // preallocate
         BytesMessage message = JCSMPFactory.onlyInstance().createMessage(BytesMessage.class);  // preallocate
+        // cache the Topic objects, rather than creating a new one for every message
+        final TopicCache topicCache = new TopicCache(TOPIC_PREFIX + API.toLowerCase() + "/pers/pub/", 64);
+        final StringBuilder topicSuffix = new StringBuilder(8);  // reused to look up the cache without allocating
         System.out.println("Publishing to topic '"+ TOPIC_PREFIX + API.toLowerCase() + 
                 "/pers/pub/...', please ensure queue has matching subscription."); 
+        if (journal != null) {  // first, send again whatever wasn't ACKed last time (already journaled again, in order)
+            for (PublishJournal.Entry entry : journal.getRecovered()) {
+                message.reset();
+                message.setData(entry.getPayload());
+                message.setDeliveryMode(DeliveryMode.PERSISTENT);
+                message.setApplicationMessageId(entry.getMessageId());
+                message.setCorrelationKey(inFlight.track(entry.getMessageId()));
+                producer.send(message, JCSMPFactory.onlyInstance().createTopic(entry.getTopic()));
+                msgSentMeter.mark();
+            }
+            System.out.printf("Sent %,d unACKed messages again from the journal%n", journal.getRecovered().size());
+        }
+        long loopCount = 0;
         while (System.in.available() == 0 && !isShutdown) {  // loop until ENTER pressed, or shutdown flag
+            pacer.acquire();  // wait for the next send slot
+            // Note: STANDARD Edition Solace PubSub+ broker is limited to 10k msg/s max ingress
             message.reset();  // ready for reuse
             // each loop, change the payload as an example
-            char chosenCharacter = (char)(Math.round(msgSentCounter % 26) + 65);  // choose a "random" letter [A-Z]
+            char chosenCharacter = (char)(loopCount++ % 26 + 65);  // choose a "random" letter [A-Z]
             Arrays.fill(payload,(byte)chosenCharacter);  // fill the payload completely with that char
             // use a BytesMessage this sample, instead of TextMessage
             message.setData(payload);
             message.setDeliveryMode(DeliveryMode.PERSISTENT);  // required for Guaranteed
-            message.setApplicationMessageId(UUID.randomUUID().toString());  // as an example
+            final String msgId = MSG_ID_GENERATOR.nextId();
+            message.setApplicationMessageId(msgId);  // as an example
             // as another example, let's define a user property!
             SDTMap map = JCSMPFactory.onlyInstance().createMap();
             map.putString("sample",API + "_" + SAMPLE_NAME);
             message.setProperties(map);
-            message.setCorrelationKey(message);  // used for ACK/NACK correlation locally within the API
-            String topicString = new StringBuilder(TOPIC_PREFIX).append(API.toLowerCase())
-            		.append("/pers/pub/").append(chosenCharacter).toString();
+            topicSuffix.setLength(0);
+            topicSuffix.append(chosenCharacter);
             // NOTE: publishing to topic, so make sure GuaranteedSubscriber queue is subscribed to same topic,
             //       or enable "Reject Message to Sender on No Subscription Match" the client-profile
-            Topic topic = JCSMPFactory.onlyInstance().createTopic(topicString);
+            Topic topic = topicCache.get(topicSuffix);
+            if (journal != null) {  // write-ahead: in the journal before it's sent (a copy into mapped memory)
+                journal.append(topic.getName(), msgId, payload, 0, payload.length);
+            }
+            // used for ACK/NACK correlation locally within the API: the tracker's reusable key for the next sequence number
+            final InFlightTracker.Key key = inFlight.track(msgId);
+            message.setCorrelationKey(key);
             try {
                 producer.send(message, topic);
-                msgSentCounter++;
+                msgSentMeter.mark();
             } catch (JCSMPException e) {  // threw from send(), only thing that is throwing here, but keep trying (unless shutdown?)
                 logger.warn("### Caught while trying to producer.send()",e);
                 if (e instanceof JCSMPTransportException) {  // all reconnect attempts failed
                     isShutdown = true;  // let's quit; or, could initiate a new connection attempt
+                    // (and leave it unACKed in the journal, to send again next time)
+                } else if (journal != null) {
+                    journal.ack(journalBase + key.getSequence());  // given up on (ack() is synchronized: fine from this thread)
                 }
-            } finally {  // add a delay between messages
-                try {
-                    Thread.sleep(1000 / APPROX_MSG_RATE_PER_SEC);  // do Thread.sleep(0) for max speed
-                    // Note: STANDARD Edition Solace PubSub+ broker is limited to 10k msg/s max ingress
-                } catch (InterruptedException e) {
-                    isShutdown = true;
-                }
+                inFlight.fail(key);  // never sent, so there won't be an ACK (safe on this thread, while the ACKs come in)
             }
         }
         isShutdown = true;
         statsPrintingThread.shutdown();  // stop printing stats
         Thread.sleep(1500);  // give time for the ACKs to arrive from the broker
         session.closeSession();
+        System.out.println(topicCache);
+        System.out.println(inFlight);
+        // if this were a new session (e.g. after all reconnect attempts failed), these are the ones to send again
+        inFlight.forEachUnacked((unackedId, sequence) -> System.out.printf("Never ACKed: #%,d %s%n", sequence, unackedId));
+        if (journal != null) {
+            journal.close();  // the unACKed ones stay in it, and get sent again next time
+            System.out.println(journal);
+        }
         System.out.println("Main thread quitting.");
     }
 
@@ -161,15 +224,23 @@ public class GuaranteedPublisher {
         @Override
         public void responseReceivedEx(Object key) {
             assert key != null;  // this shouldn't happen, this should only get called for an ACK
-            assert key instanceof BytesXMLMessage;
-            logger.debug(String.format("ACK for Message %s", key));  // good enough, the broker has it now
+            assert key instanceof InFlightTracker.Key;
+            if (journal != null) {  // read the sequence number before ack(), which frees the key for reuse
+                journal.ack(journalBase + ((InFlightTracker.Key)key).getSequence());
+            }
+            final String msgId = inFlight.ack(key);  // O(1), and records the publish-to-ACK latency
+            logger.debug(String.format("ACK for Message %s", msgId));  // good enough, the broker has it now
         }
         
         @Override
         public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
             if (key != null) {  // NACK
-                assert key instanceof BytesXMLMessage;
-                logger.warn(String.format("NACK for Message %s - %s", key, cause));
+                assert key instanceof InFlightTracker.Key;
+                if (journal != null) {  // given up on too; to keep it for next time, quit without this
+                    journal.ack(journalBase + ((InFlightTracker.Key)key).getSequence());
+                }
+                final String msgId = inFlight.fail(key);  // to send it again, track() it again
+                logger.warn(String.format("NACK for Message %s - %s", msgId, cause));
                 // probably want to do something here.  some error handling possibilities:
                 //  - send the message again
                 //  - send it somewhere else (error handling queue?)
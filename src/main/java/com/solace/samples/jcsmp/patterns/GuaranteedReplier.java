@@ -1,33 +1,231 @@
 /*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
  * 
- * THIS SAMPLE IS NOT DONE YET!!!!
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
  * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
  */
 
 
+package com.solace.samples.jcsmp.patterns;
 
-/*
- * Licensed to the Apache Software Foundation (ASF) under one
- * or more contributor license agreements.  See the NOTICE file
- * distributed with this work for additional information
- * regarding copyright ownership.  The ASF licenses this file
- * to you under the Apache License, Version 2.0 (the
- * "License"); you may not use this file except in compliance
- * with the License.  You may obtain a copy of the License at
- *
- *   http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing,
- * software distributed under the License is distributed on an
- * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- * KIND, either express or implied.  See the License for the
- * specific language governing permissions and limitations
- * under the License.
- */
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-package com.solace.samples.jcsmp.patterns;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.solace.samples.jcsmp.features.common.AckForwarder;
+import com.solace.samples.jcsmp.features.common.LatencyHistogram;
+import com.solace.samples.jcsmp.features.common.MessagePool;
+import com.solace.samples.jcsmp.features.common.ReplyWorkerPool;
+import com.solacesystems.jcsmp.ConsumerFlowProperties;
+import com.solacesystems.jcsmp.FlowEventArgs;
+import com.solacesystems.jcsmp.FlowEventHandler;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPChannelProperties;
+import com.solacesystems.jcsmp.JCSMPErrorResponseException;
+import com.solacesystems.jcsmp.JCSMPErrorResponseSubcodeEx;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPProducerEventHandler;
+import com.solacesystems.jcsmp.JCSMPProperties;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
+import com.solacesystems.jcsmp.JCSMPTransportException;
+import com.solacesystems.jcsmp.OperationNotSupportedException;
+import com.solacesystems.jcsmp.ProducerEventArgs;
+import com.solacesystems.jcsmp.Queue;
+import com.solacesystems.jcsmp.SessionEventArgs;
+import com.solacesystems.jcsmp.SessionEventHandler;
+import com.solacesystems.jcsmp.TextMessage;
+import com.solacesystems.jcsmp.XMLMessage.Outcome;
+import com.solacesystems.jcsmp.XMLMessageProducer;
 
+/** Guaranteed Messaging sample to demonstrate replying to requests from a queue, e.g. those GuaranteedRequestorAsync sends.
+ *  The requests are handled on a pool of worker threads, and the replies sent PERSISTENT; each request is only ACKed
+ *  once the broker has ACKed its reply, so a request is never lost (nor ACKed without a reply) if the replier dies.
+ */
 public class GuaranteedReplier {
 
-    // TBD
+    private static final String SAMPLE_NAME = GuaranteedReplier.class.getSimpleName();
+    static final String TOPIC_PREFIX = "solace/samples/";  // used as the topic "root"
+    private static final String API = "JCSMP";
+    private static final int PUBLISH_WINDOW_SIZE = 255;  // the most the API allows: as many replies pipelined as possible
+    private static final String QUEUE_NAME = "q_jcsmp_replier";
+    // -Dworkers=N threads handling the requests: the number of cores, or more if handling one blocks (e.g. on a database)
+    private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+    // -Dwindow=N requests in progress (received, not yet ACKed) at most: the Flow is stopped there, until they're down
+    // to half that.  Each request is ACKed once its reply is, in bursts of up to ack_batch, or sooner once the oldest
+    // has waited ack_max_delay_us
+    private static final int WINDOW = Integer.getInteger("window", 1024);
+    private static final int ACK_BATCH = Integer.getInteger("ack_batch", 32);
+    private static final int ACK_MAX_DELAY_US = Integer.getInteger("ack_max_delay_us", 1000);
+
+    // replies are only handed back once ACKed, so the pool needs to cover the window
+    private static final MessagePool<TextMessage> replyMsgPool = MessagePool.shared(TextMessage.class, WINDOW);
+    private static ReplyWorkerPool<TextMessage> replier;
+    private static volatile boolean isShutdown = false;             // are we done?
+
+    // remember to add log4j2.xml to your classpath
+    private static final Logger logger = LogManager.getLogger();  // log4j2, but could also use SLF4J, JCL, etc.
+
+    /** Main method. */
+    public static void main(String... args) throws JCSMPException, IOException, InterruptedException {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n%n", SAMPLE_NAME);
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        final JCSMPProperties properties = new JCSMPProperties();
+        properties.setProperty(JCSMPProperties.HOST, args[0]);          // host:port
+        properties.setProperty(JCSMPProperties.VPN_NAME,  args[1]);     // message-vpn
+        properties.setProperty(JCSMPProperties.USERNAME, args[2]);      // client-username
+        if (args.length > 3) {
+            properties.setProperty(JCSMPProperties.PASSWORD, args[3]);  // client-password
+        }
+        properties.setProperty(JCSMPProperties.PUB_ACK_WINDOW_SIZE, PUBLISH_WINDOW_SIZE);
+        JCSMPChannelProperties channelProps = new JCSMPChannelProperties();
+        channelProps.setReconnectRetries(20);      // recommended settings
+        channelProps.setConnectRetriesPerHost(5);  // recommended settings
+        // https://docs.solace.com/Solace-PubSub-Messaging-APIs/API-Developer-Guide/Configuring-Connection-T.htm
+        properties.setProperty(JCSMPProperties.CLIENT_CHANNEL_PROPERTIES, channelProps);
+        final JCSMPSession session;
+        session = JCSMPFactory.onlyInstance().createSession(properties, null, new SessionEventHandler() {
+            @Override
+            public void handleEvent(SessionEventArgs event) {  // could be reconnecting, connection lost, etc.
+                logger.info("### Received a Session event: " + event);
+            }
+        });
+        session.connect();
+
+        XMLMessageProducer producer = session.getMessageProducer(new PublishCallbackHandler(), new JCSMPProducerEventHandler() {
+            @Override
+            public void handleEvent(ProducerEventArgs event) {
+                // as of JCSMP v10.10, this event only occurs when republishing unACKed messages on an unknown flow (DR failover)
+                logger.info("*** Received a producer event: " + event);
+            }
+        });
+
+        // the handler runs on the worker threads, so it can take its time (or block) without holding up the Flow
+        replier = new ReplyWorkerPool<>(producer, replyMsgPool, WORKERS, WINDOW, ACK_BATCH, ACK_MAX_DELAY_US,
+                TimeUnit.MICROSECONDS, (request, reply) -> {
+            // how to "process" the request? maybe do a DB lookup? call another service? here, just answer it
+            final String text = request instanceof TextMessage ? ((TextMessage)request).getText() : null;
+            reply.setText("Hello! Here is a response to your request '" + text + "'.");
+            if (request.getApplicationMessageId() != null) {
+                reply.setApplicationMessageId(request.getApplicationMessageId());  // populate for traceability
+            }
+        });
+        replier.setErrorListener(e -> logger.warn("### Replier error", e));
+
+        // configure the queue API object locally
+        final Queue queue = JCSMPFactory.onlyInstance().createQueue(QUEUE_NAME);
+        // Create a Flow be able to bind to and consume requests from the Queue.
+        final ConsumerFlowProperties flow_prop = new ConsumerFlowProperties();
+        flow_prop.setEndpoint(queue);
+        flow_prop.setAckMode(JCSMPProperties.SUPPORTED_MESSAGE_ACK_CLIENT);  // best practice
+        flow_prop.setActiveFlowIndication(true);  // Flow events will advise when
+        flow_prop.addRequiredSettlementOutcomes(Outcome.FAILED);  // so a failed request can be redelivered: up to the queue's max redelivery count
+
+        System.out.printf("Attempting to bind to queue '%s' on the broker.%n", QUEUE_NAME);
+        final FlowReceiver flowQueueReceiver;
+        try {
+            // the replier is the listener: it hands each request on to its workers
+            flowQueueReceiver = session.createFlow(replier, flow_prop, null, new FlowEventHandler() {
+                @Override
+                public void handleEvent(Object source, FlowEventArgs event) {
+                    // Flow events are usually: active, reconnecting (i.e. unbound), reconnected
+                    logger.info("### Received a Flow event: " + event);
+                }
+            });
+        } catch (OperationNotSupportedException e) {  // not allowed to do this
+            throw e;
+        } catch (JCSMPErrorResponseException e) {  // something else went wrong: queue not exist, queue shutdown, etc.
+            logger.error(e);
+            System.err.printf("%n*** Could not establish a connection to queue '%s': %s%n", QUEUE_NAME, e.getMessage());
+            System.err.println("Create queue using PubSub+ Manager WebGUI, and add subscription "+TOPIC_PREFIX+"*/pers/request");
+            System.err.println("  Give it a max redelivery count (e.g. 15), or a request the handler always fails on is retried for ever.");
+            System.err.println("  or see the SEMP CURL scripts inside the 'semp-rest-api' directory.");
+            System.err.println("NOTE: see QueueProvision sample for how to construct queue with consumer app.");
+            System.err.println("Exiting.");
+            replier.close();
+            session.closeSession();
+            return;
+        }
+        replier.setFlow(flowQueueReceiver);  // to stop it while the window is full
+        flowQueueReceiver.start();
+        System.out.printf("%s %s connected, and running with %d workers. Press [ENTER] to quit.%n", API, SAMPLE_NAME, WORKERS);
+
+        // make a thread for printing message rate stats, and each stage's latency
+        ScheduledExecutorService statsPrintingThread = Executors.newSingleThreadScheduledExecutor();
+        statsPrintingThread.scheduleAtFixedRate(() -> {
+            final AckForwarder forwarder = replier.getForwarder();
+            System.out.printf("%s %s Requests -> Replies msgs/s: %,d -> %,d [queued: %,d, in flight: %,d/%,d%s; "
+                    + "p99 queued %,dus, handler %,dus, send %,dus, reply ACK %,dus, received to ACKed %,dus]%n",
+                    API, SAMPLE_NAME, replier.getReceived().intervalCount(), replier.getReplied().intervalCount(),
+                    replier.getQueued(), forwarder.getInFlight(), WINDOW, forwarder.isPaused() ? " (paused)" : "",
+                    p99Micros(replier.getQueueLatency()), p99Micros(replier.getHandlerLatency()),
+                    p99Micros(replier.getSendLatency()), p99Micros(replier.getAckLatency()),
+                    p99Micros(forwarder.getForwardLatency()));
+        }, 1, 1, TimeUnit.SECONDS);
+
+        while (System.in.available() == 0 && !isShutdown) {
+            Thread.sleep(50);
+        }
+        isShutdown = true;
+        flowQueueReceiver.stop();
+        replier.close();  // finishes the requests already received, and sends their replies
+        statsPrintingThread.shutdown();  // stop printing stats
+        Thread.sleep(1500);  // give time for the ACKs to arrive to/from the broker
+        session.closeSession();  // will also close consumer object
+        System.out.println(replier);
+        System.out.println(replyMsgPool);
+        System.out.println("Main thread quitting.");
+    }
+
+    private static long p99Micros(LatencyHistogram histogram) {
+        return histogram.intervalSnapshot().getValueAtPercentile(99) / 1000;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+
+    /** Very simple static inner class, used for handling publish ACKs/NACKs from broker. **/
+    private static class PublishCallbackHandler implements JCSMPStreamingPublishCorrelatingEventHandler {
+
+        @Override
+        public void responseReceivedEx(Object key) {
+            logger.debug(String.format("ACK for Reply %s", key));  // the broker has it now
+            replier.replyAcked(key);  // ONLY ACK the request once its reply is Guaranteed: with the next burst of them
+        }
+
+        @Override
+        public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
+            if (key != null) {  // NACK, e.g. the requestor's reply queue is gone or full
+                logger.warn(String.format("NACK for Reply %s - %s", key, cause));
+                // sent again after a backoff, for about 3s, then its request's redelivered; ACKed without a reply only if
+                // the reply queue doesn't exist any more
+                replier.replyFailed(key, cause);
+            } else {  // not a NACK, but some other error (ACL violation, connection loss, ...)
+                logger.warn("### Producer handleErrorEx() callback: %s%n", cause);
+                if (cause instanceof JCSMPTransportException) {  // all reconnect attempts failed
+                    isShutdown = true;  // let's quit; or, could initiate a new connection attempt
+                } else if (cause instanceof JCSMPErrorResponseException) {  // might have some extra info
+                    JCSMPErrorResponseException e = (JCSMPErrorResponseException)cause;
+                    logger.warn("Specifics: " + JCSMPErrorResponseSubcodeEx.getSubcodeAsString(e.getSubcodeEx()) + ": " + e.getResponsePhrase());
+                }
+            }
+        }
+    }
 }
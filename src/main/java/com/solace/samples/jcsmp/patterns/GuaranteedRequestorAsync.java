@@ -1,36 +1,214 @@
 /*
+ * Copyright 2021-2026 Solace Corporation. All rights reserved.
  * 
- * THIS SAMPLE IS NOT DONE YET!!!!
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
  * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
  */
 
+package com.solace.samples.jcsmp.patterns;
 
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-/*
- * Licensed to the Apache Software Foundation (ASF) under one
- * or more contributor license agreements.  See the NOTICE file
- * distributed with this work for additional information
- * regarding copyright ownership.  The ASF licenses this file
- * to you under the Apache License, Version 2.0 (the
- * "License"); you may not use this file except in compliance
- * with the License.  You may obtain a copy of the License at
- *
- *   http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing,
- * software distributed under the License is distributed on an
- * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- * KIND, either express or implied.  See the License for the
- * specific language governing permissions and limitations
- * under the License.
- */
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-package com.solace.samples.jcsmp.patterns;
+import com.solace.samples.jcsmp.features.common.AsyncRequestor;
+import com.solace.samples.jcsmp.features.common.LatencyHistogram;
+import com.solace.samples.jcsmp.features.common.Meter;
+import com.solace.samples.jcsmp.features.common.RatePacer;
+import com.solace.samples.jcsmp.features.common.TimerWheel;
+import com.solacesystems.jcsmp.ConsumerFlowProperties;
+import com.solacesystems.jcsmp.FlowEventArgs;
+import com.solacesystems.jcsmp.FlowEventHandler;
+import com.solacesystems.jcsmp.FlowReceiver;
+import com.solacesystems.jcsmp.JCSMPChannelProperties;
+import com.solacesystems.jcsmp.JCSMPErrorResponseException;
+import com.solacesystems.jcsmp.JCSMPErrorResponseSubcodeEx;
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPProducerEventHandler;
+import com.solacesystems.jcsmp.JCSMPProperties;
+import com.solacesystems.jcsmp.JCSMPSession;
+import com.solacesystems.jcsmp.JCSMPStreamingPublishCorrelatingEventHandler;
+import com.solacesystems.jcsmp.JCSMPTransportException;
+import com.solacesystems.jcsmp.ProducerEventArgs;
+import com.solacesystems.jcsmp.Queue;
+import com.solacesystems.jcsmp.SessionEventArgs;
+import com.solacesystems.jcsmp.SessionEventHandler;
+import com.solacesystems.jcsmp.TextMessage;
+import com.solacesystems.jcsmp.Topic;
+import com.solacesystems.jcsmp.XMLMessageProducer;
 
-/** Not completed yet.
+/** Guaranteed Messaging sample to demonstrate sending requests and receiving their replies asynchronously.
+ *  Every request names the same reply queue (a temporary queue, one per process) and its own correlation ID;
+ *  the replies are matched back to their requests from the reply queue's Flow, completing a CompletableFuture
+ *  for each, so thousands of requests can be outstanding at once.  Run GuaranteedReplier to reply to them.
  */
 public class GuaranteedRequestorAsync {
-    
-    // TBD
 
+    private static final String SAMPLE_NAME = GuaranteedRequestorAsync.class.getSimpleName();
+    static final String TOPIC_PREFIX = "solace/samples/";  // used as the topic "root"
+    private static final String API = "JCSMP";
+    private static final int PUBLISH_WINDOW_SIZE = 255;
+    // override with -Dmsg_rate=N on the command line (e.g. via JAVA_OPTS), use 0 for as fast as the replies allow
+    private static final int MSG_RATE_PER_SEC = Integer.getInteger("msg_rate", 100);
+    // -Dmax_outstanding=N requests waiting for a reply at most: sending waits for one to finish
+    private static final int MAX_OUTSTANDING = Integer.getInteger("max_outstanding", 10_000);
+    private static final int REQUEST_TIMEOUT_MS = Integer.getInteger("request_timeout_ms", 3000);
+
+    // remember to add log4j2.xml to your classpath
+    private static final Logger logger = LogManager.getLogger();  // log4j2, but could also use SLF4J, JCL, etc.
+
+    private static final Meter msgSentMeter = new Meter();          // num requests sent
+    private static final Meter msgRecvMeter = new Meter();          // num replies received
+    private static AsyncRequestor requestor;
+    private static volatile boolean isShutdown = false;
+
+    /** Main method. */
+    public static void main(String... args) throws JCSMPException, IOException, InterruptedException {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n%n", SAMPLE_NAME);
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        final JCSMPProperties properties = new JCSMPProperties();
+        properties.setProperty(JCSMPProperties.HOST, args[0]);          // host:port
+        properties.setProperty(JCSMPProperties.VPN_NAME,  args[1]);     // message-vpn
+        properties.setProperty(JCSMPProperties.USERNAME, args[2]);      // client-username
+        if (args.length > 3) {
+            properties.setProperty(JCSMPProperties.PASSWORD, args[3]);  // client-password
+        }
+        properties.setProperty(JCSMPProperties.PUB_ACK_WINDOW_SIZE, PUBLISH_WINDOW_SIZE);
+        JCSMPChannelProperties channelProps = new JCSMPChannelProperties();
+        channelProps.setReconnectRetries(20);      // recommended settings
+        channelProps.setConnectRetriesPerHost(5);  // recommended settings
+        // https://docs.solace.com/Solace-PubSub-Messaging-APIs/API-Developer-Guide/Configuring-Connection-T.htm
+        properties.setProperty(JCSMPProperties.CLIENT_CHANNEL_PROPERTIES, channelProps);
+        final JCSMPSession session;
+        session = JCSMPFactory.onlyInstance().createSession(properties, null, new SessionEventHandler() {
+            @Override
+            public void handleEvent(SessionEventArgs event) {  // could be reconnecting, connection lost, etc.
+                logger.info("### Received a Session event: " + event);
+            }
+        });
+        session.connect();
+
+        XMLMessageProducer producer = session.getMessageProducer(new PublishCallbackHandler(), new JCSMPProducerEventHandler() {
+            @Override
+            public void handleEvent(ProducerEventArgs event) {
+                // as of JCSMP v10.10, this event only occurs when republishing unACKed messages on an unknown flow (DR failover)
+                logger.info("*** Received a producer event: " + event);
+            }
+        });
+
+        // one reply queue for the whole process, however many requests are outstanding: a temporary queue
+        // lasts as long as the session, and only this session can consume from it
+        final Queue replyQueue = session.createTemporaryQueue();
+        // one thread expires all the requests' timeouts, every 10ms: not a scheduled task per request
+        final TimerWheel timers = new TimerWheel(10, TimeUnit.MILLISECONDS, 512, "request-timeouts");
+        requestor = new AsyncRequestor(producer, replyQueue, MAX_OUTSTANDING, REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS, timers);
+        final ConsumerFlowProperties flow_prop = new ConsumerFlowProperties();
+        flow_prop.setEndpoint(replyQueue);
+        flow_prop.setAckMode(JCSMPProperties.SUPPORTED_MESSAGE_ACK_CLIENT);  // best practice
+        final FlowReceiver replyFlow = session.createFlow(requestor, flow_prop, null, new FlowEventHandler() {
+            @Override
+            public void handleEvent(Object source, FlowEventArgs event) {
+                logger.info("### Received a Flow event: " + event);
+            }
+        });
+        replyFlow.start();
+
+        final RatePacer pacer = new RatePacer(MSG_RATE_PER_SEC);
+        ScheduledExecutorService statsPrintingThread = Executors.newSingleThreadScheduledExecutor();
+        statsPrintingThread.scheduleAtFixedRate(() -> {
+            final LatencyHistogram.Snapshot latency = requestor.getReplyLatency().intervalSnapshot();
+            System.out.printf("%s %s Requests -> Replies msgs/s: %,d -> %,d, outstanding: %,d, timed out: %,d, "
+                    + "reply latency p50=%,.1fms p99=%,.1fms%n",
+                    API, SAMPLE_NAME, msgSentMeter.tick(), msgRecvMeter.tick(),  // counts since the last tick
+                    requestor.getOutstanding(), requestor.getTimedOut().intervalCount(),
+                    latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6);
+        }, 1, 1, TimeUnit.SECONDS);
+
+        // topic should look like 'solace/samples/jcsmp/pers/request'; GuaranteedReplier's queue subscribes to it
+        final Topic topic = JCSMPFactory.onlyInstance().createTopic(TOPIC_PREFIX + API.toLowerCase() + "/pers/request");
+        System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
+        long requestCount = 0;
+        while (System.in.available() == 0 && !isShutdown) {
+            pacer.acquire();  // wait for the next send slot
+            // a new message each time: the API (and its correlation ID) is in use until the reply arrives
+            TextMessage request = JCSMPFactory.onlyInstance().createMessage(TextMessage.class);
+            request.setText(String.format("Hello, this is request #%d", requestCount++));
+            try {
+                requestor.request(request, topic).whenComplete((reply, e) -> {  // on the reply Flow's thread: be quick
+                    if (reply != null) {
+                        msgRecvMeter.mark();
+                        logger.debug("Reply: " + reply.getCorrelationId());
+                    } else if (e instanceof TimeoutException) {
+                        logger.debug(e.getMessage());  // counted, and shown in the stats
+                    } else {
+                        logger.warn("Request failed: " + e);
+                    }
+                });
+                msgSentMeter.mark();
+            } catch (JCSMPException e) {  // threw from send(), only thing that is throwing here, but keep trying (unless shutdown?)
+                logger.warn("### Caught while trying to producer.send()", e);
+                if (e instanceof JCSMPTransportException) {  // all reconnect attempts failed
+                    isShutdown = true;  // let's quit; or, could initiate a new connection attempt
+                }
+            }
+        }
+        isShutdown = true;
+        final long deadline = System.currentTimeMillis() + REQUEST_TIMEOUT_MS;
+        while (requestor.getOutstanding() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);  // give the last replies time to arrive
+        }
+        statsPrintingThread.shutdown();  // stop printing stats
+        requestor.close();  // fails any still outstanding
+        timers.close();
+        session.closeSession();  // will also close the producer and the reply Flow (and the temporary queue)
+        System.out.println(requestor);
+        System.out.println(timers);
+        System.out.println("Main thread quitting.");
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+
+    /** Very simple static inner class, used for handling publish ACKs/NACKs from broker. **/
+    private static class PublishCallbackHandler implements JCSMPStreamingPublishCorrelatingEventHandler {
+
+        @Override
+        public void responseReceivedEx(Object key) {
+            logger.debug(String.format("ACK for Request %s", key));  // the broker has it; now wait for the reply
+        }
+
+        @Override
+        public void handleErrorEx(Object key, JCSMPException cause, long timestamp) {
+            if (key != null) {  // NACK, e.g. no queue subscribed to the request topic: fail that request now, not at its timeout
+                logger.warn(String.format("NACK for Request %s - %s", key, cause));
+                requestor.publishFailed(key, cause);
+            } else {  // not a NACK, but some other error (ACL violation, connection loss, message too big, ...)
+                logger.warn("### Producer handleErrorEx() callback: %s%n", cause);
+                if (cause instanceof JCSMPTransportException) {  // all reconnect attempts failed
+                    isShutdown = true;  // let's quit; or, could initiate a new connection attempt
+                } else if (cause instanceof JCSMPErrorResponseException) {  // might have some extra info
+                    JCSMPErrorResponseException e = (JCSMPErrorResponseException)cause;
+                    logger.warn("Specifics: " + JCSMPErrorResponseSubcodeEx.getSubcodeAsString(e.getSubcodeEx()) + ": " + e.getResponsePhrase());
+                }
+            }
+        }
+    }
 }
@@ -16,6 +16,13 @@
 
 package com.solace.samples.jcsmp.patterns;
 
+import com.solace.samples.jcsmp.features.common.AckCoalescer;
+import com.solace.samples.jcsmp.features.common.BoundedWorkExecutor;
+import com.solace.samples.jcsmp.features.common.DeduplicationCache;
+import com.solace.samples.jcsmp.features.common.KeyedLaneConsumer;
+import com.solace.samples.jcsmp.features.common.LatencyHistogram;
+import com.solace.samples.jcsmp.features.common.Meter;
+import com.solace.samples.jcsmp.features.common.ScalingConsumerGroup;
 import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.ConsumerFlowProperties;
 import com.solacesystems.jcsmp.FlowEventArgs;
@@ -32,8 +39,10 @@ import com.solacesystems.jcsmp.OperationNotSupportedException;
 import com.solacesystems.jcsmp.Queue;
 import com.solacesystems.jcsmp.SessionEventArgs;
 import com.solacesystems.jcsmp.SessionEventHandler;
+import com.solacesystems.jcsmp.XMLMessage.Outcome;
 import com.solacesystems.jcsmp.XMLMessageListener;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -42,11 +51,41 @@ public class GuaranteedSubscriber {
     private static final String SAMPLE_NAME = GuaranteedSubscriber.class.getSimpleName();
     private static final String QUEUE_NAME = "q_jcsmp_sub";
     private static final String API = "JCSMP";
+    // -Dworkers=N to process (and ACK) messages on a pool of N threads, rather than the API's callback thread
+    private static final int WORKERS = Integer.getInteger("workers", 0);
+    // -Dack_coalesce to ACK in bursts from a background thread: each burst once ack_max_batch are done, or
+    // the oldest done one has waited ack_max_delay_us
+    private static final boolean ACK_COALESCE = Boolean.getBoolean("ack_coalesce");
+    private static final int ACK_MAX_BATCH = Integer.getInteger("ack_max_batch", 256);
+    private static final int ACK_MAX_DELAY_US = Integer.getInteger("ack_max_delay_us", 1000);
+    private static final int MAX_UNACKED = 10_000;  // the queue's default max-delivered-unacked-msgs-per-flow
+    // -Dlanes=N to process on N lanes in parallel, in order per key (instead of -Dworkers and -Dack_coalesce):
+    // the topic, or with -Dlane_key=<name>, that user property.  The Flow is stopped while more than
+    // lane_high_watermark messages are in progress, until they're down to half that
+    private static final int LANES = Integer.getInteger("lanes", 0);
+    private static final String LANE_KEY = System.getProperty("lane_key", "topic");
+    private static final int LANE_HIGH_WATERMARK = Integer.getInteger("lane_high_watermark", 2000);
+    // -Ddedup to skip messages already seen, by application (else replication group) message ID: the last
+    // dedup_size exactly, and dedup_bloom_size more probabilistically, each for at least dedup_ttl_s seconds
+    private static final boolean DEDUP = Boolean.getBoolean("dedup");
+    private static final int DEDUP_SIZE = Integer.getInteger("dedup_size", 100_000);
+    private static final int DEDUP_BLOOM_SIZE = Integer.getInteger("dedup_bloom_size", 1_000_000);
+    private static final int DEDUP_TTL_S = Integer.getInteger("dedup_ttl_s", 300);
+    // -Dflows_max=N to consume on between flows_min and N Flows, scaled with the load (the queue must be
+    // non-exclusive), flows_per_session on each session; instead of -Dlanes, -Dworkers and -Dack_coalesce
+    private static final int FLOWS_MIN = Integer.getInteger("flows_min", 1);
+    private static final int FLOWS_MAX = Integer.getInteger("flows_max", 1);
+    private static final int FLOWS_PER_SESSION = Integer.getInteger("flows_per_session", 1);
     
-    private static volatile int msgRecvCounter = 0;                 // num messages received
+    private static final Meter msgRecvMeter = new Meter();          // num messages received, safe to mark from any thread
     private static volatile boolean hasDetectedRedelivery = false;  // detected any messages being redelivered?
     private static volatile boolean isShutdown = false;             // are we done?
     private static FlowReceiver flowQueueReceiver;
+    private static BoundedWorkExecutor workers = null;  // if -Dworkers
+    private static AckCoalescer ackCoalescer = null;    // if -Dack_coalesce
+    private static KeyedLaneConsumer lanes = null;      // if -Dlanes
+    private static DeduplicationCache dedup = null;     // if -Ddedup
+    private static ScalingConsumerGroup flowGroup = null;  // if -Dflows_max
 
     // remember to add log4j2.xml to your classpath
     private static final Logger logger = LogManager.getLogger();  // log4j2, but could also use SLF4J, JCL, etc.
@@ -71,13 +110,14 @@ public class GuaranteedSubscriber {
         channelProps.setConnectRetriesPerHost(5);  // recommended settings
         // https://docs.solace.com/Solace-PubSub-Messaging-APIs/API-Developer-Guide/Configuring-Connection-T.htm
         properties.setProperty(JCSMPProperties.CLIENT_CHANNEL_PROPERTIES, channelProps);
-        final JCSMPSession session;
-        session = JCSMPFactory.onlyInstance().createSession(properties, null, new SessionEventHandler() {
+        final SessionEventHandler sessionEventHandler = new SessionEventHandler() {
             @Override
             public void handleEvent(SessionEventArgs event) {  // could be reconnecting, connection lost, etc.
                 logger.info("### Received a Session event: " + event);
             }
-        });
+        };
+        final JCSMPSession session;
+        session = JCSMPFactory.onlyInstance().createSession(properties, null, sessionEventHandler);
         session.connect();
 
         // configure the queue API object locally
@@ -88,17 +128,51 @@ public class GuaranteedSubscriber {
         flow_prop.setAckMode(JCSMPProperties.SUPPORTED_MESSAGE_ACK_CLIENT);  // best practice
         flow_prop.setActiveFlowIndication(true);  // Flow events will advise when 
 
+        if (DEDUP) {
+            dedup = new DeduplicationCache(DEDUP_SIZE, DEDUP_BLOOM_SIZE, 0.01, DEDUP_TTL_S, TimeUnit.SECONDS);
+        }
+        final QueueFlowListener listener = new QueueFlowListener();
+        final XMLMessageListener flowListener;
+        if (FLOWS_MAX > 1) {  // each of the group's Flows processes and settles its messages itself
+            flowGroup = new ScalingConsumerGroup(session, () -> {
+                        final JCSMPSession another = JCSMPFactory.onlyInstance().createSession(properties, null, sessionEventHandler);
+                        another.connect();
+                        return another;
+                    }, flow_prop, FLOWS_MIN, FLOWS_MAX, FLOWS_PER_SESSION, msg -> listener.process(msg, -1));
+            flowGroup.setExceptionListener(listener::onException);
+            flow_prop.addRequiredSettlementOutcomes(Outcome.FAILED);  // so a failed message can be redelivered
+            flowListener = null;
+        } else if (LANES > 0) {  // the lanes process and settle the messages themselves, in parallel
+            lanes = new KeyedLaneConsumer(LANES, LANE_HIGH_WATERMARK, LANE_HIGH_WATERMARK / 2,
+                    LANE_KEY.equals("topic") ? KeyedLaneConsumer.byTopic() : KeyedLaneConsumer.byUserProperty(LANE_KEY),
+                    msg -> listener.process(msg, -1));
+            lanes.setExceptionListener(listener::onException);
+            flow_prop.addRequiredSettlementOutcomes(Outcome.FAILED);  // so a lane can have a failed message redelivered
+            flowListener = lanes;
+        } else {
+            flowListener = listener;
+        }
+        if (WORKERS > 0 && flowListener == listener) {
+            workers = new BoundedWorkExecutor(BoundedWorkExecutor.newExecutor("pool", WORKERS), MAX_UNACKED);
+        }
+        if (ACK_COALESCE && flowListener == listener) {
+            ackCoalescer = new AckCoalescer(MAX_UNACKED, ACK_MAX_BATCH, ACK_MAX_DELAY_US, TimeUnit.MICROSECONDS);
+        }
         System.out.printf("Attempting to bind to queue '%s' on the broker.%n", QUEUE_NAME);
         try {
-            // see bottom of file for QueueFlowListener class, which receives the messages from the queue
-            flowQueueReceiver = session.createFlow(new QueueFlowListener(), flow_prop, null, new FlowEventHandler() {
-                @Override
-                public void handleEvent(Object source, FlowEventArgs event) {
-                    // Flow events are usually: active, reconnecting (i.e. unbound), reconnected, active
-                    logger.info("### Received a Flow event: " + event);
-                    // try disabling and re-enabling the queue to see in action
-                }
-            });
+            if (flowGroup != null) {
+                flowGroup.start();  // binds and starts flows_min Flows
+            } else {
+                // see bottom of file for QueueFlowListener class, which receives the messages from the queue
+                flowQueueReceiver = session.createFlow(flowListener, flow_prop, null, new FlowEventHandler() {
+                    @Override
+                    public void handleEvent(Object source, FlowEventArgs event) {
+                        // Flow events are usually: active, reconnecting (i.e. unbound), reconnected, active
+                        logger.info("### Received a Flow event: " + event);
+                        // try disabling and re-enabling the queue to see in action
+                    }
+                });
+            }
         } catch (OperationNotSupportedException e) {  // not allowed to do this
             throw e;
         } catch (JCSMPErrorResponseException e) {  // something else went wrong: queue not exist, queue shutdown, etc.
@@ -112,26 +186,71 @@ public class GuaranteedSubscriber {
             System.err.println("Exiting.");
             return;
         }
+        if (lanes != null) {
+            lanes.setFlow(flowQueueReceiver);  // to stop and start it at the watermarks
+        }
         // tell the broker to start sending messages on this queue receiver
-        flowQueueReceiver.start();
+        if (flowQueueReceiver != null) {
+            flowQueueReceiver.start();
+        }
         // async queue receive working now, so time to wait until done...
         System.out.println(SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
         while (System.in.available() == 0 && !isShutdown) {
             Thread.sleep(1000);  // wait 1 second
-            System.out.printf("%s %s Received msgs/s: %,d%n",API,SAMPLE_NAME,msgRecvCounter);  // simple way of calculating message rates
-            msgRecvCounter = 0;
+            System.out.printf("%s %s Received msgs/s: %,d (1-min avg: %,.0f)%s%s%s%s%n",API,SAMPLE_NAME,
+                    msgRecvMeter.tick(), msgRecvMeter.getOneMinuteRate(),  // tick() gives the count since the last tick
+                    ackCoalescer == null ? "" : ackStats(),
+                    lanes == null ? "" : String.format(" [lanes in flight: %,d%s, depths: %s]",
+                            lanes.getInFlight(), lanes.isPaused() ? " (Flow stopped)" : "", lanes.getLaneDepths()),
+                    dedup == null ? "" : String.format(" [duplicates skipped/s: %,d, probable/s: %,d, hit rate: %.2f%%]",
+                            dedup.getDuplicates().intervalCount(), dedup.getProbableDuplicates().intervalCount(),
+                            dedup.getHitRate() * 100),
+                    flowGroup == null ? "" : String.format(" [%d Flows on %d sessions: %s]",
+                            flowGroup.getFlowCount(), flowGroup.getSessionCount(), flowGroup.getFlowRates()));
             if (hasDetectedRedelivery) {  // try shutting -> enabling the queue on the broker to see this
                 System.out.println("*** Redelivery detected ***");
                 hasDetectedRedelivery = false;  // only show the error once per second
             }
         }
         isShutdown = true;
-        flowQueueReceiver.stop();
+        if (lanes != null) {
+            lanes.setFlow(null);  // so they don't start it again as they catch up
+        }
+        if (flowGroup != null) {
+            flowGroup.close();  // stops and closes each Flow, once it's done with the message it's on
+            System.out.println(flowGroup);
+        } else {
+            flowQueueReceiver.stop();
+        }
         Thread.sleep(1000);
+        if (lanes != null) {
+            lanes.close();  // finish what's been received
+            System.out.println(lanes);
+        }
+        if (dedup != null) {
+            System.out.println(dedup);
+        }
+        if (workers != null) {
+            workers.close();  // finish what's been received
+            System.out.println(workers);
+        }
+        if (ackCoalescer != null) {
+            ackCoalescer.close();  // ACK whatever's done before the session goes
+            System.out.println(ackCoalescer);
+        }
         session.closeSession();  // will also close consumer object
         System.out.println("Main thread quitting.");
     }
 
+    /** Burst sizes and ACK delay over the last interval. */
+    private static String ackStats() {
+        final LatencyHistogram.Snapshot batches = ackCoalescer.getBatchSizes().intervalSnapshot();
+        final LatencyHistogram.Snapshot delay = ackCoalescer.getAckDelay().intervalSnapshot();
+        return String.format(" [ACK bursts: %,d, size p50=%,d p99=%,d max=%,d, delay p50=%,.0fus p99=%,.0fus, unACKed: %,d]",
+                batches.getCount(), batches.getValueAtPercentile(50), batches.getValueAtPercentile(99), batches.getMax(),
+                delay.getValueAtPercentile(50) / 1e3, delay.getValueAtPercentile(99) / 1e3, ackCoalescer.getPending());
+    }
+
     ////////////////////////////////////////////////////////////////////////////
 
     /** Very simple static inner class, used for receives messages from Queue Flows. **/
@@ -139,17 +258,52 @@ public class GuaranteedSubscriber {
 
         @Override
         public void onReceive(BytesXMLMessage msg) {
-            msgRecvCounter++;
+            msgRecvMeter.mark();
             if (msg.getRedelivered()) {  // useful check
                 // this is the broker telling the consumer that this message has been sent and not ACKed before.
                 // this can happen if an exception is thrown, or the broker restarts, or the netowrk disconnects
-                // perhaps an error in processing? Should do extra checks to avoid duplicate processing
+                // perhaps an error in processing? Should do extra checks to avoid duplicate processing (see -Ddedup)
                 hasDetectedRedelivery = true;
             }
+            // with -Dack_coalesce, messages must be registered in the order they arrive, so on this thread
+            final long ackSeq = ackCoalescer != null ? ackCoalescer.register(msg) : -1;
+            if (workers == null) {
+                process(msg, ackSeq);
+                return;
+            }
+            try {
+                workers.execute(() -> process(msg, ackSeq));  // blocks if MAX_UNACKED are being processed
+            } catch (InterruptedException e) {  // shutting down: leave it unACKed, to be redelivered
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void process(BytesXMLMessage msg, long ackSeq) {
+            if (lanes != null || flowGroup != null) {  // this isn't the Flow's listener, so this is the first look at it
+                msgRecvMeter.mark();
+                if (msg.getRedelivered()) {
+                    hasDetectedRedelivery = true;
+                }
+            }
+            final DeduplicationCache.Verdict verdict = dedup == null ? DeduplicationCache.Verdict.NEW : dedup.check(msg);
+            if (verdict == DeduplicationCache.Verdict.DUPLICATE) {
+                // seen and processed already (e.g. redelivered after its ACK was lost): skip it, but still ACK it
+            } else {
+                // for a PROBABLE_DUPLICATE, check wherever the results are stored that it isn't there already, then:
+                // ... do the actual processing/storing of the message here ...
+                // (if that fails, and it's going to be redelivered, dedup.forget() its ID)
+            }
+            if (lanes != null || flowGroup != null) {
+                return;  // the lane or group ACKs it when this returns (or has it redelivered, if this throws)
+            }
             // Messages are removed from the broker queue when the ACK is received.
             // Therefore, DO NOT ACK until all processing/storing of this message is complete.
             // NOTE that messages can be acknowledged from a different thread.
-            msg.ackMessage();  // ACKs are asynchronous
+            if (ackCoalescer != null) {
+                ackCoalescer.complete(ackSeq);  // ACKed soon, in a burst, once every earlier message is done too
+            } else {
+                msg.ackMessage();  // ACKs are asynchronous
+            }
         }
 
         @Override
@@ -159,7 +313,9 @@ public class GuaranteedSubscriber {
                 isShutdown = true;  // let's quit; or, could initiate a new connection attempt
             } else {
                 // Generally unrecoverable exception, probably need to recreate and restart the flow
-                flowQueueReceiver.close();
+                if (flowQueueReceiver != null) {  // with -Dflows_max, the group's Flows carry on
+                    flowQueueReceiver.close();
+                }
                 // add logic in main thread to restart FlowReceiver, or can exit the program
             }
         }